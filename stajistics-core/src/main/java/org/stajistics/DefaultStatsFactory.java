@@ -7,8 +7,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.stajistics.configuration.StatsConfig;
 import org.stajistics.configuration.StatsConfigBuilder;
+import org.stajistics.tracker.DefaultTrackerHandle;
 import org.stajistics.tracker.NullTracker;
 import org.stajistics.tracker.Tracker;
+import org.stajistics.tracker.TrackerHandle;
 import org.stajistics.tracker.incident.CompositeIncidentTracker;
 import org.stajistics.tracker.incident.IncidentTracker;
 import org.stajistics.tracker.manual.ManualTracker;
@@ -25,10 +27,12 @@ public class DefaultStatsFactory implements StatsFactory {
     private static final Logger logger = LoggerFactory.getLogger(DefaultStatsFactory.class);
 
     protected final StatsManager statsManager;
+    protected final StatsEnablement enablement;
 
     public DefaultStatsFactory(final StatsManager statsManager) {
         assertNotNull(statsManager, "statsManager");
         this.statsManager = statsManager;
+        this.enablement = statsManager.getEnablement();
     }
 
     @Override
@@ -38,7 +42,7 @@ public class DefaultStatsFactory implements StatsFactory {
 
     @Override
     public boolean isEnabled() {
-        return statsManager.isEnabled();
+        return enablement.isEnabled();
     }
 
     @SuppressWarnings("unchecked")
@@ -48,7 +52,7 @@ public class DefaultStatsFactory implements StatsFactory {
         try {
             assertNotNull(key, "key");
 
-            if (statsManager.isEnabled()) {
+            if (enablement.isEnabled(key.getName())) {
                 StatsConfig config = statsManager.getConfigManager().getOrCreateConfig(key/*, expectedTrackerType*/);
                 if (config.isEnabled()) {
                     result = config.getTrackerFactory()
@@ -122,6 +126,9 @@ public class DefaultStatsFactory implements StatsFactory {
 
     @Override
     public SpanTracker getSpanTracker(final String keyName) {
+        if (!enablement.isEnabled(keyName)) {
+            return NullTracker.getInstance();
+        }
         return getTracker(SpanTracker.class, newKey(keyName));
     }
 
@@ -137,6 +144,9 @@ public class DefaultStatsFactory implements StatsFactory {
 
     @Override
     public SpanTracker track(final String keyName) {
+        if (!enablement.isEnabled(keyName)) {
+            return NullTracker.getInstance();
+        }
         return getTracker(SpanTracker.class, newKey(keyName)).track();
     }
 
@@ -153,6 +163,9 @@ public class DefaultStatsFactory implements StatsFactory {
 
     @Override
     public IncidentTracker getIncidentTracker(final String keyName) {
+        if (!enablement.isEnabled(keyName)) {
+            return NullTracker.getInstance();
+        }
         return getTracker(IncidentTracker.class, newKey(keyName));
     }
 
@@ -163,6 +176,9 @@ public class DefaultStatsFactory implements StatsFactory {
 
     @Override
     public void incident(final String keyName) {
+        if (!enablement.isEnabled(keyName)) {
+            return;
+        }
         getTracker(IncidentTracker.class, newKey(keyName)).incident();
     }
 
@@ -179,11 +195,17 @@ public class DefaultStatsFactory implements StatsFactory {
     @Override
     public void failure(final Throwable failure,
                         final String keyName) {
+        if (!enablement.isEnabled(keyName)) {
+            return;
+        }
         getIncidentTracker(StatsKeyUtil.keyForFailure(newKey(keyName), failure)).incident();
     }
 
     @Override
     public void failure(final Throwable failure, final StatsKey key) {
+        if (key != null && !enablement.isEnabled(key.getName())) {
+            return;
+        }
         getIncidentTracker(StatsKeyUtil.keyForFailure(key, failure)).incident();
     }
 
@@ -204,6 +226,9 @@ public class DefaultStatsFactory implements StatsFactory {
 
     @Override
     public ManualTracker getManualTracker(final String keyName) {
+        if (!enablement.isEnabled(keyName)) {
+            return NullTracker.getInstance();
+        }
         return getTracker(ManualTracker.class, newKey(keyName));
     }
 
@@ -212,6 +237,21 @@ public class DefaultStatsFactory implements StatsFactory {
         return getTracker(ManualTracker.class, key);
     }
 
+    @Override
+    public TrackerHandle<SpanTracker> getSpanTrackerHandle(final StatsKey key) {
+        return new DefaultTrackerHandle<SpanTracker>(statsManager, SpanTracker.class, key);
+    }
+
+    @Override
+    public TrackerHandle<IncidentTracker> getIncidentTrackerHandle(final StatsKey key) {
+        return new DefaultTrackerHandle<IncidentTracker>(statsManager, IncidentTracker.class, key);
+    }
+
+    @Override
+    public TrackerHandle<ManualTracker> getManualTrackerHandle(final StatsKey key) {
+        return new DefaultTrackerHandle<ManualTracker>(statsManager, ManualTracker.class, key);
+    }
+
     @Override
     public StatsKey newKey(final String name) {
         try {
@@ -21,12 +21,48 @@ import static org.stajistics.Util.assertNotNull;
  * The default implementation of {@link StatsKeyFactory}. Do not
  * instantiate this class directly. Instead use {@link StatsManager#getKeyFactory()}.
  *
+ * <p>When the <tt>org.stajistics.DefaultStatsKeyFactory.internKeys</tt> property is
+ * <tt>true</tt>, keys created by this factory and by its builders are interned in a
+ * {@link StatsKeyPool} of at most <tt>org.stajistics.DefaultStatsKeyFactory.internPoolSize</tt>
+ * keys, so that building an equal key again returns the same instance. The pool is not
+ * serialized; a deserialized factory creates keys without interning.</p>
+ *
  * @author The Stajistics Project
  */
 public class DefaultStatsKeyFactory implements StatsKeyFactory {
 
+    public static final String PROP_INTERN_KEYS = DefaultStatsKeyFactory.class.getName() + ".internKeys";
+    public static final String PROP_INTERN_POOL_SIZE = DefaultStatsKeyFactory.class.getName() + ".internPoolSize";
+
     private String namespace;
 
+    private final transient StatsKeyPool keyPool;
+
+    public DefaultStatsKeyFactory() {
+        this(StatsProperties.getBooleanProperty(PROP_INTERN_KEYS, false) ?
+             new StatsKeyPool(StatsProperties.getIntegerProperty(PROP_INTERN_POOL_SIZE,
+                                                                 StatsKeyPool.DEFAULT_MAX_SIZE)) :
+             null);
+    }
+
+    /**
+     * Create a new instance which interns created keys in the given <tt>keyPool</tt>.
+     *
+     * @param keyPool The pool of canonical keys, or <tt>null</tt> to disable interning.
+     */
+    public DefaultStatsKeyFactory(final StatsKeyPool keyPool) {
+        this.keyPool = keyPool;
+    }
+
+    /**
+     * Obtain the pool in which created keys are interned.
+     *
+     * @return The {@link StatsKeyPool}, or <tt>null</tt> if keys are not interned.
+     */
+    public StatsKeyPool getKeyPool() {
+        return keyPool;
+    }
+
     @Override
     public String getNamespace() {
         return namespace;
@@ -40,17 +76,54 @@ public class DefaultStatsKeyFactory implements StatsKeyFactory {
 
     @Override
     public StatsKey createKey(final String name) {
-        return new SimpleStatsKey(namespace, name, this);
+        final StatsKey key = new SimpleStatsKey(namespace, name, this);
+        if (keyPool != null) {
+            return keyPool.intern(key);
+        }
+        return key;
     }
 
     @Override
     public StatsKeyBuilder createKeyBuilder(final String name) {
+        if (keyPool != null) {
+            return new InterningStatsKeyBuilder(namespace, name, this, keyPool);
+        }
         return new DefaultStatsKeyBuilder(namespace, name, this);
     }
 
     @Override
     public StatsKeyBuilder createKeyBuilder(final StatsKey template) {
+        if (keyPool != null) {
+            return new InterningStatsKeyBuilder(template, this, keyPool);
+        }
         return new DefaultStatsKeyBuilder(template, this);
     }
 
+    /* NESTED CLASSES */
+
+    private static final class InterningStatsKeyBuilder extends DefaultStatsKeyBuilder {
+
+        private final StatsKeyPool keyPool;
+
+        InterningStatsKeyBuilder(final String namespace,
+                                 final String name,
+                                 final StatsKeyFactory keyFactory,
+                                 final StatsKeyPool keyPool) {
+            super(namespace, name, keyFactory);
+            this.keyPool = keyPool;
+        }
+
+        InterningStatsKeyBuilder(final StatsKey template,
+                                 final StatsKeyFactory keyFactory,
+                                 final StatsKeyPool keyPool) {
+            super(template, keyFactory);
+            this.keyPool = keyPool;
+        }
+
+        @Override
+        public StatsKey newKey() {
+            return keyPool.intern(super.newKey());
+        }
+    }
+
 }
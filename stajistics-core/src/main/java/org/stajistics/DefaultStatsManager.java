@@ -38,7 +38,7 @@ import org.stajistics.util.ServiceLifeCycle;
  */
 public class DefaultStatsManager implements StatsManager {
 
-    private volatile boolean enabled = true;
+    private final StatsEnablement enablement = new StatsEnablement();
     private volatile UncaughtExceptionHandler uncaughtExceptionHandler = NullUncaughtExceptionHandler.getInstance();
 
     protected String namespace;
@@ -172,12 +172,17 @@ public class DefaultStatsManager implements StatsManager {
 
     @Override
     public boolean isEnabled() {
-        return enabled;
+        return enablement.isEnabled();
     }
 
     @Override
     public void setEnabled(final boolean enabled) {
-        this.enabled = enabled;
+        enablement.setEnabled(enabled);
+    }
+
+    @Override
+    public StatsEnablement getEnablement() {
+        return enablement;
     }
 
     @Override
@@ -0,0 +1,159 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics;
+
+import static org.stajistics.Util.assertNotNull;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.stajistics.util.ThreadSafe;
+
+/**
+ * <p>The enablement mask of a {@link StatsManager}: a switch for the whole namespace
+ * plus a set of disabled key name prefixes. A prefix disables the key of that name and
+ * every key below it in the hierarchy, so <tt>"db"</tt> disables <tt>"db"</tt> and
+ * <tt>"db.query"</tt>, but not <tt>"dbx"</tt>.</p>
+ *
+ * <p>The mask is an immutable snapshot held in one volatile field, so checking it costs a
+ * single volatile read when no prefixes are disabled, and allocates nothing in any case.
+ * It is intended to be checked by call sites before keys are built, as
+ * {@link DefaultStatsFactory} does for the methods that take a key name.</p>
+ *
+ * @author The Stajistics Project
+ */
+@ThreadSafe
+public final class StatsEnablement implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] NO_PREFIXES = new String[0];
+
+    private volatile Mask mask = new Mask(true, NO_PREFIXES);
+
+    /**
+     * Determine if statistics collection is enabled for the namespace.
+     *
+     * @return <tt>true</tt> if enabled, <tt>false</tt> otherwise.
+     */
+    public boolean isEnabled() {
+        return mask.enabled;
+    }
+
+    /**
+     * Determine if statistics collection is enabled for keys with the given <tt>keyName</tt>.
+     *
+     * @param keyName The key name to check. May be <tt>null</tt>.
+     * @return <tt>true</tt> if the namespace is enabled and no prefix of <tt>keyName</tt>
+     *         is disabled, <tt>false</tt> otherwise.
+     */
+    public boolean isEnabled(final String keyName) {
+        final Mask mask = this.mask;
+
+        if (!mask.enabled) {
+            return false;
+        }
+
+        final String[] disabledPrefixes = mask.disabledPrefixes;
+        if (disabledPrefixes.length == 0 || keyName == null) {
+            return true;
+        }
+
+        for (String prefix : disabledPrefixes) {
+            if (keyName.startsWith(prefix)) {
+                final int prefixLength = prefix.length();
+                if (keyName.length() == prefixLength ||
+                        keyName.charAt(prefixLength) == StatsConstants.KEY_HIERARCHY_DELIMITER) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    public synchronized void setEnabled(final boolean enabled) {
+        mask = new Mask(enabled, mask.disabledPrefixes);
+    }
+
+    /**
+     * Disable statistics collection for keys named <tt>keyNamePrefix</tt> and all keys
+     * below it in the key hierarchy.
+     *
+     * @param keyNamePrefix The key name prefix to disable. Must not be <tt>null</tt>.
+     */
+    public synchronized void disable(final String keyNamePrefix) {
+        assertNotNull(keyNamePrefix, "keyNamePrefix");
+
+        final String[] disabledPrefixes = mask.disabledPrefixes;
+        if (Arrays.asList(disabledPrefixes).contains(keyNamePrefix)) {
+            return;
+        }
+
+        final String[] newPrefixes = Arrays.copyOf(disabledPrefixes, disabledPrefixes.length + 1);
+        newPrefixes[disabledPrefixes.length] = keyNamePrefix;
+
+        mask = new Mask(mask.enabled, newPrefixes);
+    }
+
+    /**
+     * Remove a key name prefix previously passed to {@link #disable(String)}.
+     *
+     * @param keyNamePrefix The key name prefix to enable. Must not be <tt>null</tt>.
+     */
+    public synchronized void enable(final String keyNamePrefix) {
+        assertNotNull(keyNamePrefix, "keyNamePrefix");
+
+        final List<String> prefixes = new ArrayList<String>(Arrays.asList(mask.disabledPrefixes));
+        if (prefixes.remove(keyNamePrefix)) {
+            mask = new Mask(mask.enabled, prefixes.toArray(new String[prefixes.size()]));
+        }
+    }
+
+    /**
+     * Obtain the disabled key name prefixes.
+     *
+     * @return An unmodifiable List of prefixes, never <tt>null</tt>.
+     */
+    public List<String> getDisabledPrefixes() {
+        return Collections.unmodifiableList(Arrays.asList(mask.disabledPrefixes));
+    }
+
+    @Override
+    public String toString() {
+        final Mask mask = this.mask;
+        return getClass().getSimpleName() +
+               "[enabled=" + mask.enabled +
+               ",disabledPrefixes=" + Arrays.toString(mask.disabledPrefixes) + ']';
+    }
+
+    /* NESTED CLASSES */
+
+    private static final class Mask implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final boolean enabled;
+        final String[] disabledPrefixes;
+
+        Mask(final boolean enabled, final String[] disabledPrefixes) {
+            this.enabled = enabled;
+            this.disabledPrefixes = disabledPrefixes;
+        }
+    }
+}
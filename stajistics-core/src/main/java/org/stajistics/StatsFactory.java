@@ -9,6 +9,7 @@ import org.stajistics.configuration.StatsConfig;
 import org.stajistics.configuration.StatsConfigBuilder;
 import org.stajistics.tracker.NullTracker;
 import org.stajistics.tracker.Tracker;
+import org.stajistics.tracker.TrackerHandle;
 import org.stajistics.tracker.incident.CompositeIncidentTracker;
 import org.stajistics.tracker.incident.IncidentTracker;
 import org.stajistics.tracker.manual.ManualTracker;
@@ -206,6 +207,36 @@ public interface StatsFactory {
      */
     ManualTracker getManualTracker(StatsKey key);
 
+    /**
+     * Obtain a {@link TrackerHandle} for the given <tt>key</tt> from which
+     * {@link SpanTracker}s can be obtained without resolving the configuration and
+     * session of the key on each call.
+     *
+     * @param key The {@link StatsKey} to which the handle is bound.
+     * @return A {@link TrackerHandle} instance, never <tt>null</tt>.
+     */
+    TrackerHandle<SpanTracker> getSpanTrackerHandle(StatsKey key);
+
+    /**
+     * Obtain a {@link TrackerHandle} for the given <tt>key</tt> from which
+     * {@link IncidentTracker}s can be obtained without resolving the configuration and
+     * session of the key on each call.
+     *
+     * @param key The {@link StatsKey} to which the handle is bound.
+     * @return A {@link TrackerHandle} instance, never <tt>null</tt>.
+     */
+    TrackerHandle<IncidentTracker> getIncidentTrackerHandle(StatsKey key);
+
+    /**
+     * Obtain a {@link TrackerHandle} for the given <tt>key</tt> from which
+     * {@link ManualTracker}s can be obtained without resolving the configuration and
+     * session of the key on each call.
+     *
+     * @param key The {@link StatsKey} to which the handle is bound.
+     * @return A {@link TrackerHandle} instance, never <tt>null</tt>.
+     */
+    TrackerHandle<ManualTracker> getManualTrackerHandle(StatsKey key);
+
     /**
      * Create a new {@link StatsKey} from the given <tt>name</tt>.
      *
@@ -0,0 +1,168 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.stajistics.util.ThreadSafe;
+
+/**
+ * A bounded pool of canonical {@link StatsKey} instances. {@link #intern(StatsKey)}
+ * returns the pooled instance equal to the given key, so that equal keys built
+ * repeatedly resolve to the same instance and compare through the <tt>==</tt> check
+ * of {@link AbstractStatsKey#equals(Object)}.
+ *
+ * <p>Pooled keys are weakly referenced, so a key that is no longer referenced
+ * elsewhere, for example because its session was evicted, is dropped from the pool
+ * and makes room for another. While the pool holds <tt>maxSize</tt> keys that are still
+ * in use, further keys are returned as given rather than pooled, which keeps keys with
+ * unbounded attribute values from growing the pool without limit.</p>
+ *
+ * @see DefaultStatsKeyFactory
+ *
+ * @author The Stajistics Project
+ */
+@ThreadSafe
+public class StatsKeyPool {
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private final int maxSize;
+
+    private final ConcurrentMap<KeyRef,KeyRef> keyMap = new ConcurrentHashMap<KeyRef,KeyRef>();
+    private final ReferenceQueue<StatsKey> collectedKeys = new ReferenceQueue<StatsKey>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    public StatsKeyPool() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public StatsKeyPool(final int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must be >= 0: " + maxSize);
+        }
+
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Obtain the canonical instance of the given <tt>key</tt>.
+     *
+     * @param key The key to intern. Must not be <tt>null</tt>.
+     * @return The pooled key equal to <tt>key</tt>, or <tt>key</tt> itself if it
+     *         was added to the pool or the pool is full.
+     */
+    public StatsKey intern(final StatsKey key) {
+        purgeCollectedKeys();
+
+        for (;;) {
+            KeyRef ref = keyMap.get(new KeyRef(key, null));
+            if (ref == null) {
+                if (size.get() >= maxSize) {
+                    return key;
+                }
+
+                final KeyRef newRef = new KeyRef(key, collectedKeys);
+                ref = keyMap.putIfAbsent(newRef, newRef);
+                if (ref == null) {
+                    size.incrementAndGet();
+                    return key;
+                }
+            }
+
+            final StatsKey canonicalKey = ref.get();
+            if (canonicalKey != null) {
+                return canonicalKey;
+            }
+
+            // Collected since it was matched, so it will be purged; try again
+            if (keyMap.remove(ref, ref)) {
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    private void purgeCollectedKeys() {
+        Reference<? extends StatsKey> ref;
+        while ((ref = collectedKeys.poll()) != null) {
+            if (keyMap.remove(ref) != null) {
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Obtain the number of keys in the pool.
+     *
+     * @return The pool size, at most {@link #getMaxSize()} plus the number of
+     *         threads concurrently interning. It may include keys that have been
+     *         garbage collected but not yet purged.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Remove all keys from the pool. Keys interned before this call remain valid,
+     * but are no longer returned for equal keys interned after it.
+     */
+    public void clear() {
+        keyMap.clear();
+        size.set(0);
+    }
+
+    /* NESTED CLASSES */
+
+    /**
+     * A weak reference to a pooled key, equal to any reference to an equal key.
+     * A reference whose key has been collected is only equal to itself.
+     */
+    private static final class KeyRef extends WeakReference<StatsKey> {
+
+        private final int hash;
+
+        KeyRef(final StatsKey key, final ReferenceQueue<StatsKey> queue) {
+            super(key, queue);
+            hash = key.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof KeyRef)) {
+                return false;
+            }
+
+            final StatsKey key = get();
+            return key != null && key.equals(((KeyRef) obj).get());
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics;
+
+import static org.stajistics.Util.assertNotNull;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import org.stajistics.tracker.TrackerHandle;
+import org.stajistics.tracker.span.SpanTracker;
+import org.stajistics.util.ThreadSafe;
+
+/**
+ * <p>A precompiled form of keys that differ only in the value of one attribute, such
+ * as <tt>name{method=&lt;runtime value&gt;}</tt>. The concrete key for each value is built
+ * once and cached, so {@link #withValue(String)} for a value seen before costs a single
+ * map lookup rather than a {@link StatsKeyBuilder}, an attribute Map and a new key.
+ * {@link #track(String)} additionally caches a {@link TrackerHandle} per value, which
+ * keeps the configuration and session of the concrete key resolved.</p>
+ *
+ * <p>At most <tt>maxValues</tt> values are cached. Once the cache is full, caching a
+ * further value evicts the value that was cached first, and releases its tracker handle,
+ * so values that are no longer used make room for new ones.</p>
+ *
+ * @author The Stajistics Project
+ */
+@ThreadSafe
+public class StatsKeyTemplate {
+
+    public static final int DEFAULT_MAX_VALUES = 1000;
+
+    private final StatsFactory factory;
+    private final StatsKey key;
+    private final String attrName;
+    private final int maxValues;
+
+    private final Cache<StatsKey> keyCache;
+    private final Cache<TrackerHandle<SpanTracker>> spanTrackerHandleCache;
+
+    /**
+     * Create a new instance.
+     *
+     * @param factory The factory used to obtain trackers. Must not be <tt>null</tt>.
+     * @param key The key from which concrete keys are copied, holding the name and any fixed
+     *            attributes. Must not be <tt>null</tt>.
+     * @param attrName The name of the attribute whose value varies. Must not be <tt>null</tt>.
+     */
+    public StatsKeyTemplate(final StatsFactory factory,
+                            final StatsKey key,
+                            final String attrName) {
+        this(factory, key, attrName, DEFAULT_MAX_VALUES);
+    }
+
+    public StatsKeyTemplate(final StatsFactory factory,
+                            final StatsKey key,
+                            final String attrName,
+                            final int maxValues) {
+        assertNotNull(factory, "factory");
+        assertNotNull(key, "key");
+        assertNotNull(attrName, "attrName");
+        if (maxValues < 0) {
+            throw new IllegalArgumentException("maxValues must be >= 0: " + maxValues);
+        }
+
+        this.factory = factory;
+        this.key = key;
+        this.attrName = attrName;
+        this.maxValues = maxValues;
+
+        keyCache = new Cache<StatsKey>(maxValues);
+        spanTrackerHandleCache = new Cache<TrackerHandle<SpanTracker>>(maxValues) {
+            @Override
+            protected void evicted(final TrackerHandle<SpanTracker> handle) {
+                handle.release();
+            }
+        };
+    }
+
+    public StatsKey getKey() {
+        return key;
+    }
+
+    public String getAttributeName() {
+        return attrName;
+    }
+
+    public StatsKey withValue(final String value) {
+        return getKey(value);
+    }
+
+    public StatsKey withValue(final Boolean value) {
+        return getKey(value);
+    }
+
+    public StatsKey withValue(final Integer value) {
+        return getKey(value);
+    }
+
+    public StatsKey withValue(final Long value) {
+        return getKey(value);
+    }
+
+    /**
+     * Obtain a {@link TrackerHandle} for the key with the given attribute <tt>value</tt>.
+     *
+     * @param value The attribute value.
+     * @return A {@link TrackerHandle}, never <tt>null</tt>.
+     */
+    public TrackerHandle<SpanTracker> getSpanTrackerHandle(final String value) {
+        if (value == null) {
+            return new UncachedSpanTrackerHandle(factory, getKey(null));
+        }
+
+        TrackerHandle<SpanTracker> handle = spanTrackerHandleCache.get(value);
+        if (handle == null) {
+            final StatsKey valueKey = getKey(value);
+
+            if (maxValues == 0) {
+                return new UncachedSpanTrackerHandle(factory, valueKey);
+            }
+
+            handle = factory.getSpanTrackerHandle(valueKey);
+            TrackerHandle<SpanTracker> existingHandle = spanTrackerHandleCache.putIfAbsent(value, handle);
+            if (existingHandle != null) {
+                handle.release();
+                handle = existingHandle;
+            }
+        }
+
+        return handle;
+    }
+
+    /**
+     * Start tracking the key with the given attribute <tt>value</tt>.
+     *
+     * @param value The attribute value.
+     * @return The started {@link SpanTracker}, never <tt>null</tt>.
+     *
+     * @see StatsFactory#track(StatsKey)
+     */
+    public SpanTracker track(final String value) {
+        return getSpanTrackerHandle(value).getTracker().track();
+    }
+
+    /**
+     * Remove all cached keys, and remove and release all cached tracker handles.
+     */
+    public void clear() {
+        keyCache.clear();
+        spanTrackerHandleCache.clear();
+    }
+
+    private StatsKey getKey(final Object value) {
+        if (value == null) {
+            return newKey(null);
+        }
+
+        StatsKey valueKey = keyCache.get(value);
+        if (valueKey == null) {
+            valueKey = newKey(value);
+
+            if (maxValues > 0) {
+                StatsKey existingKey = keyCache.putIfAbsent(value, valueKey);
+                if (existingKey != null) {
+                    valueKey = existingKey;
+                }
+            }
+        }
+
+        return valueKey;
+    }
+
+    private StatsKey newKey(final Object value) {
+        final StatsKeyBuilder builder = key.buildCopy();
+
+        if (value instanceof Integer) {
+            builder.withAttribute(attrName, (Integer)value);
+        } else if (value instanceof Long) {
+            builder.withAttribute(attrName, (Long)value);
+        } else if (value instanceof Boolean) {
+            builder.withAttribute(attrName, (Boolean)value);
+        } else {
+            builder.withAttribute(attrName, (String)value);
+        }
+
+        return builder.newKey();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[key=" + key + ",attrName=" + attrName + ']';
+    }
+
+    /* NESTED CLASSES */
+
+    /**
+     * A map of at most <tt>maxSize</tt> entries that evicts in insertion order.
+     */
+    private static class Cache<V> {
+
+        private final ConcurrentMap<Object,V> map = new ConcurrentHashMap<Object,V>();
+        private final Queue<Object> insertionOrder = new ConcurrentLinkedQueue<Object>();
+        private final int maxSize;
+
+        Cache(final int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        V get(final Object key) {
+            return map.get(key);
+        }
+
+        /**
+         * @return The value already cached for <tt>key</tt>, or <tt>null</tt> if
+         *         <tt>value</tt> was cached.
+         */
+        V putIfAbsent(final Object key, final V value) {
+            while (map.size() >= maxSize) {
+                Object oldestKey = insertionOrder.poll();
+                if (oldestKey == null) {
+                    break;
+                }
+                V oldestValue = map.remove(oldestKey);
+                if (oldestValue != null) {
+                    evicted(oldestValue);
+                }
+            }
+
+            V existingValue = map.putIfAbsent(key, value);
+            if (existingValue == null) {
+                insertionOrder.offer(key);
+            }
+            return existingValue;
+        }
+
+        void clear() {
+            insertionOrder.clear();
+            for (Map.Entry<Object,V> entry : map.entrySet()) {
+                if (map.remove(entry.getKey(), entry.getValue())) {
+                    evicted(entry.getValue());
+                }
+            }
+        }
+
+        protected void evicted(final V value) {}
+    }
+
+    /**
+     * Used when handles are not cached at all, so that no event handlers are registered
+     * for handles that are not kept.
+     */
+    private static final class UncachedSpanTrackerHandle implements TrackerHandle<SpanTracker> {
+
+        private final StatsFactory factory;
+        private final StatsKey key;
+
+        UncachedSpanTrackerHandle(final StatsFactory factory, final StatsKey key) {
+            this.factory = factory;
+            this.key = key;
+        }
+
+        @Override
+        public StatsKey getKey() {
+            return key;
+        }
+
+        @Override
+        public SpanTracker getTracker() {
+            return factory.getSpanTracker(key);
+        }
+
+        @Override
+        public void invalidate() {}
+
+        @Override
+        public void release() {}
+    }
+}
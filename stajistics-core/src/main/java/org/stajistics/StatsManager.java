@@ -86,6 +86,15 @@ public interface StatsManager extends Serializable,ServiceLifeCycle {
      */
     void setEnabled(boolean enabled);
 
+    /**
+     * Obtain the enablement mask of this manager, through which statistics collection can
+     * also be disabled for individual key name prefixes. {@link #isEnabled()} and
+     * {@link #setEnabled(boolean)} read and write the namespace switch of this mask.
+     *
+     * @return The {@link StatsEnablement}, never <tt>null</tt>.
+     */
+    StatsEnablement getEnablement();
+
     /**
      * Initialize sub-components and fire initialization events. Clients do not need to call this method.
      * Called internally as part of instance creation by a {@link org.stajistics.bootstrap.StatsManagerFactory}.
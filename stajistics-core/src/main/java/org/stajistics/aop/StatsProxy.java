@@ -25,6 +25,7 @@ import org.stajistics.Stats;
 import org.stajistics.StatsConstants;
 import org.stajistics.StatsFactory;
 import org.stajistics.StatsKey;
+import org.stajistics.StatsKeyTemplate;
 import org.stajistics.tracker.span.SpanTracker;
 
 /**
@@ -51,6 +52,8 @@ public class StatsProxy implements InvocationHandler {
     protected final StatsKey key;
     protected final Object target;
 
+    protected final StatsKeyTemplate methodKeyTemplate;
+
     protected StatsProxy(final StatsFactory factory,
                          final StatsKey key,
                          final Object target) {
@@ -65,6 +68,8 @@ public class StatsProxy implements InvocationHandler {
 
         this.key = key;
         this.target = target;
+
+        methodKeyTemplate = new StatsKeyTemplate(this.factory, key, ATTR_METHOD);
     }
 
     /**
@@ -157,9 +162,7 @@ public class StatsProxy implements InvocationHandler {
             return target.equals(unwrap(args[0]));
         }
 
-        StatsKey methodKey = key.buildCopy()
-                                .withAttribute(ATTR_METHOD, getMethodString(method))
-                                .newKey();
+        StatsKey methodKey = methodKeyTemplate.withValue(getMethodString(method));
 
         try {
             final SpanTracker tracker = factory.track(methodKey);
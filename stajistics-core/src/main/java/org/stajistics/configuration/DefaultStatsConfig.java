@@ -38,6 +38,8 @@ public class DefaultStatsConfig implements StatsConfig {
     private final String unit;
     private final String description;
 
+    private final int maxSubKeys;
+
     /**
      * Construct a new instance supplying template configuration to copy.
      *
@@ -49,7 +51,8 @@ public class DefaultStatsConfig implements StatsConfig {
              template.getSessionFactory(),
              template.getDataRecorderFactory(),
              template.getUnit(),
-             template.getDescription());
+             template.getDescription(),
+             template.getMaxSubKeys());
     }
 
     /**
@@ -72,10 +75,45 @@ public class DefaultStatsConfig implements StatsConfig {
                               final DataRecorderFactory dataRecorderFactory,
                               final String unit,
                               final String description) {
+        this(enabled,
+             trackerFactory,
+             sessionFactory,
+             dataRecorderFactory,
+             unit,
+             description,
+             Integer.MAX_VALUE);
+    }
+
+    /**
+     * Construct a new instance supplying the configuration values.
+     *
+     * @param enabled The return value of {@link #isEnabled()}.
+     * @param trackerFactory The return value of {@link #getTrackerFactory()}.
+     * @param sessionFactory The return value of {@link #getSessionFactory()}.
+     * @param dataRecorderFactory The return value of {@link #getDataRecorderFactory()}.
+     * @param unit The return value of {@link #getUnit()}.
+     * @param description The return value of {@link #getDescription()}. May be <tt>null</tt>.
+     * @param maxSubKeys The return value of {@link #getMaxSubKeys()}.
+     *
+     * @throws NullPointerException If <tt>enabled</tt>, <tt>trackerFactory</tt>,
+     *         <tt>sessionFactory</tt>, <tt>dataRecorderFactory</tt>, or <tt>unit</tt> are <tt>null</tt>.
+     * @throws IllegalArgumentException If <tt>unit</tt> is zero length or <tt>maxSubKeys</tt>
+     *         is less than 1.
+     */
+    public DefaultStatsConfig(final boolean enabled,
+                              final TrackerFactory<?> trackerFactory,
+                              final StatsSessionFactory sessionFactory,
+                              final DataRecorderFactory dataRecorderFactory,
+                              final String unit,
+                              final String description,
+                              final int maxSubKeys) {
         assertNotNull(trackerFactory, "trackerFactory");
         assertNotNull(sessionFactory, "sessionFactory");
         assertNotNull(dataRecorderFactory, "dataRecorderFactory");
         assertNotEmpty(unit, "unit");
+        if (maxSubKeys < 1) {
+            throw new IllegalArgumentException("maxSubKeys must be > 0: " + maxSubKeys);
+        }
 
         this.enabled = enabled;
         this.trackerFactory = trackerFactory;
@@ -83,6 +121,7 @@ public class DefaultStatsConfig implements StatsConfig {
         this.dataRecorderFactory = dataRecorderFactory;
         this.unit = unit;
         this.description = description;
+        this.maxSubKeys = maxSubKeys;
     }
 
     @Override
@@ -95,6 +134,11 @@ public class DefaultStatsConfig implements StatsConfig {
         return description;
     }
 
+    @Override
+    public int getMaxSubKeys() {
+        return maxSubKeys;
+    }
+
     @Override
     public boolean isEnabled() {
         return enabled;
@@ -140,6 +184,9 @@ public class DefaultStatsConfig implements StatsConfig {
         if (!Util.equalsNullAware(description, other.getDescription())) {
             return false;
         }
+        if (maxSubKeys != other.getMaxSubKeys()) {
+            return false;
+        }
 
         return true;
     }
@@ -150,7 +197,8 @@ public class DefaultStatsConfig implements StatsConfig {
                31 * trackerFactory.hashCode() +
                31 * sessionFactory.hashCode() +
                31 * unit.hashCode() +
-               ((description == null) ? 0 : 31 * description.hashCode());
+               ((description == null) ? 0 : 31 * description.hashCode()) +
+               31 * maxSubKeys;
     }
 
     @Override
@@ -168,6 +216,8 @@ public class DefaultStatsConfig implements StatsConfig {
         buf.append(unit);
         buf.append(",description=");
         buf.append(description);
+        buf.append(",maxSubKeys=");
+        buf.append(maxSubKeys);
         buf.append(']');
 
         return buf.toString();
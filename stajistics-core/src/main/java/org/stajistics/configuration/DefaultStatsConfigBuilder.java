@@ -43,6 +43,7 @@ public class DefaultStatsConfigBuilder implements StatsConfigBuilder {
     protected DataRecorderFactory dataRecorderFactory;
     protected String unit;
     protected String description;
+    protected int maxSubKeys = Integer.MAX_VALUE;
 
     /**
      * Create a new instance.
@@ -77,6 +78,7 @@ public class DefaultStatsConfigBuilder implements StatsConfigBuilder {
             dataRecorderFactory = config.getDataRecorderFactory();
             unit = config.getUnit();
             description = config.getDescription();
+            maxSubKeys = config.getMaxSubKeys();
         }
     }
 
@@ -120,6 +122,15 @@ public class DefaultStatsConfigBuilder implements StatsConfigBuilder {
         return this;
     }
 
+    @Override
+    public StatsConfigBuilder withMaxSubKeys(final int maxSubKeys) {
+        if (maxSubKeys < 1) {
+            throw new IllegalArgumentException("maxSubKeys must be > 0: " + maxSubKeys);
+        }
+        this.maxSubKeys = maxSubKeys;
+        return this;
+    }
+
     /**
      * A factory method for getting the default {@link TrackerFactory}.
      *
@@ -182,7 +193,8 @@ public class DefaultStatsConfigBuilder implements StatsConfigBuilder {
                                       sessionFactory,
                                       dataRecorderFactory,
                                       unit,
-                                      this.description);
+                                      this.description,
+                                      maxSubKeys);
     }
 
     @Override
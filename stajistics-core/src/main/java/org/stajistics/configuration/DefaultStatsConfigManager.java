@@ -25,7 +25,6 @@ import org.stajistics.StatsKey;
 import org.stajistics.StatsKeyAssociation;
 import org.stajistics.StatsKeyFactory;
 import org.stajistics.StatsKeyMatcher;
-import org.stajistics.StatsKeyUtil;
 import org.stajistics.StatsProperties;
 import org.stajistics.event.EventManager;
 import org.stajistics.event.EventType;
@@ -38,6 +37,12 @@ import org.stajistics.util.ServiceLifeCycle;
  * The default implementation of {@link org.stajistics.configuration.StatsConfigManager}. Clients typically do not instantiate
  * this class directly. Instead use {@link org.stajistics.Stats#getConfigManager()}.
  *
+ * <p>Entries form a trie keyed by the key name segments between
+ * {@link StatsConstants#KEY_HIERARCHY_DELIMITER}s, and are also indexed by full key name for
+ * lookups. Entries that only inherit configuration, as created by {@link #getOrCreateConfig(StatsKey)},
+ * are linked into the trie without locking, so bursts of new keys do not contend with each other.
+ * Setting, changing and removing configuration is serialized.</p>
+ *
  * @author The Stajistics Project
  */
 public class DefaultStatsConfigManager implements StatsConfigManager {
@@ -200,14 +205,29 @@ public class DefaultStatsConfigManager implements StatsConfigManager {
         assertNotNull(key, "key");
         updateLock.lock();
 
-        KeyEntry entry = entryFor(key);
-        if (entry == null) {
-            createEntry(key, config, true, true);
+        LinkedList<KeyEntry> newEntries = null;
+        KeyEntry entry;
+        try {
+            entry = entryFor(key);
+            if (entry == null) {
+                newEntries = new LinkedList<KeyEntry>();
+                entry = createEntry(key, config, newEntries);
+            }
+        } catch (RuntimeException e) {
+            updateLock.unlock();
+            throw e;
+        }
+
+        if (newEntries != null && !newEntries.isEmpty() && newEntries.getLast() == entry) {
+            updateLock.unlock();
         } else {
+            // The entry either existed, or was created concurrently by getOrCreateConfig()
             updateEntry(entry, config, true);
         }
 
-        // updateLock is unlock()ed by createEntry or updateEntry (before events are fired)
+        // updateLock is unlock()ed above or by updateEntry (before events are fired)
+
+        fireConfigCreated(newEntries);
     }
 
     @Override
@@ -224,7 +244,9 @@ public class DefaultStatsConfigManager implements StatsConfigManager {
     public StatsConfig getOrCreateConfig(StatsKey key) {
         KeyEntry entry = entryFor(key);
         if (entry == null) {
-            entry = createEntry(key, null, false, false);
+            final List<KeyEntry> newEntries = new LinkedList<KeyEntry>();
+            entry = createEntry(key, null, newEntries);
+            fireConfigCreated(newEntries);
         }
 
         return entry.getConfig();
@@ -268,78 +290,80 @@ public class DefaultStatsConfigManager implements StatsConfigManager {
         return keyMap.get(key.getName());
     }
 
-    /*
-     * This is kind of a scary method. Needs some refactoring.
+    /**
+     * Link the entries for <tt>key</tt> and any missing ancestors into the trie. Only the
+     * deepest entry receives <tt>config</tt>; ancestors inherit. No lock is required.
+     *
+     * @param newEntries Receives the entries that were created by this call, shallowest first.
+     * @return The entry for <tt>key</tt>, which may have been created concurrently by another caller.
      */
     private KeyEntry createEntry(final StatsKey key,
-                                 StatsConfig config,
-                                 final boolean updateConfig,
-                                 final boolean updateLocked) {
+                                 final StatsConfig config,
+                                 final List<KeyEntry> newEntries) {
+        final String keyName = key.getName();
+
+        retry:
+        for (;;) {
+            KeyEntry entry = rootKeyEntry;
+            int segmentStart = 0;
 
-        boolean goingUp = true;
+            for (;;) {
+                int segmentEnd = keyName.indexOf(StatsConstants.KEY_HIERARCHY_DELIMITER, segmentStart);
+                final boolean deepest = segmentEnd == -1;
+                if (deepest) {
+                    segmentEnd = keyName.length();
+                }
 
-        String keyName = key.getName();
-        KeyEntry entry = null;
+                final String segment = keyName.substring(segmentStart, segmentEnd);
 
-        LinkedList<KeyEntry> newEntries = new LinkedList<KeyEntry>();
-        LinkedList<String> stack = new LinkedList<String>();
+                KeyEntry childEntry = entry.childEntries.get(segment);
+                if (childEntry == null) {
+                    final String entryName = deepest ? keyName : keyName.substring(0, segmentEnd);
 
-        if (!updateLocked) {
-            updateLock.lock();
-        }
+                    childEntry = new KeyEntry(keyFactory.createKey(entryName),
+                                              entry,
+                                              deepest ? config : null);
 
-        try {
-            for (;;) {
-                if (goingUp) {
-                    entry = keyMap.get(keyName);
-                    if (entry == null) {
-                        String parentKeyName = StatsKeyUtil.parentKeyName(keyName);
-                        stack.addLast(keyName);
-                        keyName = parentKeyName;
-                        if (keyName == null) {
-                            entry = rootKeyEntry;
-                            goingUp = false;
-                        }
+                    KeyEntry existingEntry = entry.childEntries.putIfAbsent(segment, childEntry);
+                    if (existingEntry != null) {
+                        childEntry = existingEntry;
 
                     } else {
-                        goingUp = false;
-                    }
+                        keyMap.put(entryName, childEntry);
 
-                } else {
+                        if (entry.destroyed) {
+                            // The parent was removed while we were linking to it
+                            entry.childEntries.remove(segment, childEntry);
+                            keyMap.remove(entryName, childEntry);
+                            continue retry;
+                        }
 
-                    keyName = stack.pollLast();
-                    if (keyName == null) {
-                        break;
-                    }
+                        // An ancestor config may have changed since the constructor inherited it,
+                        // before this entry was visible to updateEntry()
+                        childEntry.inheritConfig();
 
-                    StatsConfig theConfig = null;
-                    if (stack.isEmpty()) {
-                        // Only set the real config on the deepest entry
-                        theConfig = config;
+                        newEntries.add(childEntry);
                     }
+                }
 
-                    KeyEntry parentEntry = entry;
-                    StatsKey newKey = keyFactory.createKey(keyName);
-                    entry = new KeyEntry(newKey, parentEntry, theConfig);
-                    parentEntry.childEntries.add(entry);
-
-                    newEntries.add(entry);
-                    keyMap.put(keyName, entry);
+                if (deepest) {
+                    return childEntry;
                 }
+
+                entry = childEntry;
+                segmentStart = segmentEnd + 1;
             }
-        } finally {
-            updateLock.unlock();
         }
+    }
 
-        if (!newEntries.isEmpty()) {
+    private void fireConfigCreated(final List<KeyEntry> newEntries) {
+        if (newEntries != null) {
             for (KeyEntry e : newEntries) {
                 eventManager.fireEvent(EventType.CONFIG_CREATED,
                                        e.getKey(),
                                        e.getConfig());
             }
         }
-
-        return entry;
     }
 
     private void updateEntry(KeyEntry entry,
@@ -405,12 +429,15 @@ public class DefaultStatsConfigManager implements StatsConfigManager {
     static final class KeyEntry implements StatsKeyAssociation<StatsConfig>, Serializable {
 
         private final StatsKey key;
+        private final String segment;
 
-        KeyEntry parentEntry;
+        volatile KeyEntry parentEntry;
+        volatile boolean destroyed;
 
-        final List<KeyEntry> childEntries = new LinkedList<KeyEntry>();
+        // Keyed by the last key name segment of each child
+        final ConcurrentMap<String,KeyEntry> childEntries = new ConcurrentHashMap<String,KeyEntry>(4);
 
-        private boolean configInherited;
+        private volatile boolean configInherited;
         private final AtomicReference<StatsConfig> config = new AtomicReference<StatsConfig>(null);
 
         KeyEntry(final StatsKey key,
@@ -422,6 +449,9 @@ public class DefaultStatsConfigManager implements StatsConfigManager {
             this.key = key;
             this.parentEntry = parentEntry;
 
+            final String name = key.getName();
+            segment = name.substring(name.lastIndexOf(StatsConstants.KEY_HIERARCHY_DELIMITER) + 1);
+
             setConfig(config);
         }
 
@@ -437,7 +467,7 @@ public class DefaultStatsConfigManager implements StatsConfigManager {
 
         void visit(final Visitor visitor) {
             if (visitor.visit(this)) {
-                for (KeyEntry childEntry : new ArrayList<KeyEntry>(childEntries)) {
+                for (KeyEntry childEntry : new ArrayList<KeyEntry>(childEntries.values())) {
                     childEntry.visit(visitor);
                 }
             }
@@ -460,11 +490,12 @@ public class DefaultStatsConfigManager implements StatsConfigManager {
             StatsConfig existingConfig = this.config.get();
 
             if (config == null) {
-                this.config.set(findInheritedConfig());
                 configInherited = true;
+                this.config.set(findInheritedConfig());
             } else {
-                this.config.set(config);
+                // Cleared before the config is set so that inheritConfig() cannot overwrite it
                 configInherited = false;
+                this.config.set(config);
             }
 
             boolean changed = false;
@@ -479,19 +510,51 @@ public class DefaultStatsConfigManager implements StatsConfigManager {
             return this.config.get();
         }
 
+        /**
+         * Re-inherit the config of the nearest ancestor whose config was set explicitly,
+         * unless a config has been set explicitly on this entry.
+         */
+        void inheritConfig() {
+            for (;;) {
+                final StatsConfig currentConfig = config.get();
+                if (!configInherited) {
+                    return;
+                }
+
+                if (config.compareAndSet(currentConfig, findInheritedConfig())) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Ancestors that inherit are skipped rather than copied from, as one that was linked
+         * concurrently with a config change may not have re-inherited yet, and nothing would
+         * update this entry once it does.
+         */
         private StatsConfig findInheritedConfig() {
             StatsConfig result = null;
+            // Used if the chain was cut by a concurrent removal above the explicit ancestor
+            StatsConfig nearestConfig = null;
 
             KeyEntry entry = this.parentEntry;
             while (entry != null) {
-                result = entry.config.get();
-                if (result != null) {
+                final StatsConfig entryConfig = entry.config.get();
+                if (nearestConfig == null) {
+                    nearestConfig = entryConfig;
+                }
+                if (!entry.configInherited && entryConfig != null) {
+                    result = entryConfig;
                     break;
                 }
 
                 entry = entry.parentEntry;
             }
 
+            if (result == null) {
+                result = nearestConfig;
+            }
+
             if (result == null) {
                 throw new Error();
             }
@@ -530,11 +593,13 @@ public class DefaultStatsConfigManager implements StatsConfigManager {
                 return true;
             }
 
+            entry.destroyed = true;
+
             keyMap.remove(entry.getKey().getName());
 
             entryList.add(entry);
 
-            entry.parentEntry.childEntries.remove(entry);
+            entry.parentEntry.childEntries.remove(entry.segment, entry);
             entry.parentEntry = null;
 
             return true;
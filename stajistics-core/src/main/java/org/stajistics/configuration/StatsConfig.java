@@ -72,4 +72,13 @@ public interface StatsConfig extends Serializable {
      */
     String getDescription();
 
+    /**
+     * Get the maximum number of distinct attribute combinations, or sub-keys, that are tracked
+     * separately for a key name. Once the limit is reached, further sub-keys of the name are
+     * tracked together in a single overflow sub-key.
+     *
+     * @return The sub-key limit, or {@link Integer#MAX_VALUE} if unlimited.
+     */
+    int getMaxSubKeys();
+
 }
@@ -76,6 +76,15 @@ public interface StatsConfigBuilder extends Serializable {
      */
     StatsConfigBuilder withDescription(String description);
 
+    /**
+     * Limit the number of distinct sub-keys tracked separately for a key name. Further
+     * sub-keys are tracked together in a single overflow sub-key.
+     *
+     * @param maxSubKeys The maximum number of sub-keys. Must be greater than zero.
+     * @return <tt>this</tt>.
+     */
+    StatsConfigBuilder withMaxSubKeys(int maxSubKeys);
+
     /**
      * Create a new immutable {@link StatsConfig} instance based on the builders currently
      * configured state. Can be invoked multiple times and the state can be modified further
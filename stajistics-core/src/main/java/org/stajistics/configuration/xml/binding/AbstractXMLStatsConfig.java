@@ -31,6 +31,9 @@ public abstract class AbstractXMLStatsConfig {
     @XmlAttribute(name = "enabled", required = false)
     private boolean enabled = true;
 
+    @XmlAttribute(name = "maxSubKeys", required = false)
+    private int maxSubKeys = Integer.MAX_VALUE;
+
     @XmlElement(name = "description", required = false)
     private String description;
 
@@ -59,6 +62,14 @@ public abstract class AbstractXMLStatsConfig {
         this.enabled = enabled;
     }
 
+    public int getMaxSubKeys() {
+        return maxSubKeys;
+    }
+
+    public void setMaxSubKeys(int maxSubKeys) {
+        this.maxSubKeys = maxSubKeys;
+    }
+
     public String getDescription() {
         return description;
     }
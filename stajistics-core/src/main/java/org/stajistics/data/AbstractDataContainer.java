@@ -49,10 +49,23 @@ public abstract class AbstractDataContainer implements DataContainer {
         return dataMap.keySet();
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public <T> T getField(final String name, final Class<T> type) {
-        Object value = getField(name);
+        return castField(getField(name), type);
+    }
+
+    @Override
+    public <T> T getField(final String name, 
+                          final T defaultValue) {
+        if (name == null) {
+            return defaultValue;
+        }
+
+        return castField(getField(name), defaultValue);
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T castField(final Object value, final Class<T> type) {
         if (value == null) {
             return null;
         }
@@ -65,15 +78,8 @@ public abstract class AbstractDataContainer implements DataContainer {
     }
 
     @SuppressWarnings("unchecked")
-    @Override
-    public <T> T getField(final String name, 
-                          final T defaultValue) {
-        if (name == null) {
-            return defaultValue;
-        }
-
+    static <T> T castField(final Object value, final T defaultValue) {
         T result = defaultValue;
-        Object value = getField(name);
         if (value != null) {
             try {
                 if (defaultValue == null) {
@@ -88,6 +94,24 @@ public abstract class AbstractDataContainer implements DataContainer {
         return result;
     }
 
+    /**
+     * Compare the fields of two {@link DataContainer}s, regardless of their implementation.
+     */
+    static boolean fieldsEqual(final DataContainer a, final DataContainer b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+
+        for (String name : a.getFieldNames()) {
+            Object value = b.getField(name);
+            if (value == null || !value.equals(a.getField(name))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     @Override
     public void setField(final String name, final Object value) {
         assertNotEmpty(name, "name");
@@ -136,6 +160,10 @@ public abstract class AbstractDataContainer implements DataContainer {
             // This is optimised for the success case (i.e. to avoid instanceof)
             other = (AbstractDataContainer) obj;
         } catch (ClassCastException cce) {
+            // Other DataContainer implementations, such as IndexedDataSet, compare by field
+            if (obj instanceof DataContainer) {
+                return fieldsEqual(this, (DataContainer) obj);
+            }
             return false;
         }
 
@@ -56,6 +56,44 @@ public interface DataSet extends DataContainer {
         }
     }
 
+    /**
+     * Store a <tt>long</tt> valued field. Implementations backed by primitive storage, such as
+     * {@link IndexedDataSet}, store the value without boxing it. Otherwise this is equivalent to
+     * calling {@link #setField(String, Object)} with a {@link Long}.
+     *
+     * @param name The name of the field to set.
+     * @param value The value of the field.
+     */
+    void setLongField(String name, long value);
+
+    /**
+     * Store a <tt>double</tt> valued field. Implementations backed by primitive storage, such as
+     * {@link IndexedDataSet}, store the value without boxing it. Otherwise this is equivalent to
+     * calling {@link #setField(String, Object)} with a {@link Double}.
+     *
+     * @param name The name of the field to set.
+     * @param value The value of the field.
+     */
+    void setDoubleField(String name, double value);
+
+    /**
+     * Get the value of a <tt>long</tt> valued field without boxing it where possible.
+     *
+     * @param name The name of the field to retrieve.
+     * @param defaultValue The value to return if the field doesn't exist or is not a <tt>long</tt>.
+     * @return The field value, or <tt>defaultValue</tt>.
+     */
+    long getLongField(String name, long defaultValue);
+
+    /**
+     * Get the value of a <tt>double</tt> valued field without boxing it where possible.
+     *
+     * @param name The name of the field to retrieve.
+     * @param defaultValue The value to return if the field doesn't exist or is not a <tt>double</tt>.
+     * @return The field value, or <tt>defaultValue</tt>.
+     */
+    double getDoubleField(String name, double defaultValue);
+
     /**
      * Get the time stamp at which this DataSet was collected from a {@link StatsSession}.
      * @return The collection time stamp.
@@ -0,0 +1,279 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.data;
+
+import static org.stajistics.Util.assertNotEmpty;
+import static org.stajistics.Util.assertNotNull;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>An immutable, ordered mapping of field names to indices and primitive {@link FieldType}s,
+ * describing the layout of an {@link IndexedDataSet}. Schemas are canonicalised: two schemas
+ * having the same fields in the same order are the same instance, so a schema can be shared
+ * by every {@link DataSet} collected from sessions of the same shape, and compared by
+ * reference.</p>
+ *
+ * <p>A schema is created through a {@link Builder}:</p>
+ * <pre>
+ * DataSetSchema schema = DataSetSchema.build(DataSetSchema.STANDARD)
+ *                                     .addDoubleField("mean")
+ *                                     .schema();
+ * </pre>
+ *
+ * @see IndexedDataSet
+ *
+ * @author The Stajistics Project
+ */
+public final class DataSetSchema implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final ConcurrentMap<List<Object>,DataSetSchema> schemas =
+        new ConcurrentHashMap<List<Object>,DataSetSchema>();
+
+    /*
+     * The indices of the standard DataSet.Fields in STANDARD, and in any schema that starts with it.
+     */
+    public static final int HITS_INDEX = 0;
+    public static final int FIRST_HIT_STAMP_INDEX = 1;
+    public static final int LAST_HIT_STAMP_INDEX = 2;
+    public static final int COMMITS_INDEX = 3;
+    public static final int FIRST_INDEX = 4;
+    public static final int LAST_INDEX = 5;
+    public static final int MIN_INDEX = 6;
+    public static final int MAX_INDEX = 7;
+    public static final int SUM_INDEX = 8;
+
+    /**
+     * The schema of the standard {@link DataSet.Field}s, in the order that they are collected.
+     */
+    public static final DataSetSchema STANDARD = build().addLongField(DataSet.Field.HITS)
+                                                        .addLongField(DataSet.Field.FIRST_HIT_STAMP)
+                                                        .addLongField(DataSet.Field.LAST_HIT_STAMP)
+                                                        .addLongField(DataSet.Field.COMMITS)
+                                                        .addDoubleField(DataSet.Field.FIRST)
+                                                        .addDoubleField(DataSet.Field.LAST)
+                                                        .addDoubleField(DataSet.Field.MIN)
+                                                        .addDoubleField(DataSet.Field.MAX)
+                                                        .addDoubleField(DataSet.Field.SUM)
+                                                        .schema();
+
+    /**
+     * The primitive types that a field of an {@link IndexedDataSet} may have.
+     */
+    public enum FieldType {
+        LONG,
+        DOUBLE
+    }
+
+    private final String[] names;
+    private final FieldType[] types;
+
+    private transient Map<String,Integer> indexMap;
+
+    private DataSetSchema(final String[] names,
+                          final FieldType[] types) {
+        this.names = names;
+        this.types = types;
+
+        initIndexMap();
+    }
+
+    private void initIndexMap() {
+        indexMap = new HashMap<String,Integer>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            indexMap.put(names[i], i);
+        }
+    }
+
+    private static DataSetSchema getInstance(final String[] names,
+                                             final FieldType[] types) {
+        final List<Object> signature = signatureOf(names, types);
+
+        DataSetSchema schema = schemas.get(signature);
+        if (schema == null) {
+            schema = new DataSetSchema(names, types);
+            DataSetSchema existing = schemas.putIfAbsent(signature, schema);
+            if (existing != null) {
+                schema = existing;
+            }
+        }
+
+        return schema;
+    }
+
+    private static List<Object> signatureOf(final String[] names,
+                                            final FieldType[] types) {
+        List<Object> signature = new ArrayList<Object>(names.length * 2);
+        signature.addAll(Arrays.asList(names));
+        signature.addAll(Arrays.asList(types));
+        return signature;
+    }
+
+    /**
+     * Create a {@link Builder} for an empty schema.
+     *
+     * @return A new {@link Builder}, never <tt>null</tt>.
+     */
+    public static Builder build() {
+        return new Builder();
+    }
+
+    /**
+     * Create a {@link Builder} that starts with the fields of the given <tt>template</tt>.
+     *
+     * @param template The schema whose fields are to be copied.
+     * @return A new {@link Builder}, never <tt>null</tt>.
+     */
+    public static Builder build(final DataSetSchema template) {
+        assertNotNull(template, "template");
+        return new Builder(template);
+    }
+
+    /**
+     * Obtain the index of the field named <tt>name</tt>.
+     *
+     * @param name The field name.
+     * @return The field index, or <tt>-1</tt> if the field is not part of this schema.
+     */
+    public int indexOf(final String name) {
+        Integer index = indexMap.get(name);
+        if (index == null) {
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * Obtain the number of fields described by this schema.
+     */
+    public int getFieldCount() {
+        return names.length;
+    }
+
+    /**
+     * Determine if the fields of <tt>prefix</tt> are the first fields of this schema, at the same
+     * indices and with the same types.
+     *
+     * @param prefix The schema to test.
+     * @return <tt>true</tt> if this schema starts with <tt>prefix</tt>.
+     */
+    public boolean startsWith(final DataSetSchema prefix) {
+        if (prefix == this) {
+            return true;
+        }
+        if (prefix.names.length > names.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.names.length; i++) {
+            if (types[i] != prefix.types[i] || !names[i].equals(prefix.names[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Obtain the name of the field at <tt>index</tt>.
+     *
+     * @throws ArrayIndexOutOfBoundsException If <tt>index</tt> is out of range.
+     */
+    public String getFieldName(final int index) {
+        return names[index];
+    }
+
+    /**
+     * Obtain the type of the field at <tt>index</tt>.
+     *
+     * @throws ArrayIndexOutOfBoundsException If <tt>index</tt> is out of range.
+     */
+    public FieldType getFieldType(final int index) {
+        return types[index];
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+        return getInstance(names, types);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder(32 + names.length * 16);
+
+        buf.append(DataSetSchema.class.getSimpleName());
+        buf.append('[');
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                buf.append(',');
+            }
+            buf.append(names[i]);
+            buf.append(':');
+            buf.append(types[i]);
+        }
+        buf.append(']');
+
+        return buf.toString();
+    }
+
+    /* NESTED CLASSES */
+
+    public static class Builder {
+
+        private final List<String> names = new ArrayList<String>();
+        private final List<FieldType> types = new ArrayList<FieldType>();
+
+        private Builder() {}
+
+        private Builder(final DataSetSchema template) {
+            names.addAll(Arrays.asList(template.names));
+            types.addAll(Arrays.asList(template.types));
+        }
+
+        public Builder addLongField(final String name) {
+            return addField(name, FieldType.LONG);
+        }
+
+        public Builder addDoubleField(final String name) {
+            return addField(name, FieldType.DOUBLE);
+        }
+
+        public Builder addField(final String name,
+                                final FieldType type) {
+            assertNotEmpty(name, "name");
+            assertNotNull(type, "type");
+
+            if (names.contains(name)) {
+                throw new IllegalArgumentException("Duplicate field name: " + name);
+            }
+
+            names.add(name);
+            types.add(type);
+            return this;
+        }
+
+        public DataSetSchema schema() {
+            return getInstance(names.toArray(new String[names.size()]),
+                               types.toArray(new FieldType[types.size()]));
+        }
+    }
+}
@@ -115,6 +115,26 @@ public class DataSets {
             throw new UnsupportedOperationException();
         }
 
+        @Override
+        public void setLongField(final String name, final long value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setDoubleField(final String name, final double value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getLongField(final String name, final long defaultValue) {
+            return delegate.getLongField(name, defaultValue);
+        }
+
+        @Override
+        public double getDoubleField(final String name, final double defaultValue) {
+            return delegate.getDoubleField(name, defaultValue);
+        }
+
         @Override
         public int size() {
             return delegate.size();
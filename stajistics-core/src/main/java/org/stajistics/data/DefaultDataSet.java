@@ -54,6 +54,34 @@ public class DefaultDataSet extends AbstractDataContainer implements DataSet {
         return drainedSession;
     }
 
+    @Override
+    public void setLongField(final String name, final long value) {
+        setField(name, value);
+    }
+
+    @Override
+    public void setDoubleField(final String name, final double value) {
+        setField(name, value);
+    }
+
+    @Override
+    public long getLongField(final String name, final long defaultValue) {
+        Object value = getField(name);
+        if (value instanceof Long) {
+            return (Long) value;
+        }
+        return defaultValue;
+    }
+
+    @Override
+    public double getDoubleField(final String name, final double defaultValue) {
+        Object value = getField(name);
+        if (value instanceof Double) {
+            return (Double) value;
+        }
+        return defaultValue;
+    }
+
     @Override
     public boolean hasMetaData() {
         return metaData != null && !metaData.isEmpty();
@@ -0,0 +1,533 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.data;
+
+import static org.stajistics.Util.assertNotEmpty;
+import static org.stajistics.Util.assertNotNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.stajistics.util.FastPutsLinkedMap;
+
+/**
+ * <p>A {@link DataSet} that stores the fields described by a shared {@link DataSetSchema}
+ * in a primitive <tt>long[]</tt>, with <tt>double</tt> fields stored as their raw long bits.
+ * Fields written through {@link #setLongField(String, long)}, {@link #setDoubleField(String, double)}
+ * or the index based methods are not boxed. Fields that are not part of the schema, or that are
+ * set to a value of a different type than the schema declares, are kept in a map like
+ * {@link DefaultDataSet} does, so the full {@link DataContainer} contract is preserved.</p>
+ *
+ * <p>Consumers that handle many DataSets of the same shape, such as exporters, may resolve
+ * field indices once through {@link #getSchema()} and then read values by index.</p>
+ *
+ * <p>Equality and hash codes are consistent with {@link DefaultDataSet}, so the two
+ * implementations may be compared with each other.</p>
+ *
+ * @see DataSetSchema
+ *
+ * @author The Stajistics Project
+ */
+public class IndexedDataSet implements DataSet {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DataSetSchema schema;
+
+    private final long[] values;
+    private final long[] setFields;
+    private int setFieldCount = 0;
+
+    private Map<String,Object> extraFields = null;
+    private MetaData metaData = null;
+
+    private final long collectionTimeStamp;
+    private final boolean drainedSession;
+
+    public IndexedDataSet(final long collectionTimeStamp,
+                          final boolean drainedSession) {
+        this(DataSetSchema.STANDARD, collectionTimeStamp, drainedSession);
+    }
+
+    public IndexedDataSet(final DataSetSchema schema,
+                          final long collectionTimeStamp,
+                          final boolean drainedSession) {
+        assertNotNull(schema, "schema");
+
+        this.schema = schema;
+        this.collectionTimeStamp = collectionTimeStamp;
+        this.drainedSession = drainedSession;
+
+        final int fieldCount = schema.getFieldCount();
+        values = new long[fieldCount];
+        setFields = new long[(fieldCount + 63) >>> 6];
+    }
+
+    /**
+     * Obtain the schema that describes the indexed fields of this DataSet.
+     *
+     * @return The {@link DataSetSchema}, never <tt>null</tt>.
+     */
+    public DataSetSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Obtain a schema describing all primitive fields that are currently set in this DataSet:
+     * the fields of {@link #getSchema()} followed by any {@link Long} or {@link Double} valued
+     * fields that had to be stored outside of the schema. A session may use the result to
+     * create its next DataSet so that those fields are stored by index too.
+     *
+     * @return The derived {@link DataSetSchema}, which is {@link #getSchema()} if no
+     *         fields are stored outside of it.
+     */
+    public DataSetSchema deriveSchema() {
+        if (extraFields == null || extraFields.isEmpty()) {
+            return schema;
+        }
+
+        DataSetSchema.Builder builder = null;
+
+        for (Map.Entry<String,Object> entry : extraFields.entrySet()) {
+            final String name = entry.getKey();
+            if (schema.indexOf(name) >= 0) {
+                continue;
+            }
+
+            final Object value = entry.getValue();
+            if (value instanceof Long) {
+                if (builder == null) {
+                    builder = DataSetSchema.build(schema);
+                }
+                builder.addLongField(name);
+
+            } else if (value instanceof Double) {
+                if (builder == null) {
+                    builder = DataSetSchema.build(schema);
+                }
+                builder.addDoubleField(name);
+            }
+        }
+
+        if (builder == null) {
+            return schema;
+        }
+
+        return builder.schema();
+    }
+
+    private boolean isSet(final int index) {
+        return (setFields[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private void markSet(final int index) {
+        final long mask = 1L << index;
+        final int word = index >>> 6;
+        if ((setFields[word] & mask) == 0) {
+            setFields[word] |= mask;
+            setFieldCount++;
+        }
+    }
+
+    private void markUnset(final int index) {
+        final long mask = 1L << index;
+        final int word = index >>> 6;
+        if ((setFields[word] & mask) != 0) {
+            setFields[word] &= ~mask;
+            setFieldCount--;
+        }
+    }
+
+    private void checkType(final int index, final DataSetSchema.FieldType type) {
+        if (schema.getFieldType(index) != type) {
+            throw new IllegalArgumentException("Field " + schema.getFieldName(index) +
+                                               " is not of type " + type);
+        }
+    }
+
+    private void removeExtraField(final String name) {
+        if (extraFields != null) {
+            extraFields.remove(name);
+        }
+    }
+
+    private void putExtraField(final String name, final Object value) {
+        if (extraFields == null) {
+            extraFields = new FastPutsLinkedMap<String,Object>();
+        }
+        extraFields.put(name, value);
+    }
+
+    /**
+     * Determine if the field at <tt>index</tt> of the schema has been set.
+     */
+    public boolean isFieldSet(final int index) {
+        return isSet(index);
+    }
+
+    /**
+     * Set the <tt>long</tt> field at <tt>index</tt> of the schema.
+     *
+     * @throws IllegalArgumentException If the field at <tt>index</tt> is not a
+     *         {@link DataSetSchema.FieldType#LONG} field.
+     */
+    public void setLong(final int index, final long value) {
+        checkType(index, DataSetSchema.FieldType.LONG);
+        values[index] = value;
+        markSet(index);
+    }
+
+    /**
+     * Set the <tt>double</tt> field at <tt>index</tt> of the schema.
+     *
+     * @throws IllegalArgumentException If the field at <tt>index</tt> is not a
+     *         {@link DataSetSchema.FieldType#DOUBLE} field.
+     */
+    public void setDouble(final int index, final double value) {
+        checkType(index, DataSetSchema.FieldType.DOUBLE);
+        values[index] = Double.doubleToRawLongBits(value);
+        markSet(index);
+    }
+
+    /**
+     * Get the <tt>long</tt> field at <tt>index</tt> of the schema.
+     *
+     * @return The field value, or <tt>defaultValue</tt> if the field is not set.
+     * @throws IllegalArgumentException If the field at <tt>index</tt> is not a
+     *         {@link DataSetSchema.FieldType#LONG} field.
+     */
+    public long getLong(final int index, final long defaultValue) {
+        checkType(index, DataSetSchema.FieldType.LONG);
+        if (!isSet(index)) {
+            return defaultValue;
+        }
+        return values[index];
+    }
+
+    /**
+     * Get the <tt>double</tt> field at <tt>index</tt> of the schema.
+     *
+     * @return The field value, or <tt>defaultValue</tt> if the field is not set.
+     * @throws IllegalArgumentException If the field at <tt>index</tt> is not a
+     *         {@link DataSetSchema.FieldType#DOUBLE} field.
+     */
+    public double getDouble(final int index, final double defaultValue) {
+        checkType(index, DataSetSchema.FieldType.DOUBLE);
+        if (!isSet(index)) {
+            return defaultValue;
+        }
+        return Double.longBitsToDouble(values[index]);
+    }
+
+    private Object getBoxed(final int index) {
+        if (schema.getFieldType(index) == DataSetSchema.FieldType.LONG) {
+            return values[index];
+        }
+        return Double.longBitsToDouble(values[index]);
+    }
+
+    @Override
+    public void setLongField(final String name, final long value) {
+        final int index = schema.indexOf(name);
+        if (index >= 0 && schema.getFieldType(index) == DataSetSchema.FieldType.LONG) {
+            values[index] = value;
+            markSet(index);
+            removeExtraField(name);
+        } else {
+            setField(name, value);
+        }
+    }
+
+    @Override
+    public void setDoubleField(final String name, final double value) {
+        final int index = schema.indexOf(name);
+        if (index >= 0 && schema.getFieldType(index) == DataSetSchema.FieldType.DOUBLE) {
+            values[index] = Double.doubleToRawLongBits(value);
+            markSet(index);
+            removeExtraField(name);
+        } else {
+            setField(name, value);
+        }
+    }
+
+    @Override
+    public long getLongField(final String name, final long defaultValue) {
+        final int index = schema.indexOf(name);
+        if (index >= 0 && isSet(index)) {
+            if (schema.getFieldType(index) == DataSetSchema.FieldType.LONG) {
+                return values[index];
+            }
+            return defaultValue;
+        }
+
+        Object value = getExtraField(name);
+        if (value instanceof Long) {
+            return (Long) value;
+        }
+        return defaultValue;
+    }
+
+    @Override
+    public double getDoubleField(final String name, final double defaultValue) {
+        final int index = schema.indexOf(name);
+        if (index >= 0 && isSet(index)) {
+            if (schema.getFieldType(index) == DataSetSchema.FieldType.DOUBLE) {
+                return Double.longBitsToDouble(values[index]);
+            }
+            return defaultValue;
+        }
+
+        Object value = getExtraField(name);
+        if (value instanceof Double) {
+            return (Double) value;
+        }
+        return defaultValue;
+    }
+
+    private Object getExtraField(final String name) {
+        if (extraFields == null) {
+            return null;
+        }
+        return extraFields.get(name);
+    }
+
+    @Override
+    public Object getField(final String name) {
+        if (name == null) {
+            return null;
+        }
+
+        final int index = schema.indexOf(name);
+        if (index >= 0 && isSet(index)) {
+            return getBoxed(index);
+        }
+
+        return getExtraField(name);
+    }
+
+    @Override
+    public <T> T getField(final String name, final Class<T> type) {
+        return AbstractDataContainer.castField(getField(name), type);
+    }
+
+    @Override
+    public <T> T getField(final String name, final T defaultValue) {
+        if (name == null) {
+            return defaultValue;
+        }
+
+        return AbstractDataContainer.castField(getField(name), defaultValue);
+    }
+
+    /**
+     * @return A snapshot of the field names, in schema order followed by the
+     *         names of fields stored outside of the schema.
+     */
+    @Override
+    public Set<String> getFieldNames() {
+        Set<String> names = new LinkedHashSet<String>(size() * 2);
+
+        final int fieldCount = schema.getFieldCount();
+        for (int i = 0; i < fieldCount; i++) {
+            if (isSet(i)) {
+                names.add(schema.getFieldName(i));
+            }
+        }
+
+        if (extraFields != null) {
+            names.addAll(extraFields.keySet());
+        }
+
+        return Collections.unmodifiableSet(names);
+    }
+
+    @Override
+    public void setField(final String name, final Object value) {
+        assertNotEmpty(name, "name");
+        assertNotNull(value, "value");
+
+        final int index = schema.indexOf(name);
+        if (index >= 0) {
+            final DataSetSchema.FieldType type = schema.getFieldType(index);
+            if (type == DataSetSchema.FieldType.LONG && value instanceof Long) {
+                values[index] = (Long) value;
+                markSet(index);
+                removeExtraField(name);
+                return;
+            }
+            if (type == DataSetSchema.FieldType.DOUBLE && value instanceof Double) {
+                values[index] = Double.doubleToRawLongBits((Double) value);
+                markSet(index);
+                removeExtraField(name);
+                return;
+            }
+
+            // A value of another type than the schema declares
+            markUnset(index);
+        }
+
+        putExtraField(name, value);
+    }
+
+    @Override
+    public Object removeField(final String name) {
+        if (name == null) {
+            return null;
+        }
+
+        final int index = schema.indexOf(name);
+        if (index >= 0 && isSet(index)) {
+            Object result = getBoxed(index);
+            markUnset(index);
+            return result;
+        }
+
+        if (extraFields == null) {
+            return null;
+        }
+        return extraFields.remove(name);
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(setFields, 0L);
+        setFieldCount = 0;
+
+        if (extraFields != null) {
+            extraFields.clear();
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = setFieldCount;
+        if (extraFields != null) {
+            size += extraFields.size();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public long getCollectionTimeStamp() {
+        return collectionTimeStamp;
+    }
+
+    @Override
+    public boolean isSessionDrained() {
+        return drainedSession;
+    }
+
+    @Override
+    public boolean hasMetaData() {
+        return metaData != null && !metaData.isEmpty();
+    }
+
+    @Override
+    public MetaData getMetaData() {
+        if (metaData == null) {
+            metaData = new DefaultMetaData(new FastPutsLinkedMap<String,Object>());
+        }
+        return metaData;
+    }
+
+    @Override
+    public int hashCode() {
+        // Consistent with Map.hashCode() as used by DefaultDataSet
+        int fieldsHash = 0;
+
+        final int fieldCount = schema.getFieldCount();
+        for (int i = 0; i < fieldCount; i++) {
+            if (isSet(i)) {
+                fieldsHash += schema.getFieldName(i).hashCode() ^ getBoxed(i).hashCode();
+            }
+        }
+        if (extraFields != null) {
+            fieldsHash += extraFields.hashCode();
+        }
+
+        final int prime = 31;
+        int result = fieldsHash;
+        result = prime * result + (int) (collectionTimeStamp ^ (collectionTimeStamp >>> 32));
+        result = prime * result + (drainedSession ? 1231 : 1237);
+        result = prime * result + (hasMetaData() ? metaData.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof DataSet)) {
+            return false;
+        }
+
+        DataSet other = (DataSet) obj;
+
+        if (collectionTimeStamp != other.getCollectionTimeStamp()) {
+            return false;
+        }
+        if (drainedSession != other.isSessionDrained()) {
+            return false;
+        }
+
+        if (!AbstractDataContainer.fieldsEqual(this, other)) {
+            return false;
+        }
+
+        if (hasMetaData()) {
+            if (!other.hasMetaData()) {
+                return false;
+            }
+
+            return (metaData.equals(other.getMetaData()));
+
+        } else {
+            if (other.hasMetaData()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder(256);
+
+        buf.append(IndexedDataSet.class.getSimpleName());
+        buf.append("[collectionTimeStamp=");
+        buf.append(collectionTimeStamp);
+        buf.append(",drainedSession=");
+        buf.append(drainedSession);
+        for (String name : getFieldNames()) {
+            buf.append(',');
+            buf.append(name);
+            buf.append('=');
+            buf.append(getField(name));
+        }
+        buf.append(']');
+
+        return buf.toString();
+    }
+}
@@ -122,4 +122,32 @@ public final class NullDataSet implements DataSet {
     @Override
     public void setField(String name, Object value) {}
 
+    /**
+     * Does nothing.
+     */
+    @Override
+    public void setLongField(String name, long value) {}
+
+    /**
+     * Does nothing.
+     */
+    @Override
+    public void setDoubleField(String name, double value) {}
+
+    /**
+     * @return <tt>defaultValue</tt>.
+     */
+    @Override
+    public long getLongField(String name, long defaultValue) {
+        return defaultValue;
+    }
+
+    /**
+     * @return <tt>defaultValue</tt>.
+     */
+    @Override
+    public double getDoubleField(String name, double defaultValue) {
+        return defaultValue;
+    }
+
 }
@@ -108,8 +108,16 @@ public class SynchronousEventManager implements EventManager {
         assertNotNull(key, "key");
         assertNotNull(eventHandler, "eventHandler");
 
-        List<EventHandler> eventHandlers = getEventHandlers(key, true);
-        eventHandlers.add(eventHandler);
+        // Retry if the list was dropped as empty by removeEventHandler before we got to it
+        for (;;) {
+            List<EventHandler> eventHandlers = getEventHandlers(key, true);
+            synchronized (eventHandlers) {
+                if (sessionEventHandlers.get(key) == eventHandlers) {
+                    eventHandlers.add(eventHandler);
+                    return;
+                }
+            }
+        }
     }
 
     @Override
@@ -121,7 +129,14 @@ public class SynchronousEventManager implements EventManager {
     public void removeEventHandler(StatsKey key, EventHandler eventHandler) {
         List<EventHandler> eventHandlers = getEventHandlers(key, false);
         if (eventHandlers != null) {
-            eventHandlers.remove(eventHandler);
+            synchronized (eventHandlers) {
+                eventHandlers.remove(eventHandler);
+
+                // Don't keep the key once nothing listens for it
+                if (eventHandlers.isEmpty()) {
+                    sessionEventHandlers.remove(key, eventHandlers);
+                }
+            }
         }
     }
 
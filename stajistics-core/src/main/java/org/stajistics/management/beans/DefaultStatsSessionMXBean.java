@@ -20,6 +20,8 @@ import static org.stajistics.Util.assertNotNull;
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.management.Attribute;
 import javax.management.AttributeList;
@@ -38,8 +40,11 @@ import org.stajistics.StatsManager;
 import org.stajistics.StatsManagerRegistry;
 import org.stajistics.StatsProperties;
 import org.stajistics.data.DataSet;
+import org.stajistics.session.FieldHandle;
 import org.stajistics.session.StatsSession;
 import org.stajistics.session.StatsSessionManager;
+import org.stajistics.session.recorder.DataRecorder;
+import org.stajistics.session.recorder.ReservoirDataRecorder;
 
 /**
  *
@@ -73,6 +78,10 @@ public class DefaultStatsSessionMXBean implements StatsSessionMXBean,DynamicMBea
     protected final String namespace;
     protected final org.stajistics.session.StatsSession session;
 
+    // Resolved once per attribute, as JMX clients poll the same attributes repeatedly
+    private final ConcurrentMap<String,FieldHandle> fieldHandles =
+        new ConcurrentHashMap<String,FieldHandle>(16, 0.75f, 1);
+
     // DataSet cache members
     private transient long cachedDataSetLastAccess = 0L;
     private transient WeakReference<DataSet> cachedDataSetRef = null;
@@ -158,7 +167,16 @@ public class DefaultStatsSessionMXBean implements StatsSessionMXBean,DynamicMBea
         if (attribute.startsWith(FIELD_PREFIX)) {
             attribute = attribute.substring(FIELD_PREFIX.length());
 
-            Object value = session.getField(attribute);
+            FieldHandle fieldHandle = fieldHandles.get(attribute);
+            if (fieldHandle == null) {
+                fieldHandle = session.getFieldHandle(attribute);
+                if (fieldHandle == null) {
+                    throw new AttributeNotFoundException(attribute);
+                }
+                fieldHandles.put(attribute, fieldHandle);
+            }
+
+            Object value = fieldHandle.getValue();
             if (value == null) {
                 throw new AttributeNotFoundException(attribute);
             }
@@ -272,6 +290,15 @@ public class DefaultStatsSessionMXBean implements StatsSessionMXBean,DynamicMBea
         } else if (actionName.equals(OP_DUMP)) {
             if (sessionLogger.isInfoEnabled()) {
                 sessionLogger.info(session.toString());
+
+                // Raw samples are not part of the session summary
+                for (DataRecorder dataRecorder : session.getDataRecorders()) {
+                    if (dataRecorder instanceof ReservoirDataRecorder) {
+                        sessionLogger.info("{} {}",
+                                           session.getKey(),
+                                           ((ReservoirDataRecorder) dataRecorder).getSamples());
+                    }
+                }
             }
 
         } else if (actionName.equals(OP_COLLECT_DATA)) {
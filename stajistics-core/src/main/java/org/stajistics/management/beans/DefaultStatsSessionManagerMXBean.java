@@ -54,6 +54,16 @@ public class DefaultStatsSessionManagerMXBean implements StatsSessionManagerMXBe
         return sessionManager.getSessionCount();
     }
 
+    @Override
+    public long getEvictionCount() {
+        return sessionManager.getEvictionCount();
+    }
+
+    @Override
+    public long getOverflowCount() {
+        return sessionManager.getOverflowCount();
+    }
+
     @Override
     public void dumpAllSessions() {
         if (sessionLogger.isInfoEnabled()) {
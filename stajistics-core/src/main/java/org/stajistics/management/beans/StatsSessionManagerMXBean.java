@@ -31,6 +31,10 @@ public interface StatsSessionManagerMXBean {
 
     int getSessionCount();
 
+    long getEvictionCount();
+
+    long getOverflowCount();
+
     void dumpAllSessions();
 
     void clearAllSessions();
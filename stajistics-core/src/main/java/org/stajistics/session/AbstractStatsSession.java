@@ -22,16 +22,18 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.stajistics.StatsKey;
 import org.stajistics.data.DataSet;
-import org.stajistics.data.DefaultDataSet;
+import org.stajistics.data.DataSetSchema;
+import org.stajistics.data.IndexedDataSet;
 import org.stajistics.event.EventManager;
 import org.stajistics.session.recorder.DataRecorder;
-import org.stajistics.util.FastPutsLinkedMap;
+import org.stajistics.session.recorder.DataRecorderPipeline;
+import org.stajistics.session.recorder.IndexedFieldDataRecorder;
+import org.stajistics.tracker.Tracker;
 import org.stajistics.util.Misc;
 
 /**
@@ -57,6 +59,11 @@ public abstract class AbstractStatsSession implements StatsSession {
 
     protected final DataRecorder[] dataRecorders;
 
+    // Non-null if the DataRecorders are updated in a single pass
+    private final DataRecorderPipeline dataRecorderPipeline;
+
+    private volatile DataSetSchema dataSetSchema = DataSetSchema.STANDARD;
+
     public AbstractStatsSession(final StatsKey key,
                                 final EventManager eventManager,
                                 final DataRecorder... dataRecorders) {
@@ -71,6 +78,21 @@ public abstract class AbstractStatsSession implements StatsSession {
         } else {
             this.dataRecorders = dataRecorders;
         }
+
+        dataRecorderPipeline = compilePipeline(this.dataRecorders);
+    }
+
+    /**
+     * Compile a {@link DataRecorderPipeline} for the given <tt>dataRecorders</tt>.
+     *
+     * @return A pipeline, or <tt>null</tt> if there are no {@link DataRecorder}s or
+     *         pipelines are not {@link DataRecorderPipeline#isEnabled() enabled}.
+     */
+    protected static DataRecorderPipeline compilePipeline(final DataRecorder[] dataRecorders) {
+        if (dataRecorders.length > 0 && DataRecorderPipeline.isEnabled()) {
+            return DataRecorderPipeline.compile(dataRecorders);
+        }
+        return null;
     }
 
     protected abstract void setHits(long hits);
@@ -96,48 +118,35 @@ public abstract class AbstractStatsSession implements StatsSession {
         return key;
     }
 
+    /**
+     * Obtain the {@link DataRecorder}s that currently hold the data of this session, which are
+     * the ones read, restored, and cleared by this class. Sessions that replace their
+     * {@link DataRecorder}s over time override this, and update the current ones through
+     * {@link #updateDataRecorders(DataRecorder[], DataRecorderPipeline, Tracker, long)}.
+     *
+     * @return The {@link #dataRecorders} passed to the constructor, unless overridden.
+     */
+    protected DataRecorder[] currentDataRecorders() {
+        return dataRecorders;
+    }
+
     @Override
     public List<DataRecorder> getDataRecorders() {
-        return Collections.unmodifiableList(Arrays.asList(dataRecorders));
+        return Collections.unmodifiableList(Arrays.asList(currentDataRecorders()));
     }
 
     @Override
-    public Object getField(String name) {
-        // Intern the name to allow fast reference equality checks
-        name = name.intern();
-
+    public Object getField(final String name) {
         // Check basic fields
 
-        if (name == DataSet.Field.HITS) {
-            return getHits();
-        }
-        if (name == DataSet.Field.FIRST_HIT_STAMP) {
-            return getFirstHitStamp();
-        }
-        if (name == DataSet.Field.LAST_HIT_STAMP) {
-            return getLastHitStamp();
-        }
-        if (name == DataSet.Field.COMMITS) {
-            return getCommits();
-        }
-        if (name == DataSet.Field.FIRST) {
-            return getFirst();
-        }
-        if (name == DataSet.Field.LAST) {
-            return getLast();
-        }
-        if (name == DataSet.Field.MIN) {
-            return getMin();
-        }
-        if (name == DataSet.Field.MAX) {
-            return getMax();
-        }
-        if (name == DataSet.Field.SUM) {
-            return getSum();
+        final int standardIndex = FieldHandles.indexOfStandardField(name);
+        if (standardIndex != -1) {
+            return FieldHandles.getStandardField(this, standardIndex);
         }
 
         // Check DataRecorder fields
 
+        final DataRecorder[] dataRecorders = currentDataRecorders();
         final int dataRecorderCount = dataRecorders.length;
         for (int i = 0; i < dataRecorderCount; i++) {
             try {
@@ -157,22 +166,115 @@ public abstract class AbstractStatsSession implements StatsSession {
         return null;
     }
 
+    /**
+     * Update all {@link DataRecorder}s of this session, through a {@link DataRecorderPipeline}
+     * if {@link DataRecorderPipeline#isEnabled() enabled}. Failures are logged and passed to the
+     * uncaught exception handler, and do not prevent the other {@link DataRecorder}s from
+     * being updated.
+     *
+     * @param tracker The tracker that is triggering the update.
+     * @param now The current time.
+     */
+    protected void updateDataRecorders(final Tracker tracker, final long now) {
+        updateDataRecorders(dataRecorders, dataRecorderPipeline, tracker, now);
+    }
+
+    /**
+     * Update the given <tt>dataRecorders</tt> of this session, through <tt>pipeline</tt> if it
+     * is not <tt>null</tt>, in the same way as {@link #updateDataRecorders(Tracker, long)}.
+     *
+     * @param dataRecorders The {@link DataRecorder}s to update.
+     * @param pipeline The pipeline compiled for <tt>dataRecorders</tt>, or <tt>null</tt>.
+     * @param tracker The tracker that is triggering the update.
+     * @param now The current time.
+     */
+    protected void updateDataRecorders(final DataRecorder[] dataRecorders,
+                                       final DataRecorderPipeline pipeline,
+                                       final Tracker tracker,
+                                       final long now) {
+        if (pipeline != null) {
+            pipeline.update(this, tracker, now);
+            return;
+        }
+
+        for (DataRecorder dataRecorder : dataRecorders) {
+            try {
+                dataRecorder.update(this, tracker, now);
+            } catch (Exception e) {
+                Misc.logHandledException(logger, e, "Failed to update {}", dataRecorder);
+                Misc.handleUncaughtException(getKey(), e);
+            }
+        }
+    }
+
+    @Override
+    public FieldHandle getFieldHandle(final String name) {
+        FieldHandle handle = FieldHandles.standard(this, name);
+        if (handle != null) {
+            return handle;
+        }
+
+        for (DataRecorder dataRecorder : currentDataRecorders()) {
+            try {
+                if (dataRecorder.getSupportedFieldNames().contains(name)) {
+                    return createDataRecorderFieldHandle(dataRecorder, name);
+                }
+            } catch (Exception e) {
+                Misc.logHandledException(logger, e, "Failed to getFieldHandle({}) from {}", name, dataRecorder);
+                Misc.handleUncaughtException(getKey(), e);
+            }
+        }
+
+        // Not found
+        return null;
+    }
+
+    /**
+     * Create a handle for a field supported by one of this session's {@link DataRecorder}s.
+     * Fields of {@link IndexedFieldDataRecorder}s are read by index, other fields through
+     * {@link #getField(String)}.
+     *
+     * @param dataRecorder The recorder supporting the field.
+     * @param name The name of the field.
+     * @return A {@link FieldHandle}, never <tt>null</tt>.
+     */
+    protected FieldHandle createDataRecorderFieldHandle(final DataRecorder dataRecorder,
+                                                        final String name) {
+        if (dataRecorder instanceof IndexedFieldDataRecorder) {
+            FieldHandle handle = FieldHandles.dataRecorder(this, (IndexedFieldDataRecorder) dataRecorder, name);
+            if (handle != null) {
+                return handle;
+            }
+        }
+
+        return FieldHandles.named(this, name);
+    }
+
     /**
      * A factory method for creating a DataSet instance that will be populated with this session's data.
+     * The returned {@link IndexedDataSet} uses the schema learned from previous collections, so the
+     * standard fields and the primitive fields of the {@link DataRecorder}s are stored without boxing.
      * @param drainedSession
      * @return
      */
     protected DataSet createDataSet(final boolean drainedSession) {
-        DataSet dataSet = new DefaultDataSet(System.currentTimeMillis(),
-                                             drainedSession,
-                                             new FastPutsLinkedMap<String,Object>()) {
-            @Override
-            protected Map<String, Object> createMetaDataMap() {
-                return new FastPutsLinkedMap<String,Object>();
-            }
-        };
+        return new IndexedDataSet(dataSetSchema,
+                                  System.currentTimeMillis(),
+                                  drainedSession);
+    }
 
-        return dataSet;
+    /**
+     * Adopt the schema of the given collected <tt>dataSet</tt>, extended by any primitive fields that
+     * were not yet part of it, for DataSets created by subsequent calls to {@link #createDataSet(boolean)}.
+     */
+    protected void updateDataSetSchema(final DataSet dataSet) {
+        if (dataSet instanceof IndexedDataSet) {
+            final IndexedDataSet indexedDataSet = (IndexedDataSet) dataSet;
+            final DataSetSchema derivedSchema = indexedDataSet.deriveSchema();
+            if (derivedSchema != dataSetSchema && indexedDataSet.getSchema() == dataSetSchema) {
+                dataSetSchema = derivedSchema;
+            }
+        }
     }
 
     @Override
@@ -182,18 +284,61 @@ public abstract class AbstractStatsSession implements StatsSession {
         return dataSet;
     }
 
-    protected void collectData(final DataSet dataSet) {
-        dataSet.setField(DataSet.Field.HITS, getHits());
-        dataSet.setField(DataSet.Field.FIRST_HIT_STAMP, getFirstHitStamp());
-        dataSet.setField(DataSet.Field.LAST_HIT_STAMP, getLastHitStamp());
-        dataSet.setField(DataSet.Field.COMMITS, getCommits());
-        dataSet.setField(DataSet.Field.FIRST, getFirst());
-        dataSet.setField(DataSet.Field.LAST, getLast());
-        dataSet.setField(DataSet.Field.MIN, getMin());
-        dataSet.setField(DataSet.Field.MAX, getMax());
-        dataSet.setField(DataSet.Field.SUM, getSum());
+    /**
+     * Set the standard {@link DataSet.Field}s of <tt>dataSet</tt>. If <tt>dataSet</tt> is an
+     * {@link IndexedDataSet} whose schema starts with {@link DataSetSchema#STANDARD}, as those
+     * returned by {@link #createDataSet(boolean)} do, the fields are set by index rather than by name.
+     */
+    protected static void setStandardFields(final DataSet dataSet,
+                                            final long hits,
+                                            final long firstHitStamp,
+                                            final long lastHitStamp,
+                                            final long commits,
+                                            final double first,
+                                            final double last,
+                                            final double min,
+                                            final double max,
+                                            final double sum) {
+        if (dataSet instanceof IndexedDataSet) {
+            final IndexedDataSet indexedDataSet = (IndexedDataSet) dataSet;
+            if (indexedDataSet.getSchema().startsWith(DataSetSchema.STANDARD)) {
+                indexedDataSet.setLong(DataSetSchema.HITS_INDEX, hits);
+                indexedDataSet.setLong(DataSetSchema.FIRST_HIT_STAMP_INDEX, firstHitStamp);
+                indexedDataSet.setLong(DataSetSchema.LAST_HIT_STAMP_INDEX, lastHitStamp);
+                indexedDataSet.setLong(DataSetSchema.COMMITS_INDEX, commits);
+                indexedDataSet.setDouble(DataSetSchema.FIRST_INDEX, first);
+                indexedDataSet.setDouble(DataSetSchema.LAST_INDEX, last);
+                indexedDataSet.setDouble(DataSetSchema.MIN_INDEX, min);
+                indexedDataSet.setDouble(DataSetSchema.MAX_INDEX, max);
+                indexedDataSet.setDouble(DataSetSchema.SUM_INDEX, sum);
+                return;
+            }
+        }
 
-        for (DataRecorder dataRecorder : dataRecorders) {
+        dataSet.setLongField(DataSet.Field.HITS, hits);
+        dataSet.setLongField(DataSet.Field.FIRST_HIT_STAMP, firstHitStamp);
+        dataSet.setLongField(DataSet.Field.LAST_HIT_STAMP, lastHitStamp);
+        dataSet.setLongField(DataSet.Field.COMMITS, commits);
+        dataSet.setDoubleField(DataSet.Field.FIRST, first);
+        dataSet.setDoubleField(DataSet.Field.LAST, last);
+        dataSet.setDoubleField(DataSet.Field.MIN, min);
+        dataSet.setDoubleField(DataSet.Field.MAX, max);
+        dataSet.setDoubleField(DataSet.Field.SUM, sum);
+    }
+
+    protected void collectData(final DataSet dataSet) {
+        setStandardFields(dataSet,
+                          getHits(),
+                          getFirstHitStamp(),
+                          getLastHitStamp(),
+                          getCommits(),
+                          getFirst(),
+                          getLast(),
+                          getMin(),
+                          getMax(),
+                          getSum());
+
+        for (DataRecorder dataRecorder : currentDataRecorders()) {
             try {
                 dataRecorder.collectData(this, dataSet);
             } catch (Exception e) {
@@ -201,6 +346,39 @@ public abstract class AbstractStatsSession implements StatsSession {
                 Misc.handleUncaughtException(getKey(), e);
             }
         }
+
+        updateDataSetSchema(dataSet);
+    }
+
+    /**
+     * Collect the given drained {@link DataRecorder}s into <tt>data</tt>, which must already hold the
+     * drained standard fields. {@link DataRecorder}s derive some fields from the session, so they are
+     * passed an {@link ImmutableSession} of <tt>data</tt> rather than this session. The caller must
+     * have detached the {@link DataRecorder}s from concurrent updates, or their updates in the
+     * meantime are lost if <tt>clear</tt> is <tt>true</tt>.
+     *
+     * @param data The DataSet being drained.
+     * @param drainedDataRecorders The {@link DataRecorder}s that hold the drained data.
+     * @param clear Whether to clear <tt>drainedDataRecorders</tt> after collecting them, which is
+     *              needed if they continue to be used by this session.
+     */
+    protected void drainDataRecorders(final DataSet data,
+                                      final DataRecorder[] drainedDataRecorders,
+                                      final boolean clear) {
+        final StatsSession drainedSession = new ImmutableSession(key, data);
+
+        for (DataRecorder dataRecorder : drainedDataRecorders) {
+            try {
+                dataRecorder.collectData(drainedSession, data);
+            } catch (Exception e) {
+                Misc.logHandledException(logger, e, "Failed to collectData() from {}", dataRecorder);
+                Misc.handleUncaughtException(getKey(), e);
+            }
+        }
+
+        if (clear) {
+            clearDataRecorders(drainedDataRecorders);
+        }
     }
 
     protected void restoreState(final DataSet dataSet) {
@@ -242,7 +420,7 @@ public abstract class AbstractStatsSession implements StatsSession {
                     setSum(dataSet.getField(DataSet.Field.SUM, DataSet.Field.Default.SUM));
 
                     // Restore DataRecorders
-                    for (DataRecorder dataRecorder : dataRecorders) {
+                    for (DataRecorder dataRecorder : currentDataRecorders()) {
                         try {
                             dataRecorder.restore(dataSet);
                         } catch (Exception e) {
@@ -266,6 +444,15 @@ public abstract class AbstractStatsSession implements StatsSession {
         setMax(Double.NEGATIVE_INFINITY);
         setSum(DataSet.Field.Default.SUM);
 
+        clearDataRecorders(currentDataRecorders());
+    }
+
+    /**
+     * Clear each of the given <tt>dataRecorders</tt>. Failures are logged and passed to the
+     * uncaught exception handler, and do not prevent the other {@link DataRecorder}s from
+     * being cleared.
+     */
+    protected void clearDataRecorders(final DataRecorder[] dataRecorders) {
         for (DataRecorder dataRecorder : dataRecorders) {
             try {
                 dataRecorder.clear();
@@ -212,14 +212,7 @@ public class AsynchronousSession extends AbstractStatsSession {
             // Sum
             sum += currentValue;
 
-            for (DataRecorder dataRecorder : dataRecorders) {
-                try {
-                    dataRecorder.update(this, tracker, now);
-                } catch (Exception e) {
-                    Misc.logHandledException(logger, e, "Failed to update {}", dataRecorder);
-                    Misc.handleUncaughtException(getKey(), e);
-                }
-            }
+            updateDataRecorders(tracker, now);
         } finally {
             stateLock.unlock();
         }
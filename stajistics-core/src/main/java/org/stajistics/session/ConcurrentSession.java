@@ -16,6 +16,7 @@ package org.stajistics.session;
 
 import static org.stajistics.Util.assertNotNull;
 
+import java.io.Serializable;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -28,10 +29,10 @@ import org.stajistics.data.DataSet;
 import org.stajistics.event.EventManager;
 import org.stajistics.event.EventType;
 import org.stajistics.session.recorder.DataRecorder;
-import org.stajistics.session.recorder.DataRecorders;
+import org.stajistics.session.recorder.DataRecorderFactory;
+import org.stajistics.session.recorder.DataRecorderPipeline;
 import org.stajistics.tracker.Tracker;
 import org.stajistics.util.AtomicDouble;
-import org.stajistics.util.Misc;
 
 /**
  * <p>An implementation of {@link StatsSession} that reads and writes data fields atomically
@@ -43,9 +44,21 @@ import org.stajistics.util.Misc;
  * For a {@link StatsSession} implementation that guarantees data integrity,
  * see {@link org.stajistics.session.AsynchronousSession}.</p>
  *
+ * <p>The data fields and {@link DataRecorder}s are held in a {@link State} that {@link #drainData()}
+ * replaces as a whole. Writers register with the State they update in a striped counter and re-check
+ * that it is still current, so {@link #drainData()} can swap in a fresh State, wait for the writers
+ * of the old one to finish, and then read it. Every update is therefore reported in exactly one
+ * drained {@link DataSet}, whose fields are consistent with one another, and writers never wait.
+ * If the session was given a {@link DataRecorderFactory}, as it is by the {@link Factory}, each
+ * State gets fresh {@link DataRecorder}s, and the old ones are collected once quiet. Otherwise the
+ * {@link DataRecorder}s are shared by all States and are collected and then cleared, so updates
+ * that reach them in between are not reported. A drain that is triggered by a {@link DataRecorder}
+ * or another update on the calling thread does not wait, as it would wait for itself, so updates
+ * still in progress on other threads may then be missed.</p>
+ *
  * <p>Due to the concurrent nature of this session implementation, the associated {@link DataRecorder}s
  * must be thread safe. {@link DataRecorder}s that are passed into the constructor are passed through
- * the {@link DataRecorders#lockingIfNeeded(DataRecorder[])} method in order to ensure thread safe
+ * the {@link DataRecorderPipeline#lockingIfNeeded(DataRecorder[])} method in order to ensure thread safe
  * usage. Note that if any {@link DataRecorder}s are wrapped in a locking decorator, it could
  * negatively impact performance of the client application. For optimal performance, use
  * {@link DataRecorder} implementations that are thread safe through the use of atomic primitives.</p>
@@ -60,25 +73,72 @@ public class ConcurrentSession extends AbstractStatsSession {
 
     private static final Logger logger = LoggerFactory.getLogger(ConcurrentSession.class);
 
-    protected final AtomicLong hits = new AtomicLong(DataSet.Field.Default.HITS);
-    protected final AtomicLong firstHitStamp = new AtomicLong(DataSet.Field.Default.FIRST_HIT_STAMP);
-    protected volatile long lastHitStamp = DataSet.Field.Default.LAST_HIT_STAMP;
-    protected final AtomicLong commits = new AtomicLong(DataSet.Field.Default.COMMITS);
-
-    // The proper default is taken care of in getFirst()
-    protected final AtomicReference<Double> first = new AtomicReference<Double>(null);
+    private final DataRecorderFactory dataRecorderFactory;
 
-    protected volatile double last = DataSet.Field.Default.LAST;
-    protected final AtomicDouble min = new AtomicDouble(Double.POSITIVE_INFINITY);
-    protected final AtomicDouble max = new AtomicDouble(Double.NEGATIVE_INFINITY);
-    protected final AtomicDouble sum = new AtomicDouble(DataSet.Field.Default.SUM);
+    private final AtomicReference<State> state;
 
     public ConcurrentSession(final StatsKey key,
                                   final EventManager eventManager,
                                   final DataRecorder... dataRecorders) {
+        this(key, eventManager, null, dataRecorders);
+    }
+
+    /**
+     * @param dataRecorderFactory Creates the fresh {@link DataRecorder}s that replace the drained
+     *                            ones in {@link #drainData()}, which should match
+     *                            <tt>dataRecorders</tt>. May be <tt>null</tt>, in which case
+     *                            <tt>dataRecorders</tt> are kept and cleared when drained.
+     */
+    public ConcurrentSession(final StatsKey key,
+                             final EventManager eventManager,
+                             final DataRecorderFactory dataRecorderFactory,
+                             final DataRecorder... dataRecorders) {
         super(key,
               eventManager,
-              DataRecorders.lockingIfNeeded(dataRecorders));
+              DataRecorderPipeline.lockingIfNeeded(dataRecorders));
+
+        if (this.dataRecorders.length > 0) {
+            this.dataRecorderFactory = dataRecorderFactory;
+        } else {
+            this.dataRecorderFactory = null;
+        }
+
+        state = new AtomicReference<State>(new State(this.dataRecorders,
+                                                     compilePipeline(this.dataRecorders)));
+    }
+
+    /**
+     * Obtain the State that currently receives updates.
+     */
+    protected State getState() {
+        return state.get();
+    }
+
+    private State createState() {
+        if (dataRecorderFactory == null) {
+            final State current = state.get();
+            return new State(current.dataRecorders, current.dataRecorderPipeline);
+        }
+
+        final DataRecorder[] freshDataRecorders =
+            DataRecorderPipeline.lockingIfNeeded(dataRecorderFactory.createDataRecorders());
+        return new State(freshDataRecorders, compilePipeline(freshDataRecorders));
+    }
+
+    @Override
+    protected DataRecorder[] currentDataRecorders() {
+        return state.get().dataRecorders;
+    }
+
+    @Override
+    protected FieldHandle createDataRecorderFieldHandle(final DataRecorder dataRecorder,
+                                                        final String name) {
+        if (dataRecorderFactory != null) {
+            // The DataRecorder is replaced when drained
+            return FieldHandles.named(this, name);
+        }
+
+        return super.createDataRecorderFieldHandle(dataRecorder, name);
     }
 
     @Override
@@ -88,12 +148,29 @@ public class ConcurrentSession extends AbstractStatsSession {
             now = System.currentTimeMillis();
         }
 
-        hits.incrementAndGet();
+        final int[] writer = InFlightWriters.currentThread();
+        State s;
+        int slot;
+        for (;;) {
+            s = state.get();
+            slot = s.writers.enter(writer);
+            if (state.get() == s) {
+                break;
+            }
+            // Lost a race with drainData(); retry on the fresh State
+            s.writers.exit(writer, slot);
+        }
+
+        try {
+            s.hits.incrementAndGet();
 
-        if (firstHitStamp.get() == DataSet.Field.Default.FIRST_HIT_STAMP) {
-            firstHitStamp.compareAndSet(DataSet.Field.Default.FIRST_HIT_STAMP, now);
+            if (s.firstHitStamp.get() == DataSet.Field.Default.FIRST_HIT_STAMP) {
+                s.firstHitStamp.compareAndSet(DataSet.Field.Default.FIRST_HIT_STAMP, now);
+            }
+            s.lastHitStamp = now;
+        } finally {
+            s.writers.exit(writer, slot);
         }
-        lastHitStamp = now;
 
         logger.trace("Track: {}", this);
 
@@ -102,94 +179,68 @@ public class ConcurrentSession extends AbstractStatsSession {
 
     @Override
     public long getHits() {
-        return hits.get();
+        return state.get().hits.get();
     }
 
     @Override
     protected void setHits(final long hits) {
-        this.hits.set(hits);
+        state.get().hits.set(hits);
     }
 
     @Override
     public long getFirstHitStamp() {
-        return firstHitStamp.get();
+        return state.get().firstHitStamp.get();
     }
 
     @Override
     protected void setFirstHitStamp(long firstHitStamp) {
-        this.firstHitStamp.set(firstHitStamp);
+        state.get().firstHitStamp.set(firstHitStamp);
     }
 
     @Override
     public long getLastHitStamp() {
-        return lastHitStamp;
+        return state.get().lastHitStamp;
     }
 
     @Override
     protected void setLastHitStamp(final long lastHitStamp) {
-        this.lastHitStamp = lastHitStamp;
+        state.get().lastHitStamp = lastHitStamp;
     }
 
     @Override
     public long getCommits() {
-        return commits.get();
+        return state.get().commits.get();
     }
 
     @Override
     protected void setCommits(final long commits) {
-        this.commits.set(commits);
+        state.get().commits.set(commits);
     }
 
     @Override
     public void update(final Tracker tracker, long now) {
 
         final double currentValue = tracker.getValue();
-        double tmp;
-
-        commits.incrementAndGet();
-
-        // First
-        if (first.get() == null) {
-            first.compareAndSet(null, currentValue);
-        }
-
-        // Last
-        last = currentValue;
-
-        // Min
-        for (;;) {
-            tmp = min.get();
-            if (currentValue < tmp) {
-                if (min.compareAndSet(tmp, currentValue)) {
-                    break;
-                }
-            } else {
-                break;
-            }
-        }
 
-        // Max
+        final int[] writer = InFlightWriters.currentThread();
+        State s;
+        int slot;
         for (;;) {
-            tmp = max.get();
-            if (currentValue > tmp) {
-                if (max.compareAndSet(tmp, currentValue)) {
-                    break;
-                }
-            } else {
+            s = state.get();
+            slot = s.writers.enter(writer);
+            if (state.get() == s) {
                 break;
             }
+            // Lost a race with drainData(); retry on the fresh State
+            s.writers.exit(writer, slot);
         }
 
-        // Sum
-        sum.addAndGet(currentValue);
+        try {
+            s.update(currentValue);
 
-        for (DataRecorder dataRecorder : dataRecorders) {
-            try {
-                dataRecorder.update(this, tracker, now);
-            } catch (Exception e) {
-                Misc.logHandledException(logger, e, "Failed to update {}", dataRecorder);
-                Misc.handleUncaughtException(getKey(), e);
-            }
+            updateDataRecorders(s.dataRecorders, s.dataRecorderPipeline, tracker, now);
+        } finally {
+            s.writers.exit(writer, slot);
         }
 
         logger.trace("Commit: {}", this);
@@ -199,66 +250,52 @@ public class ConcurrentSession extends AbstractStatsSession {
 
     @Override
     public double getFirst() {
-        Double firstValue = first.get();
-
-        if (firstValue == null) {
-            return DataSet.Field.Default.FIRST;
-        }
-
-        return firstValue;
+        return state.get().getFirst();
     }
 
     @Override
     protected void setFirst(final Double first) {
-        this.first.set(first);
+        state.get().first.set(first);
     }
 
     @Override
     public double getLast() {
-        return last;
+        return state.get().last;
     }
 
     @Override
     protected void setLast(final double last) {
-        this.last = last;
+        state.get().last = last;
     }
 
     @Override
     public double getMin() {
-        Double result = min.get();
-        if (result.equals(Double.POSITIVE_INFINITY)) {
-            result = DataSet.Field.Default.MIN;
-        }
-        return result;
+        return state.get().getMin();
     }
 
     @Override
     protected void setMin(final double min) {
-        this.min.set(min);
+        state.get().min.set(min);
     }
 
     @Override
     public double getMax() {
-        Double result = max.get();
-        if (result.equals(Double.NEGATIVE_INFINITY)) {
-            result = DataSet.Field.Default.MAX;
-        }
-        return result;
+        return state.get().getMax();
     }
 
     @Override
     protected void setMax(double max) {
-        this.max.set(max);
+        state.get().max.set(max);
     }
 
     @Override
     public double getSum() {
-        return sum.get();
+        return state.get().sum.get();
     }
 
     @Override
     protected void setSum(final double sum) {
-        this.sum.set(sum);
+        state.get().sum.set(sum);
     }
 
     @Override
@@ -273,6 +310,16 @@ public class ConcurrentSession extends AbstractStatsSession {
         eventManager.fireEvent(EventType.SESSION_RESTORED, key, this);
     }
 
+    @Override
+    protected void clearState() {
+        // A fresh State already holds the default values
+        state.set(createState());
+
+        if (dataRecorderFactory == null) {
+            clearDataRecorders(dataRecorders);
+        }
+    }
+
     @Override
     public void clear() {
         clearState();
@@ -284,21 +331,153 @@ public class ConcurrentSession extends AbstractStatsSession {
 
     @Override
     public DataSet drainData() {
-        DataSet data = createDataSet(true);
-        collectData(data);
-        clear();
+        final State drained = state.getAndSet(createState());
+        drained.writers.await();
+
+        final DataSet data = createDataSet(true);
+
+        setStandardFields(data,
+                          drained.hits.get(),
+                          drained.firstHitStamp.get(),
+                          drained.lastHitStamp,
+                          drained.commits.get(),
+                          drained.getFirst(),
+                          drained.last,
+                          drained.getMin(),
+                          drained.getMax(),
+                          drained.sum.get());
+
+        drainDataRecorders(data, drained.dataRecorders, dataRecorderFactory == null);
+
+        updateDataSetSchema(data);
+
+        logger.trace("Clear: {}", this);
+
+        eventManager.fireEvent(EventType.SESSION_CLEARED, key, this);
+
         return data;
     }
 
     /* NESTED CLASSES */
 
+    /**
+     * The data fields and {@link DataRecorder}s of a {@link ConcurrentSession} between two drains,
+     * along with the threads that are currently writing to them.
+     */
+    protected static final class State implements Serializable {
+
+        public final AtomicLong hits = new AtomicLong(DataSet.Field.Default.HITS);
+        public final AtomicLong firstHitStamp = new AtomicLong(DataSet.Field.Default.FIRST_HIT_STAMP);
+        public volatile long lastHitStamp = DataSet.Field.Default.LAST_HIT_STAMP;
+        public final AtomicLong commits = new AtomicLong(DataSet.Field.Default.COMMITS);
+
+        // The proper default is taken care of in getFirst()
+        public final AtomicReference<Double> first = new AtomicReference<Double>(null);
+
+        public volatile double last = DataSet.Field.Default.LAST;
+        public final AtomicDouble min = new AtomicDouble(Double.POSITIVE_INFINITY);
+        public final AtomicDouble max = new AtomicDouble(Double.NEGATIVE_INFINITY);
+        public final AtomicDouble sum = new AtomicDouble(DataSet.Field.Default.SUM);
+
+        public final DataRecorder[] dataRecorders;
+
+        // Non-null if the DataRecorders are updated in a single pass
+        private final DataRecorderPipeline dataRecorderPipeline;
+
+        private final InFlightWriters writers = new InFlightWriters();
+
+        private State(final DataRecorder[] dataRecorders,
+                      final DataRecorderPipeline dataRecorderPipeline) {
+            this.dataRecorders = dataRecorders;
+            this.dataRecorderPipeline = dataRecorderPipeline;
+        }
+
+        private void update(final double currentValue) {
+            double tmp;
+
+            commits.incrementAndGet();
+
+            // First
+            if (first.get() == null) {
+                first.compareAndSet(null, currentValue);
+            }
+
+            // Last
+            last = currentValue;
+
+            // Min
+            for (;;) {
+                tmp = min.get();
+                if (currentValue < tmp) {
+                    if (min.compareAndSet(tmp, currentValue)) {
+                        break;
+                    }
+                } else {
+                    break;
+                }
+            }
+
+            // Max
+            for (;;) {
+                tmp = max.get();
+                if (currentValue > tmp) {
+                    if (max.compareAndSet(tmp, currentValue)) {
+                        break;
+                    }
+                } else {
+                    break;
+                }
+            }
+
+            // Sum
+            sum.addAndGet(currentValue);
+        }
+
+        private double getFirst() {
+            Double firstValue = first.get();
+
+            if (firstValue == null) {
+                return DataSet.Field.Default.FIRST;
+            }
+
+            return firstValue;
+        }
+
+        private double getMin() {
+            double result = min.get();
+            if (result == Double.POSITIVE_INFINITY) {
+                result = DataSet.Field.Default.MIN;
+            }
+            return result;
+        }
+
+        private double getMax() {
+            double result = max.get();
+            if (result == Double.NEGATIVE_INFINITY) {
+                result = DataSet.Field.Default.MAX;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Creates {@link ConcurrentSession}s that obtain fresh {@link DataRecorder}s for each drained
+     * interval from the {@link DataRecorderFactory} configured for the key.
+     */
     public static final class Factory implements StatsSessionFactory {
         @Override
         public StatsSession createSession(final StatsKey key,
                                           final DataRecorder[] dataRecorders) {
             StatsManager statsManager = StatsManagerRegistry.getInstance().getStatsManager(key.getNamespace());
+            DataRecorderFactory dataRecorderFactory = null;
+            if (dataRecorders.length > 0) {
+                dataRecorderFactory = statsManager.getConfigManager()
+                                                  .getOrCreateConfig(key)
+                                                  .getDataRecorderFactory();
+            }
             return new ConcurrentSession(key,
                                          statsManager.getEventManager(),
+                                         dataRecorderFactory,
                                          dataRecorders);
         }
     }
@@ -0,0 +1,586 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session;
+
+import static org.stajistics.Util.assertNotNull;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.stajistics.StatsKey;
+import org.stajistics.StatsManager;
+import org.stajistics.StatsManagerRegistry;
+import org.stajistics.StatsProperties;
+import org.stajistics.data.DataSet;
+import org.stajistics.event.EventManager;
+import org.stajistics.event.EventType;
+import org.stajistics.session.recorder.DataRecorder;
+import org.stajistics.session.recorder.DataRecorderPipeline;
+import org.stajistics.tracker.Tracker;
+
+/**
+ * <p>A {@link StatsSession} that, in addition to the usual fields, maintains an exponentially
+ * decaying view of the committed values, so that recent behaviour dominates the reported
+ * count, mean, standard deviation and rate however long the session has been running.
+ * The decayed fields are reported under the names in {@link Field}.</p>
+ *
+ * <p>Forward decay is used: each value is weighted by <tt>e<sup>a(t - L)</sup></tt>, where
+ * <tt>t</tt> is its timestamp and <tt>L</tt> a fixed landmark, and the weight sum, weighted
+ * mean, and weighted sum of squared deviations from the mean are accumulated as they arrive,
+ * the latter two incrementally as in West's weighted form of Welford's algorithm. This avoids
+ * the cancellation of subtracting the squared mean from the mean of squares, which the
+ * exponentially growing weights would aggravate. Decaying to the current time is a single multiplication at read
+ * time, so a session holds a constant amount of state and nothing is rotated or rescanned.
+ * The landmark is moved forward whenever the weights grow large, which is also O(1).</p>
+ *
+ * <p>The decay rate is given as a half-life, after which a value carries half of its original
+ * weight. It defaults to one minute and can be changed with the {@link #PROP_HALF_LIFE_MILLIS}
+ * property or through the {@link Factory}.</p>
+ *
+ * @author The Stajistics Project
+ */
+public class DecayingSession extends AbstractStatsSession {
+
+    public static final String PROP_HALF_LIFE_MILLIS =
+        DecayingSession.class.getName() + ".halfLifeMillis";
+
+    public static final Factory FACTORY = new Factory();
+
+    private static final Logger logger = LoggerFactory.getLogger(DecayingSession.class);
+
+    private static final long DEFAULT_HALF_LIFE_MILLIS = 60000;
+
+    // The largest weight exponent before the landmark is moved; keeps the weighted sums finite
+    private static final double MAX_EXPONENT = 20;
+
+    private volatile long hits = DataSet.Field.Default.HITS;
+    private volatile long firstHitStamp = DataSet.Field.Default.FIRST_HIT_STAMP;
+    private volatile long lastHitStamp = DataSet.Field.Default.LAST_HIT_STAMP;
+    private volatile long commits = DataSet.Field.Default.COMMITS;
+
+    private volatile Double first = null; // The proper default is taken care of in getFirst()
+    private volatile double last = DataSet.Field.Default.LAST;
+    private volatile double min = Double.POSITIVE_INFINITY;
+    private volatile double max = Double.NEGATIVE_INFINITY;
+    private volatile double sum = DataSet.Field.Default.SUM;
+
+    private final long halfLifeMillis;
+    private final double alpha;
+
+    // Forward decay state, guarded by the lock
+    private long landmark = Long.MIN_VALUE;
+    private long decayStart = Long.MIN_VALUE;
+    private double weightSum = 0;
+    private double weightedMean = 0;
+    private double weightedM2 = 0; // The weighted sum of squared deviations from the mean
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public DecayingSession(final StatsKey key,
+                           final EventManager eventManager,
+                           final DataRecorder... dataRecorders) {
+        this(key,
+             eventManager,
+             StatsProperties.getLongProperty(PROP_HALF_LIFE_MILLIS, DEFAULT_HALF_LIFE_MILLIS),
+             dataRecorders);
+    }
+
+    /**
+     * @param halfLifeMillis The number of milliseconds after which a value carries half of
+     *                       its original weight.
+     */
+    public DecayingSession(final StatsKey key,
+                           final EventManager eventManager,
+                           final long halfLifeMillis,
+                           final DataRecorder... dataRecorders) {
+        super(key,
+              eventManager,
+              DataRecorderPipeline.lockingIfNeeded(dataRecorders));
+
+        if (halfLifeMillis <= 0) {
+            throw new IllegalArgumentException("halfLifeMillis must be > 0: " + halfLifeMillis);
+        }
+
+        this.halfLifeMillis = halfLifeMillis;
+        this.alpha = Math.log(2) / halfLifeMillis;
+    }
+
+    public long getHalfLifeMillis() {
+        return halfLifeMillis;
+    }
+
+    /**
+     * Obtain the current time. Exposed for testing.
+     *
+     * @return The current time in milliseconds.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public void track(final Tracker tracker, long now) {
+        if (now < 0) {
+            now = currentTimeMillis();
+        }
+
+        lock.lock();
+        try {
+            hits++;
+            if (firstHitStamp == DataSet.Field.Default.FIRST_HIT_STAMP) {
+                firstHitStamp = now;
+            }
+            lastHitStamp = now;
+        } finally {
+            lock.unlock();
+        }
+
+        logger.trace("Track: {}", this);
+
+        eventManager.fireEvent(EventType.TRACKER_TRACKING, key, tracker);
+    }
+
+    @Override
+    public void update(final Tracker tracker, long now) {
+        final double currentValue = tracker.getValue();
+
+        if (now < 0) {
+            now = currentTimeMillis();
+        }
+
+        lock.lock();
+        try {
+            commits++;
+            if (first == null) {
+                first = currentValue;
+            }
+            last = currentValue;
+            if (currentValue < min) {
+                min = currentValue;
+            }
+            if (currentValue > max) {
+                max = currentValue;
+            }
+            sum += currentValue;
+
+            decay(currentValue, now);
+
+        } finally {
+            lock.unlock();
+        }
+
+        updateDataRecorders(tracker, now);
+
+        logger.trace("Commit: {}", this);
+
+        eventManager.fireEvent(EventType.TRACKER_COMMITTED, key, tracker);
+    }
+
+    /**
+     * Add a value to the forward decay sums. Must be called with the lock held.
+     */
+    private void decay(final double value, final long now) {
+        if (landmark == Long.MIN_VALUE) {
+            landmark = now;
+            decayStart = now;
+        } else if (now < decayStart) {
+            decayStart = now;
+        }
+
+        double exponent = alpha * (now - landmark);
+        if (exponent > MAX_EXPONENT) {
+            rescale(now);
+            exponent = 0;
+        }
+
+        final double weight = Math.exp(exponent);
+        weightSum += weight;
+
+        final double delta = value - weightedMean;
+        weightedMean += delta * weight / weightSum;
+        weightedM2 += weight * delta * (value - weightedMean);
+    }
+
+    private void rescale(final long newLandmark) {
+        final double factor = Math.exp(-alpha * (newLandmark - landmark));
+        // The mean is a ratio of weighted sums, so it is unaffected
+        weightSum *= factor;
+        weightedM2 *= factor;
+        landmark = newLandmark;
+    }
+
+    /**
+     * Obtain the sum of the weights of all committed values, decayed to the current time.
+     *
+     * @return The decayed commit count.
+     */
+    public double getDecayedCount() {
+        lock.lock();
+        try {
+            if (landmark == Long.MIN_VALUE) {
+                return 0;
+            }
+            return weightSum * Math.exp(-alpha * (currentTimeMillis() - landmark));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Obtain the decay weighted mean of the committed values.
+     *
+     * @return The decayed mean, or <tt>0</tt> if nothing has been committed.
+     */
+    public double getDecayedMean() {
+        lock.lock();
+        try {
+            if (weightSum <= 0) {
+                return 0;
+            }
+            return weightedMean;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Obtain the decay weighted population standard deviation of the committed values.
+     *
+     * @return The decayed standard deviation, or <tt>0</tt> if nothing has been committed.
+     */
+    public double getDecayedStdDev() {
+        lock.lock();
+        try {
+            if (weightSum <= 0) {
+                return 0;
+            }
+            final double variance = weightedM2 / weightSum;
+            if (variance <= 0) {
+                return 0;
+            }
+            return Math.sqrt(variance);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Obtain the decay weighted commit rate. While the session is younger than a few half-lives
+     * the estimate is corrected for the portion of the decay horizon that has not yet elapsed.
+     *
+     * @return The decayed number of commits per second.
+     */
+    public double getDecayedRate() {
+        lock.lock();
+        try {
+            if (landmark == Long.MIN_VALUE) {
+                return 0;
+            }
+
+            final long now = currentTimeMillis();
+            final double count = weightSum * Math.exp(-alpha * (now - landmark));
+
+            // Treat the first commit as having arrived at least a millisecond ago
+            final long elapsed = Math.max(1, now - decayStart);
+            return count * alpha / (1 - Math.exp(-alpha * elapsed)) * 1000;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Object getField(final String name) {
+        if (Field.DECAYED_COUNT.equals(name)) {
+            return getDecayedCount();
+        }
+        if (Field.DECAYED_MEAN.equals(name)) {
+            return getDecayedMean();
+        }
+        if (Field.DECAYED_STD_DEV.equals(name)) {
+            return getDecayedStdDev();
+        }
+        if (Field.DECAYED_RATE.equals(name)) {
+            return getDecayedRate();
+        }
+
+        return super.getField(name);
+    }
+
+    @Override
+    public FieldHandle getFieldHandle(final String name) {
+        if (Field.DECAYED_COUNT.equals(name) ||
+                Field.DECAYED_MEAN.equals(name) ||
+                Field.DECAYED_STD_DEV.equals(name) ||
+                Field.DECAYED_RATE.equals(name)) {
+            return FieldHandles.named(this, name);
+        }
+
+        return super.getFieldHandle(name);
+    }
+
+    @Override
+    protected void collectData(final DataSet dataSet) {
+        lock.lock();
+        try {
+            super.collectData(dataSet);
+
+            dataSet.setDoubleField(Field.DECAYED_COUNT, getDecayedCount());
+            dataSet.setDoubleField(Field.DECAYED_MEAN, getDecayedMean());
+            dataSet.setDoubleField(Field.DECAYED_STD_DEV, getDecayedStdDev());
+            dataSet.setDoubleField(Field.DECAYED_RATE, getDecayedRate());
+
+            updateDataSetSchema(dataSet);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits;
+    }
+
+    @Override
+    protected void setHits(final long hits) {
+        this.hits = hits;
+    }
+
+    @Override
+    public long getFirstHitStamp() {
+        return firstHitStamp;
+    }
+
+    @Override
+    protected void setFirstHitStamp(final long firstHitStamp) {
+        this.firstHitStamp = firstHitStamp;
+    }
+
+    @Override
+    public long getLastHitStamp() {
+        return lastHitStamp;
+    }
+
+    @Override
+    protected void setLastHitStamp(final long lastHitStamp) {
+        this.lastHitStamp = lastHitStamp;
+    }
+
+    @Override
+    public long getCommits() {
+        return commits;
+    }
+
+    @Override
+    protected void setCommits(final long commits) {
+        this.commits = commits;
+    }
+
+    @Override
+    public double getFirst() {
+        Double result = first;
+        if (result == null) {
+            return DataSet.Field.Default.FIRST;
+        }
+        return result;
+    }
+
+    @Override
+    protected void setFirst(final Double first) {
+        this.first = first;
+    }
+
+    @Override
+    public double getLast() {
+        return last;
+    }
+
+    @Override
+    protected void setLast(final double last) {
+        this.last = last;
+    }
+
+    @Override
+    public double getMin() {
+        final double result = min;
+        if (result == Double.POSITIVE_INFINITY) {
+            return DataSet.Field.Default.MIN;
+        }
+        return result;
+    }
+
+    @Override
+    protected void setMin(final double min) {
+        this.min = min;
+    }
+
+    @Override
+    public double getMax() {
+        final double result = max;
+        if (result == Double.NEGATIVE_INFINITY) {
+            return DataSet.Field.Default.MAX;
+        }
+        return result;
+    }
+
+    @Override
+    protected void setMax(final double max) {
+        this.max = max;
+    }
+
+    @Override
+    public double getSum() {
+        return sum;
+    }
+
+    @Override
+    protected void setSum(final double sum) {
+        this.sum = sum;
+    }
+
+    @Override
+    protected void clearState() {
+        lock.lock();
+        try {
+            super.clearState();
+
+            landmark = Long.MIN_VALUE;
+            decayStart = Long.MIN_VALUE;
+            weightSum = 0;
+            weightedMean = 0;
+            weightedM2 = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Restore the given {@link DataSet}. The decayed fields, if present, are taken to be
+     * current as of now.
+     */
+    @Override
+    public void restore(final DataSet dataSet) {
+        assertNotNull(dataSet, "dataSet");
+
+        lock.lock();
+        try {
+            clearState();
+            restoreState(dataSet);
+
+            if (commits > DataSet.Field.Default.COMMITS) {
+                Double count = dataSet.getField(Field.DECAYED_COUNT, Double.class);
+                Double mean = dataSet.getField(Field.DECAYED_MEAN, Double.class);
+                Double stdDev = dataSet.getField(Field.DECAYED_STD_DEV, Double.class);
+
+                if (count != null && mean != null && stdDev != null && count > 0) {
+                    landmark = currentTimeMillis();
+                    decayStart = Math.min(landmark, firstHitStamp);
+                    weightSum = count;
+                    weightedMean = mean;
+                    weightedM2 = stdDev * stdDev * count;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        logger.trace("Restore: {}", this);
+
+        eventManager.fireEvent(EventType.SESSION_RESTORED, key, this);
+    }
+
+    @Override
+    public void clear() {
+        clearState();
+
+        logger.trace("Clear: {}", this);
+
+        eventManager.fireEvent(EventType.SESSION_CLEARED, key, this);
+    }
+
+    @Override
+    public DataSet drainData() {
+        final DataSet data = createDataSet(true);
+
+        lock.lock();
+        try {
+            collectData(data);
+            clearState();
+        } finally {
+            lock.unlock();
+        }
+
+        logger.trace("Clear: {}", this);
+
+        eventManager.fireEvent(EventType.SESSION_CLEARED, key, this);
+
+        return data;
+    }
+
+    /* NESTED CLASSES */
+
+    /**
+     * The names of the decayed fields reported by a {@link DecayingSession}.
+     */
+    public static interface Field {
+        public static final String DECAYED_COUNT = "decayedCount";
+        public static final String DECAYED_MEAN = "decayedMean";
+        public static final String DECAYED_STD_DEV = "decayedStdDev";
+        public static final String DECAYED_RATE = "decayedRate";
+    }
+
+    public static final class Factory implements StatsSessionFactory {
+
+        private final long halfLifeMillis;
+
+        public Factory() {
+            this(-1);
+        }
+
+        /**
+         * @param halfLifeMillis The decay half-life in milliseconds, or a negative value to
+         *                       use the default.
+         */
+        public Factory(final long halfLifeMillis) {
+            this.halfLifeMillis = halfLifeMillis;
+        }
+
+        @Override
+        public StatsSession createSession(final StatsKey key,
+                                          final DataRecorder[] dataRecorders) {
+            StatsManager statsManager = StatsManagerRegistry.getInstance().getStatsManager(key.getNamespace());
+            if (halfLifeMillis < 0) {
+                return new DecayingSession(key,
+                                           statsManager.getEventManager(),
+                                           dataRecorders);
+            }
+            return new DecayingSession(key,
+                                       statsManager.getEventManager(),
+                                       halfLifeMillis,
+                                       dataRecorders);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return (obj instanceof Factory) && ((Factory) obj).halfLifeMillis == halfLifeMillis;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (halfLifeMillis ^ (halfLifeMillis >>> 32));
+        }
+    }
+
+}
@@ -48,8 +48,20 @@ public class DefaultSessionFactory implements StatsSessionFactory {
 
             if (sessionImpl == "concurrent") {
                 sessionFactory = ConcurrentSession.FACTORY;
+            } else if (sessionImpl == "striped") {
+                sessionFactory = StripedConcurrentSession.FACTORY;
+            } else if (sessionImpl == "compact") {
+                sessionFactory = CompactConcurrentSession.FACTORY;
             } else if (sessionImpl == "asynchronous") {
                 sessionFactory = AsynchronousSession.FACTORY;
+            } else if (sessionImpl == "ringBuffer") {
+                sessionFactory = RingBufferSession.FACTORY;
+            } else if (sessionImpl == "threadLocal") {
+                sessionFactory = ThreadLocalBufferedSession.FACTORY;
+            } else if (sessionImpl == "rolling") {
+                sessionFactory = RollingWindowSession.FACTORY;
+            } else if (sessionImpl == "decaying") {
+                sessionFactory = DecayingSession.FACTORY;
             } else if (sessionImpl == "immutable") {
                 sessionFactory = ImmutableSession.FACTORY;
             }
@@ -18,14 +18,21 @@ import static org.stajistics.Util.assertNotNull;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.stajistics.StatsKey;
+import org.stajistics.StatsKeyBuilder;
 import org.stajistics.StatsKeyMatcher;
 import org.stajistics.StatsManager;
 import org.stajistics.StatsManagerRegistry;
@@ -37,8 +44,30 @@ import org.stajistics.event.EventType;
 import org.stajistics.session.recorder.DataRecorder;
 
 /**
- * The default implementation of {@link StatsSessionManager}. All operations are done in a
- * thread safe manner using concurrent utils.
+ * <p>The default implementation of {@link StatsSessionManager}. All operations are done in a
+ * thread safe manner using concurrent utils.</p>
+ *
+ * <p>The number of sessions can be bounded with the {@link #PROP_MAX_SESSIONS} property, and
+ * sessions that have not been accessed for a while can be discarded by setting the
+ * {@link #PROP_MAX_IDLE_MILLIS} property. Both are disabled by default. While either is enabled,
+ * the manager records the time at which each session was last returned from
+ * {@link #getOrCreateSession(StatsKey)}, independently of the session's own data, so that
+ * draining or clearing a session does not affect its eviction. Eviction is done
+ * opportunistically by the thread that creates a new session, so looking up an existing
+ * session remains lock free. When the session count exceeds the maximum, a handful of
+ * sessions are sampled by a clock hand that sweeps around the sessions, and the one that
+ * was least recently accessed is evicted, which approximates LRU order. Idle sessions are swept
+ * at most every half of the idle time, or on demand through {@link #evictIdleSessions()}.
+ * Evicted sessions are reported with {@link EventType#SESSION_DESTROYED}, and their data is
+ * lost, as is any data tracked through a reference to an evicted session.</p>
+ *
+ * <p>To bound the number of sessions without losing data, the number of distinct sub-keys,
+ * that is attribute combinations, of each key name can be limited with
+ * {@link StatsConfig#getMaxSubKeys()}, which is inherited through the key name hierarchy so
+ * that a limit can be set for all names under a prefix. Once a name has reached its limit,
+ * lookups of further sub-keys return the session of a single overflow sub-key that has only
+ * the {@link #OVERFLOW_ATTRIBUTE} attribute, so totals over the key name remain correct.
+ * Removed and evicted sub-keys free their slot.</p>
  *
  * @author The Stajistics Project
  */
@@ -51,6 +80,19 @@ public class DefaultSessionManager implements StatsSessionManager {
     public static final String PROP_CONCURRENCY_LEVEL =
         StatsSessionManager.class.getName() + ".sessionMap.concurrencyLevel";
 
+    public static final String PROP_MAX_SESSIONS =
+        StatsSessionManager.class.getName() + ".maxSessions";
+    public static final String PROP_MAX_IDLE_MILLIS =
+        StatsSessionManager.class.getName() + ".maxIdleMillis";
+    public static final String PROP_EVICTION_SAMPLE_SIZE =
+        StatsSessionManager.class.getName() + ".evictionSampleSize";
+
+    /**
+     * The name of the attribute that marks the sub-key into which the sub-keys above a key
+     * name's {@link StatsConfig#getMaxSubKeys()} limit are folded.
+     */
+    public static final String OVERFLOW_ATTRIBUTE = "<overflow>";
+
     private static final Logger logger = LoggerFactory.getLogger(DefaultSessionManager.class);
 
     protected ConcurrentMap<StatsKey,StatsSession> sessionMap = createSessionMap();
@@ -60,13 +102,60 @@ public class DefaultSessionManager implements StatsSessionManager {
 
     private final Support lifeCycleSupport = new Support();
 
+    private final int maxSessions;
+    private final long maxIdleMillis;
+    private final int evictionSampleSize;
+    private final boolean evicting;
+
+    // The last access time of each session, maintained only while eviction is enabled
+    private final ConcurrentMap<StatsKey,AccessStamp> accessStamps =
+        new ConcurrentHashMap<StatsKey,AccessStamp>();
+
+    private final AtomicInteger sessionCount = new AtomicInteger(0);
+    private final AtomicLong capacityEvictionCount = new AtomicLong(0);
+    private final AtomicLong idleEvictionCount = new AtomicLong(0);
+
+    private final ConcurrentMap<String,SubKeyCount> subKeyCounts =
+        new ConcurrentHashMap<String,SubKeyCount>();
+    private final AtomicLong overflowCount = new AtomicLong(0);
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private volatile long nextIdleSweep = 0;
+
+    // Guarded by evictionLock
+    private transient Iterator<Map.Entry<StatsKey,AccessStamp>> clockHand;
+
     public DefaultSessionManager(final StatsConfigManager configManager,
                                  final EventManager eventManager) {
+        this(configManager,
+             eventManager,
+             StatsProperties.getIntegerProperty(PROP_MAX_SESSIONS, Integer.MAX_VALUE),
+             StatsProperties.getLongProperty(PROP_MAX_IDLE_MILLIS, -1L));
+    }
+
+    /**
+     * @param maxSessions The number of sessions above which the least recently accessed
+     *                    sessions are evicted. {@link Integer#MAX_VALUE} for no limit.
+     * @param maxIdleMillis The number of milliseconds after the last access at which a session
+     *                      is evicted, or a value less than 1 to never evict idle sessions.
+     */
+    public DefaultSessionManager(final StatsConfigManager configManager,
+                                 final EventManager eventManager,
+                                 final int maxSessions,
+                                 final long maxIdleMillis) {
         assertNotNull(configManager, "configManager");
         assertNotNull(eventManager, "eventManager");
 
+        if (maxSessions < 1) {
+            throw new IllegalArgumentException("maxSessions must be > 0: " + maxSessions);
+        }
+
         this.configManager = configManager;
         this.eventManager = eventManager;
+        this.maxSessions = maxSessions;
+        this.maxIdleMillis = maxIdleMillis;
+        this.evictionSampleSize = Math.max(1, StatsProperties.getIntegerProperty(PROP_EVICTION_SAMPLE_SIZE, 8));
+        this.evicting = maxSessions < Integer.MAX_VALUE || maxIdleMillis > 0;
     }
 
     @Override
@@ -148,6 +237,13 @@ public class DefaultSessionManager implements StatsSessionManager {
         StatsSession session = sessionMap.get(key);
 
         if (session == null) {
+            if (key.getAttributeCount() > 0 && !isOverflowKey(key)) {
+                final int maxSubKeys = configManager.getOrCreateConfig(key).getMaxSubKeys();
+                if (maxSubKeys < Integer.MAX_VALUE) {
+                    return getOrCreateLimitedSession(key, maxSubKeys);
+                }
+            }
+
             session = createSession(key);
 
             StatsSession existingSession = sessionMap.putIfAbsent(key, session);
@@ -155,13 +251,142 @@ public class DefaultSessionManager implements StatsSessionManager {
                 session = existingSession;
 
             } else {
-                eventManager.fireEvent(EventType.SESSION_CREATED, key, session);
+                sessionCreated(key, session);
+                return session;
+            }
+        }
+
+        if (evicting) {
+            accessed(key, session);
+        }
+
+        return session;
+    }
+
+    /**
+     * Obtain the current time. Exposed for testing.
+     *
+     * @return The current time in milliseconds.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Record that <tt>session</tt> was accessed through <tt>key</tt>.
+     */
+    private void accessed(final StatsKey key, final StatsSession session) {
+        final long now = currentTimeMillis();
+        final AccessStamp accessStamp = accessStamps.get(key);
+
+        if (accessStamp == null) {
+            accessStamps.putIfAbsent(key, new AccessStamp(session, now));
+
+        } else if (accessStamp.session != session) {
+            accessStamps.replace(key, accessStamp, new AccessStamp(session, now));
+
+        } else if (accessStamp.lastAccess < now) {
+            // At most one write per millisecond, so hot keys don't contend on the stamp
+            accessStamp.lastAccess = now;
+        }
+    }
+
+    private StatsSession getOrCreateLimitedSession(final StatsKey key,
+                                                   final int maxSubKeys) {
+        SubKeyCount subKeyCount = subKeyCounts.get(key.getName());
+        if (subKeyCount == null) {
+            subKeyCount = new SubKeyCount();
+            SubKeyCount existingSubKeyCount = subKeyCounts.putIfAbsent(key.getName(), subKeyCount);
+            if (existingSubKeyCount != null) {
+                subKeyCount = existingSubKeyCount;
+            }
+        }
+
+        // Reserve a slot for the new sub-key, or fold it into the overflow sub-key
+        for (;;) {
+            final int count = subKeyCount.get();
+            if (count >= maxSubKeys) {
+                if (subKeyCount.fold(key)) {
+                    overflowCount.incrementAndGet();
+                }
+                return getOrCreateSession(subKeyCount.overflowKeyFor(key));
+            }
+            if (subKeyCount.compareAndSet(count, count + 1)) {
+                break;
+            }
+        }
+
+        StatsSession session = createSession(key);
+
+        StatsSession existingSession = sessionMap.putIfAbsent(key, session);
+        if (existingSession != null) {
+            subKeyCount.decrementAndGet();
+            if (evicting) {
+                accessed(key, existingSession);
             }
+            return existingSession;
         }
 
+        sessionCreated(key, session);
+
         return session;
     }
 
+    private void sessionCreated(final StatsKey key, final StatsSession session) {
+        if (evicting) {
+            accessStamps.put(key, new AccessStamp(session, currentTimeMillis()));
+        }
+
+        eventManager.fireEvent(EventType.SESSION_CREATED, key, session);
+
+        if (sessionCount.incrementAndGet() > maxSessions || isIdleSweepDue()) {
+            evict(key);
+        }
+    }
+
+    private static boolean isOverflowKey(final StatsKey key) {
+        return key.getAttribute(OVERFLOW_ATTRIBUTE) != null;
+    }
+
+    /**
+     * Release the access stamp and the sub-key slot, if any, held by a session that has been removed.
+     */
+    private void sessionRemoved(final StatsKey key, final StatsSession session) {
+        sessionCount.decrementAndGet();
+
+        if (evicting) {
+            final AccessStamp accessStamp = accessStamps.get(key);
+            if (accessStamp != null && accessStamp.session == session) {
+                accessStamps.remove(key, accessStamp);
+            }
+        }
+
+        if (key.getAttributeCount() > 0 && !isOverflowKey(key)) {
+            final SubKeyCount subKeyCount = subKeyCounts.get(key.getName());
+            if (subKeyCount != null) {
+                for (;;) {
+                    final int count = subKeyCount.get();
+                    if (count <= 0 || subKeyCount.compareAndSet(count, count - 1)) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of distinct sub-keys that were folded into an overflow sub-key because
+     * the key name had reached its {@link StatsConfig#getMaxSubKeys()} limit. Folded sub-keys
+     * are remembered by hash in a fixed size table per key name, so the count is approximate:
+     * sub-keys whose hashes collide are counted once.
+     *
+     * @return The number of distinct sub-keys folded into an overflow sub-key.
+     */
+    @Override
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
     @Override
     public boolean remove(final StatsSession statsSession) {
         return remove(statsSession.getKey()) != null;
@@ -172,12 +397,179 @@ public class DefaultSessionManager implements StatsSessionManager {
         StatsSession session = sessionMap.remove(key);
 
         if (session != null) {
+            sessionRemoved(key, session);
             eventManager.fireEvent(EventType.SESSION_DESTROYED, key, session);
         }
 
         return session;
     }
 
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    public long getMaxIdleMillis() {
+        return maxIdleMillis;
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return capacityEvictionCount.get() + idleEvictionCount.get();
+    }
+
+    /**
+     * Get the number of sessions that have been evicted because the maximum session count
+     * was exceeded.
+     *
+     * @return The number of sessions evicted due to capacity.
+     */
+    public long getCapacityEvictionCount() {
+        return capacityEvictionCount.get();
+    }
+
+    /**
+     * Get the number of sessions that have been evicted because they were idle.
+     *
+     * @return The number of idle sessions evicted.
+     */
+    public long getIdleEvictionCount() {
+        return idleEvictionCount.get();
+    }
+
+    /**
+     * Evict all sessions that have not been accessed within the maximum idle time. Does nothing
+     * if idle eviction is disabled.
+     *
+     * @return The number of sessions evicted.
+     */
+    public int evictIdleSessions() {
+        if (maxIdleMillis <= 0) {
+            return 0;
+        }
+
+        evictionLock.lock();
+        try {
+            return evictIdle(currentTimeMillis());
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private boolean isIdleSweepDue() {
+        return maxIdleMillis > 0 && currentTimeMillis() >= nextIdleSweep;
+    }
+
+    /**
+     * Evict idle sessions if a sweep is due, and then least recently accessed sessions until
+     * the maximum session count is no longer exceeded. If another thread is already evicting
+     * this returns immediately, so the session count may briefly overshoot the maximum.
+     *
+     * @param newKey The key of the session that was just created, which is never evicted.
+     */
+    private void evict(final StatsKey newKey) {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+
+        try {
+            if (isIdleSweepDue()) {
+                evictIdle(currentTimeMillis());
+            }
+
+            while (sessionCount.get() > maxSessions) {
+                if (!evictLeastRecentlyAccessed(newKey)) {
+                    break;
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private int evictIdle(final long now) {
+        nextIdleSweep = now + Math.max(1, maxIdleMillis / 2);
+
+        final long idleThreshold = now - maxIdleMillis;
+        int evicted = 0;
+
+        for (Map.Entry<StatsKey,AccessStamp> entry : accessStamps.entrySet()) {
+            final AccessStamp accessStamp = entry.getValue();
+            if (accessStamp.lastAccess < idleThreshold) {
+                if (evict(entry.getKey(), accessStamp, idleEvictionCount)) {
+                    evicted++;
+                }
+            }
+        }
+
+        return evicted;
+    }
+
+    private boolean evictLeastRecentlyAccessed(final StatsKey newKey) {
+        StatsKey victimKey = null;
+        AccessStamp victim = null;
+        long victimLastAccess = Long.MAX_VALUE;
+
+        boolean wrapped = false;
+        int sampled = 0;
+
+        while (sampled < evictionSampleSize) {
+            if (clockHand == null || !clockHand.hasNext()) {
+                if (wrapped) {
+                    break;
+                }
+                wrapped = true;
+                clockHand = accessStamps.entrySet().iterator();
+                if (!clockHand.hasNext()) {
+                    break;
+                }
+            }
+
+            final Map.Entry<StatsKey,AccessStamp> entry = clockHand.next();
+            if (entry.getKey().equals(newKey)) {
+                continue;
+            }
+
+            sampled++;
+
+            final long lastAccess = entry.getValue().lastAccess;
+            if (victim == null || lastAccess < victimLastAccess) {
+                victimKey = entry.getKey();
+                victim = entry.getValue();
+                victimLastAccess = lastAccess;
+            }
+        }
+
+        if (victim == null) {
+            return false;
+        }
+
+        evict(victimKey, victim, capacityEvictionCount);
+        return true;
+    }
+
+    private boolean evict(final StatsKey key,
+                          final AccessStamp accessStamp,
+                          final AtomicLong evictionCount) {
+        final StatsSession session = accessStamp.session;
+
+        if (!sessionMap.remove(key, session)) {
+            // The session was already removed, so the stamp is stale
+            if (sessionMap.get(key) != session) {
+                accessStamps.remove(key, accessStamp);
+            }
+            return false;
+        }
+
+        sessionRemoved(key, session);
+        evictionCount.incrementAndGet();
+
+        logger.debug("Evicted StatsSession for key: {}", key);
+
+        eventManager.fireEvent(EventType.SESSION_DESTROYED, key, session);
+
+        return true;
+    }
+
     /**
      * A factory method for creating a {@link StatsSession} instance.
      *
@@ -214,4 +606,85 @@ public class DefaultSessionManager implements StatsSessionManager {
         }
     }
 
+    /* NESTED CLASSES */
+
+    /**
+     * The time at which a session was last accessed through this manager.
+     */
+    private static final class AccessStamp {
+
+        final StatsSession session;
+        volatile long lastAccess;
+
+        AccessStamp(final StatsSession session, final long lastAccess) {
+            this.session = session;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * The number of sub-keys of a key name that currently have sessions, along with the
+     * overflow sub-key of the name.
+     */
+    private static final class SubKeyCount extends AtomicInteger {
+
+        private static final int FOLDED_KEY_BITS = 1 << 16;
+
+        private volatile StatsKey overflowKey;
+
+        // One bit per folded sub-key hash, allocated when the first sub-key is folded
+        private volatile AtomicLongArray foldedKeys;
+
+        /**
+         * Record that <tt>key</tt> was folded into the overflow sub-key.
+         *
+         * @return <tt>true</tt> if <tt>key</tt> had not been folded before.
+         */
+        boolean fold(final StatsKey key) {
+            AtomicLongArray bits = foldedKeys;
+            if (bits == null) {
+                synchronized (this) {
+                    bits = foldedKeys;
+                    if (bits == null) {
+                        bits = new AtomicLongArray(FOLDED_KEY_BITS / 64);
+                        foldedKeys = bits;
+                    }
+                }
+            }
+
+            int h = key.hashCode();
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+
+            final int bit = h & (FOLDED_KEY_BITS - 1);
+            final int index = bit >>> 6;
+            final long mask = 1L << (bit & 63);
+
+            for (;;) {
+                final long word = bits.get(index);
+                if ((word & mask) != 0) {
+                    return false;
+                }
+                if (bits.compareAndSet(index, word, word | mask)) {
+                    return true;
+                }
+            }
+        }
+
+        StatsKey overflowKeyFor(final StatsKey key) {
+            StatsKey result = overflowKey;
+            if (result == null) {
+                StatsKeyBuilder builder = key.buildCopy();
+                for (String attrName : key.getAttributes().keySet()) {
+                    builder.withoutAttribute(attrName);
+                }
+                result = builder.withAttribute(OVERFLOW_ATTRIBUTE, Boolean.TRUE)
+                                .newKey();
+                overflowKey = result;
+            }
+            return result;
+        }
+    }
+
 }
@@ -0,0 +1,48 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session;
+
+/**
+ * A field of a particular {@link StatsSession} that has been resolved by name once, through
+ * {@link StatsSession#getFieldHandle(String)}, and can then be read repeatedly without
+ * looking up the name again. This suits frequent polling of many sessions, such as by
+ * JMX clients and exporters.
+ *
+ * @author The Stajistics Project
+ */
+public interface FieldHandle {
+
+    /**
+     * @return The name of the field, never <tt>null</tt>.
+     */
+    String getName();
+
+    /**
+     * Obtain the current value of the field.
+     *
+     * @return The field value, or <tt>null</tt> if not found.
+     *
+     * @see StatsSession#getField(String)
+     */
+    Object getValue();
+
+    /**
+     * Obtain the current value of a numeric field, without boxing where the field allows.
+     *
+     * @return The field value, or <tt>NaN</tt> if the field is not numeric or not found.
+     */
+    double getDoubleValue();
+
+}
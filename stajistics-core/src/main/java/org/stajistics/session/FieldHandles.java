@@ -0,0 +1,270 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session;
+
+import static org.stajistics.Util.assertNotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.stajistics.data.DataSet;
+import org.stajistics.data.DataSetSchema;
+import org.stajistics.session.recorder.IndexedFieldDataRecorder;
+
+/**
+ * Static factory methods for {@link FieldHandle}s.
+ *
+ * @author The Stajistics Project
+ */
+public final class FieldHandles {
+
+    private static final int HITS = DataSetSchema.HITS_INDEX;
+    private static final int FIRST_HIT_STAMP = DataSetSchema.FIRST_HIT_STAMP_INDEX;
+    private static final int LAST_HIT_STAMP = DataSetSchema.LAST_HIT_STAMP_INDEX;
+    private static final int COMMITS = DataSetSchema.COMMITS_INDEX;
+    private static final int FIRST = DataSetSchema.FIRST_INDEX;
+    private static final int LAST = DataSetSchema.LAST_INDEX;
+    private static final int MIN = DataSetSchema.MIN_INDEX;
+    private static final int MAX = DataSetSchema.MAX_INDEX;
+    private static final int SUM = DataSetSchema.SUM_INDEX;
+
+    private static final Map<String,Integer> STANDARD_FIELD_INDICES = new HashMap<String,Integer>();
+    static {
+        STANDARD_FIELD_INDICES.put(DataSet.Field.HITS, HITS);
+        STANDARD_FIELD_INDICES.put(DataSet.Field.FIRST_HIT_STAMP, FIRST_HIT_STAMP);
+        STANDARD_FIELD_INDICES.put(DataSet.Field.LAST_HIT_STAMP, LAST_HIT_STAMP);
+        STANDARD_FIELD_INDICES.put(DataSet.Field.COMMITS, COMMITS);
+        STANDARD_FIELD_INDICES.put(DataSet.Field.FIRST, FIRST);
+        STANDARD_FIELD_INDICES.put(DataSet.Field.LAST, LAST);
+        STANDARD_FIELD_INDICES.put(DataSet.Field.MIN, MIN);
+        STANDARD_FIELD_INDICES.put(DataSet.Field.MAX, MAX);
+        STANDARD_FIELD_INDICES.put(DataSet.Field.SUM, SUM);
+    }
+
+    private FieldHandles() {}
+
+    /**
+     * @param name The name of a field.
+     * @return The index of the standard field with the given <tt>name</tt>,
+     *         or <tt>-1</tt> if it is not a standard field.
+     */
+    static int indexOfStandardField(final String name) {
+        Integer index = STANDARD_FIELD_INDICES.get(name);
+        if (index == null) {
+            return -1;
+        }
+        return index;
+    }
+
+    static Object getStandardField(final StatsSession session, final int index) {
+        switch (index) {
+            case HITS: return session.getHits();
+            case FIRST_HIT_STAMP: return session.getFirstHitStamp();
+            case LAST_HIT_STAMP: return session.getLastHitStamp();
+            case COMMITS: return session.getCommits();
+            case FIRST: return session.getFirst();
+            case LAST: return session.getLast();
+            case MIN: return session.getMin();
+            case MAX: return session.getMax();
+            case SUM: return session.getSum();
+            default: return null;
+        }
+    }
+
+    static double getStandardDoubleField(final StatsSession session, final int index) {
+        switch (index) {
+            case HITS: return session.getHits();
+            case FIRST_HIT_STAMP: return session.getFirstHitStamp();
+            case LAST_HIT_STAMP: return session.getLastHitStamp();
+            case COMMITS: return session.getCommits();
+            case FIRST: return session.getFirst();
+            case LAST: return session.getLast();
+            case MIN: return session.getMin();
+            case MAX: return session.getMax();
+            case SUM: return session.getSum();
+            default: return Double.NaN;
+        }
+    }
+
+    /**
+     * Create a handle for one of the standard {@link DataSet.Field}s of a session, read
+     * through the corresponding getter of the session.
+     *
+     * @param session The session owning the field.
+     * @param name The name of the field.
+     * @return A {@link FieldHandle}, or <tt>null</tt> if <tt>name</tt> is not a standard field.
+     */
+    public static FieldHandle standard(final StatsSession session,
+                                       final String name) {
+        assertNotNull(session, "session");
+
+        int index = indexOfStandardField(name);
+        if (index == -1) {
+            return null;
+        }
+
+        return new StandardFieldHandle(session, name, index);
+    }
+
+    /**
+     * Create a handle that reads a field of an {@link IndexedFieldDataRecorder} by index.
+     *
+     * @param session The session owning the <tt>dataRecorder</tt>.
+     * @param dataRecorder The recorder providing the field.
+     * @param name The name of the field.
+     * @return A {@link FieldHandle}, or <tt>null</tt> if <tt>dataRecorder</tt> does not
+     *         support the field.
+     */
+    public static FieldHandle dataRecorder(final StatsSession session,
+                                           final IndexedFieldDataRecorder dataRecorder,
+                                           final String name) {
+        assertNotNull(session, "session");
+        assertNotNull(dataRecorder, "dataRecorder");
+
+        int index = dataRecorder.getFieldIndex(name);
+        if (index == -1) {
+            return null;
+        }
+
+        return new DataRecorderFieldHandle(session, dataRecorder, name, index);
+    }
+
+    /**
+     * Create a handle that reads a field through {@link StatsSession#getField(String)} each time.
+     * This is the fallback for fields that cannot be resolved in advance.
+     *
+     * @param session The session owning the field.
+     * @param name The name of the field.
+     * @return A {@link FieldHandle}, never <tt>null</tt>.
+     */
+    public static FieldHandle named(final StatsSession session,
+                                    final String name) {
+        assertNotNull(session, "session");
+        assertNotNull(name, "name");
+
+        return new NamedFieldHandle(session, name);
+    }
+
+    /* NESTED CLASSES */
+
+    private static final class StandardFieldHandle implements FieldHandle {
+
+        private final StatsSession session;
+        private final String name;
+        private final int index;
+
+        StandardFieldHandle(final StatsSession session,
+                            final String name,
+                            final int index) {
+            this.session = session;
+            this.name = name;
+            this.index = index;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Object getValue() {
+            return getStandardField(session, index);
+        }
+
+        @Override
+        public double getDoubleValue() {
+            return getStandardDoubleField(session, index);
+        }
+
+        @Override
+        public String toString() {
+            return FieldHandle.class.getSimpleName() + '[' + name + ']';
+        }
+    }
+
+    private static final class DataRecorderFieldHandle implements FieldHandle {
+
+        private final StatsSession session;
+        private final IndexedFieldDataRecorder dataRecorder;
+        private final String name;
+        private final int index;
+
+        DataRecorderFieldHandle(final StatsSession session,
+                                final IndexedFieldDataRecorder dataRecorder,
+                                final String name,
+                                final int index) {
+            this.session = session;
+            this.dataRecorder = dataRecorder;
+            this.name = name;
+            this.index = index;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Object getValue() {
+            return dataRecorder.getField(session, index);
+        }
+
+        @Override
+        public double getDoubleValue() {
+            return dataRecorder.getDoubleField(session, index);
+        }
+
+        @Override
+        public String toString() {
+            return FieldHandle.class.getSimpleName() + '[' + name + ']';
+        }
+    }
+
+    private static final class NamedFieldHandle implements FieldHandle {
+
+        private final StatsSession session;
+        private final String name;
+
+        NamedFieldHandle(final StatsSession session,
+                         final String name) {
+            this.session = session;
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Object getValue() {
+            return session.getField(name);
+        }
+
+        @Override
+        public double getDoubleValue() {
+            Object value = session.getField(name);
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            return Double.NaN;
+        }
+
+        @Override
+        public String toString() {
+            return FieldHandle.class.getSimpleName() + '[' + name + ']';
+        }
+    }
+}
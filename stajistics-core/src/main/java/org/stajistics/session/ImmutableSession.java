@@ -75,6 +75,15 @@ public class ImmutableSession implements StatsSession {
         return dataSet.getField(name);
     }
 
+    @Override
+    public FieldHandle getFieldHandle(final String name) {
+        if (dataSet.getField(name) == null) {
+            return null;
+        }
+
+        return FieldHandles.named(this, name);
+    }
+
     @Override
     public DataSet collectData() {
         return dataSet;
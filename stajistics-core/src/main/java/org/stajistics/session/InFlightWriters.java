@@ -0,0 +1,169 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Counts the threads that are writing to a piece of session state, so that a drain that has
+ * swapped the state out can wait for its last writer to finish. Writers increment a single base
+ * count until two of them collide, after which the count is spread over padded stripes selected
+ * per thread, as the fields of a {@link StripedConcurrentSession} are. A writer always leaves
+ * the slot it entered, so no slot drops below zero and a sum of zero means no writer remains.
+ * The counts are not serialized, as no writer of a deserialized copy can be in progress.
+ *
+ * @author The Stajistics Project
+ */
+final class InFlightWriters implements Serializable {
+
+    private static final int BASE = -1;
+
+    // Slots of the per-thread state
+    private static final int PROBE = 0;
+    private static final int DEPTH = 1;
+
+    private static final int MAX_STRIPES = 1 << 6;
+
+    // 16 longs (128 bytes) per stripe keeps neighbouring stripes off each other's cache lines
+    private static final int STRIPE_SHIFT = 4;
+
+    private static final int STRIPES;
+    static {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < processors && stripes < MAX_STRIPES) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    private static final AtomicLongFieldUpdater<InFlightWriters> baseUpdater =
+        AtomicLongFieldUpdater.newUpdater(InFlightWriters.class, "base");
+    private static final AtomicReferenceFieldUpdater<InFlightWriters,AtomicLongArray> cellsUpdater =
+        AtomicReferenceFieldUpdater.newUpdater(InFlightWriters.class, AtomicLongArray.class, "cells");
+
+    private static final ThreadLocal<int[]> threadState = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            long id = Thread.currentThread().getId();
+            int probe = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+            return new int[] { probe == 0 ? 1 : probe, 0 };
+        }
+    };
+
+    private transient volatile long base = 0;
+
+    // Created on the first collision
+    private transient volatile AtomicLongArray cells = null;
+
+    /**
+     * Obtain the state of the calling thread, to be passed to {@link #enter(int[])} and
+     * {@link #exit(int[], int)}.
+     */
+    static int[] currentThread() {
+        return threadState.get();
+    }
+
+    /**
+     * Register the calling thread as a writer.
+     *
+     * @param thread The state of the calling thread, as returned by {@link #currentThread()}.
+     * @return The slot to pass to {@link #exit(int[], int)}.
+     */
+    int enter(final int[] thread) {
+        thread[DEPTH]++;
+
+        AtomicLongArray c = cells;
+        if (c == null) {
+            final long b = base;
+            if (baseUpdater.compareAndSet(this, b, b + 1)) {
+                return BASE;
+            }
+            c = inflate();
+        }
+
+        final int i = (thread[PROBE] & (STRIPES - 1)) << STRIPE_SHIFT;
+        final long v = c.get(i);
+        if (!c.compareAndSet(i, v, v + 1)) {
+            rehash(thread);
+            c.incrementAndGet(i);
+        }
+        return i;
+    }
+
+    /**
+     * Deregister the calling thread as a writer.
+     *
+     * @param thread The state of the calling thread, as returned by {@link #currentThread()}.
+     * @param slot The slot returned by the matching call to {@link #enter(int[])}.
+     */
+    void exit(final int[] thread, final int slot) {
+        if (slot == BASE) {
+            baseUpdater.decrementAndGet(this);
+        } else {
+            cells.decrementAndGet(slot);
+        }
+
+        thread[DEPTH]--;
+    }
+
+    /**
+     * Wait until no writer remains. Writers must first have been prevented from entering
+     * anew. If the calling thread is itself writing, to this or any other state, it returns
+     * immediately rather than waiting for itself; writers on other threads may then still
+     * be in progress.
+     */
+    void await() {
+        if (threadState.get()[DEPTH] > 0) {
+            return;
+        }
+
+        while (count() > 0) {
+            Thread.yield();
+        }
+    }
+
+    private long count() {
+        long result = base;
+
+        final AtomicLongArray c = cells;
+        if (c != null) {
+            for (int i = 0; i < STRIPES; i++) {
+                result += c.get(i << STRIPE_SHIFT);
+            }
+        }
+
+        return result;
+    }
+
+    private AtomicLongArray inflate() {
+        final AtomicLongArray c = new AtomicLongArray(STRIPES << STRIPE_SHIFT);
+        if (cellsUpdater.compareAndSet(this, null, c)) {
+            return c;
+        }
+        return cells;
+    }
+
+    private static void rehash(final int[] thread) {
+        int p = thread[PROBE];
+        p ^= p << 13;
+        p ^= p >>> 17;
+        p ^= p << 5;
+        thread[PROBE] = p;
+    }
+}
@@ -0,0 +1,769 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session;
+
+import static org.stajistics.Util.assertNotNull;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.stajistics.StatsKey;
+import org.stajistics.StatsManager;
+import org.stajistics.StatsManagerRegistry;
+import org.stajistics.StatsProperties;
+import org.stajistics.data.DataSet;
+import org.stajistics.event.EventHandler;
+import org.stajistics.event.EventManager;
+import org.stajistics.event.EventType;
+import org.stajistics.session.recorder.DataRecorder;
+import org.stajistics.tracker.Tracker;
+import org.stajistics.util.Misc;
+
+/**
+ * <p>An asynchronous implementation of {@link StatsSession} that, unlike
+ * {@link AsynchronousSession}, neither allocates nor submits a task to the
+ * {@link org.stajistics.task.TaskService} when {@link #track(Tracker, long)} or
+ * {@link #update(Tracker, long)} is called. Instead, the tracker value, time stamp,
+ * and kind of each call are written into a preallocated slot of a fixed size
+ * ring buffer. The published slots are consumed in batches, in the order in which
+ * they were claimed, by a {@link Drainer} thread. A session is handed to its {@link Drainer}
+ * only when it has entries to consume, so idle sessions cost the {@link Drainer} nothing.</p>
+ *
+ * <p>The tracker value is read when the call is made rather than when it is consumed,
+ * so it does not matter if the tracker is reset or reused in the meantime.
+ * {@link DataRecorder}s receive a {@link Tracker} that replays the recorded value.</p>
+ *
+ * <p>When the ring buffer is full, the calling thread consumes the published entries and
+ * records its own call synchronously, as though it had been consumed from the buffer. This
+ * also applies to calls made re-entrantly while entries are being consumed, for example from
+ * an event handler. Sizing the buffer according to the expected burst rate avoids this. {@link #collectData()} and
+ * {@link #drainData()} consume all published entries before the data is collected,
+ * and like {@link AsynchronousSession}, the resulting {@link DataSet} never contains
+ * a partially recorded update. The plain field getters return the state as of the
+ * last consumed entry.</p>
+ *
+ * <p>The {@link DataRecorder}s manipulated by this session implementation are only ever updated
+ * by one thread at a time, so the {@link DataRecorder}s themselves do not need to be thread safe.</p>
+ *
+ * @see AsynchronousSession
+ *
+ * @author The Stajistics Project
+ */
+public class RingBufferSession extends AbstractStatsSession {
+
+    public static final String PROP_CAPACITY = RingBufferSession.class.getName() + ".capacity";
+
+    public static final Factory FACTORY = new Factory();
+
+    private static final Logger logger = LoggerFactory.getLogger(RingBufferSession.class);
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private static final byte KIND_TRACK = 0;
+    private static final byte KIND_UPDATE = 1;
+
+    private volatile long hits = DataSet.Field.Default.HITS;
+    private volatile long firstHitStamp = DataSet.Field.Default.FIRST_HIT_STAMP;
+    private volatile long lastHitStamp = DataSet.Field.Default.LAST_HIT_STAMP;
+    private volatile long commits = DataSet.Field.Default.COMMITS;
+
+    private volatile Double first = null; // The proper default is taken care of in getFirst()
+    private volatile double last = DataSet.Field.Default.LAST;
+    private volatile double min = Double.POSITIVE_INFINITY;
+    private volatile double max = Double.NEGATIVE_INFINITY;
+    private volatile double sum = DataSet.Field.Default.SUM;
+
+    private final int capacity;
+    private final int mask;
+
+    private final Tracker[] trackers;
+    private final double[] values;
+    private final long[] stamps;
+    private final byte[] kinds;
+
+    // The sequence last published into each slot
+    private final AtomicLongArray published;
+
+    // The next sequence to be claimed by a producer
+    private final AtomicLong tail = new AtomicLong(0);
+
+    // The next sequence to be consumed. Only written while holding consumerLock.
+    private volatile long head = 0;
+
+    private final ReentrantLock consumerLock = new ReentrantLock();
+
+    private final Drainer drainer;
+
+    // Whether this session is queued with, or being consumed by, the drainer
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    private final ReplayTracker replayTracker = new ReplayTracker();
+
+    public RingBufferSession(final StatsKey key,
+                             final EventManager eventManager,
+                             final DataRecorder... dataRecorders) {
+        this(key,
+             eventManager,
+             StatsProperties.getIntegerProperty(PROP_CAPACITY, DEFAULT_CAPACITY),
+             Drainer.getInstance(),
+             dataRecorders);
+    }
+
+    /**
+     * @param capacity The number of slots in the ring buffer, rounded up to a power of two.
+     * @param drainer The {@link Drainer} that consumes published entries in the background, or
+     *                <tt>null</tt> to only consume entries upon {@link #flush()}, {@link #collectData()},
+     *                {@link #drainData()}, or when the ring buffer is full.
+     */
+    public RingBufferSession(final StatsKey key,
+                             final EventManager eventManager,
+                             final int capacity,
+                             final Drainer drainer,
+                             final DataRecorder... dataRecorders) {
+        super(key, eventManager, dataRecorders);
+
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be > 0: " + capacity);
+        }
+
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        this.capacity = size;
+        mask = size - 1;
+
+        trackers = new Tracker[size];
+        values = new double[size];
+        stamps = new long[size];
+        kinds = new byte[size];
+
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+
+        this.drainer = drainer;
+    }
+
+    /**
+     * Obtain the number of slots in the ring buffer.
+     *
+     * @return The capacity, which is always a power of two.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Obtain the number of entries that have been published but not yet consumed.
+     *
+     * @return The pending entry count.
+     */
+    public int getPendingCount() {
+        return (int) (tail.get() - head);
+    }
+
+    private void publish(final Tracker tracker,
+                         final double value,
+                         final long now,
+                         final byte kind) {
+        long sequence;
+        for (;;) {
+            sequence = tail.get();
+            if (sequence - head >= capacity) {
+                recordSynchronously(tracker, value, now, kind);
+                return;
+            }
+            if (tail.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+
+        final int i = (int) (sequence & mask);
+        trackers[i] = tracker;
+        values[i] = value;
+        stamps[i] = now;
+        kinds[i] = kind;
+
+        // Publishes the plain slot writes above to the consumer. This must be a full volatile
+        // write, as it is paired with the read of drainScheduled below.
+        published.set(i, sequence);
+
+        if (drainer != null && !drainScheduled.get()) {
+            requestDrain();
+        }
+    }
+
+    /**
+     * Record a call directly because the ring buffer is full. Entries that are already
+     * published are consumed first, so that they are recorded before this call.
+     */
+    private void recordSynchronously(final Tracker tracker,
+                                     final double value,
+                                     final long now,
+                                     final byte kind) {
+        consumerLock.lock();
+        try {
+            consume(Integer.MAX_VALUE);
+            process(tracker, value, now, kind);
+        } finally {
+            unlockConsumer();
+        }
+    }
+
+    /**
+     * Release consumerLock, and hand this session to the drainer if entries were published
+     * while the lock was held, as the drainer skips sessions that it cannot lock.
+     */
+    private void unlockConsumer() {
+        consumerLock.unlock();
+
+        if (drainer != null && isNextPublished()) {
+            requestDrain();
+        }
+    }
+
+    private boolean isNextPublished() {
+        final long sequence = head;
+        return published.get((int) (sequence & mask)) == sequence;
+    }
+
+    private void requestDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            drainer.schedule(this);
+        }
+    }
+
+    /*
+     * NOTE: Must be called while holding consumerLock
+     */
+    private int consume(final int limit) {
+        int count = 0;
+
+        while (count < limit) {
+            final long sequence = head;
+            final int i = (int) (sequence & mask);
+
+            if (published.get(i) != sequence) {
+                break;
+            }
+
+            final Tracker tracker = trackers[i];
+            final double value = values[i];
+            final long now = stamps[i];
+            final byte kind = kinds[i];
+
+            trackers[i] = null;
+
+            // Release the slot before processing so that re-entrant calls
+            // from event handlers carry on where this one left off
+            head = sequence + 1;
+            count++;
+
+            process(tracker, value, now, kind);
+        }
+
+        return count;
+    }
+
+    private void process(final Tracker tracker,
+                         final double value,
+                         final long now,
+                         final byte kind) {
+        try {
+            if (kind == KIND_TRACK) {
+                trackImpl(tracker, now);
+            } else {
+                updateImpl(tracker, value, now);
+            }
+        } catch (Exception e) {
+            Misc.logHandledException(logger, e, "Failed to process entry of {}", this);
+            Misc.handleUncaughtException(getKey(), e);
+        }
+    }
+
+    /**
+     * Consume up to <tt>limit</tt> published entries on behalf of the drainer, if no other
+     * thread is currently consuming. If this session cannot be locked, the thread holding
+     * the lock hands it back to the drainer upon unlocking.
+     *
+     * @return The number of entries consumed.
+     */
+    int drain(final int limit) {
+        // Cleared before consuming, so that entries published from now on schedule a new drain
+        drainScheduled.set(false);
+
+        if (!consumerLock.tryLock()) {
+            return 0;
+        }
+        try {
+            return consume(limit);
+        } finally {
+            unlockConsumer();
+        }
+    }
+
+    /**
+     * Consume all entries that have been published up until now in the calling thread.
+     */
+    public void flush() {
+        consumerLock.lock();
+        try {
+            consume(Integer.MAX_VALUE);
+        } finally {
+            unlockConsumer();
+        }
+    }
+
+    @Override
+    public void track(final Tracker tracker, long now) {
+        if (now < 0) {
+            now = System.currentTimeMillis();
+        }
+
+        publish(tracker, 0, now, KIND_TRACK);
+    }
+
+    private void trackImpl(final Tracker tracker, final long now) {
+        hits++;
+
+        if (firstHitStamp == DataSet.Field.Default.FIRST_HIT_STAMP) {
+            firstHitStamp = now;
+        }
+
+        lastHitStamp = now;
+
+        logger.trace("Track: {}", this);
+
+        eventManager.fireEvent(EventType.TRACKER_TRACKING, key, tracker);
+    }
+
+    @Override
+    public void update(final Tracker tracker, final long now) {
+        publish(tracker, tracker.getValue(), now, KIND_UPDATE);
+    }
+
+    private void updateImpl(final Tracker tracker, final double currentValue, final long now) {
+        commits++;
+
+        // First
+        if (first == null) {
+            first = currentValue;
+        }
+
+        // Last
+        last = currentValue;
+
+        // Min
+        if (currentValue < min) {
+            min = currentValue;
+        }
+
+        // Max
+        if (currentValue > max) {
+            max = currentValue;
+        }
+
+        // Sum
+        sum += currentValue;
+
+        if (dataRecorders.length > 0) {
+            replayTracker.value = currentValue;
+
+            updateDataRecorders(replayTracker, now);
+        }
+
+        logger.trace("Commit: {}", this);
+
+        eventManager.fireEvent(EventType.TRACKER_COMMITTED, key, tracker);
+    }
+
+    @Override
+    public long getHits() {
+        return hits;
+    }
+
+    @Override
+    protected void setHits(final long hits) {
+        this.hits = hits;
+    }
+
+    @Override
+    public long getFirstHitStamp() {
+        return firstHitStamp;
+    }
+
+    @Override
+    protected void setFirstHitStamp(final long firstHitStamp) {
+        this.firstHitStamp = firstHitStamp;
+    }
+
+    @Override
+    public long getLastHitStamp() {
+        return lastHitStamp;
+    }
+
+    @Override
+    protected void setLastHitStamp(final long lastHitStamp) {
+        this.lastHitStamp = lastHitStamp;
+    }
+
+    @Override
+    public long getCommits() {
+        return commits;
+    }
+
+    @Override
+    protected void setCommits(final long commits) {
+        this.commits = commits;
+    }
+
+    @Override
+    public double getFirst() {
+        Double firstValue = first;
+
+        if (firstValue == null) {
+            return DataSet.Field.Default.FIRST;
+        }
+
+        return firstValue;
+    }
+
+    @Override
+    protected void setFirst(final Double first) {
+        this.first = first;
+    }
+
+    @Override
+    public double getLast() {
+        return last;
+    }
+
+    @Override
+    protected void setLast(final double last) {
+        this.last = last;
+    }
+
+    @Override
+    public double getMin() {
+        double result = min;
+        if (result == Double.POSITIVE_INFINITY) {
+            result = DataSet.Field.Default.MIN;
+        }
+        return result;
+    }
+
+    @Override
+    protected void setMin(final double min) {
+        this.min = min;
+    }
+
+    @Override
+    public double getMax() {
+        double result = max;
+        if (result == Double.NEGATIVE_INFINITY) {
+            result = DataSet.Field.Default.MAX;
+        }
+        return result;
+    }
+
+    @Override
+    protected void setMax(final double max) {
+        this.max = max;
+    }
+
+    @Override
+    public double getSum() {
+        return sum;
+    }
+
+    @Override
+    protected void setSum(final double sum) {
+        this.sum = sum;
+    }
+
+    @Override
+    public void restore(final DataSet dataSet) {
+        assertNotNull(dataSet, "dataSet");
+
+        consumerLock.lock();
+        try {
+            consume(Integer.MAX_VALUE);
+            clearState();
+            restoreState(dataSet);
+        } finally {
+            unlockConsumer();
+        }
+
+        logger.trace("Restore: {}", this);
+
+        eventManager.fireEvent(EventType.SESSION_RESTORED, key, this);
+    }
+
+    @Override
+    public void clear() {
+        consumerLock.lock();
+        try {
+            consume(Integer.MAX_VALUE);
+            clearState();
+        } finally {
+            unlockConsumer();
+        }
+
+        fireCleared();
+    }
+
+    private void fireCleared() {
+        logger.trace("Clear: {}", this);
+
+        eventManager.fireEvent(EventType.SESSION_CLEARED, key, this);
+    }
+
+    @Override
+    public DataSet collectData() {
+        consumerLock.lock();
+        try {
+            consume(Integer.MAX_VALUE);
+            return super.collectData();
+        } finally {
+            unlockConsumer();
+        }
+    }
+
+    @Override
+    public DataSet drainData() {
+        DataSet data;
+
+        consumerLock.lock();
+        try {
+            consume(Integer.MAX_VALUE);
+
+            data = createDataSet(true);
+            collectData(data);
+
+            clearState();
+        } finally {
+            unlockConsumer();
+        }
+
+        fireCleared();
+        return data;
+    }
+
+    /* INNER CLASSES */
+
+    /**
+     * Hands the value recorded in a ring buffer slot to the {@link DataRecorder}s.
+     */
+    private final class ReplayTracker implements Tracker {
+
+        private double value;
+
+        @Override
+        public double getValue() {
+            return value;
+        }
+
+        @Override
+        public Tracker reset() {
+            value = 0;
+            return this;
+        }
+
+        @Override
+        public StatsKey getKey() {
+            return key;
+        }
+
+        @Override
+        public StatsSession getSession() {
+            return RingBufferSession.this;
+        }
+    }
+
+    /* NESTED CLASSES */
+
+    /**
+     * A daemon thread that consumes the ring buffers of {@link RingBufferSession}s in batches.
+     * Sessions are queued with the Drainer when entries are published into an empty buffer and
+     * re-queued after a batch while entries remain, so the Drainer only visits sessions that have
+     * work, keeps no registry of sessions, and parks while there is nothing to consume. Sessions
+     * created through the {@link Factory} use the Drainer of their {@link StatsManager}, which is
+     * shut down along with the manager. Once shut down, entries are only consumed upon
+     * {@link RingBufferSession#flush()}, data collection, or when a ring buffer is full.
+     */
+    public static final class Drainer implements Runnable {
+
+        public static final String PROP_BATCH_SIZE = Drainer.class.getName() + ".batchSize";
+
+        private static final Drainer INSTANCE = new Drainer();
+
+        private static final ConcurrentMap<StatsManager,Drainer> managerDrainers =
+            new ConcurrentHashMap<StatsManager,Drainer>();
+
+        private final Queue<RingBufferSession> readySessions = new ConcurrentLinkedQueue<RingBufferSession>();
+
+        private final AtomicBoolean started = new AtomicBoolean(false);
+
+        private volatile Thread thread;
+        private volatile boolean idle = false;
+        private volatile boolean shutdown = false;
+
+        private final int batchSize;
+
+        public Drainer() {
+            batchSize = StatsProperties.getIntegerProperty(PROP_BATCH_SIZE, 256);
+        }
+
+        /**
+         * Obtain the Drainer shared by sessions that were constructed without one,
+         * which is never shut down.
+         */
+        public static Drainer getInstance() {
+            return INSTANCE;
+        }
+
+        /**
+         * Obtain the Drainer for the sessions of the given <tt>statsManager</tt>, which is
+         * shut down when the <tt>statsManager</tt> is shut down.
+         */
+        public static Drainer getInstance(final StatsManager statsManager) {
+            assertNotNull(statsManager, "statsManager");
+
+            Drainer drainer = managerDrainers.get(statsManager);
+            if (drainer == null) {
+                drainer = new Drainer();
+                Drainer existing = managerDrainers.putIfAbsent(statsManager, drainer);
+                if (existing != null) {
+                    return existing;
+                }
+
+                statsManager.getEventManager()
+                            .addGlobalEventHandler(new ShutdownEventHandler(statsManager, drainer));
+            }
+
+            return drainer;
+        }
+
+        void schedule(final RingBufferSession session) {
+            if (shutdown) {
+                return;
+            }
+
+            readySessions.offer(session);
+
+            if (started.compareAndSet(false, true)) {
+                Thread newThread = new Thread(this, RingBufferSession.class.getSimpleName() + "-" +
+                                                    Drainer.class.getSimpleName());
+                newThread.setDaemon(true);
+                thread = newThread;
+                newThread.start();
+
+            } else if (idle) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        /**
+         * Stop the drainer thread once the sessions that are currently queued have been consumed.
+         */
+        public void shutdown() {
+            shutdown = true;
+
+            Thread currentThread = thread;
+            if (currentThread != null) {
+                LockSupport.unpark(currentThread);
+            }
+        }
+
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public void run() {
+            for (;;) {
+                final RingBufferSession session = readySessions.poll();
+
+                if (session == null) {
+                    if (shutdown) {
+                        return;
+                    }
+
+                    idle = true;
+                    if (readySessions.isEmpty() && !shutdown) {
+                        LockSupport.park(this);
+                    }
+                    idle = false;
+                    continue;
+                }
+
+                try {
+                    session.drain(batchSize);
+                } catch (Exception e) {
+                    Misc.logHandledException(logger, e, "Failed to drain {}", session);
+                    Misc.handleUncaughtException(session.getKey(), e);
+                }
+            }
+        }
+    }
+
+    private static final class ShutdownEventHandler implements EventHandler {
+
+        private final transient StatsManager statsManager;
+        private final transient Drainer drainer;
+
+        ShutdownEventHandler(final StatsManager statsManager,
+                             final Drainer drainer) {
+            this.statsManager = statsManager;
+            this.drainer = drainer;
+        }
+
+        @Override
+        public void handleStatsEvent(final EventType eventType,
+                                     final StatsKey key,
+                                     final Object target) {
+            if (eventType == EventType.STATS_MANAGER_SHUTTING_DOWN && target == statsManager) {
+                Drainer.managerDrainers.remove(statsManager, drainer);
+                drainer.shutdown();
+            }
+        }
+    }
+
+    public static final class Factory implements StatsSessionFactory {
+        @Override
+        public StatsSession createSession(final StatsKey key,
+                                          final DataRecorder[] dataRecorders) {
+            StatsManager statsManager = StatsManagerRegistry.getInstance().getStatsManager(key.getNamespace());
+            return new RingBufferSession(key,
+                                         statsManager.getEventManager(),
+                                         StatsProperties.getIntegerProperty(PROP_CAPACITY, DEFAULT_CAPACITY),
+                                         Drainer.getInstance(statsManager),
+                                         dataRecorders);
+        }
+    }
+
+}
@@ -0,0 +1,776 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session;
+
+import static org.stajistics.Util.assertNotNull;
+
+import java.io.Serializable;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.stajistics.StatsKey;
+import org.stajistics.StatsManager;
+import org.stajistics.StatsManagerRegistry;
+import org.stajistics.StatsProperties;
+import org.stajistics.data.DataSet;
+import org.stajistics.event.EventManager;
+import org.stajistics.event.EventType;
+import org.stajistics.session.recorder.DataRecorder;
+import org.stajistics.session.recorder.DataRecorderFactory;
+import org.stajistics.session.recorder.MergeableDataRecorder;
+import org.stajistics.tracker.Tracker;
+import org.stajistics.util.Misc;
+
+/**
+ * <p>A {@link StatsSession} that reports only the data recorded within a trailing time
+ * window, such as the last minute, rather than since creation or the last drain. The window
+ * is divided into a fixed number of equal width buckets kept in a circular array, so the
+ * window width must be a multiple of the bucket count. Each
+ * bucket holds the basic session fields for its slice of time and, when a
+ * {@link DataRecorderFactory} is supplied, its own set of {@link DataRecorder}s. Updates are
+ * applied only to the bucket for the current time, and a bucket is recycled when the clock
+ * advances past it, so reading the window costs one pass over the buckets regardless of the
+ * number of values recorded.</p>
+ *
+ * <p>The {@link DataRecorder}s passed to the constructor report the window by merging the
+ * state of the per-bucket {@link DataRecorder}s into themselves when data is read. This is
+ * only possible for {@link MergeableDataRecorder}s. Any other {@link DataRecorder} is
+ * updated directly and reports everything since the session was last cleared.</p>
+ *
+ * <p>Reported data lags the window by at most one bucket width; with the defaults of a
+ * 60 second window and 60 buckets, between 59 and 60 seconds of data are reported. The
+ * defaults can be changed with the {@link #PROP_WINDOW_MILLIS} and
+ * {@link #PROP_BUCKET_COUNT} properties, or per key by configuring a {@link Factory}
+ * through {@link org.stajistics.configuration.StatsConfigBuilder#withSessionFactory(StatsSessionFactory)}.</p>
+ *
+ * <p>All state is guarded by a single lock, so the {@link DataRecorder}s need not be
+ * thread safe.</p>
+ *
+ * @author The Stajistics Project
+ */
+public class RollingWindowSession extends AbstractStatsSession {
+
+    public static final String PROP_WINDOW_MILLIS =
+        RollingWindowSession.class.getName() + ".windowMillis";
+    public static final String PROP_BUCKET_COUNT =
+        RollingWindowSession.class.getName() + ".bucketCount";
+
+    public static final Factory FACTORY = new Factory();
+
+    private static final Logger logger = LoggerFactory.getLogger(RollingWindowSession.class);
+
+    private static final long DEFAULT_WINDOW_MILLIS = 60000;
+    private static final int DEFAULT_BUCKET_COUNT = 60;
+
+    private static final long UNUSED = Long.MIN_VALUE;
+
+    private final long windowMillis;
+    private final long bucketMillis;
+
+    private final Bucket[] buckets;
+
+    private final DataRecorderFactory bucketDataRecorderFactory;
+
+    // Which DataRecorders are windowed, decided from the DataRecorders of the first bucket
+    // to be used. Until then no bucket holds DataRecorders, so none is windowed.
+    private final boolean[] windowedDataRecorders;
+    private boolean windowedDataRecordersDecided = false;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // While reading, the period at which the window ends, so that all fields agree
+    private long pinnedPeriod = UNUSED;
+
+    public RollingWindowSession(final StatsKey key,
+                                final EventManager eventManager,
+                                final DataRecorderFactory bucketDataRecorderFactory,
+                                final DataRecorder... dataRecorders) {
+        this(key,
+             eventManager,
+             StatsProperties.getLongProperty(PROP_WINDOW_MILLIS, DEFAULT_WINDOW_MILLIS),
+             StatsProperties.getIntegerProperty(PROP_BUCKET_COUNT, DEFAULT_BUCKET_COUNT),
+             bucketDataRecorderFactory,
+             dataRecorders);
+    }
+
+    /**
+     * @param windowMillis The width of the reported window in milliseconds.
+     * @param bucketCount The number of buckets the window is divided into. Must evenly
+     *                    divide <tt>windowMillis</tt>.
+     * @param bucketDataRecorderFactory Creates the {@link DataRecorder}s for each bucket, which
+     *                                  should match <tt>dataRecorders</tt>. May be <tt>null</tt>,
+     *                                  in which case no {@link DataRecorder} is windowed.
+     */
+    public RollingWindowSession(final StatsKey key,
+                                final EventManager eventManager,
+                                final long windowMillis,
+                                final int bucketCount,
+                                final DataRecorderFactory bucketDataRecorderFactory,
+                                final DataRecorder... dataRecorders) {
+        super(key, eventManager, dataRecorders);
+
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("windowMillis must be > 0: " + windowMillis);
+        }
+        if (bucketCount <= 0 || bucketCount > windowMillis) {
+            throw new IllegalArgumentException("bucketCount must be > 0 and <= windowMillis: " + bucketCount);
+        }
+        if (windowMillis % bucketCount != 0) {
+            // Otherwise the buckets would cover less than the configured window
+            throw new IllegalArgumentException("windowMillis must be a multiple of bucketCount: " +
+                                               windowMillis + " / " + bucketCount);
+        }
+
+        this.windowMillis = windowMillis;
+        this.bucketMillis = windowMillis / bucketCount;
+        this.bucketDataRecorderFactory = bucketDataRecorderFactory;
+
+        buckets = new Bucket[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new Bucket();
+        }
+
+        windowedDataRecorders = new boolean[this.dataRecorders.length];
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public int getBucketCount() {
+        return buckets.length;
+    }
+
+    /**
+     * Obtain the current time. Exposed for testing.
+     *
+     * @return The current time in milliseconds.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private long currentPeriod() {
+        if (pinnedPeriod != UNUSED) {
+            return pinnedPeriod;
+        }
+        return currentTimeMillis() / bucketMillis;
+    }
+
+    private boolean isLive(final Bucket bucket, final long currentPeriod) {
+        return bucket.period != UNUSED && bucket.period > currentPeriod - buckets.length;
+    }
+
+    private Bucket bucketFor(final long now) {
+        final long period = now / bucketMillis;
+        final Bucket bucket = buckets[(int) (period % buckets.length)];
+
+        // A bucket already recycled for a later period also takes late arrivals
+        if (bucket.period < period) {
+            resetBucket(bucket, period);
+        }
+
+        return bucket;
+    }
+
+    private void resetBucket(final Bucket bucket, final long period) {
+        bucket.period = period;
+        bucket.hits = DataSet.Field.Default.HITS;
+        bucket.firstHitStamp = DataSet.Field.Default.FIRST_HIT_STAMP;
+        bucket.lastHitStamp = DataSet.Field.Default.LAST_HIT_STAMP;
+        bucket.commits = DataSet.Field.Default.COMMITS;
+        bucket.first = null;
+        bucket.last = DataSet.Field.Default.LAST;
+        bucket.min = Double.POSITIVE_INFINITY;
+        bucket.max = Double.NEGATIVE_INFINITY;
+        bucket.sum = DataSet.Field.Default.SUM;
+
+        if (period == UNUSED || bucketDataRecorderFactory == null) {
+            return;
+        }
+
+        if (bucket.dataRecorders == null) {
+            bucket.dataRecorders = bucketDataRecorderFactory.createDataRecorders();
+            if (!windowedDataRecordersDecided) {
+                decideWindowedDataRecorders(bucket.dataRecorders);
+            }
+        } else {
+            for (DataRecorder dataRecorder : bucket.dataRecorders) {
+                try {
+                    dataRecorder.clear();
+                } catch (Exception e) {
+                    Misc.logHandledException(logger, e, "Failed to clear {}", dataRecorder);
+                    Misc.handleUncaughtException(getKey(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A {@link DataRecorder} of this session is windowed if it can be merged and the bucket
+     * {@link DataRecorder} in the same position is of the same class. Must be called with
+     * the lock held.
+     */
+    private void decideWindowedDataRecorders(final DataRecorder[] bucketDataRecorders) {
+        for (int i = 0; i < windowedDataRecorders.length; i++) {
+            windowedDataRecorders[i] = dataRecorders[i] instanceof MergeableDataRecorder &&
+                                       i < bucketDataRecorders.length &&
+                                       bucketDataRecorders[i].getClass() == dataRecorders[i].getClass();
+        }
+        windowedDataRecordersDecided = true;
+    }
+
+    /**
+     * Replace the state of the windowed {@link DataRecorder}s with the merged state of the
+     * live buckets. Must be called with the lock held.
+     */
+    private void mergeDataRecorders() {
+        final long currentPeriod = currentPeriod();
+
+        for (int i = 0; i < dataRecorders.length; i++) {
+            if (!windowedDataRecorders[i]) {
+                continue;
+            }
+
+            final MergeableDataRecorder dataRecorder = (MergeableDataRecorder) dataRecorders[i];
+            try {
+                dataRecorder.clear();
+                for (Bucket bucket : buckets) {
+                    if (isLive(bucket, currentPeriod) && bucket.dataRecorders != null) {
+                        dataRecorder.merge(bucket.dataRecorders[i]);
+                    }
+                }
+            } catch (Exception e) {
+                Misc.logHandledException(logger, e, "Failed to merge {}", dataRecorder);
+                Misc.handleUncaughtException(getKey(), e);
+            }
+        }
+    }
+
+    @Override
+    public void track(final Tracker tracker, long now) {
+        if (now < 0) {
+            now = currentTimeMillis();
+        }
+
+        lock.lock();
+        try {
+            final Bucket bucket = bucketFor(now);
+
+            bucket.hits++;
+            if (bucket.firstHitStamp == DataSet.Field.Default.FIRST_HIT_STAMP) {
+                bucket.firstHitStamp = now;
+            }
+            bucket.lastHitStamp = now;
+
+        } finally {
+            lock.unlock();
+        }
+
+        logger.trace("Track: {}", this);
+
+        eventManager.fireEvent(EventType.TRACKER_TRACKING, key, tracker);
+    }
+
+    @Override
+    public void update(final Tracker tracker, long now) {
+        final double currentValue = tracker.getValue();
+
+        if (now < 0) {
+            now = currentTimeMillis();
+        }
+
+        lock.lock();
+        try {
+            final Bucket bucket = bucketFor(now);
+
+            bucket.commits++;
+            if (bucket.first == null) {
+                bucket.first = currentValue;
+            }
+            bucket.last = currentValue;
+            if (currentValue < bucket.min) {
+                bucket.min = currentValue;
+            }
+            if (currentValue > bucket.max) {
+                bucket.max = currentValue;
+            }
+            bucket.sum += currentValue;
+
+            for (int i = 0; i < dataRecorders.length; i++) {
+                final DataRecorder dataRecorder = windowedDataRecorders[i] ?
+                                                  bucket.dataRecorders[i] : dataRecorders[i];
+                try {
+                    dataRecorder.update(this, tracker, now);
+                } catch (Exception e) {
+                    Misc.logHandledException(logger, e, "Failed to update {}", dataRecorder);
+                    Misc.handleUncaughtException(getKey(), e);
+                }
+            }
+
+        } finally {
+            lock.unlock();
+        }
+
+        logger.trace("Commit: {}", this);
+
+        eventManager.fireEvent(EventType.TRACKER_COMMITTED, key, tracker);
+    }
+
+    @Override
+    public long getHits() {
+        lock.lock();
+        try {
+            final long currentPeriod = currentPeriod();
+            long result = DataSet.Field.Default.HITS;
+            for (Bucket bucket : buckets) {
+                if (isLive(bucket, currentPeriod)) {
+                    result += bucket.hits;
+                }
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void setHits(final long hits) {
+        currentBucket().hits = hits;
+    }
+
+    @Override
+    public long getFirstHitStamp() {
+        lock.lock();
+        try {
+            final long currentPeriod = currentPeriod();
+            long result = DataSet.Field.Default.FIRST_HIT_STAMP;
+            for (Bucket bucket : buckets) {
+                if (isLive(bucket, currentPeriod) &&
+                        bucket.firstHitStamp != DataSet.Field.Default.FIRST_HIT_STAMP &&
+                        (result == DataSet.Field.Default.FIRST_HIT_STAMP || bucket.firstHitStamp < result)) {
+                    result = bucket.firstHitStamp;
+                }
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void setFirstHitStamp(final long firstHitStamp) {
+        currentBucket().firstHitStamp = firstHitStamp;
+    }
+
+    @Override
+    public long getLastHitStamp() {
+        lock.lock();
+        try {
+            final long currentPeriod = currentPeriod();
+            long result = DataSet.Field.Default.LAST_HIT_STAMP;
+            for (Bucket bucket : buckets) {
+                if (isLive(bucket, currentPeriod) && bucket.lastHitStamp > result) {
+                    result = bucket.lastHitStamp;
+                }
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void setLastHitStamp(final long lastHitStamp) {
+        currentBucket().lastHitStamp = lastHitStamp;
+    }
+
+    @Override
+    public long getCommits() {
+        lock.lock();
+        try {
+            final long currentPeriod = currentPeriod();
+            long result = DataSet.Field.Default.COMMITS;
+            for (Bucket bucket : buckets) {
+                if (isLive(bucket, currentPeriod)) {
+                    result += bucket.commits;
+                }
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void setCommits(final long commits) {
+        currentBucket().commits = commits;
+    }
+
+    @Override
+    public double getFirst() {
+        lock.lock();
+        try {
+            final long currentPeriod = currentPeriod();
+            Bucket oldest = null;
+            for (Bucket bucket : buckets) {
+                if (isLive(bucket, currentPeriod) && bucket.first != null &&
+                        (oldest == null || bucket.period < oldest.period)) {
+                    oldest = bucket;
+                }
+            }
+            if (oldest == null) {
+                return DataSet.Field.Default.FIRST;
+            }
+            return oldest.first;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void setFirst(final Double first) {
+        currentBucket().first = first;
+    }
+
+    @Override
+    public double getLast() {
+        lock.lock();
+        try {
+            final long currentPeriod = currentPeriod();
+            Bucket newest = null;
+            for (Bucket bucket : buckets) {
+                if (isLive(bucket, currentPeriod) && bucket.first != null &&
+                        (newest == null || bucket.period > newest.period)) {
+                    newest = bucket;
+                }
+            }
+            if (newest == null) {
+                return DataSet.Field.Default.LAST;
+            }
+            return newest.last;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void setLast(final double last) {
+        currentBucket().last = last;
+    }
+
+    @Override
+    public double getMin() {
+        lock.lock();
+        try {
+            final long currentPeriod = currentPeriod();
+            double result = Double.POSITIVE_INFINITY;
+            for (Bucket bucket : buckets) {
+                if (isLive(bucket, currentPeriod) && bucket.min < result) {
+                    result = bucket.min;
+                }
+            }
+            if (result == Double.POSITIVE_INFINITY) {
+                return DataSet.Field.Default.MIN;
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void setMin(final double min) {
+        currentBucket().min = min;
+    }
+
+    @Override
+    public double getMax() {
+        lock.lock();
+        try {
+            final long currentPeriod = currentPeriod();
+            double result = Double.NEGATIVE_INFINITY;
+            for (Bucket bucket : buckets) {
+                if (isLive(bucket, currentPeriod) && bucket.max > result) {
+                    result = bucket.max;
+                }
+            }
+            if (result == Double.NEGATIVE_INFINITY) {
+                return DataSet.Field.Default.MAX;
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void setMax(final double max) {
+        currentBucket().max = max;
+    }
+
+    @Override
+    public double getSum() {
+        lock.lock();
+        try {
+            final long currentPeriod = currentPeriod();
+            double result = DataSet.Field.Default.SUM;
+            for (Bucket bucket : buckets) {
+                if (isLive(bucket, currentPeriod)) {
+                    result += bucket.sum;
+                }
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void setSum(final double sum) {
+        currentBucket().sum = sum;
+    }
+
+    private Bucket currentBucket() {
+        return bucketFor(currentTimeMillis());
+    }
+
+    @Override
+    public Object getField(final String name) {
+        lock.lock();
+        try {
+            pinnedPeriod = currentPeriod();
+            try {
+                mergeDataRecorders();
+                return super.getField(name);
+            } finally {
+                pinnedPeriod = UNUSED;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The {@link DataRecorder}s of this session only hold the window once merged, so
+     * their fields are always read through {@link #getField(String)}.
+     */
+    @Override
+    protected FieldHandle createDataRecorderFieldHandle(final DataRecorder dataRecorder,
+                                                        final String name) {
+        return FieldHandles.named(this, name);
+    }
+
+    @Override
+    protected void collectData(final DataSet dataSet) {
+        lock.lock();
+        try {
+            pinnedPeriod = currentPeriod();
+            try {
+                mergeDataRecorders();
+                super.collectData(dataSet);
+            } finally {
+                pinnedPeriod = UNUSED;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void clearState() {
+        lock.lock();
+        try {
+            for (Bucket bucket : buckets) {
+                resetBucket(bucket, UNUSED);
+                if (bucket.dataRecorders != null) {
+                    for (DataRecorder dataRecorder : bucket.dataRecorders) {
+                        try {
+                            dataRecorder.clear();
+                        } catch (Exception e) {
+                            Misc.logHandledException(logger, e, "Failed to clear {}", dataRecorder);
+                            Misc.handleUncaughtException(getKey(), e);
+                        }
+                    }
+                }
+            }
+
+            for (DataRecorder dataRecorder : dataRecorders) {
+                try {
+                    dataRecorder.clear();
+                } catch (Exception e) {
+                    Misc.logHandledException(logger, e, "Failed to clear {}", dataRecorder);
+                    Misc.handleUncaughtException(getKey(), e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Restore the given {@link DataSet} into the bucket for the current time.
+     */
+    @Override
+    public void restore(final DataSet dataSet) {
+        assertNotNull(dataSet, "dataSet");
+
+        lock.lock();
+        try {
+            clearState();
+            restoreState(dataSet);
+
+            // restoreState() only restores the DataRecorders once update() data is present
+            final Bucket bucket = currentBucket();
+            if (bucket.commits > DataSet.Field.Default.COMMITS && bucket.dataRecorders != null) {
+                for (int i = 0; i < dataRecorders.length; i++) {
+                    if (windowedDataRecorders[i]) {
+                        try {
+                            bucket.dataRecorders[i].restore(dataSet);
+                        } catch (Exception e) {
+                            Misc.logHandledException(logger, e, "Failed to restore {}",
+                                                     bucket.dataRecorders[i]);
+                            Misc.handleUncaughtException(getKey(), e);
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        logger.trace("Restore: {}", this);
+
+        eventManager.fireEvent(EventType.SESSION_RESTORED, key, this);
+    }
+
+    @Override
+    public void clear() {
+        clearState();
+
+        logger.trace("Clear: {}", this);
+
+        eventManager.fireEvent(EventType.SESSION_CLEARED, key, this);
+    }
+
+    @Override
+    public DataSet drainData() {
+        final DataSet data = createDataSet(true);
+
+        lock.lock();
+        try {
+            collectData(data);
+            clearState();
+        } finally {
+            lock.unlock();
+        }
+
+        logger.trace("Clear: {}", this);
+
+        eventManager.fireEvent(EventType.SESSION_CLEARED, key, this);
+
+        return data;
+    }
+
+    /* NESTED CLASSES */
+
+    private static final class Bucket implements Serializable {
+
+        long period = UNUSED;
+
+        long hits = DataSet.Field.Default.HITS;
+        long firstHitStamp = DataSet.Field.Default.FIRST_HIT_STAMP;
+        long lastHitStamp = DataSet.Field.Default.LAST_HIT_STAMP;
+        long commits = DataSet.Field.Default.COMMITS;
+
+        Double first = null;
+        double last = DataSet.Field.Default.LAST;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = DataSet.Field.Default.SUM;
+
+        DataRecorder[] dataRecorders;
+    }
+
+    /**
+     * Creates {@link RollingWindowSession}s whose buckets obtain their {@link DataRecorder}s
+     * from the {@link DataRecorderFactory} configured for the key.
+     */
+    public static final class Factory implements StatsSessionFactory {
+
+        private final long windowMillis;
+        private final int bucketCount;
+
+        public Factory() {
+            this(-1, -1);
+        }
+
+        /**
+         * @param windowMillis The window width in milliseconds, or a negative value to use
+         *                     the default.
+         * @param bucketCount The number of buckets, or a negative value to use the default.
+         *
+         * @throws IllegalArgumentException If both values are given and <tt>windowMillis</tt>
+         *                                  is not a multiple of <tt>bucketCount</tt>.
+         */
+        public Factory(final long windowMillis, final int bucketCount) {
+            if (windowMillis > 0 && bucketCount > 0 && windowMillis % bucketCount != 0) {
+                throw new IllegalArgumentException("windowMillis must be a multiple of bucketCount: " +
+                                                   windowMillis + " / " + bucketCount);
+            }
+
+            this.windowMillis = windowMillis;
+            this.bucketCount = bucketCount;
+        }
+
+        @Override
+        public StatsSession createSession(final StatsKey key,
+                                          final DataRecorder[] dataRecorders) {
+            StatsManager statsManager = StatsManagerRegistry.getInstance().getStatsManager(key.getNamespace());
+            DataRecorderFactory dataRecorderFactory = null;
+            if (dataRecorders.length > 0) {
+                dataRecorderFactory = statsManager.getConfigManager()
+                                                  .getOrCreateConfig(key)
+                                                  .getDataRecorderFactory();
+            }
+            return new RollingWindowSession(key,
+                                            statsManager.getEventManager(),
+                                            windowMillis < 0 ?
+                                                StatsProperties.getLongProperty(PROP_WINDOW_MILLIS, DEFAULT_WINDOW_MILLIS) :
+                                                windowMillis,
+                                            bucketCount < 0 ?
+                                                StatsProperties.getIntegerProperty(PROP_BUCKET_COUNT, DEFAULT_BUCKET_COUNT) :
+                                                bucketCount,
+                                            dataRecorderFactory,
+                                            dataRecorders);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Factory)) {
+                return false;
+            }
+            Factory other = (Factory) obj;
+            return other.windowMillis == windowMillis && other.bucketCount == bucketCount;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (windowMillis ^ (windowMillis >>> 32)) * 31 + bucketCount;
+        }
+    }
+
+}
@@ -128,6 +128,17 @@ public interface StatsSession extends Serializable {
      */
     Object getField(String name);
 
+    /**
+     * Resolve a field of this session by name, for repeated reads of its value without
+     * looking up the name again.
+     *
+     * @param name The name of the field to resolve.
+     * @return A {@link FieldHandle} bound to this session, or <tt>null</tt> if not found.
+     *
+     * @see #getField(String)
+     */
+    FieldHandle getFieldHandle(String name);
+
     /**
      * Obtain a {@link DataSet} that is populated with all data collected for this session.
      * The {@link DataSet} is populated with default data stored by this session, such as hits and
@@ -102,6 +102,23 @@ public interface StatsSessionManager extends Serializable,ServiceLifeCycle {
      */
     boolean remove(StatsSession session);
 
+    /**
+     * Get the number of {@link StatsSession}s that this manager has discarded on its own
+     * accord, for example to bound memory usage.
+     *
+     * @return The number of evicted {@link StatsSession}s.
+     */
+    long getEvictionCount();
+
+    /**
+     * Get the number of distinct sub-keys that this manager has folded into a shared overflow
+     * sub-key because their key name had too many sub-keys. Implementations that do not limit
+     * sub-keys return 0.
+     *
+     * @return The number of folded sub-keys.
+     */
+    long getOverflowCount();
+
     /**
      * Remove all {@link StatsSession} instances from this manager.
      */
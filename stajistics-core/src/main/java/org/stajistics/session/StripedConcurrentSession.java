@@ -0,0 +1,751 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session;
+
+import static org.stajistics.Util.assertNotNull;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.stajistics.StatsKey;
+import org.stajistics.StatsManager;
+import org.stajistics.StatsManagerRegistry;
+import org.stajistics.StatsProperties;
+import org.stajistics.data.DataSet;
+import org.stajistics.event.EventManager;
+import org.stajistics.event.EventType;
+import org.stajistics.session.recorder.DataRecorder;
+import org.stajistics.session.recorder.DataRecorderFactory;
+import org.stajistics.session.recorder.DataRecorderPipeline;
+import org.stajistics.tracker.Tracker;
+
+/**
+ * <p>A {@link ConcurrentSession} alternative intended for heavily contended keys. Rather than
+ * funneling every update through a single set of atomic fields, the hit, commit, min, max, sum,
+ * and last fields are spread over a number of padded stripes (cells). Each thread updates the stripe
+ * selected by its own probe value, which is rehashed when contention is detected, so that threads
+ * hitting the same key rarely touch the same cache line. The stripes are folded together whenever
+ * a field is read, e.g. in {@link #collectData()} or {@link #getField(String)}.</p>
+ *
+ * <p>Reads are therefore more expensive than with {@link ConcurrentSession}, and each session
+ * occupies <tt>128 bytes * stripes</tt> of cell storage, so this implementation should only be
+ * configured for keys that are known to be hot, such as the root key of a servlet filter.
+ * Like {@link ConcurrentSession}, the values returned from concurrent reads are not guaranteed
+ * to be related to one another.</p>
+ *
+ * <p>As in {@link ConcurrentSession}, the stripes and {@link DataRecorder}s are held in a State that
+ * {@link #drainData()} replaces as a whole, and writers register with the State they update, here in
+ * a slot of their own stripe. {@link #drainData()} waits for the writers of the old State to finish
+ * before reading it, so each update is reported in exactly one drained {@link DataSet}. With a
+ * {@link DataRecorderFactory}, as given by the {@link Factory}, each State gets fresh
+ * {@link DataRecorder}s; otherwise they are shared, and collected and then cleared. A drain triggered
+ * on a thread that is updating the session does not wait, as described for
+ * {@link ConcurrentSession}.</p>
+ *
+ * <p>The number of stripes defaults to the number of available processors rounded up to a
+ * power of two, and can be overridden with the {@link #PROP_STRIPES} property.</p>
+ *
+ * @see ConcurrentSession
+ *
+ * @author The Stajistics Project
+ */
+public class StripedConcurrentSession extends AbstractStatsSession {
+
+    public static final String PROP_STRIPES = StripedConcurrentSession.class.getName() + ".stripes";
+
+    public static final Factory FACTORY = new Factory();
+
+    private static final Logger logger = LoggerFactory.getLogger(StripedConcurrentSession.class);
+
+    private static final int MAX_STRIPES = 1 << 12;
+
+    // Slots within a stripe
+    private static final int HITS = 0;
+    private static final int LAST_HIT_STAMP = 1;
+    private static final int COMMITS = 2;
+    private static final int SUM = 3;
+    private static final int MIN = 4;
+    private static final int MAX = 5;
+    private static final int LAST_STAMP = 6;
+    private static final int LAST = 7;
+    private static final int WRITERS = 8;
+
+    // Slots of the per-thread probe
+    private static final int PROBE = 0;
+    private static final int DEPTH = 1;
+
+    // 16 longs (128 bytes) per stripe keeps neighbouring stripes off each other's cache lines
+    private static final int STRIPE_SHIFT = 4;
+
+    private static final long NO_LAST_STAMP = Long.MIN_VALUE;
+
+    private static final ThreadLocal<int[]> threadProbe = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            long id = Thread.currentThread().getId();
+            int probe = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+            return new int[] { probe == 0 ? 1 : probe, 0 };
+        }
+    };
+
+    private final int stripeMask;
+
+    private final DataRecorderFactory dataRecorderFactory;
+
+    private final AtomicReference<State> state;
+
+    public StripedConcurrentSession(final StatsKey key,
+                                    final EventManager eventManager,
+                                    final DataRecorder... dataRecorders) {
+        this(key, eventManager, defaultStripes(), dataRecorders);
+    }
+
+    public StripedConcurrentSession(final StatsKey key,
+                                    final EventManager eventManager,
+                                    final int stripes,
+                                    final DataRecorder... dataRecorders) {
+        this(key, eventManager, stripes, null, dataRecorders);
+    }
+
+    /**
+     * @param dataRecorderFactory Creates the fresh {@link DataRecorder}s that replace the drained
+     *                            ones in {@link #drainData()}, which should match
+     *                            <tt>dataRecorders</tt>. May be <tt>null</tt>, in which case
+     *                            <tt>dataRecorders</tt> are kept and cleared when drained.
+     */
+    public StripedConcurrentSession(final StatsKey key,
+                                    final EventManager eventManager,
+                                    final int stripes,
+                                    final DataRecorderFactory dataRecorderFactory,
+                                    final DataRecorder... dataRecorders) {
+        super(key,
+              eventManager,
+              DataRecorderPipeline.lockingIfNeeded(dataRecorders));
+
+        if (stripes < 1) {
+            throw new IllegalArgumentException("stripes must be > 0: " + stripes);
+        }
+
+        int stripeCount = 1;
+        while (stripeCount < stripes && stripeCount < MAX_STRIPES) {
+            stripeCount <<= 1;
+        }
+
+        stripeMask = stripeCount - 1;
+
+        if (this.dataRecorders.length > 0) {
+            this.dataRecorderFactory = dataRecorderFactory;
+        } else {
+            this.dataRecorderFactory = null;
+        }
+
+        state = new AtomicReference<State>(new State(createCells(),
+                                                     this.dataRecorders,
+                                                     compilePipeline(this.dataRecorders)));
+    }
+
+    private static int defaultStripes() {
+        int stripes = Runtime.getRuntime().availableProcessors();
+        return StatsProperties.getIntegerProperty(PROP_STRIPES, stripes);
+    }
+
+    /**
+     * Obtain the number of stripes over which the fields of this session are spread.
+     *
+     * @return The stripe count, which is always a power of two.
+     */
+    public int getStripeCount() {
+        return stripeMask + 1;
+    }
+
+    private static int slot(final int stripe, final int field) {
+        return (stripe << STRIPE_SHIFT) + field;
+    }
+
+    private int currentStripe(final int[] probe) {
+        return probe[PROBE] & stripeMask;
+    }
+
+    private static void rehash(final int[] probe) {
+        int p = probe[PROBE];
+        p ^= p << 13;
+        p ^= p >>> 17;
+        p ^= p << 5;
+        probe[PROBE] = p;
+    }
+
+    private AtomicLongArray createCells() {
+        final int stripes = stripeMask + 1;
+        final AtomicLongArray cells = new AtomicLongArray(stripes << STRIPE_SHIFT);
+        for (int i = 0; i < stripes; i++) {
+            cells.set(slot(i, HITS), 0);
+            cells.set(slot(i, LAST_HIT_STAMP), DataSet.Field.Default.LAST_HIT_STAMP);
+            cells.set(slot(i, COMMITS), 0);
+            cells.set(slot(i, SUM), Double.doubleToLongBits(0));
+            cells.set(slot(i, MIN), Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+            cells.set(slot(i, MAX), Double.doubleToLongBits(Double.NEGATIVE_INFINITY));
+            cells.set(slot(i, LAST_STAMP), NO_LAST_STAMP);
+            cells.set(slot(i, LAST), Double.doubleToLongBits(DataSet.Field.Default.LAST));
+        }
+        return cells;
+    }
+
+    private State createState() {
+        if (dataRecorderFactory == null) {
+            final State current = state.get();
+            return new State(createCells(), current.dataRecorders, current.dataRecorderPipeline);
+        }
+
+        final DataRecorder[] freshDataRecorders =
+            DataRecorderPipeline.lockingIfNeeded(dataRecorderFactory.createDataRecorders());
+        return new State(createCells(), freshDataRecorders, compilePipeline(freshDataRecorders));
+    }
+
+    /**
+     * Register the calling thread as a writer of <tt>s</tt> in its own stripe, moving the thread
+     * to another stripe for subsequent updates if contention was detected.
+     *
+     * @return The stripe to update and to pass to {@link #exit(State, int[], int)}, or -1 if
+     *         <tt>s</tt> was replaced by a drain in the meantime.
+     */
+    private int enter(final State s, final int[] probe) {
+        final int stripe = currentStripe(probe);
+        final int i = slot(stripe, WRITERS);
+        final long v = s.cells.get(i);
+        if (!s.cells.compareAndSet(i, v, v + 1)) {
+            rehash(probe);
+            s.cells.incrementAndGet(i);
+        }
+
+        if (state.get() != s) {
+            // Lost a race with drainData(); retry on the fresh State
+            s.cells.decrementAndGet(i);
+            return -1;
+        }
+
+        probe[DEPTH]++;
+        return stripe;
+    }
+
+    private static void exit(final State s, final int[] probe, final int stripe) {
+        s.cells.decrementAndGet(slot(stripe, WRITERS));
+        probe[DEPTH]--;
+    }
+
+    /**
+     * Wait until the writers of the drained State <tt>s</tt> have finished, unless the calling
+     * thread is itself writing, in which case it would wait for itself.
+     */
+    private void awaitWriters(final State s) {
+        if (threadProbe.get()[DEPTH] > 0) {
+            return;
+        }
+
+        while (sumLongs(s.cells, WRITERS) > 0) {
+            Thread.yield();
+        }
+    }
+
+    @Override
+    protected DataRecorder[] currentDataRecorders() {
+        return state.get().dataRecorders;
+    }
+
+    @Override
+    protected FieldHandle createDataRecorderFieldHandle(final DataRecorder dataRecorder,
+                                                        final String name) {
+        if (dataRecorderFactory != null) {
+            // The DataRecorder is replaced when drained
+            return FieldHandles.named(this, name);
+        }
+
+        return super.createDataRecorderFieldHandle(dataRecorder, name);
+    }
+
+    @Override
+    public void track(final Tracker tracker,
+                      long now) {
+        if (now < 0) {
+            now = System.currentTimeMillis();
+        }
+
+        final int[] probe = threadProbe.get();
+        State s;
+        int stripe;
+        do {
+            s = state.get();
+            stripe = enter(s, probe);
+        } while (stripe < 0);
+
+        try {
+            final AtomicLongArray cells = s.cells;
+            cells.incrementAndGet(slot(stripe, HITS));
+
+            if (s.firstHitStamp.get() == DataSet.Field.Default.FIRST_HIT_STAMP) {
+                s.firstHitStamp.compareAndSet(DataSet.Field.Default.FIRST_HIT_STAMP, now);
+            }
+
+            final int i = slot(stripe, LAST_HIT_STAMP);
+            if (cells.get(i) < now) {
+                cells.lazySet(i, now);
+            }
+        } finally {
+            exit(s, probe, stripe);
+        }
+
+        logger.trace("Track: {}", this);
+
+        eventManager.fireEvent(EventType.TRACKER_TRACKING, key, tracker);
+    }
+
+    @Override
+    public void update(final Tracker tracker, long now) {
+        final double currentValue = tracker.getValue();
+
+        if (now < 0) {
+            now = System.currentTimeMillis();
+        }
+
+        final int[] probe = threadProbe.get();
+        State s;
+        int stripe;
+        do {
+            s = state.get();
+            stripe = enter(s, probe);
+        } while (stripe < 0);
+
+        try {
+            final AtomicLongArray cells = s.cells;
+            cells.incrementAndGet(slot(stripe, COMMITS));
+
+            // First
+            if (s.first.get() == null) {
+                s.first.compareAndSet(null, currentValue);
+            }
+
+            boolean contended = false;
+            int i;
+            long tmp;
+
+            // Last
+            cells.lazySet(slot(stripe, LAST), Double.doubleToLongBits(currentValue));
+            i = slot(stripe, LAST_STAMP);
+            if (cells.get(i) < now) {
+                cells.lazySet(i, now);
+            }
+
+            // Min
+            i = slot(stripe, MIN);
+            for (;;) {
+                tmp = cells.get(i);
+                if (currentValue < Double.longBitsToDouble(tmp)) {
+                    if (cells.compareAndSet(i, tmp, Double.doubleToLongBits(currentValue))) {
+                        break;
+                    }
+                    contended = true;
+                } else {
+                    break;
+                }
+            }
+
+            // Max
+            i = slot(stripe, MAX);
+            for (;;) {
+                tmp = cells.get(i);
+                if (currentValue > Double.longBitsToDouble(tmp)) {
+                    if (cells.compareAndSet(i, tmp, Double.doubleToLongBits(currentValue))) {
+                        break;
+                    }
+                    contended = true;
+                } else {
+                    break;
+                }
+            }
+
+            // Sum
+            i = slot(stripe, SUM);
+            for (;;) {
+                tmp = cells.get(i);
+                if (cells.compareAndSet(i, tmp, Double.doubleToLongBits(Double.longBitsToDouble(tmp) + currentValue))) {
+                    break;
+                }
+                contended = true;
+            }
+
+            if (contended) {
+                rehash(probe);
+            }
+
+            updateDataRecorders(s.dataRecorders, s.dataRecorderPipeline, tracker, now);
+        } finally {
+            exit(s, probe, stripe);
+        }
+
+        logger.trace("Commit: {}", this);
+
+        eventManager.fireEvent(EventType.TRACKER_COMMITTED, key, tracker);
+    }
+
+    private long sumLongs(final AtomicLongArray cells, final int field) {
+        final int stripes = stripeMask + 1;
+        long result = 0;
+        for (int i = 0; i < stripes; i++) {
+            result += cells.get(slot(i, field));
+        }
+        return result;
+    }
+
+    private long maxLongs(final AtomicLongArray cells, final int field) {
+        final int stripes = stripeMask + 1;
+        long result = Long.MIN_VALUE;
+        for (int i = 0; i < stripes; i++) {
+            long value = cells.get(slot(i, field));
+            if (value > result) {
+                result = value;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Assign <tt>value</tt> to the first stripe and <tt>others</tt> to the remaining stripes.
+     */
+    private void setLongs(final int field, final long value, final long others) {
+        final AtomicLongArray cells = state.get().cells;
+        final int stripes = stripeMask + 1;
+        cells.set(slot(0, field), value);
+        for (int i = 1; i < stripes; i++) {
+            cells.set(slot(i, field), others);
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return sumLongs(state.get().cells, HITS);
+    }
+
+    @Override
+    protected void setHits(final long hits) {
+        setLongs(HITS, hits, 0);
+    }
+
+    @Override
+    public long getFirstHitStamp() {
+        return state.get().firstHitStamp.get();
+    }
+
+    @Override
+    protected void setFirstHitStamp(final long firstHitStamp) {
+        state.get().firstHitStamp.set(firstHitStamp);
+    }
+
+    @Override
+    public long getLastHitStamp() {
+        return maxLongs(state.get().cells, LAST_HIT_STAMP);
+    }
+
+    @Override
+    protected void setLastHitStamp(final long lastHitStamp) {
+        setLongs(LAST_HIT_STAMP, lastHitStamp, DataSet.Field.Default.LAST_HIT_STAMP);
+    }
+
+    @Override
+    public long getCommits() {
+        return sumLongs(state.get().cells, COMMITS);
+    }
+
+    @Override
+    protected void setCommits(final long commits) {
+        setLongs(COMMITS, commits, 0);
+    }
+
+    @Override
+    public double getFirst() {
+        Double firstValue = state.get().first.get();
+
+        if (firstValue == null) {
+            return DataSet.Field.Default.FIRST;
+        }
+
+        return firstValue;
+    }
+
+    @Override
+    protected void setFirst(final Double first) {
+        state.get().first.set(first);
+    }
+
+    @Override
+    public double getLast() {
+        return getLast(state.get().cells);
+    }
+
+    private double getLast(final AtomicLongArray cells) {
+        final int stripes = stripeMask + 1;
+        long lastStamp = NO_LAST_STAMP;
+        double result = DataSet.Field.Default.LAST;
+        for (int i = 0; i < stripes; i++) {
+            long stamp = cells.get(slot(i, LAST_STAMP));
+            if (stamp > lastStamp) {
+                lastStamp = stamp;
+                result = Double.longBitsToDouble(cells.get(slot(i, LAST)));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    protected void setLast(final double last) {
+        final AtomicLongArray cells = state.get().cells;
+        final int stripes = stripeMask + 1;
+        // A restored last value is older than any subsequently recorded one
+        cells.set(slot(0, LAST), Double.doubleToLongBits(last));
+        cells.set(slot(0, LAST_STAMP), NO_LAST_STAMP + 1);
+        for (int i = 1; i < stripes; i++) {
+            cells.set(slot(i, LAST_STAMP), NO_LAST_STAMP);
+        }
+    }
+
+    @Override
+    public double getMin() {
+        final AtomicLongArray cells = state.get().cells;
+        final int stripes = stripeMask + 1;
+        double result = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < stripes; i++) {
+            double value = Double.longBitsToDouble(cells.get(slot(i, MIN)));
+            if (value < result) {
+                result = value;
+            }
+        }
+        if (result == Double.POSITIVE_INFINITY) {
+            result = DataSet.Field.Default.MIN;
+        }
+        return result;
+    }
+
+    @Override
+    protected void setMin(final double min) {
+        setLongs(MIN,
+                 Double.doubleToLongBits(min),
+                 Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+    }
+
+    @Override
+    public double getMax() {
+        final AtomicLongArray cells = state.get().cells;
+        final int stripes = stripeMask + 1;
+        double result = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < stripes; i++) {
+            double value = Double.longBitsToDouble(cells.get(slot(i, MAX)));
+            if (value > result) {
+                result = value;
+            }
+        }
+        if (result == Double.NEGATIVE_INFINITY) {
+            result = DataSet.Field.Default.MAX;
+        }
+        return result;
+    }
+
+    @Override
+    protected void setMax(final double max) {
+        setLongs(MAX,
+                 Double.doubleToLongBits(max),
+                 Double.doubleToLongBits(Double.NEGATIVE_INFINITY));
+    }
+
+    @Override
+    public double getSum() {
+        return getSum(state.get().cells);
+    }
+
+    private double getSum(final AtomicLongArray cells) {
+        final int stripes = stripeMask + 1;
+        double result = 0;
+        for (int i = 0; i < stripes; i++) {
+            result += Double.longBitsToDouble(cells.get(slot(i, SUM)));
+        }
+        return result;
+    }
+
+    @Override
+    protected void setSum(final double sum) {
+        setLongs(SUM,
+                 Double.doubleToLongBits(sum),
+                 Double.doubleToLongBits(0));
+    }
+
+    @Override
+    public void restore(final DataSet dataSet) {
+        assertNotNull(dataSet, "dataSet");
+
+        clearState();
+        restoreState(dataSet);
+
+        logger.trace("Restore: {}", this);
+
+        eventManager.fireEvent(EventType.SESSION_RESTORED, key, this);
+    }
+
+    @Override
+    protected void clearState() {
+        // A fresh State already holds the default values
+        state.set(createState());
+
+        if (dataRecorderFactory == null) {
+            clearDataRecorders(dataRecorders);
+        }
+    }
+
+    @Override
+    public void clear() {
+        clearState();
+
+        logger.trace("Clear: {}", this);
+
+        eventManager.fireEvent(EventType.SESSION_CLEARED, key, this);
+    }
+
+    @Override
+    public DataSet drainData() {
+        final State drained = state.getAndSet(createState());
+        awaitWriters(drained);
+
+        final AtomicLongArray cells = drained.cells;
+        final int stripes = stripeMask + 1;
+
+        double drainedMin = Double.POSITIVE_INFINITY;
+        double drainedMax = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < stripes; i++) {
+            drainedMin = Math.min(drainedMin, Double.longBitsToDouble(cells.get(slot(i, MIN))));
+            drainedMax = Math.max(drainedMax, Double.longBitsToDouble(cells.get(slot(i, MAX))));
+        }
+
+        if (drainedMin == Double.POSITIVE_INFINITY) {
+            drainedMin = DataSet.Field.Default.MIN;
+        }
+        if (drainedMax == Double.NEGATIVE_INFINITY) {
+            drainedMax = DataSet.Field.Default.MAX;
+        }
+
+        final Double drainedFirst = drained.first.get();
+
+        final DataSet data = createDataSet(true);
+
+        setStandardFields(data,
+                          sumLongs(cells, HITS),
+                          drained.firstHitStamp.get(),
+                          maxLongs(cells, LAST_HIT_STAMP),
+                          sumLongs(cells, COMMITS),
+                          drainedFirst == null ? DataSet.Field.Default.FIRST : drainedFirst,
+                          getLast(cells),
+                          drainedMin,
+                          drainedMax,
+                          getSum(cells));
+
+        drainDataRecorders(data, drained.dataRecorders, dataRecorderFactory == null);
+
+        updateDataSetSchema(data);
+
+        logger.trace("Clear: {}", this);
+
+        eventManager.fireEvent(EventType.SESSION_CLEARED, key, this);
+
+        return data;
+    }
+
+    /* NESTED CLASSES */
+
+    /**
+     * The stripes and {@link DataRecorder}s of a {@link StripedConcurrentSession} between two
+     * drains. Each stripe also counts the threads that are writing to it.
+     */
+    private static final class State implements Serializable {
+
+        private final AtomicLongArray cells;
+
+        private final AtomicLong firstHitStamp = new AtomicLong(DataSet.Field.Default.FIRST_HIT_STAMP);
+
+        // The proper default is taken care of in getFirst()
+        private final AtomicReference<Double> first = new AtomicReference<Double>(null);
+
+        private final DataRecorder[] dataRecorders;
+
+        // Non-null if the DataRecorders are updated in a single pass
+        private final DataRecorderPipeline dataRecorderPipeline;
+
+        State(final AtomicLongArray cells,
+              final DataRecorder[] dataRecorders,
+              final DataRecorderPipeline dataRecorderPipeline) {
+            this.cells = cells;
+            this.dataRecorders = dataRecorders;
+            this.dataRecorderPipeline = dataRecorderPipeline;
+        }
+    }
+
+    /**
+     * Creates {@link StripedConcurrentSession}s. Assign an instance to
+     * {@link org.stajistics.configuration.StatsConfigBuilder#withSessionFactory(StatsSessionFactory)}
+     * for keys that are subject to heavy concurrent updates.
+     */
+    public static final class Factory implements StatsSessionFactory {
+
+        private final int stripes;
+
+        public Factory() {
+            this(-1);
+        }
+
+        /**
+         * @param stripes The number of stripes to create for each session, or a value
+         *                less than 1 to use the default.
+         */
+        public Factory(final int stripes) {
+            this.stripes = stripes;
+        }
+
+        @Override
+        public StatsSession createSession(final StatsKey key,
+                                          final DataRecorder[] dataRecorders) {
+            StatsManager statsManager = StatsManagerRegistry.getInstance().getStatsManager(key.getNamespace());
+            DataRecorderFactory dataRecorderFactory = null;
+            if (dataRecorders.length > 0) {
+                dataRecorderFactory = statsManager.getConfigManager()
+                                                  .getOrCreateConfig(key)
+                                                  .getDataRecorderFactory();
+            }
+            return new StripedConcurrentSession(key,
+                                                statsManager.getEventManager(),
+                                                stripes > 0 ? stripes : defaultStripes(),
+                                                dataRecorderFactory,
+                                                dataRecorders);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return (obj instanceof Factory) && ((Factory) obj).stripes == stripes;
+        }
+
+        @Override
+        public int hashCode() {
+            return stripes;
+        }
+    }
+
+}
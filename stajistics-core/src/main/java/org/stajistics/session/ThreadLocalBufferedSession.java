@@ -0,0 +1,597 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session;
+
+import static org.stajistics.Util.assertNotNull;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.stajistics.StatsKey;
+import org.stajistics.StatsManager;
+import org.stajistics.StatsManagerRegistry;
+import org.stajistics.StatsProperties;
+import org.stajistics.data.DataSet;
+import org.stajistics.event.EventManager;
+import org.stajistics.event.EventType;
+import org.stajistics.session.recorder.DataRecorder;
+import org.stajistics.session.recorder.DataRecorderPipeline;
+import org.stajistics.tracker.Tracker;
+
+/**
+ * <p>An implementation of {@link StatsSession} that accumulates the hits, commits, first, last,
+ * min, max, and sum fields into a buffer owned by the calling thread. As no other thread
+ * writes to that buffer, updates do not contend with one another. Each buffer is merged into
+ * the shared session state by its owning thread once the flush interval has elapsed, and all
+ * buffers are merged whenever the session is read, so reads always reflect every completed
+ * update. This suits keys that are updated by a fixed pool of worker threads and only read
+ * periodically.</p>
+ *
+ * <p>{@link #drainData()} merges and resets the buffers under the same lock that guards the
+ * shared state, so updates made by other threads while draining remain buffered and are
+ * reported in the next interval rather than being lost.</p>
+ *
+ * <p>{@link DataRecorder}s are updated directly rather than buffered, so, as with
+ * {@link ConcurrentSession}, they must be thread safe and are passed through
+ * {@link DataRecorderPipeline#lockingIfNeeded(DataRecorder[])}.</p>
+ *
+ * <p>The flush interval defaults to one second and can be changed with the
+ * {@link #PROP_FLUSH_INTERVAL} property or through the {@link Factory}.</p>
+ *
+ * @see ConcurrentSession
+ *
+ * @author The Stajistics Project
+ */
+public class ThreadLocalBufferedSession extends AbstractStatsSession {
+
+    public static final String PROP_FLUSH_INTERVAL =
+        ThreadLocalBufferedSession.class.getName() + ".flushIntervalMillis";
+
+    public static final Factory FACTORY = new Factory();
+
+    private static final Logger logger = LoggerFactory.getLogger(ThreadLocalBufferedSession.class);
+
+    private static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    private volatile long hits = DataSet.Field.Default.HITS;
+    private volatile long firstHitStamp = DataSet.Field.Default.FIRST_HIT_STAMP;
+    private volatile long lastHitStamp = DataSet.Field.Default.LAST_HIT_STAMP;
+    private volatile long commits = DataSet.Field.Default.COMMITS;
+
+    private volatile Double first = null; // The proper default is taken care of in getFirst()
+    private long firstStamp = Long.MIN_VALUE;
+    private volatile double last = DataSet.Field.Default.LAST;
+    private long lastStamp = Long.MIN_VALUE;
+    private volatile double min = Double.POSITIVE_INFINITY;
+    private volatile double max = Double.NEGATIVE_INFINITY;
+    private volatile double sum = DataSet.Field.Default.SUM;
+
+    private final long flushInterval;
+
+    private final ReentrantLock stateLock = new ReentrantLock();
+
+    // Buffers are merged before serialization, so they need not be serialized themselves
+    private transient List<Buffer> buffers;
+    private transient ThreadLocal<Buffer> threadBuffer;
+
+    public ThreadLocalBufferedSession(final StatsKey key,
+                                      final EventManager eventManager,
+                                      final DataRecorder... dataRecorders) {
+        this(key,
+             eventManager,
+             StatsProperties.getLongProperty(PROP_FLUSH_INTERVAL, DEFAULT_FLUSH_INTERVAL),
+             dataRecorders);
+    }
+
+    /**
+     * @param flushInterval The number of milliseconds after which a thread merges its buffer
+     *                      into the shared state. A value less than 1 merges on every update.
+     */
+    public ThreadLocalBufferedSession(final StatsKey key,
+                                      final EventManager eventManager,
+                                      final long flushInterval,
+                                      final DataRecorder... dataRecorders) {
+        super(key,
+              eventManager,
+              DataRecorderPipeline.lockingIfNeeded(dataRecorders));
+
+        this.flushInterval = flushInterval;
+
+        initBuffers();
+    }
+
+    private void initBuffers() {
+        buffers = new CopyOnWriteArrayList<Buffer>();
+        threadBuffer = new ThreadLocal<Buffer>() {
+            @Override
+            protected Buffer initialValue() {
+                Buffer buffer = new Buffer(Thread.currentThread());
+                buffers.add(buffer);
+                return buffer;
+            }
+        };
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        flush();
+        out.defaultWriteObject();
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        initBuffers();
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    @Override
+    public void track(final Tracker tracker, long now) {
+        if (now < 0) {
+            now = System.currentTimeMillis();
+        }
+
+        final Buffer buffer = threadBuffer.get();
+        final boolean flush;
+
+        synchronized (buffer) {
+            buffer.hits++;
+
+            if (buffer.firstHitStamp == DataSet.Field.Default.FIRST_HIT_STAMP) {
+                buffer.firstHitStamp = now;
+            }
+            buffer.lastHitStamp = now;
+
+            flush = isFlushDue(buffer, now);
+        }
+
+        if (flush) {
+            flush(buffer, now);
+        }
+
+        logger.trace("Track: {}", this);
+
+        eventManager.fireEvent(EventType.TRACKER_TRACKING, key, tracker);
+    }
+
+    @Override
+    public void update(final Tracker tracker, long now) {
+        final double currentValue = tracker.getValue();
+
+        if (now < 0) {
+            now = System.currentTimeMillis();
+        }
+
+        final Buffer buffer = threadBuffer.get();
+        final boolean flush;
+
+        synchronized (buffer) {
+            buffer.commits++;
+
+            if (!buffer.hasFirst) {
+                buffer.hasFirst = true;
+                buffer.first = currentValue;
+                buffer.firstStamp = now;
+            }
+
+            buffer.last = currentValue;
+            buffer.lastStamp = now;
+
+            if (currentValue < buffer.min) {
+                buffer.min = currentValue;
+            }
+            if (currentValue > buffer.max) {
+                buffer.max = currentValue;
+            }
+
+            buffer.sum += currentValue;
+
+            flush = isFlushDue(buffer, now);
+        }
+
+        updateDataRecorders(tracker, now);
+
+        if (flush) {
+            flush(buffer, now);
+        }
+
+        logger.trace("Commit: {}", this);
+
+        eventManager.fireEvent(EventType.TRACKER_COMMITTED, key, tracker);
+    }
+
+    /*
+     * NOTE: Must be called while holding the buffer monitor
+     */
+    private boolean isFlushDue(final Buffer buffer, final long now) {
+        if (buffer.lastFlush == Long.MIN_VALUE) {
+            buffer.lastFlush = now;
+            return flushInterval <= 0;
+        }
+        return now - buffer.lastFlush >= flushInterval;
+    }
+
+    private void flush(final Buffer buffer, final long now) {
+        stateLock.lock();
+        try {
+            synchronized (buffer) {
+                merge(buffer);
+                buffer.lastFlush = now;
+            }
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * Merge the buffers of all threads into the shared state, discarding the buffers
+     * of threads that have terminated.
+     */
+    public void flush() {
+        if (stateLock.isHeldByCurrentThread()) {
+            // Already flushed by collectData() or drainData()
+            return;
+        }
+
+        stateLock.lock();
+        try {
+            flushAll();
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /*
+     * NOTE: Must be called while holding stateLock
+     */
+    private void flushAll() {
+        for (Buffer buffer : buffers) {
+            // Checked before merging, as the owner may still update its buffer until it terminates
+            final boolean ownerTerminated = !buffer.owner.isAlive();
+            synchronized (buffer) {
+                merge(buffer);
+            }
+            if (ownerTerminated) {
+                buffers.remove(buffer);
+            }
+        }
+    }
+
+    /*
+     * NOTE: Must be called while holding stateLock and the buffer monitor
+     */
+    private void merge(final Buffer buffer) {
+        if (buffer.hits > 0) {
+            hits += buffer.hits;
+
+            if (firstHitStamp == DataSet.Field.Default.FIRST_HIT_STAMP ||
+                    buffer.firstHitStamp < firstHitStamp) {
+                firstHitStamp = buffer.firstHitStamp;
+            }
+            if (buffer.lastHitStamp > lastHitStamp) {
+                lastHitStamp = buffer.lastHitStamp;
+            }
+        }
+
+        if (buffer.commits > 0) {
+            commits += buffer.commits;
+
+            if (buffer.hasFirst && (first == null || buffer.firstStamp < firstStamp)) {
+                first = buffer.first;
+                firstStamp = buffer.firstStamp;
+            }
+            if (buffer.lastStamp >= lastStamp) {
+                last = buffer.last;
+                lastStamp = buffer.lastStamp;
+            }
+            if (buffer.min < min) {
+                min = buffer.min;
+            }
+            if (buffer.max > max) {
+                max = buffer.max;
+            }
+
+            sum += buffer.sum;
+        }
+
+        buffer.reset();
+    }
+
+    @Override
+    public long getHits() {
+        flush();
+        return hits;
+    }
+
+    @Override
+    protected void setHits(final long hits) {
+        this.hits = hits;
+    }
+
+    @Override
+    public long getFirstHitStamp() {
+        flush();
+        return firstHitStamp;
+    }
+
+    @Override
+    protected void setFirstHitStamp(final long firstHitStamp) {
+        this.firstHitStamp = firstHitStamp;
+    }
+
+    @Override
+    public long getLastHitStamp() {
+        flush();
+        return lastHitStamp;
+    }
+
+    @Override
+    protected void setLastHitStamp(final long lastHitStamp) {
+        this.lastHitStamp = lastHitStamp;
+    }
+
+    @Override
+    public long getCommits() {
+        flush();
+        return commits;
+    }
+
+    @Override
+    protected void setCommits(final long commits) {
+        this.commits = commits;
+    }
+
+    @Override
+    public double getFirst() {
+        flush();
+
+        Double firstValue = first;
+
+        if (firstValue == null) {
+            return DataSet.Field.Default.FIRST;
+        }
+
+        return firstValue;
+    }
+
+    @Override
+    protected void setFirst(final Double first) {
+        this.first = first;
+        this.firstStamp = Long.MIN_VALUE;
+    }
+
+    @Override
+    public double getLast() {
+        flush();
+        return last;
+    }
+
+    @Override
+    protected void setLast(final double last) {
+        this.last = last;
+        this.lastStamp = Long.MIN_VALUE;
+    }
+
+    @Override
+    public double getMin() {
+        flush();
+
+        double result = min;
+        if (result == Double.POSITIVE_INFINITY) {
+            result = DataSet.Field.Default.MIN;
+        }
+        return result;
+    }
+
+    @Override
+    protected void setMin(final double min) {
+        this.min = min;
+    }
+
+    @Override
+    public double getMax() {
+        flush();
+
+        double result = max;
+        if (result == Double.NEGATIVE_INFINITY) {
+            result = DataSet.Field.Default.MAX;
+        }
+        return result;
+    }
+
+    @Override
+    protected void setMax(final double max) {
+        this.max = max;
+    }
+
+    @Override
+    public double getSum() {
+        flush();
+        return sum;
+    }
+
+    @Override
+    protected void setSum(final double sum) {
+        this.sum = sum;
+    }
+
+    @Override
+    public void restore(final DataSet dataSet) {
+        assertNotNull(dataSet, "dataSet");
+
+        stateLock.lock();
+        try {
+            discardBuffers();
+            clearState();
+            restoreState(dataSet);
+        } finally {
+            stateLock.unlock();
+        }
+
+        logger.trace("Restore: {}", this);
+
+        eventManager.fireEvent(EventType.SESSION_RESTORED, key, this);
+    }
+
+    @Override
+    public void clear() {
+        stateLock.lock();
+        try {
+            discardBuffers();
+            clearState();
+        } finally {
+            stateLock.unlock();
+        }
+
+        fireCleared();
+    }
+
+    /*
+     * NOTE: Must be called while holding stateLock
+     */
+    private void discardBuffers() {
+        for (Buffer buffer : buffers) {
+            synchronized (buffer) {
+                buffer.reset();
+            }
+        }
+    }
+
+    private void fireCleared() {
+        logger.trace("Clear: {}", this);
+
+        eventManager.fireEvent(EventType.SESSION_CLEARED, key, this);
+    }
+
+    @Override
+    public DataSet collectData() {
+        stateLock.lock();
+        try {
+            flushAll();
+            return super.collectData();
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    @Override
+    public DataSet drainData() {
+        DataSet data;
+
+        stateLock.lock();
+        try {
+            flushAll();
+
+            data = createDataSet(true);
+            collectData(data);
+
+            clearState();
+        } finally {
+            stateLock.unlock();
+        }
+
+        fireCleared();
+        return data;
+    }
+
+    /* NESTED CLASSES */
+
+    private static final class Buffer {
+
+        private final Thread owner;
+
+        private long lastFlush = Long.MIN_VALUE;
+
+        private long hits;
+        private long firstHitStamp;
+        private long lastHitStamp;
+        private long commits;
+        private boolean hasFirst;
+        private double first;
+        private long firstStamp;
+        private double last;
+        private long lastStamp;
+        private double min;
+        private double max;
+        private double sum;
+
+        Buffer(final Thread owner) {
+            this.owner = owner;
+            reset();
+        }
+
+        void reset() {
+            hits = 0;
+            firstHitStamp = DataSet.Field.Default.FIRST_HIT_STAMP;
+            lastHitStamp = DataSet.Field.Default.LAST_HIT_STAMP;
+            commits = 0;
+            hasFirst = false;
+            lastStamp = Long.MIN_VALUE;
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+            sum = 0;
+        }
+    }
+
+    public static final class Factory implements StatsSessionFactory {
+
+        private final long flushInterval;
+
+        public Factory() {
+            this(-1);
+        }
+
+        /**
+         * @param flushInterval The buffer flush interval in milliseconds, or a negative
+         *                      value to use the default.
+         */
+        public Factory(final long flushInterval) {
+            this.flushInterval = flushInterval;
+        }
+
+        @Override
+        public StatsSession createSession(final StatsKey key,
+                                          final DataRecorder[] dataRecorders) {
+            StatsManager statsManager = StatsManagerRegistry.getInstance().getStatsManager(key.getNamespace());
+            if (flushInterval < 0) {
+                return new ThreadLocalBufferedSession(key,
+                                                      statsManager.getEventManager(),
+                                                      dataRecorders);
+            }
+            return new ThreadLocalBufferedSession(key,
+                                                  statsManager.getEventManager(),
+                                                  flushInterval,
+                                                  dataRecorders);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return (obj instanceof Factory) && ((Factory) obj).flushInterval == flushInterval;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (flushInterval ^ (flushInterval >>> 32));
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+import static org.stajistics.session.recorder.DistributionDataRecorder.ARITHMETIC_MEAN;
+import static org.stajistics.session.recorder.DistributionDataRecorder.FIELD_NAMES;
+import static org.stajistics.session.recorder.DistributionDataRecorder.GEOMETRIC_MEAN;
+import static org.stajistics.session.recorder.DistributionDataRecorder.HARMONIC_MEAN;
+import static org.stajistics.session.recorder.DistributionDataRecorder.PRODUCT;
+import static org.stajistics.session.recorder.DistributionDataRecorder.QUADRATIC_MEAN;
+import static org.stajistics.session.recorder.DistributionDataRecorder.STANDARD_DEVIATION;
+import static org.stajistics.session.recorder.DistributionDataRecorder.SUM_OF_INVERSES;
+import static org.stajistics.session.recorder.DistributionDataRecorder.SUM_OF_SQUARES;
+import static org.stajistics.session.recorder.DistributionDataRecorder.arithmeticMean;
+import static org.stajistics.session.recorder.DistributionDataRecorder.geometricMean;
+import static org.stajistics.session.recorder.DistributionDataRecorder.harmonicMean;
+import static org.stajistics.session.recorder.DistributionDataRecorder.quadraticMean;
+import static org.stajistics.session.recorder.DistributionDataRecorder.standardDeviation;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import org.stajistics.data.DataSet;
+import org.stajistics.session.StatsSession;
+import org.stajistics.session.recorder.DistributionDataRecorder.Field;
+import org.stajistics.tracker.Tracker;
+import org.stajistics.util.ThreadSafe;
+
+/**
+ * Records the same fields as a {@link DistributionDataRecorder}, but keeps its accumulators
+ * in primitive <tt>volatile long</tt> fields of the recorder itself, updated through static
+ * {@link AtomicLongFieldUpdater}s with double values stored as their raw long bits, rather
+ * than in one atomic wrapper object per field. Used by
+ * {@link org.stajistics.session.CompactConcurrentSession} in place of a
+ * {@link DistributionDataRecorder}.
+ *
+ * @author The Stajistics Project
+ */
+@ThreadSafe
+public class CompactDistributionDataRecorder implements MergeableDataRecorder, IndexedFieldDataRecorder {
+
+    private static final long ONE = Double.doubleToLongBits(1);
+    private static final long ZERO = Double.doubleToLongBits(0);
+
+    private static final AtomicLongFieldUpdater<CompactDistributionDataRecorder> productUpdater =
+        AtomicLongFieldUpdater.newUpdater(CompactDistributionDataRecorder.class, "product");
+    private static final AtomicLongFieldUpdater<CompactDistributionDataRecorder> sumOfInversesUpdater =
+        AtomicLongFieldUpdater.newUpdater(CompactDistributionDataRecorder.class, "sumOfInverses");
+    private static final AtomicLongFieldUpdater<CompactDistributionDataRecorder> sumOfSquaresUpdater =
+        AtomicLongFieldUpdater.newUpdater(CompactDistributionDataRecorder.class, "sumOfSquares");
+
+    // Double fields, stored as long bits
+    private volatile long product = ONE; // For geometric mean
+    private volatile long sumOfInverses = ZERO; // For harmonic mean
+    private volatile long sumOfSquares = ZERO; // For standard deviation and quadratic mean
+
+    @Override
+    public Set<String> getSupportedFieldNames() {
+        return DistributionDataRecorder.SUPPORTED_FIELD_NAMES;
+    }
+
+    @Override
+    public void update(final StatsSession session,
+                       final Tracker tracker,
+                       final long now) {
+        final double currentValue = tracker.getValue();
+
+        add(sumOfSquaresUpdater, currentValue * currentValue);
+        multiply(productUpdater, currentValue);
+        add(sumOfInversesUpdater, 1 / currentValue);
+    }
+
+    private void add(final AtomicLongFieldUpdater<CompactDistributionDataRecorder> updater,
+                     final double delta) {
+        long tmp;
+        for (;;) {
+            tmp = updater.get(this);
+            double newValue = Double.longBitsToDouble(tmp) + delta;
+            if (updater.compareAndSet(this, tmp, Double.doubleToLongBits(newValue))) {
+                break;
+            }
+        }
+    }
+
+    private void multiply(final AtomicLongFieldUpdater<CompactDistributionDataRecorder> updater,
+                          final double factor) {
+        long tmp;
+        for (;;) {
+            tmp = updater.get(this);
+            double newValue = Double.longBitsToDouble(tmp) * factor;
+            if (updater.compareAndSet(this, tmp, Double.doubleToLongBits(newValue))) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void restore(final DataSet dataSet) {
+        product = Double.doubleToLongBits(dataSet.getField(Field.PRODUCT, Double.class));
+        sumOfSquares = Double.doubleToLongBits(dataSet.getField(Field.SUM_OF_SQUARES, Double.class));
+        sumOfInverses = Double.doubleToLongBits(dataSet.getField(Field.SUM_OF_INVERSES, Double.class));
+    }
+
+    @Override
+    public Object getField(final StatsSession session,
+                           final String name) {
+        return getField(session, getFieldIndex(name));
+    }
+
+    @Override
+    public int getFieldIndex(final String name) {
+        return DistributionDataRecorder.fieldIndex(name);
+    }
+
+    @Override
+    public Object getField(final StatsSession session,
+                           final int index) {
+        if (index < 0 || index >= FIELD_NAMES.length) {
+            return null;
+        }
+
+        return getDoubleField(session, index);
+    }
+
+    @Override
+    public double getDoubleField(final StatsSession session,
+                                 final int index) {
+        switch (index) {
+            case PRODUCT: return Double.longBitsToDouble(product);
+            case SUM_OF_SQUARES: return Double.longBitsToDouble(sumOfSquares);
+            case SUM_OF_INVERSES: return Double.longBitsToDouble(sumOfInverses);
+            case ARITHMETIC_MEAN: return arithmeticMean(session);
+            case GEOMETRIC_MEAN: return geometricMean(session, Double.longBitsToDouble(product));
+            case HARMONIC_MEAN: return harmonicMean(session, Double.longBitsToDouble(sumOfInverses));
+            case QUADRATIC_MEAN: return quadraticMean(session, Double.longBitsToDouble(sumOfSquares));
+            case STANDARD_DEVIATION: return standardDeviation(session, Double.longBitsToDouble(sumOfSquares));
+            default: return Double.NaN;
+        }
+    }
+
+    @Override
+    public void collectData(final StatsSession session, final DataSet dataSet) {
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            dataSet.setDoubleField(FIELD_NAMES[i], getDoubleField(session, i));
+        }
+    }
+
+    @Override
+    public void merge(final DataRecorder other) {
+        if (!DistributionDataRecorder.isDistribution(other)) {
+            throw new IllegalArgumentException("Cannot merge " + other + " into " + this);
+        }
+
+        final IndexedFieldDataRecorder otherDistribution = (IndexedFieldDataRecorder) other;
+
+        add(sumOfSquaresUpdater, otherDistribution.getDoubleField(null, SUM_OF_SQUARES));
+        multiply(productUpdater, otherDistribution.getDoubleField(null, PRODUCT));
+        add(sumOfInversesUpdater, otherDistribution.getDoubleField(null, SUM_OF_INVERSES));
+    }
+
+    @Override
+    public void clear() {
+        product = ONE;
+        sumOfInverses = ZERO;
+        sumOfSquares = ZERO;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+}
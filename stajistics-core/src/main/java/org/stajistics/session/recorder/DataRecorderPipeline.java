@@ -0,0 +1,180 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.stajistics.StatsProperties;
+import org.stajistics.session.StatsSession;
+import org.stajistics.tracker.Tracker;
+import org.stajistics.util.Misc;
+
+/**
+ * <p>Updates the {@link DataRecorder}s of a session in a single pass. {@link DataRecorder}s
+ * that are decorated by {@link DataRecorders#lockingIfNeeded(DataRecorder[], Lock)} with a
+ * shared {@link Lock} are updated together under one acquisition of that lock rather than
+ * one acquisition each, and a single exception handler covers all updates rather than one
+ * per {@link DataRecorder}. A failing {@link DataRecorder} does not prevent the remaining
+ * ones from being updated.</p>
+ *
+ * <p>Sessions use a pipeline when the <tt>org.stajistics.session.recorder.DataRecorderPipeline.enabled</tt>
+ * property is <tt>true</tt>, in which case {@link #lockingIfNeeded(DataRecorder[])} decorates
+ * the non-thread-safe {@link DataRecorder}s of a session with a shared lock. This reduces the
+ * cost of a commit when several {@link DataRecorder}s are configured. The shared lock also
+ * serializes reads, such as {@link DataRecorder#collectData(StatsSession, org.stajistics.data.DataSet)},
+ * across those {@link DataRecorder}s.</p>
+ *
+ * @author The Stajistics Project
+ */
+public final class DataRecorderPipeline implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = LoggerFactory.getLogger(DataRecorderPipeline.class);
+
+    public static final String PROP_ENABLED = DataRecorderPipeline.class.getName() + ".enabled";
+    private static final boolean DEFAULT_ENABLED = false;
+
+    private static final DataRecorder[] EMPTY_DATA_RECORDER_ARRAY = new DataRecorder[0];
+
+    // Updated without locking, either thread safe or locking themselves
+    private final DataRecorder[] unlocked;
+
+    // Updated under the shared lock
+    private final DataRecorder[] locked;
+    private final Lock lock;
+
+    private DataRecorderPipeline(final DataRecorder[] unlocked,
+                                 final DataRecorder[] locked,
+                                 final Lock lock) {
+        this.unlocked = unlocked;
+        this.locked = locked;
+        this.lock = lock;
+    }
+
+    /**
+     * @return <tt>true</tt> if sessions should update their {@link DataRecorder}s through a pipeline.
+     */
+    public static boolean isEnabled() {
+        return StatsProperties.getBooleanProperty(PROP_ENABLED, DEFAULT_ENABLED);
+    }
+
+    /**
+     * Decorate the non-thread-safe elements of <tt>dataRecorders</tt> for use by a session.
+     * If pipelines are {@link #isEnabled() enabled}, all such elements share one {@link Lock},
+     * otherwise each gets its own, as {@link DataRecorders#lockingIfNeeded(DataRecorder[])} does.
+     *
+     * @param dataRecorders An array of {@link DataRecorder}s to be wrapped. This array will not be modified.
+     * @return A new array of {@link DataRecorder}s that wrap the passed <tt>dataRecorders</tt>.
+     */
+    public static DataRecorder[] lockingIfNeeded(final DataRecorder[] dataRecorders) {
+        if (isEnabled()) {
+            return DataRecorders.lockingIfNeeded(dataRecorders, new ReentrantLock());
+        }
+
+        return DataRecorders.lockingIfNeeded(dataRecorders);
+    }
+
+    /**
+     * Create a pipeline for the given <tt>dataRecorders</tt>, as held by a session.
+     * The decorated {@link DataRecorder}s that share the lock of the first decorated
+     * {@link DataRecorder} are updated under a single acquisition of that lock.
+     *
+     * @param dataRecorders The {@link DataRecorder}s of a session. This array will not be modified.
+     * @return A new pipeline, never <tt>null</tt>.
+     */
+    public static DataRecorderPipeline compile(final DataRecorder[] dataRecorders) {
+        if (dataRecorders == null || dataRecorders.length == 0) {
+            return new DataRecorderPipeline(EMPTY_DATA_RECORDER_ARRAY, EMPTY_DATA_RECORDER_ARRAY, null);
+        }
+
+        List<DataRecorder> unlocked = new ArrayList<DataRecorder>(dataRecorders.length);
+        List<DataRecorder> locked = new ArrayList<DataRecorder>(dataRecorders.length);
+        Lock sharedLock = null;
+
+        for (DataRecorder dataRecorder : dataRecorders) {
+            Lock lock = DataRecorders.getLock(dataRecorder);
+            if (lock != null && sharedLock == null) {
+                sharedLock = lock;
+            }
+
+            if (lock != null && lock == sharedLock) {
+                locked.add(DataRecorders.getLockedDelegate(dataRecorder));
+            } else {
+                unlocked.add(dataRecorder);
+            }
+        }
+
+        return new DataRecorderPipeline(unlocked.toArray(new DataRecorder[unlocked.size()]),
+                                        locked.toArray(new DataRecorder[locked.size()]),
+                                        sharedLock);
+    }
+
+    /**
+     * Update all {@link DataRecorder}s of the pipeline.
+     *
+     * @param session The session that owns the {@link DataRecorder}s.
+     * @param tracker The tracker that is triggering the update.
+     * @param now The current time.
+     */
+    public void update(final StatsSession session,
+                       final Tracker tracker,
+                       final long now) {
+        if (unlocked.length > 0) {
+            update(unlocked, session, tracker, now);
+        }
+
+        if (locked.length > 0) {
+            lock.lock();
+            try {
+                update(locked, session, tracker, now);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static void update(final DataRecorder[] dataRecorders,
+                               final StatsSession session,
+                               final Tracker tracker,
+                               final long now) {
+        final int count = dataRecorders.length;
+        int i = 0;
+        while (i < count) {
+            try {
+                for (; i < count; i++) {
+                    dataRecorders[i].update(session, tracker, now);
+                }
+            } catch (Exception e) {
+                Misc.logHandledException(logger, e, "Failed to update {}", dataRecorders[i]);
+                Misc.handleUncaughtException(session.getKey(), e);
+                // Continue with the next one
+                i++;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[unlocked=" + unlocked.length +
+               ",locked=" + locked.length + ']';
+    }
+}
@@ -201,6 +201,28 @@ public final class DataRecorders {
         return result;
     }
 
+    /**
+     * @return The {@link Lock} of <tt>dataRecorder</tt> if it was decorated by
+     *         {@link #locking(DataRecorder, Lock)}, <tt>null</tt> otherwise.
+     */
+    static Lock getLock(final DataRecorder dataRecorder) {
+        if (dataRecorder instanceof LockingDataRecorderDecorator) {
+            return ((LockingDataRecorderDecorator) dataRecorder).lock;
+        }
+        return null;
+    }
+
+    /**
+     * @return The {@link DataRecorder} decorated by {@link #locking(DataRecorder, Lock)},
+     *         or <tt>dataRecorder</tt> itself if it is not decorated.
+     */
+    static DataRecorder getLockedDelegate(final DataRecorder dataRecorder) {
+        if (dataRecorder instanceof LockingDataRecorderDecorator) {
+            return ((LockingDataRecorderDecorator) dataRecorder).delegate;
+        }
+        return dataRecorder;
+    }
+
     /* NESTED CLASSES */
 
     @ThreadSafe
@@ -31,11 +31,32 @@ import org.stajistics.util.ThreadSafe;
  * @author The Stajistics Project
  */
 @ThreadSafe
-public class DistributionDataRecorder implements DataRecorder {
+public class DistributionDataRecorder implements MergeableDataRecorder, IndexedFieldDataRecorder {
 
-    private static final Set<String> SUPPORTED_FIELD_NAMES =
+    static final Set<String> SUPPORTED_FIELD_NAMES =
         Collections.unmodifiableSet(Misc.getStaticFieldValues(Field.class, String.class));
 
+    // Field indices, in the order of FIELD_NAMES, shared with CompactDistributionDataRecorder
+    static final int PRODUCT = 0;
+    static final int SUM_OF_SQUARES = 1;
+    static final int SUM_OF_INVERSES = 2;
+    static final int ARITHMETIC_MEAN = 3;
+    static final int GEOMETRIC_MEAN = 4;
+    static final int HARMONIC_MEAN = 5;
+    static final int QUADRATIC_MEAN = 6;
+    static final int STANDARD_DEVIATION = 7;
+
+    static final String[] FIELD_NAMES = {
+        Field.PRODUCT,
+        Field.SUM_OF_SQUARES,
+        Field.SUM_OF_INVERSES,
+        Field.ARITHMETIC_MEAN,
+        Field.GEOMETRIC_MEAN,
+        Field.HARMONIC_MEAN,
+        Field.QUADRATIC_MEAN,
+        Field.STANDARD_DEVIATION
+    };
+
     protected final AtomicDouble product = new AtomicDouble(1); // For geometric mean
     protected final AtomicDouble sumOfInverses = new AtomicDouble(0); // For harmonic mean
     protected final AtomicDouble sumOfSquares = new AtomicDouble(0); // For standard deviation and quadratic mean
@@ -78,53 +99,97 @@ public class DistributionDataRecorder implements DataRecorder {
 
     @Override
     public Object getField(final StatsSession session,
-                           String name) {
-        // Intern the name to allow fast reference equality checks
-        name = name.intern();
+                           final String name) {
+        return getField(session, getFieldIndex(name));
+    }
 
-        if (name == Field.PRODUCT) {
-            return product.get();
-        }
-        if (name == Field.SUM_OF_SQUARES) {
-            return sumOfSquares.get();
-        }
-        if (name == Field.SUM_OF_INVERSES) {
-            return sumOfInverses.get();
-        }
-        if (name == Field.ARITHMETIC_MEAN) {
-            return getArithmeticMean(session);
+    @Override
+    public int getFieldIndex(final String name) {
+        return fieldIndex(name);
+    }
+
+    static int fieldIndex(final String name) {
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            if (FIELD_NAMES[i].equals(name)) {
+                return i;
+            }
         }
-        if (name == Field.GEOMETRIC_MEAN) {
-            return getGeometricMean(session);
+
+        return -1;
+    }
+
+    @Override
+    public Object getField(final StatsSession session,
+                           final int index) {
+        if (index < 0 || index >= FIELD_NAMES.length) {
+            return null;
         }
-        if (name == Field.HARMONIC_MEAN) {
-            return getHarmonicMean(session);
+
+        return getDoubleField(session, index);
+    }
+
+    @Override
+    public double getDoubleField(final StatsSession session,
+                                 final int index) {
+        switch (index) {
+            case PRODUCT: return product.get();
+            case SUM_OF_SQUARES: return sumOfSquares.get();
+            case SUM_OF_INVERSES: return sumOfInverses.get();
+            case ARITHMETIC_MEAN: return getArithmeticMean(session);
+            case GEOMETRIC_MEAN: return getGeometricMean(session);
+            case HARMONIC_MEAN: return getHarmonicMean(session);
+            case QUADRATIC_MEAN: return getQuadraticMean(session);
+            case STANDARD_DEVIATION: return getStandardDeviation(session);
+            default: return Double.NaN;
         }
-        if (name == Field.QUADRATIC_MEAN) {
-            return getQuadraticMean(session);
+    }
+
+    @Override
+    public void collectData(final StatsSession session, final DataSet dataSet) {
+        dataSet.setDoubleField(Field.PRODUCT, product.get());
+        dataSet.setDoubleField(Field.SUM_OF_SQUARES, sumOfSquares.get());
+        dataSet.setDoubleField(Field.SUM_OF_INVERSES, sumOfInverses.get());
+        dataSet.setDoubleField(Field.ARITHMETIC_MEAN,
+                               getArithmeticMean(session));
+        dataSet.setDoubleField(Field.GEOMETRIC_MEAN,
+                               getGeometricMean(session));
+        dataSet.setDoubleField(Field.HARMONIC_MEAN,
+                               getHarmonicMean(session));
+        dataSet.setDoubleField(Field.QUADRATIC_MEAN,
+                               getQuadraticMean(session));
+        dataSet.setDoubleField(Field.STANDARD_DEVIATION,
+                               getStandardDeviation(session));
+    }
+
+    @Override
+    public void merge(final DataRecorder other) {
+        if (!isDistribution(other)) {
+            throw new IllegalArgumentException("Cannot merge " + other + " into " + this);
         }
-        if (name == Field.STANDARD_DEVIATION) {
-            return getStandardDeviation(session);
+
+        final IndexedFieldDataRecorder otherDistribution = (IndexedFieldDataRecorder) other;
+        final double otherProduct = otherDistribution.getDoubleField(null, PRODUCT);
+        double tmp;
+
+        sumOfSquares.addAndGet(otherDistribution.getDoubleField(null, SUM_OF_SQUARES));
+
+        for (;;) {
+            tmp = product.get();
+            if (product.compareAndSet(tmp, tmp * otherProduct)) {
+                break;
+            }
         }
 
-        return null;
+        sumOfInverses.addAndGet(otherDistribution.getDoubleField(null, SUM_OF_INVERSES));
     }
 
-    @Override
-    public void collectData(final StatsSession session, final DataSet dataSet) {
-        dataSet.setField(Field.PRODUCT, product.get());
-        dataSet.setField(Field.SUM_OF_SQUARES, sumOfSquares.get());
-        dataSet.setField(Field.SUM_OF_INVERSES, sumOfInverses.get());
-        dataSet.setField(Field.ARITHMETIC_MEAN,
-                         getArithmeticMean(session));
-        dataSet.setField(Field.GEOMETRIC_MEAN,
-                         getGeometricMean(session));
-        dataSet.setField(Field.HARMONIC_MEAN,
-                         getHarmonicMean(session));
-        dataSet.setField(Field.QUADRATIC_MEAN,
-                         getQuadraticMean(session));
-        dataSet.setField(Field.STANDARD_DEVIATION,
-                         getStandardDeviation(session));
+    /**
+     * Whether <tt>recorder</tt> records the fields of this class, and so may be merged
+     * with it, regardless of how it stores them.
+     */
+    static boolean isDistribution(final DataRecorder recorder) {
+        return recorder instanceof DistributionDataRecorder ||
+               recorder instanceof CompactDistributionDataRecorder;
     }
 
     @Override
@@ -135,6 +200,26 @@ public class DistributionDataRecorder implements DataRecorder {
     }
 
     protected double getArithmeticMean(final StatsSession session) {
+        return arithmeticMean(session);
+    }
+
+    protected double getGeometricMean(final StatsSession session) {
+        return geometricMean(session, product.get());
+    }
+
+    protected double getHarmonicMean(final StatsSession session) {
+        return harmonicMean(session, sumOfInverses.get());
+    }
+
+    protected double getQuadraticMean(final StatsSession session) {
+        return quadraticMean(session, sumOfSquares.get());
+    }
+
+    protected double getStandardDeviation(final StatsSession session) {
+        return standardDeviation(session, sumOfSquares.get());
+    }
+
+    static double arithmeticMean(final StatsSession session) {
         final long n = session.getCommits();
         if (n <= 0) {
             return 0.0;
@@ -143,35 +228,34 @@ public class DistributionDataRecorder implements DataRecorder {
         return session.getSum() / n;
     }
 
-    protected double getGeometricMean(final StatsSession session) {
+    static double geometricMean(final StatsSession session, final double product) {
         final long n = session.getCommits();
         if (n <= 0) {
             return 0.0;
         }
 
-        return Math.pow(product.get(), 1.0 / n);
+        return Math.pow(product, 1.0 / n);
     }
 
-    protected double getHarmonicMean(final StatsSession session) {
+    static double harmonicMean(final StatsSession session, final double sumOfInverses) {
         final long n = session.getCommits();
-        final double soi = sumOfInverses.get();
-        if (n <= 0 || soi <= 0) {
+        if (n <= 0 || sumOfInverses <= 0) {
             return 0.0;
         }
 
-        return n / soi;
+        return n / sumOfInverses;
     }
 
-    protected double getQuadraticMean(final StatsSession session) {
+    static double quadraticMean(final StatsSession session, final double sumOfSquares) {
         final long n = session.getCommits();
         if (n <= 0) {
             return 0.0;
         }
 
-        return Math.sqrt(sumOfSquares.get() / n);
+        return Math.sqrt(sumOfSquares / n);
     }
 
-    protected double getStandardDeviation(final StatsSession session) {
+    static double standardDeviation(final StatsSession session, final double sumOfSquares) {
         final long n = session.getCommits();
         if (n <= 0) {
             return 0.0;
@@ -179,7 +263,7 @@ public class DistributionDataRecorder implements DataRecorder {
 
         double valueSum = session.getSum();
         double nMinus1 = (n <= 1) ? 1 : n - 1;
-        double numerator = sumOfSquares.get() - ((valueSum * valueSum) / n);
+        double numerator = sumOfSquares - ((valueSum * valueSum) / n);
 
         return Math.sqrt(numerator / nMinus1);
     }
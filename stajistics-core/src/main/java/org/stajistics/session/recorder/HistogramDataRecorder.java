@@ -0,0 +1,656 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.stajistics.data.DataSet;
+import org.stajistics.session.StatsSession;
+import org.stajistics.tracker.Tracker;
+import org.stajistics.util.Misc;
+import org.stajistics.util.ThreadSafe;
+
+/**
+ * <p>Records the distribution of tracker values in a fixed-size, log-linear bucketed histogram,
+ * in the manner of HdrHistogram, and publishes the 50th, 90th, 99th and 99.9th percentiles.</p>
+ *
+ * <p>Values between <tt>lowestDiscernibleValue</tt> and <tt>highestTrackableValue</tt> are
+ * recorded with a relative error no greater than that implied by the configured number of
+ * <tt>significantDigits</tt>. Values below the range are counted as zero, values above it as
+ * <tt>highestTrackableValue</tt>. The memory used is fixed at construction time: with the defaults
+ * (a range of 1 to 3,600,000, i.e. one hour in milliseconds, and 2 significant digits) the histogram
+ * has 2048 buckets. An update increments a single bucket with one atomic operation.</p>
+ *
+ * <p>The percentile field names are prefixed with <tt>hist</tt> so that a session may record both
+ * a histogram and a {@link QuantileSketchDataRecorder}. The recorded histogram is published as a
+ * {@link Histogram} in the {@link Field#HISTOGRAM} field. Histograms of the same configuration,
+ * for example collected from drained sessions over many intervals or on many nodes, may be
+ * combined with {@link Histogram#merge(Histogram)} or {@link #merge(Histogram)}.</p>
+ *
+ * @author The Stajistics Project
+ */
+@ThreadSafe
+public class HistogramDataRecorder implements MergeableDataRecorder, IndexedFieldDataRecorder {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = LoggerFactory.getLogger(HistogramDataRecorder.class);
+
+    public static final double DEFAULT_LOWEST_DISCERNIBLE_VALUE = 1;
+    public static final double DEFAULT_HIGHEST_TRACKABLE_VALUE = 3600000;
+    public static final int DEFAULT_SIGNIFICANT_DIGITS = 2;
+
+    private static final Set<String> SUPPORTED_FIELD_NAMES =
+        Collections.unmodifiableSet(Misc.getStaticFieldValues(Field.class, String.class));
+
+    // Field indices, in the order of FIELD_NAMES
+    private static final int P50 = 0;
+    private static final int P90 = 1;
+    private static final int P99 = 2;
+    private static final int P99_9 = 3;
+    private static final int HISTOGRAM = 4;
+
+    private static final String[] FIELD_NAMES = {
+        Field.P50,
+        Field.P90,
+        Field.P99,
+        Field.P99_9,
+        Field.HISTOGRAM
+    };
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private final Layout layout;
+    private final AtomicLongArray counts;
+
+    public HistogramDataRecorder() {
+        this(DEFAULT_LOWEST_DISCERNIBLE_VALUE,
+             DEFAULT_HIGHEST_TRACKABLE_VALUE,
+             DEFAULT_SIGNIFICANT_DIGITS);
+    }
+
+    /**
+     * @param lowestDiscernibleValue The smallest value that can be told apart from zero. Must be positive.
+     * @param highestTrackableValue The largest value that can be recorded. Must be at least twice
+     *                              <tt>lowestDiscernibleValue</tt>.
+     * @param significantDigits The number of significant decimal digits to which values are
+     *                          distinguished, between 0 and 5.
+     * @throws IllegalArgumentException If any argument is out of range.
+     */
+    public HistogramDataRecorder(final double lowestDiscernibleValue,
+                                 final double highestTrackableValue,
+                                 final int significantDigits) {
+        layout = new Layout(lowestDiscernibleValue, highestTrackableValue, significantDigits);
+        counts = new AtomicLongArray(layout.countsLength);
+    }
+
+    public double getLowestDiscernibleValue() {
+        return layout.lowestDiscernibleValue;
+    }
+
+    public double getHighestTrackableValue() {
+        return layout.highestTrackableValue;
+    }
+
+    public int getSignificantDigits() {
+        return layout.significantDigits;
+    }
+
+    @Override
+    public Set<String> getSupportedFieldNames() {
+        return SUPPORTED_FIELD_NAMES;
+    }
+
+    @Override
+    public void update(final StatsSession session,
+                       final Tracker tracker,
+                       final long now) {
+        counts.incrementAndGet(layout.countsIndex(layout.scale(tracker.getValue())));
+    }
+
+    /**
+     * Obtain a snapshot of the recorded histogram.
+     *
+     * @return A {@link Histogram}, never <tt>null</tt>.
+     */
+    public Histogram getHistogram() {
+        final int length = counts.length();
+
+        int[] indices = new int[length];
+        long[] bucketCounts = new long[length];
+        int size = 0;
+
+        for (int i = 0; i < length; i++) {
+            long count = counts.get(i);
+            if (count > 0) {
+                indices[size] = i;
+                bucketCounts[size] = count;
+                size++;
+            }
+        }
+
+        return new Histogram(layout,
+                             Arrays.copyOf(indices, size),
+                             Arrays.copyOf(bucketCounts, size));
+    }
+
+    /**
+     * Obtain the value at or below which the given <tt>percentile</tt> of the recorded values
+     * fall, without taking a snapshot of the histogram.
+     *
+     * @param percentile A percentile between 0 and 100.
+     * @return The value at <tt>percentile</tt>, or <tt>0</tt> if no values are recorded.
+     * @see Histogram#getValueAtPercentile(double)
+     */
+    public double getValueAtPercentile(final double percentile) {
+        final int length = counts.length();
+
+        long totalCount = 0;
+        for (int i = 0; i < length; i++) {
+            totalCount += counts.get(i);
+        }
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        final long countAtPercentile = countAtPercentile(percentile, totalCount);
+
+        long runningCount = 0;
+        int lastIndex = -1;
+        for (int i = 0; i < length; i++) {
+            final long count = counts.get(i);
+            if (count > 0) {
+                runningCount += count;
+                lastIndex = i;
+                if (runningCount >= countAtPercentile) {
+                    return layout.valueAt(i);
+                }
+            }
+        }
+
+        // Counts were cleared between the two passes
+        return lastIndex < 0 ? 0 : layout.valueAt(lastIndex);
+    }
+
+    private static long countAtPercentile(final double percentile, final long totalCount) {
+        final double clamped = Math.min(Math.max(percentile, 0), 100);
+        return Math.max(1, (long) Math.ceil(clamped / 100 * totalCount));
+    }
+
+    @Override
+    public Object getField(final StatsSession session,
+                           final String name) {
+        return getField(session, getFieldIndex(name));
+    }
+
+    @Override
+    public int getFieldIndex(final String name) {
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            if (FIELD_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public Object getField(final StatsSession session,
+                           final int index) {
+        switch (index) {
+            case P50: return getValueAtPercentile(50);
+            case P90: return getValueAtPercentile(90);
+            case P99: return getValueAtPercentile(99);
+            case P99_9: return getValueAtPercentile(99.9);
+            case HISTOGRAM: return getHistogram();
+            default: return null;
+        }
+    }
+
+    @Override
+    public double getDoubleField(final StatsSession session,
+                                 final int index) {
+        switch (index) {
+            case P50: return getValueAtPercentile(50);
+            case P90: return getValueAtPercentile(90);
+            case P99: return getValueAtPercentile(99);
+            case P99_9: return getValueAtPercentile(99.9);
+            default: return Double.NaN;
+        }
+    }
+
+    @Override
+    public void collectData(final StatsSession session, final DataSet dataSet) {
+        final Histogram histogram = getHistogram();
+        final double[] values = histogram.getValuesAtPercentiles(PERCENTILES);
+
+        dataSet.setDoubleField(Field.P50, values[0]);
+        dataSet.setDoubleField(Field.P90, values[1]);
+        dataSet.setDoubleField(Field.P99, values[2]);
+        dataSet.setDoubleField(Field.P99_9, values[3]);
+        dataSet.setField(Field.HISTOGRAM, histogram);
+    }
+
+    @Override
+    public void restore(final DataSet dataSet) {
+        Object value = dataSet.getField(Field.HISTOGRAM);
+        if (!(value instanceof Histogram)) {
+            logger.warn("Dropping restore() call due to missing field data: {}", Field.HISTOGRAM);
+            return;
+        }
+
+        Histogram histogram = (Histogram) value;
+        if (!layout.equals(histogram.getLayout())) {
+            logger.warn("Dropping restore() call due to incompatible histogram: {}", histogram);
+            return;
+        }
+
+        clear();
+        add(histogram);
+    }
+
+    @Override
+    public void merge(final DataRecorder other) {
+        if (!(other instanceof HistogramDataRecorder) ||
+                !layout.equals(((HistogramDataRecorder) other).layout)) {
+            throw new IllegalArgumentException("Cannot merge " + other + " into " + this);
+        }
+
+        final AtomicLongArray otherCounts = ((HistogramDataRecorder) other).counts;
+        final int length = counts.length();
+        for (int i = 0; i < length; i++) {
+            long count = otherCounts.get(i);
+            if (count > 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+    }
+
+    /**
+     * Add the counts of the given <tt>histogram</tt>, such as one published by another
+     * HistogramDataRecorder, to this DataRecorder.
+     *
+     * @param histogram The histogram to merge. Must be of the same configuration as this DataRecorder.
+     * @throws IllegalArgumentException If <tt>histogram</tt> is of a different configuration.
+     */
+    public void merge(final Histogram histogram) {
+        if (!layout.equals(histogram.getLayout())) {
+            throw new IllegalArgumentException("Cannot merge " + histogram + " into " + this);
+        }
+
+        add(histogram);
+    }
+
+    private void add(final Histogram histogram) {
+        final int[] indices = histogram.indices;
+        final long[] bucketCounts = histogram.counts;
+        for (int i = 0; i < indices.length; i++) {
+            counts.addAndGet(indices[i], bucketCounts[i]);
+        }
+    }
+
+    @Override
+    public void clear() {
+        final int length = counts.length();
+        for (int i = 0; i < length; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + layout;
+    }
+
+    /* NESTED CLASSES */
+
+    public static interface Field {
+        public static final String P50 = "histP50";
+        public static final String P90 = "histP90";
+        public static final String P99 = "histP99";
+        public static final String P99_9 = "histP99.9";
+
+        public static final String HISTOGRAM = "histogram";
+    }
+
+    /**
+     * An immutable snapshot of the counts recorded by a {@link HistogramDataRecorder},
+     * stored sparsely so that it can travel inside a {@link DataSet}.
+     */
+    public static final class Histogram implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final double lowestDiscernibleValue;
+        private final double highestTrackableValue;
+        private final int significantDigits;
+
+        private final int[] indices;
+        private final long[] counts;
+
+        private transient Layout layout;
+
+        private Histogram(final Layout layout,
+                          final int[] indices,
+                          final long[] counts) {
+            this.layout = layout;
+            this.lowestDiscernibleValue = layout.lowestDiscernibleValue;
+            this.highestTrackableValue = layout.highestTrackableValue;
+            this.significantDigits = layout.significantDigits;
+            this.indices = indices;
+            this.counts = counts;
+        }
+
+        private Layout getLayout() {
+            if (layout == null) {
+                layout = new Layout(lowestDiscernibleValue, highestTrackableValue, significantDigits);
+            }
+            return layout;
+        }
+
+        public double getLowestDiscernibleValue() {
+            return lowestDiscernibleValue;
+        }
+
+        public double getHighestTrackableValue() {
+            return highestTrackableValue;
+        }
+
+        public int getSignificantDigits() {
+            return significantDigits;
+        }
+
+        /**
+         * Obtain the total number of recorded values.
+         */
+        public long getTotalCount() {
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            return total;
+        }
+
+        /**
+         * Obtain the value at or below which the given <tt>percentile</tt> of the recorded values
+         * fall, to within the precision of the histogram.
+         *
+         * @param percentile A percentile between 0 and 100.
+         * @return The value at <tt>percentile</tt>, or <tt>0</tt> if no values are recorded.
+         */
+        public double getValueAtPercentile(final double percentile) {
+            return getValuesAtPercentiles(new double[] { percentile })[0];
+        }
+
+        /**
+         * Obtain the values at several percentiles in a single pass.
+         *
+         * @param percentiles Percentiles between 0 and 100, in ascending order.
+         * @return The values at each of <tt>percentiles</tt>.
+         * @see #getValueAtPercentile(double)
+         */
+        public double[] getValuesAtPercentiles(final double[] percentiles) {
+            final double[] result = new double[percentiles.length];
+            final long totalCount = getTotalCount();
+            if (totalCount == 0) {
+                return result;
+            }
+
+            final Layout layout = getLayout();
+
+            int i = 0;
+            long runningCount = 0;
+            for (int p = 0; p < percentiles.length; p++) {
+                long countAtPercentile = countAtPercentile(percentiles[p], totalCount);
+
+                while (runningCount + counts[i] < countAtPercentile) {
+                    runningCount += counts[i];
+                    i++;
+                }
+
+                result[p] = layout.valueAt(indices[i]);
+            }
+
+            return result;
+        }
+
+        /**
+         * Combine this histogram with <tt>other</tt>, as though all values recorded in both had
+         * been recorded in one.
+         *
+         * @param other The histogram to merge with this one. Must be of the same configuration.
+         * @return A new histogram holding the counts of both.
+         * @throws IllegalArgumentException If <tt>other</tt> is of a different configuration.
+         */
+        public Histogram merge(final Histogram other) {
+            if (!getLayout().equals(other.getLayout())) {
+                throw new IllegalArgumentException("Cannot merge " + other + " into " + this);
+            }
+
+            int[] mergedIndices = new int[indices.length + other.indices.length];
+            long[] mergedCounts = new long[mergedIndices.length];
+            int size = 0;
+            int i = 0;
+            int j = 0;
+
+            while (i < indices.length || j < other.indices.length) {
+                if (j == other.indices.length ||
+                        (i < indices.length && indices[i] < other.indices[j])) {
+                    mergedIndices[size] = indices[i];
+                    mergedCounts[size] = counts[i++];
+                } else if (i == indices.length || other.indices[j] < indices[i]) {
+                    mergedIndices[size] = other.indices[j];
+                    mergedCounts[size] = other.counts[j++];
+                } else {
+                    mergedIndices[size] = indices[i];
+                    mergedCounts[size] = counts[i++] + other.counts[j++];
+                }
+                size++;
+            }
+
+            return new Histogram(getLayout(),
+                                 Arrays.copyOf(mergedIndices, size),
+                                 Arrays.copyOf(mergedCounts, size));
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Histogram)) {
+                return false;
+            }
+
+            Histogram other = (Histogram) obj;
+
+            return getLayout().equals(other.getLayout()) &&
+                   Arrays.equals(indices, other.indices) &&
+                   Arrays.equals(counts, other.counts);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * getLayout().hashCode() + Arrays.hashCode(indices)) + Arrays.hashCode(counts);
+        }
+
+        @Override
+        public String toString() {
+            return Histogram.class.getSimpleName() + getLayout() + "[totalCount=" + getTotalCount() + ']';
+        }
+    }
+
+    /**
+     * The bucket layout of a log-linear histogram. Values are first scaled to multiples of the
+     * lowest discernible value. Each bucket covers a power of two range of scaled values and is
+     * divided into a fixed number of linear sub-buckets, which bounds the relative error.
+     */
+    private static final class Layout implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final double lowestDiscernibleValue;
+        private final double highestTrackableValue;
+        private final int significantDigits;
+
+        private final long highestScaledValue;
+
+        private final int subBucketHalfCountMagnitude;
+        private final int subBucketHalfCount;
+        private final int subBucketCount;
+        private final long subBucketMask;
+        private final int leadingZeroCountBase;
+
+        private final int countsLength;
+
+        Layout(final double lowestDiscernibleValue,
+               final double highestTrackableValue,
+               final int significantDigits) {
+            if (!(lowestDiscernibleValue > 0)) {
+                throw new IllegalArgumentException("lowestDiscernibleValue must be positive: " +
+                                                   lowestDiscernibleValue);
+            }
+            if (!(highestTrackableValue >= 2 * lowestDiscernibleValue)) {
+                throw new IllegalArgumentException("highestTrackableValue must be at least twice " +
+                                                   "lowestDiscernibleValue: " + highestTrackableValue);
+            }
+            if (significantDigits < 0 || significantDigits > 5) {
+                throw new IllegalArgumentException("significantDigits must be between 0 and 5: " +
+                                                   significantDigits);
+            }
+
+            this.lowestDiscernibleValue = lowestDiscernibleValue;
+            this.highestTrackableValue = highestTrackableValue;
+            this.significantDigits = significantDigits;
+
+            highestScaledValue = (long) Math.ceil(highestTrackableValue / lowestDiscernibleValue);
+
+            final long largestValueWithSingleUnitResolution = 2 * (long) Math.pow(10, significantDigits);
+            final int subBucketCountMagnitude =
+                (int) Math.ceil(Math.log(largestValueWithSingleUnitResolution) / Math.log(2));
+
+            subBucketHalfCountMagnitude = Math.max(subBucketCountMagnitude, 1) - 1;
+            subBucketCount = 1 << (subBucketHalfCountMagnitude + 1);
+            subBucketHalfCount = subBucketCount / 2;
+            subBucketMask = subBucketCount - 1;
+            leadingZeroCountBase = 64 - subBucketHalfCountMagnitude - 1;
+
+            long smallestUntrackableValue = subBucketCount;
+            int bucketCount = 1;
+            while (smallestUntrackableValue <= highestScaledValue) {
+                if (smallestUntrackableValue > Long.MAX_VALUE / 2) {
+                    bucketCount++;
+                    break;
+                }
+                smallestUntrackableValue <<= 1;
+                bucketCount++;
+            }
+
+            countsLength = (bucketCount + 1) * subBucketHalfCount;
+        }
+
+        long scale(final double value) {
+            if (!(value > 0)) { // Also catches NaN
+                return 0;
+            }
+
+            final double scaled = value / lowestDiscernibleValue;
+            if (scaled >= highestScaledValue) {
+                return highestScaledValue;
+            }
+
+            return (long) scaled;
+        }
+
+        double unscale(final long scaledValue) {
+            return Math.min(scaledValue * lowestDiscernibleValue, highestTrackableValue);
+        }
+
+        private int bucketIndex(final long value) {
+            return leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+        }
+
+        int countsIndex(final long value) {
+            final int bucketIndex = bucketIndex(value);
+            final int subBucketIndex = (int) (value >>> bucketIndex);
+            return ((bucketIndex + 1) << subBucketHalfCountMagnitude) + (subBucketIndex - subBucketHalfCount);
+        }
+
+        long valueFromIndex(final int index) {
+            int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+            int subBucketIndex = (index & (subBucketHalfCount - 1)) + subBucketHalfCount;
+            if (bucketIndex < 0) {
+                subBucketIndex -= subBucketHalfCount;
+                bucketIndex = 0;
+            }
+            return ((long) subBucketIndex) << bucketIndex;
+        }
+
+        /**
+         * Obtain the unscaled value reported for the bucket at <tt>index</tt>: the highest value
+         * that is equivalent to the values recorded in it.
+         */
+        double valueAt(final int index) {
+            return unscale(highestEquivalentValue(valueFromIndex(index)));
+        }
+
+        long highestEquivalentValue(final long value) {
+            final int bucketIndex = bucketIndex(value);
+            final int subBucketIndex = (int) (value >>> bucketIndex);
+            final int adjustedBucket = (subBucketIndex >= subBucketCount) ? bucketIndex + 1 : bucketIndex;
+            final long lowestEquivalentValue = valueFromIndex(countsIndex(value));
+            return lowestEquivalentValue + (1L << adjustedBucket) - 1;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Layout)) {
+                return false;
+            }
+
+            Layout other = (Layout) obj;
+
+            return lowestDiscernibleValue == other.lowestDiscernibleValue &&
+                   highestTrackableValue == other.highestTrackableValue &&
+                   significantDigits == other.significantDigits;
+        }
+
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(lowestDiscernibleValue);
+            int result = (int) (bits ^ (bits >>> 32));
+            bits = Double.doubleToLongBits(highestTrackableValue);
+            result = 31 * result + (int) (bits ^ (bits >>> 32));
+            result = 31 * result + significantDigits;
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "[lowestDiscernibleValue=" + lowestDiscernibleValue +
+                   ",highestTrackableValue=" + highestTrackableValue +
+                   ",significantDigits=" + significantDigits + ']';
+        }
+    }
+}
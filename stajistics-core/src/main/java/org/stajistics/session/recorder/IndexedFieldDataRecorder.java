@@ -0,0 +1,55 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+import org.stajistics.session.StatsSession;
+
+/**
+ * A {@link DataRecorder} whose fields can be read by an index that is resolved from the
+ * field name once, avoiding a name lookup on every read. This allows
+ * {@link org.stajistics.session.FieldHandle}s to read the field values of frequently polled
+ * sessions cheaply.
+ *
+ * @author The Stajistics Project
+ */
+public interface IndexedFieldDataRecorder extends DataRecorder {
+
+    /**
+     * Resolve the index of a field.
+     *
+     * @param name The name of the field.
+     * @return The index of the field, or <tt>-1</tt> if the field is not supported.
+     */
+    int getFieldIndex(String name);
+
+    /**
+     * Get the value of a single field by index.
+     *
+     * @param session The session that owns this DataRecorder instance.
+     * @param index The index of the field as returned by {@link #getFieldIndex(String)}.
+     * @return The field value, or <tt>null</tt> if not found.
+     */
+    Object getField(StatsSession session, int index);
+
+    /**
+     * Get the value of a single numeric field by index, without boxing.
+     *
+     * @param session The session that owns this DataRecorder instance.
+     * @param index The index of the field as returned by {@link #getFieldIndex(String)}.
+     * @return The field value, or <tt>NaN</tt> if the field is not numeric.
+     */
+    double getDoubleField(StatsSession session, int index);
+
+}
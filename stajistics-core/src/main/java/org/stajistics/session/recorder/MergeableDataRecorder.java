@@ -0,0 +1,38 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+/**
+ * A {@link DataRecorder} whose recorded state can be combined with that of another
+ * instance of the same type and configuration, as though all of the updates received by
+ * both had been received by this one. This allows data recorded over separate intervals,
+ * such as the buckets of a rolling window, to be aggregated.
+ *
+ * @author The Stajistics Project
+ */
+public interface MergeableDataRecorder extends DataRecorder {
+
+    /**
+     * Add the state recorded by <tt>other</tt> to the state of this DataRecorder.
+     * <tt>other</tt> is not modified.
+     *
+     * @param other The DataRecorder to merge into this one. Must be of the same type and
+     *              configuration as this DataRecorder.
+     *
+     * @throws IllegalArgumentException If <tt>other</tt> is incompatible with this DataRecorder.
+     */
+    void merge(DataRecorder other);
+
+}
@@ -0,0 +1,491 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.stajistics.data.DataSet;
+import org.stajistics.session.StatsSession;
+import org.stajistics.tracker.Tracker;
+import org.stajistics.util.Misc;
+import org.stajistics.util.ThreadSafe;
+
+/**
+ * <p>Records the minimum, maximum and count of tracker values per fixed time bucket, such as
+ * per second or per minute, in a circular buffer covering the most recent <tt>bucketCount</tt>
+ * buckets. Unlike the all-time minimum and maximum of a session, the published
+ * {@link Field#PEAK_MIN} and {@link Field#PEAK_MAX} only cover the last
+ * <tt>peakBucketCount</tt> buckets, so later peaks are not hidden by earlier ones. The whole
+ * buffer is also published as a {@link Series} in the {@link Field#SERIES} field, from which
+ * dashboards can plot peaks without sampling at a high frequency.</p>
+ *
+ * <p>Updates within the current bucket are lock free. Starting a new bucket takes a lock
+ * briefly, once per bucket. Values timed before the oldest retained bucket are ignored.</p>
+ *
+ * @author The Stajistics Project
+ */
+@ThreadSafe
+public class PeakDataRecorder implements IndexedFieldDataRecorder {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = LoggerFactory.getLogger(PeakDataRecorder.class);
+
+    public static final long DEFAULT_BUCKET_MILLIS = 1000;
+    public static final int DEFAULT_BUCKET_COUNT = 60;
+
+    private static final Set<String> SUPPORTED_FIELD_NAMES =
+        Collections.unmodifiableSet(Misc.getStaticFieldValues(Field.class, String.class));
+
+    // Field indices, in the order of FIELD_NAMES
+    private static final int PEAK_MIN = 0;
+    private static final int PEAK_MAX = 1;
+    private static final int SERIES = 2;
+
+    private static final String[] FIELD_NAMES = {
+        Field.PEAK_MIN,
+        Field.PEAK_MAX,
+        Field.SERIES
+    };
+
+    private static final long NO_BUCKET = -1;
+
+    private static final long POSITIVE_INFINITY = Double.doubleToLongBits(Double.POSITIVE_INFINITY);
+    private static final long NEGATIVE_INFINITY = Double.doubleToLongBits(Double.NEGATIVE_INFINITY);
+
+    private final long bucketMillis;
+    private final int bucketCount;
+    private final int peakBucketCount;
+
+    // The bucket number (time / bucketMillis) that each slot currently holds
+    private final AtomicLongArray buckets;
+    private final AtomicLongArray counts;
+    // Double values stored as long bits
+    private final AtomicLongArray mins;
+    private final AtomicLongArray maxes;
+
+    public PeakDataRecorder() {
+        this(DEFAULT_BUCKET_MILLIS, DEFAULT_BUCKET_COUNT, DEFAULT_BUCKET_COUNT);
+    }
+
+    /**
+     * @param bucketMillis The duration of a bucket in milliseconds.
+     * @param bucketCount The number of buckets to retain.
+     * @param peakBucketCount The number of most recent buckets, including the current one,
+     *                        over which the published peaks are calculated. At most <tt>bucketCount</tt>.
+     * @throws IllegalArgumentException If any argument is out of range.
+     */
+    public PeakDataRecorder(final long bucketMillis,
+                            final int bucketCount,
+                            final int peakBucketCount) {
+        if (bucketMillis < 1) {
+            throw new IllegalArgumentException("bucketMillis must be positive: " + bucketMillis);
+        }
+        if (bucketCount < 1) {
+            throw new IllegalArgumentException("bucketCount must be positive: " + bucketCount);
+        }
+        if (peakBucketCount < 1 || peakBucketCount > bucketCount) {
+            throw new IllegalArgumentException("peakBucketCount must be between 1 and bucketCount: " +
+                                               peakBucketCount);
+        }
+
+        this.bucketMillis = bucketMillis;
+        this.bucketCount = bucketCount;
+        this.peakBucketCount = peakBucketCount;
+
+        buckets = new AtomicLongArray(bucketCount);
+        counts = new AtomicLongArray(bucketCount);
+        mins = new AtomicLongArray(bucketCount);
+        maxes = new AtomicLongArray(bucketCount);
+
+        for (int i = 0; i < bucketCount; i++) {
+            resetSlot(i, NO_BUCKET);
+        }
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    public int getPeakBucketCount() {
+        return peakBucketCount;
+    }
+
+    /**
+     * Obtain the current time in milliseconds. Overridable for testing.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private int slotOf(final long bucket) {
+        return (int) (bucket % bucketCount);
+    }
+
+    private void resetSlot(final int slot, final long bucket) {
+        counts.set(slot, 0);
+        mins.set(slot, POSITIVE_INFINITY);
+        maxes.set(slot, NEGATIVE_INFINITY);
+        buckets.set(slot, bucket);
+    }
+
+    @Override
+    public Set<String> getSupportedFieldNames() {
+        return SUPPORTED_FIELD_NAMES;
+    }
+
+    @Override
+    public void update(final StatsSession session,
+                       final Tracker tracker,
+                       long now) {
+        if (now < 0) {
+            now = currentTimeMillis();
+        }
+
+        final long bucket = now / bucketMillis;
+        final int slot = slotOf(bucket);
+
+        long slotBucket = buckets.get(slot);
+        if (slotBucket != bucket) {
+            if (slotBucket > bucket) {
+                // Older than the buffer
+                return;
+            }
+
+            synchronized (this) {
+                slotBucket = buckets.get(slot);
+                if (slotBucket < bucket) {
+                    resetSlot(slot, bucket);
+                } else if (slotBucket > bucket) {
+                    return;
+                }
+            }
+        }
+
+        final double value = tracker.getValue();
+        final long valueBits = Double.doubleToLongBits(value);
+        long tmp;
+
+        counts.incrementAndGet(slot);
+
+        for (;;) {
+            tmp = mins.get(slot);
+            if (value < Double.longBitsToDouble(tmp)) {
+                if (mins.compareAndSet(slot, tmp, valueBits)) {
+                    break;
+                }
+            } else {
+                break;
+            }
+        }
+
+        for (;;) {
+            tmp = maxes.get(slot);
+            if (value > Double.longBitsToDouble(tmp)) {
+                if (maxes.compareAndSet(slot, tmp, valueBits)) {
+                    break;
+                }
+            } else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Obtain a snapshot of the retained buckets as of <tt>now</tt>.
+     */
+    private Series getSeries(final long now) {
+        final long currentBucket = now / bucketMillis;
+        final long firstBucket = currentBucket - bucketCount + 1;
+
+        final long[] counts = new long[bucketCount];
+        final double[] mins = new double[bucketCount];
+        final double[] maxes = new double[bucketCount];
+
+        for (int i = 0; i < bucketCount; i++) {
+            final long bucket = firstBucket + i;
+            mins[i] = Double.NaN;
+            maxes[i] = Double.NaN;
+
+            if (bucket < 0) {
+                continue;
+            }
+
+            final int slot = slotOf(bucket);
+            if (buckets.get(slot) == bucket) {
+                final long count = this.counts.get(slot);
+                if (count > 0) {
+                    counts[i] = count;
+                    mins[i] = Double.longBitsToDouble(this.mins.get(slot));
+                    maxes[i] = Double.longBitsToDouble(this.maxes.get(slot));
+                }
+            }
+        }
+
+        return new Series(bucketMillis, firstBucket * bucketMillis, counts, mins, maxes);
+    }
+
+    /**
+     * Obtain a snapshot of the retained buckets, in chronological order and ending with
+     * the current bucket.
+     *
+     * @return A {@link Series}, never <tt>null</tt>.
+     */
+    public Series getSeries() {
+        return getSeries(currentTimeMillis());
+    }
+
+    /**
+     * @return The minimum value over the last <tt>peakBucketCount</tt> buckets,
+     *         or <tt>NaN</tt> if none were recorded.
+     */
+    public double getPeakMin() {
+        return getSeries().getPeakMin(peakBucketCount);
+    }
+
+    /**
+     * @return The maximum value over the last <tt>peakBucketCount</tt> buckets,
+     *         or <tt>NaN</tt> if none were recorded.
+     */
+    public double getPeakMax() {
+        return getSeries().getPeakMax(peakBucketCount);
+    }
+
+    @Override
+    public Object getField(final StatsSession session,
+                           final String name) {
+        return getField(session, getFieldIndex(name));
+    }
+
+    @Override
+    public int getFieldIndex(final String name) {
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            if (FIELD_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public Object getField(final StatsSession session,
+                           final int index) {
+        switch (index) {
+            case PEAK_MIN: return getPeakMin();
+            case PEAK_MAX: return getPeakMax();
+            case SERIES: return getSeries();
+            default: return null;
+        }
+    }
+
+    @Override
+    public double getDoubleField(final StatsSession session,
+                                 final int index) {
+        switch (index) {
+            case PEAK_MIN: return getPeakMin();
+            case PEAK_MAX: return getPeakMax();
+            default: return Double.NaN;
+        }
+    }
+
+    @Override
+    public void collectData(final StatsSession session, final DataSet dataSet) {
+        final Series series = getSeries();
+
+        dataSet.setDoubleField(Field.PEAK_MIN, series.getPeakMin(peakBucketCount));
+        dataSet.setDoubleField(Field.PEAK_MAX, series.getPeakMax(peakBucketCount));
+        dataSet.setField(Field.SERIES, series);
+    }
+
+    @Override
+    public void restore(final DataSet dataSet) {
+        Object value = dataSet.getField(Field.SERIES);
+        if (!(value instanceof Series)) {
+            logger.warn("Dropping restore() call due to missing field data: {}", Field.SERIES);
+            return;
+        }
+
+        final Series series = (Series) value;
+        if (series.getBucketMillis() != bucketMillis) {
+            logger.warn("Dropping restore() call due to incompatible series: {}", series);
+            return;
+        }
+
+        synchronized (this) {
+            clear();
+
+            final long firstBucket = series.getStartTime() / bucketMillis;
+            final int size = series.size();
+            for (int i = Math.max(0, size - bucketCount); i < size; i++) {
+                if (series.counts[i] > 0) {
+                    final long bucket = firstBucket + i;
+                    final int slot = slotOf(bucket);
+                    counts.set(slot, series.counts[i]);
+                    mins.set(slot, Double.doubleToLongBits(series.mins[i]));
+                    maxes.set(slot, Double.doubleToLongBits(series.maxes[i]));
+                    buckets.set(slot, bucket);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (this) {
+            for (int i = 0; i < bucketCount; i++) {
+                resetSlot(i, NO_BUCKET);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[bucketMillis=" + bucketMillis +
+               ",bucketCount=" + bucketCount + ",peakBucketCount=" + peakBucketCount + ']';
+    }
+
+    /* NESTED CLASSES */
+
+    public static interface Field {
+        public static final String PEAK_MIN = "peakMin";
+        public static final String PEAK_MAX = "peakMax";
+        public static final String SERIES = "peakSeries";
+    }
+
+    /**
+     * An immutable series of consecutive buckets in chronological order. Buckets without
+     * values have a count of zero and a <tt>NaN</tt> minimum and maximum.
+     */
+    public static final class Series implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long bucketMillis;
+        private final long startTime;
+
+        private final long[] counts;
+        private final double[] mins;
+        private final double[] maxes;
+
+        private Series(final long bucketMillis,
+                       final long startTime,
+                       final long[] counts,
+                       final double[] mins,
+                       final double[] maxes) {
+            this.bucketMillis = bucketMillis;
+            this.startTime = startTime;
+            this.counts = counts;
+            this.mins = mins;
+            this.maxes = maxes;
+        }
+
+        public long getBucketMillis() {
+            return bucketMillis;
+        }
+
+        /**
+         * @return The start time of the first bucket.
+         */
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public int size() {
+            return counts.length;
+        }
+
+        public long getCount(final int index) {
+            return counts[index];
+        }
+
+        public double getMin(final int index) {
+            return mins[index];
+        }
+
+        public double getMax(final int index) {
+            return maxes[index];
+        }
+
+        private double getPeak(final int lastBuckets, final boolean max) {
+            double result = Double.NaN;
+            for (int i = Math.max(0, counts.length - lastBuckets); i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    double value = max ? maxes[i] : mins[i];
+                    if (Double.isNaN(result) || (max ? value > result : value < result)) {
+                        result = value;
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @return The minimum over the last <tt>lastBuckets</tt> buckets, or <tt>NaN</tt> if empty.
+         */
+        public double getPeakMin(final int lastBuckets) {
+            return getPeak(lastBuckets, false);
+        }
+
+        /**
+         * @return The maximum over the last <tt>lastBuckets</tt> buckets, or <tt>NaN</tt> if empty.
+         */
+        public double getPeakMax(final int lastBuckets) {
+            return getPeak(lastBuckets, true);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Series)) {
+                return false;
+            }
+
+            Series other = (Series) obj;
+
+            return bucketMillis == other.bucketMillis &&
+                   startTime == other.startTime &&
+                   Arrays.equals(counts, other.counts) &&
+                   Arrays.equals(mins, other.mins) &&
+                   Arrays.equals(maxes, other.maxes);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (startTime ^ (startTime >>> 32));
+            result = 31 * result + Arrays.hashCode(counts);
+            result = 31 * result + Arrays.hashCode(maxes);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return Series.class.getSimpleName() + "[bucketMillis=" + bucketMillis +
+                   ",startTime=" + startTime + ",size=" + counts.length + ']';
+        }
+    }
+}
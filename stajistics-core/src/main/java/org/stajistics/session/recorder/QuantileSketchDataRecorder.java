@@ -0,0 +1,788 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.stajistics.data.DataSet;
+import org.stajistics.session.StatsSession;
+import org.stajistics.tracker.Tracker;
+import org.stajistics.util.Misc;
+import org.stajistics.util.ThreadSafe;
+
+/**
+ * <p>Records tracker values in a DDSketch style relative-error quantile sketch and publishes the
+ * 50th, 90th, 99th and 99.9th percentiles. Unlike {@link HistogramDataRecorder}, no value range
+ * needs to be known in advance, which suits values such as payload sizes or row counts. Every
+ * reported percentile is within <tt>relativeAccuracy</tt> of the true value.</p>
+ *
+ * <p>Values are mapped to logarithmically sized bins. Positive and negative values are kept in
+ * separate sets of bins, each of which holds at most <tt>maxBins</tt> bins; when more are needed,
+ * the bins of the smallest magnitudes are collapsed, which only affects the accuracy of the
+ * lowest percentiles. NaN and infinite values are ignored.</p>
+ *
+ * <p>To keep concurrent updates from contending, the sketch is striped: an update locks one of
+ * a small number of stripes, moving on to another stripe rather than waiting if it is busy.
+ * Stripes are combined when data is read.</p>
+ *
+ * <p>The percentile field names are prefixed with <tt>sketch</tt> so that they do not collide
+ * with those of a {@link HistogramDataRecorder}. The recorded sketch is published as a
+ * {@link QuantileSketch} in the {@link Field#SKETCH} field, so that sketches from drained
+ * sessions may later be combined with {@link QuantileSketch#merge(QuantileSketch)} or
+ * {@link #merge(QuantileSketch)}. Use a {@link Factory} to configure sessions to record
+ * sketches.</p>
+ *
+ * @author The Stajistics Project
+ */
+@ThreadSafe
+public class QuantileSketchDataRecorder implements MergeableDataRecorder, IndexedFieldDataRecorder {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = LoggerFactory.getLogger(QuantileSketchDataRecorder.class);
+
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+    public static final int DEFAULT_MAX_BINS = 2048;
+
+    private static final Set<String> SUPPORTED_FIELD_NAMES =
+        Collections.unmodifiableSet(Misc.getStaticFieldValues(Field.class, String.class));
+
+    // Field indices, in the order of FIELD_NAMES
+    private static final int P50 = 0;
+    private static final int P90 = 1;
+    private static final int P99 = 2;
+    private static final int P99_9 = 3;
+    private static final int SKETCH = 4;
+
+    private static final String[] FIELD_NAMES = {
+        Field.P50,
+        Field.P90,
+        Field.P99,
+        Field.P99_9,
+        Field.SKETCH
+    };
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private static final int STRIPE_COUNT;
+    static {
+        int stripeCount = 1;
+        final int processors = Math.min(Runtime.getRuntime().availableProcessors(), 4);
+        while (stripeCount < processors) {
+            stripeCount <<= 1;
+        }
+        STRIPE_COUNT = stripeCount;
+    }
+
+    private final Mapping mapping;
+    private final Stripe[] stripes;
+
+    public QuantileSketchDataRecorder() {
+        this(DEFAULT_RELATIVE_ACCURACY, DEFAULT_MAX_BINS);
+    }
+
+    /**
+     * @param relativeAccuracy The maximum relative error of reported percentiles, between 0 and 1 exclusive.
+     * @param maxBins The maximum number of bins for each of the positive and negative values.
+     *                Must be at least 16.
+     * @throws IllegalArgumentException If any argument is out of range.
+     */
+    public QuantileSketchDataRecorder(final double relativeAccuracy,
+                                      final int maxBins) {
+        mapping = new Mapping(relativeAccuracy, maxBins);
+
+        stripes = new Stripe[STRIPE_COUNT];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(mapping);
+        }
+    }
+
+    public double getRelativeAccuracy() {
+        return mapping.relativeAccuracy;
+    }
+
+    public int getMaxBins() {
+        return mapping.maxBins;
+    }
+
+    @Override
+    public Set<String> getSupportedFieldNames() {
+        return SUPPORTED_FIELD_NAMES;
+    }
+
+    @Override
+    public void update(final StatsSession session,
+                       final Tracker tracker,
+                       final long now) {
+        final double value = tracker.getValue();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+
+        final int mask = stripes.length - 1;
+        final int home = (int) Thread.currentThread().getId() & mask;
+
+        // Prefer any uncontended stripe over waiting for the home stripe
+        for (int i = 0; i < stripes.length; i++) {
+            final Stripe stripe = stripes[(home + i) & mask];
+            if (stripe.lock.tryLock()) {
+                try {
+                    stripe.add(value);
+                } finally {
+                    stripe.lock.unlock();
+                }
+                return;
+            }
+        }
+
+        final Stripe stripe = stripes[home];
+        stripe.lock.lock();
+        try {
+            stripe.add(value);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Obtain a snapshot of the recorded sketch.
+     *
+     * @return A {@link QuantileSketch}, never <tt>null</tt>.
+     */
+    public QuantileSketch getSketch() {
+        final Stripe combined = new Stripe(mapping);
+
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                combined.add(stripe);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        return new QuantileSketch(combined);
+    }
+
+    @Override
+    public Object getField(final StatsSession session,
+                           final String name) {
+        return getField(session, getFieldIndex(name));
+    }
+
+    @Override
+    public int getFieldIndex(final String name) {
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            if (FIELD_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public Object getField(final StatsSession session,
+                           final int index) {
+        switch (index) {
+            case P50: return getSketch().getValueAtPercentile(50);
+            case P90: return getSketch().getValueAtPercentile(90);
+            case P99: return getSketch().getValueAtPercentile(99);
+            case P99_9: return getSketch().getValueAtPercentile(99.9);
+            case SKETCH: return getSketch();
+            default: return null;
+        }
+    }
+
+    @Override
+    public double getDoubleField(final StatsSession session,
+                                 final int index) {
+        switch (index) {
+            case P50: return getSketch().getValueAtPercentile(50);
+            case P90: return getSketch().getValueAtPercentile(90);
+            case P99: return getSketch().getValueAtPercentile(99);
+            case P99_9: return getSketch().getValueAtPercentile(99.9);
+            default: return Double.NaN;
+        }
+    }
+
+    @Override
+    public void collectData(final StatsSession session, final DataSet dataSet) {
+        final QuantileSketch sketch = getSketch();
+        final double[] values = sketch.getValuesAtPercentiles(PERCENTILES);
+
+        dataSet.setDoubleField(Field.P50, values[0]);
+        dataSet.setDoubleField(Field.P90, values[1]);
+        dataSet.setDoubleField(Field.P99, values[2]);
+        dataSet.setDoubleField(Field.P99_9, values[3]);
+        dataSet.setField(Field.SKETCH, sketch);
+    }
+
+    @Override
+    public void restore(final DataSet dataSet) {
+        Object value = dataSet.getField(Field.SKETCH);
+        if (!(value instanceof QuantileSketch)) {
+            logger.warn("Dropping restore() call due to missing field data: {}", Field.SKETCH);
+            return;
+        }
+
+        QuantileSketch sketch = (QuantileSketch) value;
+        if (!mapping.equals(sketch.getMapping())) {
+            logger.warn("Dropping restore() call due to incompatible sketch: {}", sketch);
+            return;
+        }
+
+        clear();
+        add(sketch.toStripe());
+    }
+
+    @Override
+    public void merge(final DataRecorder other) {
+        if (!(other instanceof QuantileSketchDataRecorder) ||
+                !mapping.equals(((QuantileSketchDataRecorder) other).mapping)) {
+            throw new IllegalArgumentException("Cannot merge " + other + " into " + this);
+        }
+
+        add(((QuantileSketchDataRecorder) other).getSketch().toStripe());
+    }
+
+    /**
+     * Add the values recorded in the given <tt>sketch</tt>, such as one published by another
+     * QuantileSketchDataRecorder, to this DataRecorder.
+     *
+     * @param sketch The sketch to merge. Must be of the same configuration as this DataRecorder.
+     * @throws IllegalArgumentException If <tt>sketch</tt> is of a different configuration.
+     */
+    public void merge(final QuantileSketch sketch) {
+        if (!mapping.equals(sketch.getMapping())) {
+            throw new IllegalArgumentException("Cannot merge " + sketch + " into " + this);
+        }
+
+        add(sketch.toStripe());
+    }
+
+    private void add(final Stripe source) {
+        final Stripe stripe = stripes[0];
+        stripe.lock.lock();
+        try {
+            stripe.add(source);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                stripe.clear();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + mapping;
+    }
+
+    /* NESTED CLASSES */
+
+    public static interface Field {
+        public static final String P50 = "sketchP50";
+        public static final String P90 = "sketchP90";
+        public static final String P99 = "sketchP99";
+        public static final String P99_9 = "sketchP99.9";
+
+        public static final String SKETCH = "sketch";
+    }
+
+    /**
+     * A {@link DataRecorderFactory} that creates the {@link DataRecorder}s of the
+     * {@link DefaultDataRecorderFactory} along with a QuantileSketchDataRecorder.
+     */
+    public static class Factory implements DataRecorderFactory {
+
+        private static final long serialVersionUID = 1L;
+
+        private final double relativeAccuracy;
+        private final int maxBins;
+
+        public Factory() {
+            this(DEFAULT_RELATIVE_ACCURACY, DEFAULT_MAX_BINS);
+        }
+
+        public Factory(final double relativeAccuracy,
+                       final int maxBins) {
+            // Fail early on invalid arguments
+            new Mapping(relativeAccuracy, maxBins);
+
+            this.relativeAccuracy = relativeAccuracy;
+            this.maxBins = maxBins;
+        }
+
+        @Override
+        public DataRecorder[] createDataRecorders() {
+            DataRecorder[] defaults = DefaultDataRecorderFactory.getInstance().createDataRecorders();
+            DataRecorder[] result = Arrays.copyOf(defaults, defaults.length + 1);
+            result[defaults.length] = new QuantileSketchDataRecorder(relativeAccuracy, maxBins);
+            return result;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Factory)) {
+                return false;
+            }
+
+            Factory other = (Factory) obj;
+
+            return relativeAccuracy == other.relativeAccuracy && maxBins == other.maxBins;
+        }
+
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(relativeAccuracy);
+            return 31 * (int) (bits ^ (bits >>> 32)) + maxBins;
+        }
+    }
+
+    /**
+     * An immutable snapshot of the bins of a {@link QuantileSketchDataRecorder}, which can
+     * travel inside a {@link DataSet}.
+     */
+    public static final class QuantileSketch implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final double relativeAccuracy;
+        private final int maxBins;
+
+        private final long zeroCount;
+        private final int positiveOffset;
+        private final long[] positiveCounts;
+        private final int negativeOffset;
+        private final long[] negativeCounts;
+
+        private transient Mapping mapping;
+
+        private QuantileSketch(final Stripe stripe) {
+            mapping = stripe.mapping;
+            relativeAccuracy = mapping.relativeAccuracy;
+            maxBins = mapping.maxBins;
+
+            zeroCount = stripe.zeroCount;
+            positiveOffset = stripe.positive.minIndex;
+            positiveCounts = stripe.positive.toArray();
+            negativeOffset = stripe.negative.minIndex;
+            negativeCounts = stripe.negative.toArray();
+        }
+
+        private Mapping getMapping() {
+            if (mapping == null) {
+                mapping = new Mapping(relativeAccuracy, maxBins);
+            }
+            return mapping;
+        }
+
+        private Stripe toStripe() {
+            Stripe stripe = new Stripe(getMapping());
+            stripe.zeroCount = zeroCount;
+            stripe.positive.add(positiveOffset, positiveCounts);
+            stripe.negative.add(negativeOffset, negativeCounts);
+            return stripe;
+        }
+
+        public double getRelativeAccuracy() {
+            return relativeAccuracy;
+        }
+
+        public int getMaxBins() {
+            return maxBins;
+        }
+
+        /**
+         * Obtain the total number of recorded values.
+         */
+        public long getTotalCount() {
+            long total = zeroCount;
+            for (long count : positiveCounts) {
+                total += count;
+            }
+            for (long count : negativeCounts) {
+                total += count;
+            }
+            return total;
+        }
+
+        /**
+         * Obtain the value at the given <tt>percentile</tt> of the recorded values, to within
+         * the relative accuracy of the sketch.
+         *
+         * @param percentile A percentile between 0 and 100.
+         * @return The value at <tt>percentile</tt>, or <tt>0</tt> if no values are recorded.
+         */
+        public double getValueAtPercentile(final double percentile) {
+            return getValuesAtPercentiles(new double[] { percentile })[0];
+        }
+
+        /**
+         * Obtain the values at several percentiles in a single pass.
+         *
+         * @param percentiles Percentiles between 0 and 100, in ascending order.
+         * @return The values at each of <tt>percentiles</tt>.
+         * @see #getValueAtPercentile(double)
+         */
+        public double[] getValuesAtPercentiles(final double[] percentiles) {
+            final double[] result = new double[percentiles.length];
+            final long totalCount = getTotalCount();
+            if (totalCount == 0) {
+                return result;
+            }
+
+            final Mapping mapping = getMapping();
+
+            // Walk the bins in ascending order of value: negative bins from the largest
+            // magnitude down, then zero, then positive bins from the smallest magnitude up
+            final int binCount = negativeCounts.length + 1 + positiveCounts.length;
+
+            int bin = -1;
+            long runningCount = 0;
+            for (int p = 0; p < percentiles.length; p++) {
+                double percentile = Math.min(Math.max(percentiles[p], 0), 100);
+                double rank = percentile / 100 * (totalCount - 1);
+
+                while (bin < binCount - 1 && runningCount <= rank) {
+                    bin++;
+                    runningCount += countAt(bin);
+                }
+
+                result[p] = valueAt(mapping, bin);
+            }
+
+            return result;
+        }
+
+        private long countAt(final int bin) {
+            if (bin < negativeCounts.length) {
+                return negativeCounts[negativeCounts.length - 1 - bin];
+            }
+            if (bin == negativeCounts.length) {
+                return zeroCount;
+            }
+            return positiveCounts[bin - negativeCounts.length - 1];
+        }
+
+        private double valueAt(final Mapping mapping, final int bin) {
+            if (bin < negativeCounts.length) {
+                return -mapping.value(negativeOffset + negativeCounts.length - 1 - bin);
+            }
+            if (bin == negativeCounts.length) {
+                return 0;
+            }
+            return mapping.value(positiveOffset + bin - negativeCounts.length - 1);
+        }
+
+        /**
+         * Combine this sketch with <tt>other</tt>, as though all values recorded in both had
+         * been recorded in one.
+         *
+         * @param other The sketch to merge with this one. Must be of the same configuration.
+         * @return A new sketch holding the values of both.
+         * @throws IllegalArgumentException If <tt>other</tt> is of a different configuration.
+         */
+        public QuantileSketch merge(final QuantileSketch other) {
+            if (!getMapping().equals(other.getMapping())) {
+                throw new IllegalArgumentException("Cannot merge " + other + " into " + this);
+            }
+
+            Stripe stripe = toStripe();
+            stripe.add(other.toStripe());
+            return new QuantileSketch(stripe);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof QuantileSketch)) {
+                return false;
+            }
+
+            QuantileSketch other = (QuantileSketch) obj;
+
+            return getMapping().equals(other.getMapping()) &&
+                   zeroCount == other.zeroCount &&
+                   (positiveCounts.length == 0 || positiveOffset == other.positiveOffset) &&
+                   Arrays.equals(positiveCounts, other.positiveCounts) &&
+                   (negativeCounts.length == 0 || negativeOffset == other.negativeOffset) &&
+                   Arrays.equals(negativeCounts, other.negativeCounts);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = getMapping().hashCode();
+            result = 31 * result + (int) (zeroCount ^ (zeroCount >>> 32));
+            result = 31 * result + Arrays.hashCode(positiveCounts);
+            result = 31 * result + Arrays.hashCode(negativeCounts);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return QuantileSketch.class.getSimpleName() + getMapping() + "[totalCount=" + getTotalCount() + ']';
+        }
+    }
+
+    /**
+     * The logarithmic mapping of values to bin indices. Bin <tt>i</tt> holds values in
+     * <tt>(gamma^(i-1), gamma^i]</tt>, where <tt>gamma = (1 + a) / (1 - a)</tt> for a relative
+     * accuracy of <tt>a</tt>.
+     */
+    private static final class Mapping implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final double relativeAccuracy;
+        private final int maxBins;
+
+        private final double gamma;
+        private final double multiplier;
+        private final double minIndexableValue;
+
+        Mapping(final double relativeAccuracy,
+                final int maxBins) {
+            if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+                throw new IllegalArgumentException("relativeAccuracy must be between 0 and 1: " +
+                                                   relativeAccuracy);
+            }
+            if (maxBins < 16) {
+                throw new IllegalArgumentException("maxBins must be at least 16: " + maxBins);
+            }
+
+            this.relativeAccuracy = relativeAccuracy;
+            this.maxBins = maxBins;
+
+            gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+            multiplier = 1 / Math.log(gamma);
+            minIndexableValue = Double.MIN_NORMAL * gamma;
+        }
+
+        int index(final double value) {
+            return (int) Math.ceil(Math.log(value) * multiplier);
+        }
+
+        double value(final int index) {
+            // The point of the bin with equal relative distance to both bounds
+            return 2 * Math.pow(gamma, index) / (gamma + 1);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Mapping)) {
+                return false;
+            }
+
+            Mapping other = (Mapping) obj;
+
+            return relativeAccuracy == other.relativeAccuracy && maxBins == other.maxBins;
+        }
+
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(relativeAccuracy);
+            return 31 * (int) (bits ^ (bits >>> 32)) + maxBins;
+        }
+
+        @Override
+        public String toString() {
+            return "[relativeAccuracy=" + relativeAccuracy + ",maxBins=" + maxBins + ']';
+        }
+    }
+
+    /**
+     * One stripe of the sketch. Guarded by its lock when owned by a recorder.
+     */
+    private static final class Stripe implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final ReentrantLock lock = new ReentrantLock();
+
+        final Mapping mapping;
+
+        final Store positive;
+        final Store negative;
+        long zeroCount = 0;
+
+        Stripe(final Mapping mapping) {
+            this.mapping = mapping;
+            positive = new Store(mapping.maxBins);
+            negative = new Store(mapping.maxBins);
+        }
+
+        void add(final double value) {
+            if (value > mapping.minIndexableValue) {
+                positive.add(mapping.index(value), 1);
+            } else if (value < -mapping.minIndexableValue) {
+                negative.add(mapping.index(-value), 1);
+            } else {
+                zeroCount++;
+            }
+        }
+
+        void add(final Stripe other) {
+            zeroCount += other.zeroCount;
+            positive.add(other.positive);
+            negative.add(other.negative);
+        }
+
+        void clear() {
+            zeroCount = 0;
+            positive.clear();
+            negative.clear();
+        }
+    }
+
+    /**
+     * A dense, growable array of bin counts holding at most <tt>maxBins</tt> bins. When more are
+     * needed, the lowest bins are collapsed into the lowest remaining one.
+     */
+    private static final class Store implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int INITIAL_BINS = 32;
+
+        private final int maxBins;
+
+        private long[] counts = null;
+        private int offset;
+
+        int minIndex = Integer.MAX_VALUE;
+        int maxIndex = Integer.MIN_VALUE;
+
+        Store(final int maxBins) {
+            this.maxBins = maxBins;
+        }
+
+        void add(int index, final long count) {
+            if (count == 0) {
+                return;
+            }
+
+            if (counts == null) {
+                counts = new long[Math.min(INITIAL_BINS, maxBins)];
+                offset = index - counts.length / 2;
+            }
+
+            if (index < offset || index >= offset + counts.length) {
+                if (index < offset && counts.length == maxBins && maxIndex - maxBins + 1 == offset) {
+                    // Already fully collapsed at the low end
+                    index = offset;
+                } else {
+                    index = extendRange(index);
+                }
+            }
+
+            counts[index - offset] += count;
+
+            if (index < minIndex) {
+                minIndex = index;
+            }
+            if (index > maxIndex) {
+                maxIndex = index;
+            }
+        }
+
+        void add(final int offset, final long[] counts) {
+            for (int i = 0; i < counts.length; i++) {
+                add(offset + i, counts[i]);
+            }
+        }
+
+        void add(final Store other) {
+            if (other.counts == null || other.minIndex > other.maxIndex) {
+                return;
+            }
+
+            for (int i = other.minIndex; i <= other.maxIndex; i++) {
+                add(i, other.counts[i - other.offset]);
+            }
+        }
+
+        /**
+         * Reallocate the bins to cover <tt>index</tt>, collapsing the lowest bins if necessary.
+         * @return The index at which to count <tt>index</tt>.
+         */
+        private int extendRange(final int index) {
+            final int newMax = Math.max(maxIndex, index);
+            int newMin = Math.min(minIndex, index);
+            if ((long) newMax - newMin + 1 > maxBins) {
+                newMin = newMax - maxBins + 1;
+            }
+
+            final int span = newMax - newMin + 1;
+            final int length = Math.min(maxBins, Math.max(span, counts.length * 2));
+            final int newOffset = newMin - (length - span) / 2;
+
+            final long[] newCounts = new long[length];
+            if (minIndex <= maxIndex) {
+                for (int i = minIndex; i <= maxIndex; i++) {
+                    newCounts[Math.max(i, newMin) - newOffset] += counts[i - offset];
+                }
+                if (minIndex < newMin) {
+                    minIndex = newMin;
+                }
+            }
+
+            counts = newCounts;
+            offset = newOffset;
+
+            return Math.max(index, newMin);
+        }
+
+        long[] toArray() {
+            if (counts == null || minIndex > maxIndex) {
+                return new long[0];
+            }
+
+            final long[] result = new long[maxIndex - minIndex + 1];
+            System.arraycopy(counts, minIndex - offset, result, 0, result.length);
+            return result;
+        }
+
+        void clear() {
+            counts = null;
+            minIndex = Integer.MAX_VALUE;
+            maxIndex = Integer.MIN_VALUE;
+        }
+    }
+}
@@ -39,13 +39,15 @@ import org.stajistics.util.ThreadSafe;
  * @author The Stajistics Project
  */
 @ThreadSafe
-public class RangeDataRecorder implements DataRecorder {
+public class RangeDataRecorder implements MergeableDataRecorder, IndexedFieldDataRecorder {
 
     private static final Logger logger = LoggerFactory.getLogger(RangeDataRecorder.class);
 
     private final RangeList rangeList;
     private final AtomicLong[] hits;
 
+    private final Set<String> supportedFieldNames;
+
     public RangeDataRecorder(final RangeList rangeList) {
         assertNotNull(rangeList, "rangeList");
 
@@ -60,17 +62,17 @@ public class RangeDataRecorder implements DataRecorder {
         for (int i = 0; i < size; i++) {
             hits[i] = new AtomicLong(0);
         }
-    }
-
-    @Override
-    public Set<String> getSupportedFieldNames() {
-        Set<String> result = new HashSet<String>(rangeList.size());
 
+        Set<String> fieldNames = new HashSet<String>(size);
         for (Range range : rangeList) {
-            result.add(range.getName());
+            fieldNames.add(range.getName());
         }
+        supportedFieldNames = Collections.unmodifiableSet(fieldNames);
+    }
 
-        return Collections.unmodifiableSet(result);
+    @Override
+    public Set<String> getSupportedFieldNames() {
+        return supportedFieldNames;
     }
 
     @Override
@@ -92,18 +94,48 @@ public class RangeDataRecorder implements DataRecorder {
     @Override
     public Object getField(final StatsSession session,
                            final String name) {
+        final int index = getFieldIndex(name);
+        if (index == -1) {
+            // Not found
+            return null;
+        }
+
+        return hits[index].get();
+    }
+
+    @Override
+    public int getFieldIndex(final String name) {
         List<Range> ranges = rangeList.getRanges();
         final int rangeCount = ranges.size();
         for (int i = 0; i < rangeCount; i++) {
             if (ranges.get(i)
                       .getName()
                       .equals(name)) {
-                return hits[i].get();
+                return i;
             }
         }
 
-        // Not found
-        return null;
+        return -1;
+    }
+
+    @Override
+    public Object getField(final StatsSession session,
+                           final int index) {
+        if (index < 0 || index >= hits.length) {
+            return null;
+        }
+
+        return hits[index].get();
+    }
+
+    @Override
+    public double getDoubleField(final StatsSession session,
+                                 final int index) {
+        if (index < 0 || index >= hits.length) {
+            return Double.NaN;
+        }
+
+        return hits[index].get();
     }
 
     @Override
@@ -111,7 +143,7 @@ public class RangeDataRecorder implements DataRecorder {
         List<Range> ranges = rangeList.getRanges();
         final int rangeCount = ranges.size();
         for (int i = 0; i < rangeCount; i++) {
-            dataSet.setField(ranges.get(i).getName(), hits[i].get());
+            dataSet.setLongField(ranges.get(i).getName(), hits[i].get());
         }
     }
 
@@ -144,6 +176,19 @@ public class RangeDataRecorder implements DataRecorder {
         }
     }
 
+    @Override
+    public void merge(final DataRecorder other) {
+        if (!(other instanceof RangeDataRecorder) ||
+                !rangeList.equals(((RangeDataRecorder) other).rangeList)) {
+            throw new IllegalArgumentException("Cannot merge " + other + " into " + this);
+        }
+
+        final AtomicLong[] otherHits = ((RangeDataRecorder) other).hits;
+        for (int i = 0; i < hits.length; i++) {
+            hits[i].addAndGet(otherHits[i].get());
+        }
+    }
+
     @Override
     public void clear() {
         final int rangeCount = rangeList.size();
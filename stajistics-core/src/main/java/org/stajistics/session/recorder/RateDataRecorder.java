@@ -0,0 +1,312 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import org.stajistics.data.DataSet;
+import org.stajistics.session.StatsSession;
+import org.stajistics.tracker.Tracker;
+import org.stajistics.util.Misc;
+import org.stajistics.util.ThreadSafe;
+
+/**
+ * <p>Measures the rate at which a session is updated, in updates per second, as exponentially
+ * weighted moving averages over the last 1, 5 and 15 minutes, in the manner of the UNIX load
+ * average, and as the mean rate since the first update.</p>
+ *
+ * <p>Updates only increment a counter. Every {@link #TICK_INTERVAL_MILLIS} the counted updates
+ * are folded into the moving averages. Rather than relying on a scheduled task, the tick is
+ * performed by whichever thread first notices that it is due, when updating or reading this
+ * DataRecorder; ticks missed while the session was idle are caught up in constant time.</p>
+ *
+ * <p>The rates are not {@link MergeableDataRecorder mergeable}, as the moving averages of
+ * separate intervals cannot be combined.</p>
+ *
+ * @author The Stajistics Project
+ */
+@ThreadSafe
+public class RateDataRecorder implements IndexedFieldDataRecorder {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final long TICK_INTERVAL_MILLIS = 5000;
+
+    private static final Set<String> SUPPORTED_FIELD_NAMES =
+        Collections.unmodifiableSet(Misc.getStaticFieldValues(Field.class, String.class));
+
+    // Field indices, in the order of FIELD_NAMES
+    private static final int M1_RATE = 0;
+    private static final int M5_RATE = 1;
+    private static final int M15_RATE = 2;
+    private static final int MEAN_RATE = 3;
+
+    private static final String[] FIELD_NAMES = {
+        Field.M1_RATE,
+        Field.M5_RATE,
+        Field.M15_RATE,
+        Field.MEAN_RATE
+    };
+
+    private static final double TICK_INTERVAL_SECONDS = TICK_INTERVAL_MILLIS / 1000d;
+
+    private static final double M1_ALPHA = alpha(1);
+    private static final double M5_ALPHA = alpha(5);
+    private static final double M15_ALPHA = alpha(15);
+
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+
+    private static final AtomicLongFieldUpdater<RateDataRecorder> uncountedUpdater =
+        AtomicLongFieldUpdater.newUpdater(RateDataRecorder.class, "uncounted");
+    private static final AtomicLongFieldUpdater<RateDataRecorder> countUpdater =
+        AtomicLongFieldUpdater.newUpdater(RateDataRecorder.class, "count");
+    private static final AtomicLongFieldUpdater<RateDataRecorder> startTimeUpdater =
+        AtomicLongFieldUpdater.newUpdater(RateDataRecorder.class, "startTime");
+    private static final AtomicLongFieldUpdater<RateDataRecorder> lastTickUpdater =
+        AtomicLongFieldUpdater.newUpdater(RateDataRecorder.class, "lastTick");
+
+    private volatile long uncounted = 0;
+    private volatile long count = 0;
+
+    private volatile long startTime = NOT_STARTED;
+    private volatile long lastTick = NOT_STARTED;
+
+    // Only written by the thread that wins the tick
+    private volatile boolean initialized = false;
+    private volatile double m1Rate = 0;
+    private volatile double m5Rate = 0;
+    private volatile double m15Rate = 0;
+
+    private static double alpha(final int minutes) {
+        return 1 - Math.exp(-TICK_INTERVAL_SECONDS / 60 / minutes);
+    }
+
+    /**
+     * Obtain the current time in milliseconds, used when reading rates. Overridable for testing.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public Set<String> getSupportedFieldNames() {
+        return SUPPORTED_FIELD_NAMES;
+    }
+
+    @Override
+    public void update(final StatsSession session,
+                       final Tracker tracker,
+                       long now) {
+        if (now < 0) {
+            now = currentTimeMillis();
+        }
+
+        if (startTime == NOT_STARTED && startTimeUpdater.compareAndSet(this, NOT_STARTED, now)) {
+            lastTick = now;
+        } else {
+            tickIfNecessary(now);
+        }
+
+        uncountedUpdater.incrementAndGet(this);
+        countUpdater.incrementAndGet(this);
+    }
+
+    private void tickIfNecessary(final long now) {
+        final long oldTick = lastTick;
+        if (oldTick == NOT_STARTED) {
+            return;
+        }
+
+        final long age = now - oldTick;
+        if (age < TICK_INTERVAL_MILLIS) {
+            return;
+        }
+
+        final long newTick = now - age % TICK_INTERVAL_MILLIS;
+        if (lastTickUpdater.compareAndSet(this, oldTick, newTick)) {
+            tick(age / TICK_INTERVAL_MILLIS);
+        }
+    }
+
+    private void tick(final long ticks) {
+        final double instantRate = uncountedUpdater.getAndSet(this, 0) / TICK_INTERVAL_SECONDS;
+
+        if (initialized) {
+            m1Rate += M1_ALPHA * (instantRate - m1Rate);
+            m5Rate += M5_ALPHA * (instantRate - m5Rate);
+            m15Rate += M15_ALPHA * (instantRate - m15Rate);
+        } else {
+            m1Rate = instantRate;
+            m5Rate = instantRate;
+            m15Rate = instantRate;
+            initialized = true;
+        }
+
+        // Further ticks saw no updates, so the rates only decay
+        if (ticks > 1) {
+            m1Rate *= Math.pow(1 - M1_ALPHA, ticks - 1);
+            m5Rate *= Math.pow(1 - M5_ALPHA, ticks - 1);
+            m15Rate *= Math.pow(1 - M15_ALPHA, ticks - 1);
+        }
+    }
+
+    /**
+     * @return The one minute moving average rate, in updates per second.
+     */
+    public double getM1Rate() {
+        tickIfNecessary(currentTimeMillis());
+        return m1Rate;
+    }
+
+    /**
+     * @return The five minute moving average rate, in updates per second.
+     */
+    public double getM5Rate() {
+        tickIfNecessary(currentTimeMillis());
+        return m5Rate;
+    }
+
+    /**
+     * @return The fifteen minute moving average rate, in updates per second.
+     */
+    public double getM15Rate() {
+        tickIfNecessary(currentTimeMillis());
+        return m15Rate;
+    }
+
+    /**
+     * @return The mean rate since the first update, in updates per second.
+     */
+    public double getMeanRate() {
+        final long start = startTime;
+        if (start == NOT_STARTED) {
+            return 0;
+        }
+
+        final long elapsed = currentTimeMillis() - start;
+        if (elapsed <= 0) {
+            return 0;
+        }
+
+        return count * 1000d / elapsed;
+    }
+
+    @Override
+    public Object getField(final StatsSession session,
+                           final String name) {
+        return getField(session, getFieldIndex(name));
+    }
+
+    @Override
+    public int getFieldIndex(final String name) {
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            if (FIELD_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public Object getField(final StatsSession session,
+                           final int index) {
+        switch (index) {
+            case M1_RATE: return getM1Rate();
+            case M5_RATE: return getM5Rate();
+            case M15_RATE: return getM15Rate();
+            case MEAN_RATE: return getMeanRate();
+            default: return null;
+        }
+    }
+
+    @Override
+    public double getDoubleField(final StatsSession session,
+                                 final int index) {
+        switch (index) {
+            case M1_RATE: return getM1Rate();
+            case M5_RATE: return getM5Rate();
+            case M15_RATE: return getM15Rate();
+            case MEAN_RATE: return getMeanRate();
+            default: return Double.NaN;
+        }
+    }
+
+    @Override
+    public void collectData(final StatsSession session, final DataSet dataSet) {
+        tickIfNecessary(currentTimeMillis());
+
+        dataSet.setDoubleField(Field.M1_RATE, m1Rate);
+        dataSet.setDoubleField(Field.M5_RATE, m5Rate);
+        dataSet.setDoubleField(Field.M15_RATE, m15Rate);
+        dataSet.setDoubleField(Field.MEAN_RATE, getMeanRate());
+    }
+
+    /**
+     * Restores the moving average rates. The mean rate is measured afresh from the time of
+     * restoration.
+     */
+    @Override
+    public void restore(final DataSet dataSet) {
+        final Double restoredM1Rate = dataSet.getField(Field.M1_RATE, Double.class);
+        final Double restoredM5Rate = dataSet.getField(Field.M5_RATE, Double.class);
+        final Double restoredM15Rate = dataSet.getField(Field.M15_RATE, Double.class);
+
+        if (restoredM1Rate == null || restoredM5Rate == null || restoredM15Rate == null) {
+            return;
+        }
+
+        clear();
+
+        final long now = currentTimeMillis();
+
+        m1Rate = restoredM1Rate;
+        m5Rate = restoredM5Rate;
+        m15Rate = restoredM15Rate;
+        initialized = true;
+
+        startTime = now;
+        lastTick = now;
+    }
+
+    @Override
+    public void clear() {
+        lastTick = NOT_STARTED;
+        startTime = NOT_STARTED;
+        uncounted = 0;
+        count = 0;
+
+        initialized = false;
+        m1Rate = 0;
+        m5Rate = 0;
+        m15Rate = 0;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+
+    /* NESTED CLASSES */
+
+    public static interface Field {
+        public static final String M1_RATE = "m1Rate";
+        public static final String M5_RATE = "m5Rate";
+        public static final String M15_RATE = "m15Rate";
+        public static final String MEAN_RATE = "meanRate";
+    }
+}
@@ -0,0 +1,431 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.stajistics.StatsKey;
+import org.stajistics.data.DataSet;
+import org.stajistics.session.StatsSession;
+import org.stajistics.tracker.Tracker;
+import org.stajistics.util.Misc;
+import org.stajistics.util.ThreadSafe;
+
+/**
+ * <p>Retains a fixed number of raw tracker values along with the time at which they were
+ * recorded, to serve as exemplars when investigating outliers that aggregates hide.
+ * Optionally, the value of a {@link StatsKey} attribute of the tracker's key is retained
+ * with each value as a tag.</p>
+ *
+ * <p>The reservoir is biased towards recent values: until it is full, every value is
+ * retained, after which every value replaces a pseudo-randomly chosen slot. A retained value
+ * therefore survives the next <tt>n</tt> values with probability
+ * <tt>(1 - 1/capacity)<sup>n</sup></tt>.</p>
+ *
+ * <p>Updates do not allocate or lock. Values, times and tags are held in atomic arrays and
+ * each slot carries a sequence number that writers claim with a single compare-and-set.
+ * A value whose slot is being written by another thread is dropped rather than waited for.
+ * Readers retry a slot until they observe it unchanged. Sequence numbers only ever grow:
+ * {@link #clear()} claims each slot like a writer and marks it empty with a sentinel time,
+ * so a reader never mistakes a slot that was cleared and rewritten for an unchanged one.</p>
+ *
+ * @author The Stajistics Project
+ */
+@ThreadSafe
+public class ReservoirDataRecorder implements IndexedFieldDataRecorder {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = LoggerFactory.getLogger(ReservoirDataRecorder.class);
+
+    public static final int DEFAULT_CAPACITY = 128;
+
+    private static final Set<String> SUPPORTED_FIELD_NAMES =
+        Collections.unmodifiableSet(Misc.getStaticFieldValues(Field.class, String.class));
+
+    // Field indices, in the order of FIELD_NAMES
+    private static final int SAMPLES = 0;
+
+    private static final String[] FIELD_NAMES = {
+        Field.SAMPLES
+    };
+
+    private final int capacity;
+    private final String tagAttribute;
+
+    private final AtomicLong count = new AtomicLong();
+
+    // The time stamp of an empty slot
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    // Per slot: odd while being written, even otherwise
+    private final AtomicLongArray sequences;
+    private final AtomicLongArray values;
+    private final AtomicLongArray timeStamps;
+    private final AtomicReferenceArray<Object> tags;
+
+    public ReservoirDataRecorder() {
+        this(DEFAULT_CAPACITY, null);
+    }
+
+    /**
+     * @param capacity The number of values to retain.
+     * @param tagAttribute The name of the tracker key attribute to retain with each value,
+     *                     or <tt>null</tt> to retain no tags.
+     * @throws IllegalArgumentException If <tt>capacity</tt> is less than 1.
+     */
+    public ReservoirDataRecorder(final int capacity,
+                                 final String tagAttribute) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.tagAttribute = tagAttribute;
+
+        sequences = new AtomicLongArray(capacity);
+        values = new AtomicLongArray(capacity);
+        timeStamps = new AtomicLongArray(capacity);
+        tags = (tagAttribute == null) ? null : new AtomicReferenceArray<Object>(capacity);
+
+        for (int i = 0; i < capacity; i++) {
+            timeStamps.set(i, EMPTY);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public String getTagAttribute() {
+        return tagAttribute;
+    }
+
+    /**
+     * A 64-bit mixing function, spreading sequential counts over the reservoir slots.
+     */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    /**
+     * Claim <tt>slot</tt> for writing.
+     *
+     * @param wait Whether to wait for another thread that is writing the slot.
+     * @return The odd sequence number now held, or <tt>-1</tt> if the slot is being written
+     *         by another thread and <tt>wait</tt> is <tt>false</tt>.
+     */
+    private long claim(final int slot, final boolean wait) {
+        for (;;) {
+            final long sequence = sequences.get(slot);
+            if ((sequence & 1) == 0 && sequences.compareAndSet(slot, sequence, sequence + 1)) {
+                return sequence + 1;
+            }
+            if (!wait) {
+                return -1;
+            }
+            Thread.yield();
+        }
+    }
+
+    private void write(final int slot,
+                       final long claimedSequence,
+                       final long valueBits,
+                       final long timeStamp,
+                       final Object tag) {
+        values.set(slot, valueBits);
+        timeStamps.set(slot, timeStamp);
+        if (tags != null) {
+            tags.set(slot, tag);
+        }
+
+        sequences.set(slot, claimedSequence + 1);
+    }
+
+    @Override
+    public Set<String> getSupportedFieldNames() {
+        return SUPPORTED_FIELD_NAMES;
+    }
+
+    @Override
+    public void update(final StatsSession session,
+                       final Tracker tracker,
+                       long now) {
+        if (now < 0) {
+            now = System.currentTimeMillis();
+        }
+
+        // Obtain everything before claiming a slot so that a slot is never left claimed
+        final long valueBits = Double.doubleToLongBits(tracker.getValue());
+        final Object tag = (tags == null) ? null : tracker.getKey().getAttribute(tagAttribute);
+
+        final long n = count.getAndIncrement();
+        final int slot = (n < capacity) ? (int) n : (int) ((mix(n) >>> 1) % capacity);
+
+        final long claimedSequence = claim(slot, false);
+        if (claimedSequence < 0) {
+            // Another thread is writing this slot
+            return;
+        }
+
+        write(slot, claimedSequence, valueBits, now, tag);
+    }
+
+    /**
+     * Obtain a snapshot of the retained values, ordered by time.
+     *
+     * @return A {@link Samples}, never <tt>null</tt>.
+     */
+    public Samples getSamples() {
+        final long[] timeStamps = new long[capacity];
+        final double[] values = new double[capacity];
+        final String[] tags = (this.tags == null) ? null : new String[capacity];
+
+        int size = 0;
+
+        for (int slot = 0; slot < capacity; slot++) {
+            for (;;) {
+                final long sequence = sequences.get(slot);
+                if ((sequence & 1) != 0) {
+                    Thread.yield();
+                    continue;
+                }
+
+                final long timeStamp = this.timeStamps.get(slot);
+                timeStamps[size] = timeStamp;
+                values[size] = Double.longBitsToDouble(this.values.get(slot));
+                if (tags != null) {
+                    Object tag = this.tags.get(slot);
+                    tags[size] = (tag == null) ? null : tag.toString();
+                }
+
+                if (sequences.get(slot) == sequence) {
+                    if (timeStamp != EMPTY) {
+                        size++;
+                    }
+                    break;
+                }
+            }
+        }
+
+        return new Samples(count.get(), timeStamps, values, tags, size);
+    }
+
+    @Override
+    public Object getField(final StatsSession session,
+                           final String name) {
+        return getField(session, getFieldIndex(name));
+    }
+
+    @Override
+    public int getFieldIndex(final String name) {
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            if (FIELD_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public Object getField(final StatsSession session,
+                           final int index) {
+        switch (index) {
+            case SAMPLES: return getSamples();
+            default: return null;
+        }
+    }
+
+    @Override
+    public double getDoubleField(final StatsSession session,
+                                 final int index) {
+        return Double.NaN;
+    }
+
+    @Override
+    public void collectData(final StatsSession session, final DataSet dataSet) {
+        dataSet.setField(Field.SAMPLES, getSamples());
+    }
+
+    @Override
+    public void restore(final DataSet dataSet) {
+        Object value = dataSet.getField(Field.SAMPLES);
+        if (!(value instanceof Samples)) {
+            logger.warn("Dropping restore() call due to missing field data: {}", Field.SAMPLES);
+            return;
+        }
+
+        final Samples samples = (Samples) value;
+
+        clear();
+
+        final int size = Math.min(samples.size(), capacity);
+        final int offset = samples.size() - size;
+        for (int i = 0; i < size; i++) {
+            write(i,
+                  claim(i, true),
+                  Double.doubleToLongBits(samples.getValue(offset + i)),
+                  samples.getTimeStamp(offset + i),
+                  samples.getTag(offset + i));
+        }
+
+        count.set(Math.max(samples.getCount(), size));
+    }
+
+    @Override
+    public void clear() {
+        count.set(0);
+        for (int i = 0; i < capacity; i++) {
+            write(i, claim(i, true), 0, EMPTY, null);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[capacity=" + capacity +
+               ",tagAttribute=" + tagAttribute + ']';
+    }
+
+    /* NESTED CLASSES */
+
+    public static interface Field {
+        public static final String SAMPLES = "samples";
+    }
+
+    /**
+     * An immutable snapshot of the retained values, ordered by time.
+     */
+    public static final class Samples implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long count;
+        private final long[] timeStamps;
+        private final double[] values;
+        private final String[] tags;
+
+        private Samples(final long count,
+                        final long[] timeStamps,
+                        final double[] values,
+                        final String[] tags,
+                        final int size) {
+            this.count = count;
+            this.timeStamps = new long[size];
+            this.values = new double[size];
+            this.tags = (tags == null) ? null : new String[size];
+
+            // Order by time with an insertion sort, as the slots are mostly in order already
+            for (int i = 0; i < size; i++) {
+                int j = i;
+                while (j > 0 && this.timeStamps[j - 1] > timeStamps[i]) {
+                    this.timeStamps[j] = this.timeStamps[j - 1];
+                    this.values[j] = this.values[j - 1];
+                    if (tags != null) {
+                        this.tags[j] = this.tags[j - 1];
+                    }
+                    j--;
+                }
+                this.timeStamps[j] = timeStamps[i];
+                this.values[j] = values[i];
+                if (tags != null) {
+                    this.tags[j] = tags[i];
+                }
+            }
+        }
+
+        /**
+         * @return The total number of values offered to the reservoir, retained or not.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public int size() {
+            return values.length;
+        }
+
+        public long getTimeStamp(final int index) {
+            return timeStamps[index];
+        }
+
+        public double getValue(final int index) {
+            return values[index];
+        }
+
+        /**
+         * @return The tag retained with the value, or <tt>null</tt> if none.
+         */
+        public String getTag(final int index) {
+            return (tags == null) ? null : tags[index];
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Samples)) {
+                return false;
+            }
+
+            Samples other = (Samples) obj;
+
+            return count == other.count &&
+                   Arrays.equals(timeStamps, other.timeStamps) &&
+                   Arrays.equals(values, other.values) &&
+                   Arrays.equals(tags, other.tags);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (count ^ (count >>> 32)) ^ Arrays.hashCode(values);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder buf = new StringBuilder(32 + values.length * 32);
+            buf.append(Samples.class.getSimpleName());
+            buf.append("[count=");
+            buf.append(count);
+            buf.append(",samples={");
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    buf.append(',');
+                }
+                buf.append(timeStamps[i]);
+                buf.append('=');
+                buf.append(values[i]);
+                if (tags != null && tags[i] != null) {
+                    buf.append('(');
+                    buf.append(tags[i]);
+                    buf.append(')');
+                }
+            }
+            buf.append("}]");
+            return buf.toString();
+        }
+    }
+}
@@ -0,0 +1,447 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.stajistics.data.DataSet;
+import org.stajistics.session.StatsSession;
+import org.stajistics.tracker.Tracker;
+import org.stajistics.util.Misc;
+import org.stajistics.util.ThreadSafe;
+
+/**
+ * <p>Records the same means and standard deviation as {@link DistributionDataRecorder}, but in a
+ * numerically stable way. The variance is accumulated with Welford's algorithm as a sum of
+ * squared deviations from the running mean, rather than as a sum of squares, which suffers from
+ * catastrophic cancellation for large values or counts. The geometric mean is accumulated as a
+ * sum of logarithms rather than as a product, which overflows or underflows after a few hundred
+ * values. Only positive values contribute to the geometric mean.</p>
+ *
+ * <p>Updates accumulate into a fixed number of striped partial moments, one of which is chosen by
+ * a per-thread probe that moves to another stripe when contention is detected, so updates rarely
+ * contend. The number of stripes is the number of available processors rounded up to a power of
+ * two, at most 16, and does not depend on the number of updating threads. Partial moments are
+ * combined with Chan's parallel algorithm when data is read, and the same algorithm is used to
+ * {@link #merge(DataRecorder) merge} recorders. The raw moments are published
+ * in the DataSet along with the derived values, so that they can be restored.</p>
+ *
+ * @author The Stajistics Project
+ */
+@ThreadSafe
+public class StableDistributionDataRecorder implements MergeableDataRecorder, IndexedFieldDataRecorder {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = LoggerFactory.getLogger(StableDistributionDataRecorder.class);
+
+    private static final Set<String> SUPPORTED_FIELD_NAMES =
+        Collections.unmodifiableSet(Misc.getStaticFieldValues(Field.class, String.class));
+
+    // Field indices, in the order of FIELD_NAMES
+    private static final int ARITHMETIC_MEAN = 0;
+    private static final int GEOMETRIC_MEAN = 1;
+    private static final int HARMONIC_MEAN = 2;
+    private static final int QUADRATIC_MEAN = 3;
+    private static final int STANDARD_DEVIATION = 4;
+    private static final int VARIANCE = 5;
+    private static final int COUNT = 6;
+    private static final int SUM_OF_SQUARED_DEVIATIONS = 7;
+    private static final int LOG_COUNT = 8;
+    private static final int SUM_OF_LOGS = 9;
+    private static final int SUM_OF_INVERSES = 10;
+
+    private static final String[] FIELD_NAMES = {
+        Field.ARITHMETIC_MEAN,
+        Field.GEOMETRIC_MEAN,
+        Field.HARMONIC_MEAN,
+        Field.QUADRATIC_MEAN,
+        Field.STANDARD_DEVIATION,
+        Field.VARIANCE,
+        Field.COUNT,
+        Field.SUM_OF_SQUARED_DEVIATIONS,
+        Field.LOG_COUNT,
+        Field.SUM_OF_LOGS,
+        Field.SUM_OF_INVERSES
+    };
+
+    private static final int STRIPE_COUNT;
+    static {
+        int stripeCount = 1;
+        final int processors = Math.min(Runtime.getRuntime().availableProcessors(), 16);
+        while (stripeCount < processors) {
+            stripeCount <<= 1;
+        }
+        STRIPE_COUNT = stripeCount;
+    }
+
+    // Shared by all instances, so that recorders do not each hold a ThreadLocal entry per thread
+    private static final ThreadLocal<int[]> threadProbe = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            long id = Thread.currentThread().getId();
+            int probe = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+            return new int[] { probe == 0 ? 1 : probe };
+        }
+    };
+
+    private final Stripe[] stripes;
+
+    public StableDistributionDataRecorder() {
+        stripes = new Stripe[STRIPE_COUNT];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    @Override
+    public Set<String> getSupportedFieldNames() {
+        return SUPPORTED_FIELD_NAMES;
+    }
+
+    @Override
+    public void update(final StatsSession session,
+                       final Tracker tracker,
+                       final long now) {
+        final double value = tracker.getValue();
+        final int[] probe = threadProbe.get();
+        final int mask = stripes.length - 1;
+
+        Stripe stripe = stripes[probe[0] & mask];
+        if (!stripe.tryLock()) {
+            // Contended, so move this thread to another stripe for subsequent updates
+            rehash(probe);
+            stripe = stripes[probe[0] & mask];
+            stripe.lock();
+        }
+
+        try {
+            stripe.moments.add(value);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    private static void rehash(final int[] probe) {
+        int p = probe[0];
+        p ^= p << 13;
+        p ^= p >>> 17;
+        p ^= p << 5;
+        probe[0] = p;
+    }
+
+    /**
+     * Obtain the combined moments of all stripes.
+     */
+    protected Moments getMoments() {
+        final Moments result = new Moments();
+
+        for (Stripe stripe : stripes) {
+            stripe.lock();
+            try {
+                result.add(stripe.moments);
+            } finally {
+                stripe.unlock();
+            }
+        }
+
+        return result;
+    }
+
+    private void add(final Moments moments) {
+        final Stripe stripe = stripes[0];
+        stripe.lock();
+        try {
+            stripe.moments.add(moments);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public Object getField(final StatsSession session,
+                           final String name) {
+        return getField(session, getFieldIndex(name));
+    }
+
+    @Override
+    public int getFieldIndex(final String name) {
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            if (FIELD_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public Object getField(final StatsSession session,
+                           final int index) {
+        if (index < 0 || index >= FIELD_NAMES.length) {
+            return null;
+        }
+
+        final Moments moments = getMoments();
+
+        switch (index) {
+            case ARITHMETIC_MEAN: return moments.getArithmeticMean();
+            case GEOMETRIC_MEAN: return moments.getGeometricMean();
+            case HARMONIC_MEAN: return moments.getHarmonicMean();
+            case QUADRATIC_MEAN: return moments.getQuadraticMean();
+            case STANDARD_DEVIATION: return moments.getStandardDeviation();
+            case VARIANCE: return moments.getVariance();
+            case COUNT: return moments.count;
+            case SUM_OF_SQUARED_DEVIATIONS: return moments.sumOfSquaredDeviations;
+            case LOG_COUNT: return moments.logCount;
+            case SUM_OF_LOGS: return moments.sumOfLogs;
+            case SUM_OF_INVERSES: return moments.sumOfInverses;
+            default: return null;
+        }
+    }
+
+    @Override
+    public double getDoubleField(final StatsSession session,
+                                 final int index) {
+        if (index < 0 || index >= FIELD_NAMES.length) {
+            return Double.NaN;
+        }
+
+        final Moments moments = getMoments();
+
+        switch (index) {
+            case ARITHMETIC_MEAN: return moments.getArithmeticMean();
+            case GEOMETRIC_MEAN: return moments.getGeometricMean();
+            case HARMONIC_MEAN: return moments.getHarmonicMean();
+            case QUADRATIC_MEAN: return moments.getQuadraticMean();
+            case STANDARD_DEVIATION: return moments.getStandardDeviation();
+            case VARIANCE: return moments.getVariance();
+            case COUNT: return moments.count;
+            case SUM_OF_SQUARED_DEVIATIONS: return moments.sumOfSquaredDeviations;
+            case LOG_COUNT: return moments.logCount;
+            case SUM_OF_LOGS: return moments.sumOfLogs;
+            case SUM_OF_INVERSES: return moments.sumOfInverses;
+            default: return Double.NaN;
+        }
+    }
+
+    @Override
+    public void collectData(final StatsSession session, final DataSet dataSet) {
+        final Moments moments = getMoments();
+
+        dataSet.setDoubleField(Field.ARITHMETIC_MEAN, moments.getArithmeticMean());
+        dataSet.setDoubleField(Field.GEOMETRIC_MEAN, moments.getGeometricMean());
+        dataSet.setDoubleField(Field.HARMONIC_MEAN, moments.getHarmonicMean());
+        dataSet.setDoubleField(Field.QUADRATIC_MEAN, moments.getQuadraticMean());
+        dataSet.setDoubleField(Field.STANDARD_DEVIATION, moments.getStandardDeviation());
+        dataSet.setDoubleField(Field.VARIANCE, moments.getVariance());
+
+        dataSet.setLongField(Field.COUNT, moments.count);
+        dataSet.setDoubleField(Field.SUM_OF_SQUARED_DEVIATIONS, moments.sumOfSquaredDeviations);
+        dataSet.setLongField(Field.LOG_COUNT, moments.logCount);
+        dataSet.setDoubleField(Field.SUM_OF_LOGS, moments.sumOfLogs);
+        dataSet.setDoubleField(Field.SUM_OF_INVERSES, moments.sumOfInverses);
+    }
+
+    @Override
+    public void restore(final DataSet dataSet) {
+        final Long count = dataSet.getField(Field.COUNT, Long.class);
+        final Double mean = dataSet.getField(Field.ARITHMETIC_MEAN, Double.class);
+        final Double sumOfSquaredDeviations = dataSet.getField(Field.SUM_OF_SQUARED_DEVIATIONS, Double.class);
+        final Long logCount = dataSet.getField(Field.LOG_COUNT, Long.class);
+        final Double sumOfLogs = dataSet.getField(Field.SUM_OF_LOGS, Double.class);
+        final Double sumOfInverses = dataSet.getField(Field.SUM_OF_INVERSES, Double.class);
+
+        if (count == null || mean == null || sumOfSquaredDeviations == null ||
+                logCount == null || sumOfLogs == null || sumOfInverses == null) {
+            logger.warn("Dropping restore() call due to partial field data");
+            return;
+        }
+
+        final Moments moments = new Moments();
+        moments.count = count;
+        moments.mean = mean;
+        moments.sumOfSquaredDeviations = sumOfSquaredDeviations;
+        moments.logCount = logCount;
+        moments.sumOfLogs = sumOfLogs;
+        moments.sumOfInverses = sumOfInverses;
+
+        clear();
+        add(moments);
+    }
+
+    @Override
+    public void merge(final DataRecorder other) {
+        if (!(other instanceof StableDistributionDataRecorder)) {
+            throw new IllegalArgumentException("Cannot merge " + other + " into " + this);
+        }
+
+        add(((StableDistributionDataRecorder) other).getMoments());
+    }
+
+    @Override
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.lock();
+            try {
+                stripe.moments.clear();
+            } finally {
+                stripe.unlock();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+
+    /* NESTED CLASSES */
+
+    public static interface Field {
+        public static final String ARITHMETIC_MEAN = DistributionDataRecorder.Field.ARITHMETIC_MEAN;
+        public static final String GEOMETRIC_MEAN = DistributionDataRecorder.Field.GEOMETRIC_MEAN;
+        public static final String HARMONIC_MEAN = DistributionDataRecorder.Field.HARMONIC_MEAN;
+        public static final String QUADRATIC_MEAN = DistributionDataRecorder.Field.QUADRATIC_MEAN;
+        public static final String STANDARD_DEVIATION = DistributionDataRecorder.Field.STANDARD_DEVIATION;
+        public static final String VARIANCE = "variance";
+
+        public static final String COUNT = "momentCount";
+        public static final String SUM_OF_SQUARED_DEVIATIONS = "sumOfSquaredDeviations";
+        public static final String LOG_COUNT = "logCount";
+        public static final String SUM_OF_LOGS = "sumOfLogs";
+        public static final String SUM_OF_INVERSES = DistributionDataRecorder.Field.SUM_OF_INVERSES;
+    }
+
+    /**
+     * Partial moments guarded by their own lock.
+     */
+    private static final class Stripe extends ReentrantLock {
+
+        private static final long serialVersionUID = 1L;
+
+        final Moments moments = new Moments();
+    }
+
+    /**
+     * Streaming moments of a set of values. Not thread safe.
+     */
+    protected static final class Moments implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private long count = 0;
+        private double mean = 0;
+        private double sumOfSquaredDeviations = 0;
+
+        private long logCount = 0;
+        private double sumOfLogs = 0;
+
+        private double sumOfInverses = 0;
+
+        void add(final double value) {
+            // Welford's algorithm
+            count++;
+            final double delta = value - mean;
+            mean += delta / count;
+            sumOfSquaredDeviations += delta * (value - mean);
+
+            if (value > 0) {
+                logCount++;
+                sumOfLogs += Math.log(value);
+            }
+
+            sumOfInverses += 1 / value;
+        }
+
+        void add(final Moments other) {
+            if (other.count == 0) {
+                return;
+            }
+
+            // Chan et al.'s parallel algorithm
+            final long combinedCount = count + other.count;
+            final double delta = other.mean - mean;
+
+            mean += delta * other.count / combinedCount;
+            sumOfSquaredDeviations += other.sumOfSquaredDeviations +
+                                      delta * delta * ((double) count * other.count / combinedCount);
+            count = combinedCount;
+
+            logCount += other.logCount;
+            sumOfLogs += other.sumOfLogs;
+
+            sumOfInverses += other.sumOfInverses;
+        }
+
+        void clear() {
+            count = 0;
+            mean = 0;
+            sumOfSquaredDeviations = 0;
+            logCount = 0;
+            sumOfLogs = 0;
+            sumOfInverses = 0;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getArithmeticMean() {
+            return mean;
+        }
+
+        public double getGeometricMean() {
+            if (logCount == 0) {
+                return 0.0;
+            }
+            return Math.exp(sumOfLogs / logCount);
+        }
+
+        public double getHarmonicMean() {
+            if (count == 0 || sumOfInverses <= 0) {
+                return 0.0;
+            }
+            return count / sumOfInverses;
+        }
+
+        public double getQuadraticMean() {
+            if (count == 0) {
+                return 0.0;
+            }
+            return Math.sqrt(sumOfSquaredDeviations / count + mean * mean);
+        }
+
+        /**
+         * @return The sample variance.
+         */
+        public double getVariance() {
+            if (count == 0) {
+                return 0.0;
+            }
+            final double nMinus1 = (count <= 1) ? 1 : count - 1;
+            return sumOfSquaredDeviations / nMinus1;
+        }
+
+        public double getStandardDeviation() {
+            return Math.sqrt(getVariance());
+        }
+    }
+}
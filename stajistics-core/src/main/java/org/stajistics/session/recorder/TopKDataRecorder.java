@@ -0,0 +1,615 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+import static org.stajistics.Util.assertNotNull;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.stajistics.data.DataSet;
+import org.stajistics.session.StatsSession;
+import org.stajistics.tracker.Tracker;
+import org.stajistics.util.Misc;
+import org.stajistics.util.ThreadSafe;
+
+/**
+ * <p>Counts the most frequent values of an attribute, such as users or request URIs, using
+ * the Space-Saving algorithm. At most <tt>capacity</tt> values are counted at any time, so a
+ * single session carrying this recorder replaces one session per distinct attribute value
+ * and its memory use is bounded regardless of the number of distinct values.</p>
+ *
+ * <p>Attribute values are not carried by {@link Tracker}s, so they are supplied through
+ * {@link #offer(String)}, or {@link #offer(StatsSession, String)} when only the session is
+ * at hand. {@link #update(StatsSession, Tracker, long)} does nothing. For example:</p>
+ *
+ * <pre>
+ * StatsKey key = statsFactory.buildKey("search")
+ *                            .withAttribute(TopKDataRecorder.KEY_ATTR_TOP_K, "user")
+ *                            .newKey();
+ * statsFactory.buildConfig()
+ *             .withDataRecorderFactory(new TopKDataRecorder.Factory(50))
+ *             .setConfigFor(key);
+ * ...
+ * TopKDataRecorder.offer(statsFactory.getManager().getSessionManager().getOrCreateSession(key), user);
+ * </pre>
+ *
+ * <p>A value that is already counted is incremented without locking. A value that is not
+ * counted replaces the value with the lowest count under a lock, inheriting that count as
+ * its possible overestimation, which is published as the {@link Entry#getError() error}.
+ * The counted values are kept in a min-heap, so finding the value to replace takes
+ * <tt>O(log capacity)</tt> time. Because increments do not lock, the heap is ordered by the
+ * counts as of the last time each value was repositioned, and the root is repositioned
+ * whenever its count has grown by the time it would be replaced. Every value whose true count
+ * exceeds <tt>total / capacity</tt> is guaranteed to be counted. An increment that races with
+ * the replacement of its value is offered again rather than lost, although it may then also be
+ * included in the count inherited by the replacing value.</p>
+ *
+ * @author The Stajistics Project
+ */
+@ThreadSafe
+public class TopKDataRecorder implements IndexedFieldDataRecorder {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = LoggerFactory.getLogger(TopKDataRecorder.class);
+
+    public static final int DEFAULT_CAPACITY = 100;
+
+    /**
+     * A conventional {@link org.stajistics.StatsKey} attribute name for keys whose sessions
+     * carry a {@link TopKDataRecorder}. The attribute value names the counted attribute.
+     */
+    public static final String KEY_ATTR_TOP_K = "topK";
+
+    private static final Set<String> SUPPORTED_FIELD_NAMES =
+        Collections.unmodifiableSet(Misc.getStaticFieldValues(Field.class, String.class));
+
+    // Field indices, in the order of FIELD_NAMES
+    private static final int TOP_K = 0;
+    private static final int TOP_K_TOTAL = 1;
+
+    private static final String[] FIELD_NAMES = {
+        Field.TOP_K,
+        Field.TOP_K_TOTAL
+    };
+
+    private final int capacity;
+
+    private final ConcurrentMap<String,Counter> counters;
+    private final AtomicLong total = new AtomicLong();
+
+    private final Lock replaceLock = new ReentrantLock();
+
+    // A min-heap of the counters by heapCount, guarded by replaceLock
+    private final Counter[] heap;
+    private int heapSize = 0;
+
+    public TopKDataRecorder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The maximum number of values to count.
+     * @throws IllegalArgumentException If <tt>capacity</tt> is less than 1.
+     */
+    public TopKDataRecorder(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+
+        this.capacity = capacity;
+
+        counters = new ConcurrentHashMap<String,Counter>(capacity * 2);
+        heap = new Counter[capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Offer the first {@link TopKDataRecorder} of the given <tt>session</tt> one occurrence
+     * of <tt>item</tt>.
+     *
+     * @param session The session carrying the recorder.
+     * @param item The attribute value.
+     * @return <tt>true</tt> if the session carries a {@link TopKDataRecorder},
+     *         <tt>false</tt> otherwise.
+     */
+    public static boolean offer(final StatsSession session,
+                                final String item) {
+        for (DataRecorder dataRecorder : session.getDataRecorders()) {
+            if (dataRecorder instanceof TopKDataRecorder) {
+                ((TopKDataRecorder) dataRecorder).offer(item);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Count one occurrence of <tt>item</tt>.
+     *
+     * @param item The attribute value.
+     */
+    public void offer(final String item) {
+        offer(item, 1);
+    }
+
+    /**
+     * Count <tt>weight</tt> occurrences of <tt>item</tt>.
+     *
+     * @param item The attribute value.
+     * @param weight The number of occurrences.
+     */
+    public void offer(final String item, final long weight) {
+        assertNotNull(item, "item");
+        if (weight < 1) {
+            return;
+        }
+
+        total.addAndGet(weight);
+
+        for (;;) {
+            Counter counter = counters.get(item);
+            if (counter == null) {
+                if (replace(item, weight)) {
+                    return;
+                }
+                continue;
+            }
+
+            counter.count.addAndGet(weight);
+
+            // The replacement marks the counter before reading its final count, so an
+            // increment that it did not see is offered again
+            if (!counter.evicted) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Count <tt>item</tt> in place of the counted value with the lowest count.
+     *
+     * @return <tt>false</tt> if <tt>item</tt> was counted by the time the lock was acquired,
+     *         in which case nothing was done.
+     */
+    private boolean replace(final String item, final long weight) {
+        replaceLock.lock();
+        try {
+            if (counters.containsKey(item)) {
+                return false;
+            }
+
+            if (heapSize < capacity) {
+                final Counter counter = new Counter(item, weight, 0);
+                counters.put(item, counter);
+                heap[heapSize] = counter;
+                siftUp(heapSize++);
+                return true;
+            }
+
+            Counter min = heap[0];
+            for (;;) {
+                final long count = min.count.get();
+                if (count == min.heapCount) {
+                    break;
+                }
+                // Incremented since it was last positioned
+                min.heapCount = count;
+                siftDown(0);
+                min = heap[0];
+            }
+
+            counters.remove(min.item);
+            min.evicted = true;
+            final long minCount = min.count.get();
+
+            final Counter counter = new Counter(item, minCount + weight, minCount);
+            counters.put(item, counter);
+            heap[0] = counter;
+            siftDown(0);
+
+            return true;
+
+        } finally {
+            replaceLock.unlock();
+        }
+    }
+
+    private void siftUp(int index) {
+        final Counter counter = heap[index];
+        while (index > 0) {
+            final int parent = (index - 1) >>> 1;
+            if (heap[parent].heapCount <= counter.heapCount) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = counter;
+    }
+
+    private void siftDown(int index) {
+        final Counter counter = heap[index];
+        final int half = heapSize >>> 1;
+        while (index < half) {
+            int child = (index << 1) + 1;
+            final int right = child + 1;
+            if (right < heapSize && heap[right].heapCount < heap[child].heapCount) {
+                child = right;
+            }
+            if (counter.heapCount <= heap[child].heapCount) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = counter;
+    }
+
+    private void clearHeap() {
+        counters.clear();
+        Arrays.fill(heap, 0, heapSize, null);
+        heapSize = 0;
+    }
+
+    /**
+     * Obtain a snapshot of the counted values, ordered by descending count.
+     *
+     * @return A {@link TopK}, never <tt>null</tt>.
+     */
+    public TopK getTopK() {
+        List<Entry> entries = new ArrayList<Entry>(counters.size());
+        for (Map.Entry<String,Counter> entry : counters.entrySet()) {
+            Counter counter = entry.getValue();
+            entries.add(new Entry(entry.getKey(), counter.count.get(), counter.error));
+        }
+
+        return new TopK(total.get(), entries);
+    }
+
+    /**
+     * @return The total number of occurrences offered.
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+    @Override
+    public Set<String> getSupportedFieldNames() {
+        return SUPPORTED_FIELD_NAMES;
+    }
+
+    @Override
+    public void update(final StatsSession session,
+                       final Tracker tracker,
+                       final long now) {}
+
+    @Override
+    public Object getField(final StatsSession session,
+                           final String name) {
+        return getField(session, getFieldIndex(name));
+    }
+
+    @Override
+    public int getFieldIndex(final String name) {
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            if (FIELD_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public Object getField(final StatsSession session,
+                           final int index) {
+        switch (index) {
+            case TOP_K: return getTopK();
+            case TOP_K_TOTAL: return getTotal();
+            default: return null;
+        }
+    }
+
+    @Override
+    public double getDoubleField(final StatsSession session,
+                                 final int index) {
+        switch (index) {
+            case TOP_K_TOTAL: return getTotal();
+            default: return Double.NaN;
+        }
+    }
+
+    @Override
+    public void collectData(final StatsSession session, final DataSet dataSet) {
+        TopK topK = getTopK();
+
+        dataSet.setField(Field.TOP_K, topK);
+        dataSet.setLongField(Field.TOP_K_TOTAL, topK.getTotal());
+    }
+
+    @Override
+    public void restore(final DataSet dataSet) {
+        Object value = dataSet.getField(Field.TOP_K);
+        if (!(value instanceof TopK)) {
+            logger.warn("Dropping restore() call due to missing field data: {}", Field.TOP_K);
+            return;
+        }
+
+        TopK topK = (TopK) value;
+
+        replaceLock.lock();
+        try {
+            clearHeap();
+            for (Entry entry : topK.getEntries()) {
+                if (heapSize == capacity) {
+                    break;
+                }
+                final Counter counter = new Counter(entry.getItem(), entry.getCount(), entry.getError());
+                counters.put(entry.getItem(), counter);
+                heap[heapSize] = counter;
+                siftUp(heapSize++);
+            }
+            total.set(topK.getTotal());
+        } finally {
+            replaceLock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        replaceLock.lock();
+        try {
+            clearHeap();
+            total.set(0);
+        } finally {
+            replaceLock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[capacity=" + capacity + ']';
+    }
+
+    /* NESTED CLASSES */
+
+    public static interface Field {
+        public static final String TOP_K = "topK";
+        public static final String TOP_K_TOTAL = "topKTotal";
+    }
+
+    private static final class Counter implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final String item;
+        final AtomicLong count;
+        final long error;
+
+        // The count by which the counter is positioned in the heap, guarded by replaceLock
+        long heapCount;
+
+        volatile boolean evicted = false;
+
+        Counter(final String item, final long count, final long error) {
+            this.item = item;
+            this.count = new AtomicLong(count);
+            this.error = error;
+            heapCount = count;
+        }
+    }
+
+    /**
+     * A counted attribute value.
+     */
+    public static final class Entry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String item;
+        private final long count;
+        private final long error;
+
+        public Entry(final String item,
+                     final long count,
+                     final long error) {
+            assertNotNull(item, "item");
+
+            this.item = item;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getItem() {
+            return item;
+        }
+
+        /**
+         * @return The estimated number of occurrences since the value was last counted, which
+         *         may exceed the true number by up to {@link #getError()}. Occurrences offered
+         *         concurrently with a {@link TopKDataRecorder#clear()} or
+         *         {@link TopKDataRecorder#restore(DataSet)} may be missing.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return The maximum amount by which {@link #getCount()} may overestimate.
+         */
+        public long getError() {
+            return error;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Entry)) {
+                return false;
+            }
+
+            Entry other = (Entry) obj;
+
+            return item.equals(other.item) &&
+                   count == other.count &&
+                   error == other.error;
+        }
+
+        @Override
+        public int hashCode() {
+            return item.hashCode() ^ (int) (count ^ (count >>> 32));
+        }
+
+        @Override
+        public String toString() {
+            return item + '=' + count + (error == 0 ? "" : "(-" + error + ')');
+        }
+    }
+
+    /**
+     * An immutable snapshot of the counted attribute values, ordered by descending count.
+     */
+    public static final class TopK implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final Comparator<Entry> DESCENDING_COUNT = new DescendingCountComparator();
+
+        private final long total;
+        private final Entry[] entries;
+
+        public TopK(final long total, final List<Entry> entries) {
+            this.total = total;
+            this.entries = entries.toArray(new Entry[entries.size()]);
+
+            Arrays.sort(this.entries, DESCENDING_COUNT);
+        }
+
+        /**
+         * @return The total number of occurrences offered, including those of values no longer counted.
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * @return An unmodifiable list of entries ordered by descending count.
+         */
+        public List<Entry> getEntries() {
+            return Collections.unmodifiableList(Arrays.asList(entries));
+        }
+
+        /**
+         * @param k The maximum number of entries to return.
+         * @return An unmodifiable list of the <tt>k</tt> entries with the highest counts.
+         */
+        public List<Entry> getTop(final int k) {
+            return getEntries().subList(0, Math.min(k, entries.length));
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof TopK)) {
+                return false;
+            }
+
+            TopK other = (TopK) obj;
+
+            return total == other.total &&
+                   Arrays.equals(entries, other.entries);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (total ^ (total >>> 32)) ^ Arrays.hashCode(entries);
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(entries);
+        }
+    }
+
+    private static final class DescendingCountComparator implements Comparator<Entry>, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public int compare(final Entry e1, final Entry e2) {
+            if (e1.count != e2.count) {
+                return e1.count > e2.count ? -1 : 1;
+            }
+            return e1.item.compareTo(e2.item);
+        }
+    }
+
+    /**
+     * Creates the default {@link DataRecorder}s along with a {@link TopKDataRecorder}.
+     */
+    public static class Factory implements DataRecorderFactory {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        public Factory() {
+            this(DEFAULT_CAPACITY);
+        }
+
+        public Factory(final int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("capacity must be positive: " + capacity);
+            }
+
+            this.capacity = capacity;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        @Override
+        public DataRecorder[] createDataRecorders() {
+            DataRecorder[] defaults = DefaultDataRecorderFactory.getInstance().createDataRecorders();
+            DataRecorder[] result = Arrays.copyOf(defaults, defaults.length + 1);
+            result[defaults.length] = new TopKDataRecorder(capacity);
+            return result;
+        }
+    }
+}
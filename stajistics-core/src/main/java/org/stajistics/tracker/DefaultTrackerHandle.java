@@ -0,0 +1,312 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.tracker;
+
+import static org.stajistics.Util.assertNotNull;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.stajistics.StatsEnablement;
+import org.stajistics.StatsKey;
+import org.stajistics.StatsKeyMatcher;
+import org.stajistics.StatsManager;
+import org.stajistics.configuration.StatsConfig;
+import org.stajistics.event.EventHandler;
+import org.stajistics.event.EventType;
+import org.stajistics.session.StatsSession;
+import org.stajistics.session.StatsSessionManager;
+import org.stajistics.util.ThreadSafe;
+
+/**
+ * The default {@link TrackerHandle} implementation. The {@link StatsConfig} and
+ * {@link StatsSession} of the key are looked up on the first call to {@link #getTracker()}
+ * and kept until a {@link EventType#CONFIG_CHANGED}, {@link EventType#CONFIG_DESTROYED}
+ * or {@link EventType#SESSION_DESTROYED} event is fired for the key. In between, obtaining
+ * a tracker costs only the {@link TrackerFactory#createTracker(StatsKey, StatsSessionManager)}
+ * call itself, which is handed a session manager that already knows the session of the key.
+ * The session is still looked up in the session manager about once a second, so that a
+ * session manager that evicts idle sessions does not consider it unused. A handle that
+ * is no longer needed should be {@link #release() released}, as the event handler it
+ * registers for the key keeps it reachable.
+ *
+ * @param <T> The type of Tracker returned by the handle.
+ *
+ * @author The Stajistics Project
+ */
+@ThreadSafe
+public class DefaultTrackerHandle<T extends Tracker> implements TrackerHandle<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(DefaultTrackerHandle.class);
+
+    private final StatsManager statsManager;
+    private final StatsEnablement enablement;
+    private final Class<T> trackerType;
+    private final StatsKey key;
+    private final EventHandler eventHandler;
+
+    private final AtomicReference<Resolution> resolution = new AtomicReference<Resolution>();
+    private final AtomicInteger invalidations = new AtomicInteger();
+    private volatile boolean released = false;
+
+    public DefaultTrackerHandle(final StatsManager statsManager,
+                                final Class<T> trackerType,
+                                final StatsKey key) {
+        assertNotNull(statsManager, "statsManager");
+        assertNotNull(trackerType, "trackerType");
+        assertNotNull(key, "key");
+
+        this.statsManager = statsManager;
+        this.enablement = statsManager.getEnablement();
+        this.trackerType = trackerType;
+        this.key = key;
+
+        eventHandler = new EventHandler() {
+            @Override
+            public void handleStatsEvent(final EventType eventType,
+                                         final StatsKey key,
+                                         final Object target) {
+                switch (eventType) {
+                    case CONFIG_CHANGED:
+                    case CONFIG_DESTROYED:
+                    case SESSION_DESTROYED:
+                        invalidate();
+                }
+            }
+        };
+
+        statsManager.getEventManager().addEventHandler(key, eventHandler);
+    }
+
+    @Override
+    public StatsKey getKey() {
+        return key;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T getTracker() {
+        Tracker result = null;
+
+        try {
+            if (enablement.isEnabled(key.getName())) {
+                Resolution r = resolution.get();
+                if (r == null) {
+                    r = resolve();
+                }
+
+                if (r.trackerFactory != null) {
+                    result = r.trackerFactory.createTracker(key, r.sessionManager);
+                }
+            }
+
+        } catch (Exception e) {
+            logger.error("Failed to obtain a " + trackerType.getSimpleName(), e);
+            statsManager.getUncaughtExceptionHandler()
+                        .uncaughtException(key, e);
+        }
+
+        if (result == null) {
+            result = NullTracker.getInstance();
+        }
+
+        return (T) result;
+    }
+
+    private Resolution resolve() {
+        final int invalidationCount = invalidations.get();
+
+        final StatsConfig config = statsManager.getConfigManager().getOrCreateConfig(key);
+        final StatsSessionManager sessionManager = statsManager.getSessionManager();
+
+        Resolution r;
+        if (!config.isEnabled()) {
+            r = new Resolution(null, null);
+
+        } else {
+            final StatsSession session = sessionManager.getOrCreateSession(key);
+
+            // A session manager may answer with a session of some other key, such as an
+            // overflow key. Its destruction would not be reported for our key, so don't bind it.
+            if (key.equals(session.getKey())) {
+                r = new Resolution(config.getTrackerFactory(),
+                                   new ResolvedSessionManager(sessionManager, key, session));
+            } else {
+                r = new Resolution(config.getTrackerFactory(), sessionManager);
+            }
+        }
+
+        // Don't keep a resolution that may have been invalidated while it was being resolved,
+        // nor any resolution once released, as nothing would invalidate it anymore
+        if (!released && resolution.compareAndSet(null, r) && invalidations.get() != invalidationCount) {
+            resolution.compareAndSet(r, null);
+        }
+
+        return r;
+    }
+
+    @Override
+    public void invalidate() {
+        invalidations.incrementAndGet();
+        resolution.set(null);
+    }
+
+    @Override
+    public void release() {
+        released = true;
+        statsManager.getEventManager().removeEventHandler(key, eventHandler);
+        invalidate();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() +
+               "[key=" + key + ",trackerType=" + trackerType.getSimpleName() + ']';
+    }
+
+    /* NESTED CLASSES */
+
+    private static final class Resolution {
+
+        final TrackerFactory<?> trackerFactory;
+        final StatsSessionManager sessionManager;
+
+        Resolution(final TrackerFactory<?> trackerFactory,
+                   final StatsSessionManager sessionManager) {
+            this.trackerFactory = trackerFactory;
+            this.sessionManager = sessionManager;
+        }
+    }
+
+    /**
+     * A {@link StatsSessionManager} that answers session lookups for a single key with
+     * an already resolved session, and delegates everything else.
+     */
+    private static final class ResolvedSessionManager implements StatsSessionManager {
+
+        // How often the bound session is looked up in the delegate anyway, so that a
+        // delegate that evicts idle sessions sees that the session is still in use
+        private static final long ACCESS_REFRESH_MILLIS = 1000;
+
+        private final StatsSessionManager delegate;
+        private final StatsKey key;
+        private final StatsSession session;
+
+        private volatile long nextAccessRefresh;
+
+        ResolvedSessionManager(final StatsSessionManager delegate,
+                               final StatsKey key,
+                               final StatsSession session) {
+            this.delegate = delegate;
+            this.key = key;
+            this.session = session;
+        }
+
+        @Override
+        public StatsSession getSession(final StatsKey key) {
+            if (key == this.key) {
+                return session;
+            }
+            return delegate.getSession(key);
+        }
+
+        @Override
+        public StatsSession getOrCreateSession(final StatsKey key) {
+            if (key == this.key) {
+                final long now = System.currentTimeMillis();
+                if (now >= nextAccessRefresh) {
+                    nextAccessRefresh = now + ACCESS_REFRESH_MILLIS;
+                    return delegate.getOrCreateSession(key);
+                }
+                return session;
+            }
+            return delegate.getOrCreateSession(key);
+        }
+
+        @Override
+        public int getSessionCount() {
+            return delegate.getSessionCount();
+        }
+
+        @Override
+        public Set<StatsKey> getKeys() {
+            return delegate.getKeys();
+        }
+
+        @Override
+        public Set<StatsKey> getKeys(final StatsKeyMatcher keyMatcher) {
+            return delegate.getKeys(keyMatcher);
+        }
+
+        @Override
+        public Collection<StatsSession> getSessions() {
+            return delegate.getSessions();
+        }
+
+        @Override
+        public Collection<StatsSession> getSessions(final StatsKeyMatcher keyMatcher) {
+            return delegate.getSessions(keyMatcher);
+        }
+
+        @Override
+        public StatsSession remove(final StatsKey key) {
+            return delegate.remove(key);
+        }
+
+        @Override
+        public boolean remove(final StatsSession session) {
+            return delegate.remove(session);
+        }
+
+        @Override
+        public long getEvictionCount() {
+            return delegate.getEvictionCount();
+        }
+
+        @Override
+        public long getOverflowCount() {
+            return delegate.getOverflowCount();
+        }
+
+        @Override
+        public void clear() {
+            delegate.clear();
+        }
+
+        @Override
+        public void clearAllSessions() {
+            delegate.clearAllSessions();
+        }
+
+        @Override
+        public void initialize() {
+            delegate.initialize();
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public boolean isRunning() {
+            return delegate.isRunning();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.tracker;
+
+import org.stajistics.StatsKey;
+
+/**
+ * A handle bound to a single {@link StatsKey} from which {@link Tracker}s can be
+ * obtained repeatedly without resolving the key's configuration and session on every call.
+ * Handles are intended to be obtained once and kept, for example in a <tt>static final</tt>
+ * field of the class being measured.
+ *
+ * @param <T> The type of Tracker returned by the handle.
+ *
+ * @see org.stajistics.StatsFactory#getSpanTrackerHandle(StatsKey)
+ *
+ * @author The Stajistics Project
+ */
+public interface TrackerHandle<T extends Tracker> {
+
+    /**
+     * Obtain the key to which this handle is bound.
+     *
+     * @return The {@link StatsKey}, never <tt>null</tt>.
+     */
+    StatsKey getKey();
+
+    /**
+     * Obtain a Tracker for the key of this handle. The tracker is created by the
+     * {@link TrackerFactory} of the key's current configuration, exactly as it would be
+     * through the {@link org.stajistics.StatsFactory}.
+     *
+     * @return A Tracker instance, or a {@link NullTracker} if statistics collection is
+     *         disabled or an Exception occurred, never <tt>null</tt>.
+     */
+    T getTracker();
+
+    /**
+     * Discard the resolved configuration and session so that they are resolved again
+     * on the next call to {@link #getTracker()}. This happens automatically when the
+     * configuration of the key changes or its session is destroyed.
+     */
+    void invalidate();
+
+    /**
+     * Stop listening for events of the key, so that a handle that is discarded does not
+     * stay reachable from the {@link org.stajistics.event.EventManager}. A released handle
+     * still returns trackers, but resolves the configuration and session on every call
+     * to {@link #getTracker()}.
+     */
+    void release();
+}
@@ -21,8 +21,9 @@ import java.util.LinkedList;
 import java.util.List;
 
 /**
- * 
- * 
+ * An immutable list of {@link Range}s. The boundaries of the ranges are indexed when the list
+ * is created, so that {@link #indexOfRangeContaining(double, int)} takes logarithmic time,
+ * or constant time where the boundaries are evenly spaced, rather than scanning every range.
  *
  * @author The Stajistics Project
  */
@@ -37,6 +38,22 @@ public class RangeList implements Iterable<Range>,Serializable {
     private final double minBegin;
     private final double maxEnd;
 
+    // The distinct range boundaries in ascending order. A value falls into one of the
+    // 2 * points.length + 1 slots: slot 2k + 1 is exactly points[k], slot 2k + 2 lies
+    // strictly between points[k] and points[k + 1], and slots 0 and 2 * points.length
+    // lie below and above all points.
+    private final double[] points;
+
+    // Where no slot is covered by more than one range, the index of the range covering
+    // each slot, or -1. Otherwise the ascending indices of the ranges covering each slot.
+    private final int[] slotRange;
+    private final int[][] slotRanges;
+
+    // Set if the finite points from uniformFrom to uniformTo are evenly spaced
+    private final int uniformFrom;
+    private final int uniformTo;
+    private final double uniformWidth;
+
     public RangeList(final List<Range> ranges) {
         this(ranges, Range.DEFAULT_EXCLUSIVE_RANGE_END);
     }
@@ -50,6 +67,37 @@ public class RangeList implements Iterable<Range>,Serializable {
         this.hasOverlap = calcHasOverlap();
         this.minBegin = calcMinBegin();
         this.maxEnd = calcMaxEnd();
+
+        this.points = calcPoints();
+
+        final int[][] slotRanges = calcSlotRanges();
+        final int[] slotRange = toSingleSlotRange(slotRanges);
+        if (slotRange != null) {
+            this.slotRange = slotRange;
+            this.slotRanges = null;
+        } else {
+            this.slotRange = null;
+            this.slotRanges = slotRanges;
+        }
+
+        int from = 0;
+        int to = points.length - 1;
+        while (from <= to && Double.isInfinite(points[from])) {
+            from++;
+        }
+        while (to >= from && Double.isInfinite(points[to])) {
+            to--;
+        }
+
+        if (to - from >= 2 && isEvenlySpaced(from, to)) {
+            this.uniformFrom = from;
+            this.uniformTo = to;
+            this.uniformWidth = (points[to] - points[from]) / (to - from);
+        } else {
+            this.uniformFrom = -1;
+            this.uniformTo = -1;
+            this.uniformWidth = 0;
+        }
     }
 
     public static Builder build() {
@@ -103,6 +151,127 @@ public class RangeList implements Iterable<Range>,Serializable {
         return max;
     }
 
+    private double[] calcPoints() {
+        double[] result = new double[ranges.length * 2];
+        for (int i = 0; i < ranges.length; i++) {
+            result[i * 2] = ranges[i].getBegin();
+            result[i * 2 + 1] = ranges[i].getEnd();
+        }
+        Arrays.sort(result);
+
+        // Remove duplicates, also treating -0.0 and 0.0 as equal
+        int size = 0;
+        for (int i = 0; i < result.length; i++) {
+            if (size == 0 || result[i] != result[size - 1]) {
+                result[size++] = result[i];
+            }
+        }
+
+        return Arrays.copyOf(result, size);
+    }
+
+    private boolean slotContains(final int slot, final Range range) {
+        if ((slot & 1) == 1) {
+            return range.contains(points[slot >> 1], exclusiveRangeEnd);
+        }
+
+        // Strictly between two points; the slots below and above all points are never covered
+        final int k = (slot >> 1) - 1;
+        if (k < 0 || k >= points.length - 1) {
+            return false;
+        }
+
+        return range.getBegin() <= points[k] && range.getEnd() >= points[k + 1];
+    }
+
+    /**
+     * @return The single range index per slot, or <tt>null</tt> if any slot is covered by
+     *         more than one range.
+     */
+    private static int[] toSingleSlotRange(final int[][] slotRanges) {
+        final int[] result = new int[slotRanges.length];
+        for (int slot = 0; slot < slotRanges.length; slot++) {
+            switch (slotRanges[slot].length) {
+                case 0:
+                    result[slot] = -1;
+                    break;
+                case 1:
+                    result[slot] = slotRanges[slot][0];
+                    break;
+                default:
+                    return null;
+            }
+        }
+
+        return result;
+    }
+
+    private int[][] calcSlotRanges() {
+        final int[][] result = new int[points.length * 2 + 1][];
+        final int[] buffer = new int[ranges.length];
+        for (int slot = 0; slot < result.length; slot++) {
+            int size = 0;
+            for (int i = 0; i < ranges.length; i++) {
+                if (slotContains(slot, ranges[i])) {
+                    buffer[size++] = i;
+                }
+            }
+            result[slot] = Arrays.copyOf(buffer, size);
+        }
+
+        return result;
+    }
+
+    private boolean isEvenlySpaced(final int from, final int to) {
+        final double width = (points[to] - points[from]) / (to - from);
+        final double tolerance = width * 1e-9;
+
+        for (int k = from; k < to; k++) {
+            if (Math.abs((points[k + 1] - points[k]) - width) > tolerance) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Find the slot into which <tt>value</tt> falls, by direct index calculation for evenly
+     * spaced boundaries, or otherwise by binary search.
+     */
+    private int slotOf(final double value) {
+        if (uniformFrom >= 0 && value >= points[uniformFrom] && value < points[uniformTo]) {
+            int k = uniformFrom + (int) ((value - points[uniformFrom]) / uniformWidth);
+            if (k >= uniformTo) {
+                k = uniformTo - 1;
+            }
+            // Correct for rounding errors
+            while (value < points[k]) {
+                k--;
+            }
+            while (value >= points[k + 1]) {
+                k++;
+            }
+
+            return (value == points[k]) ? 2 * k + 1 : 2 * k + 2;
+        }
+
+        int low = 0;
+        int high = points.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final double point = points[mid];
+            if (point < value) {
+                low = mid + 1;
+            } else if (point > value) {
+                high = mid - 1;
+            } else {
+                return 2 * mid + 1;
+            }
+        }
+
+        return 2 * low;
+    }
 
     public boolean isExclusiveRangeEnd() {
         return exclusiveRangeEnd;
@@ -152,6 +321,31 @@ public class RangeList implements Iterable<Range>,Serializable {
             return -1;
         }
 
+        if (value != value) {
+            // NaN cannot be located among the boundaries
+            return indexOfRangeContainingLinear(value, fromIndex);
+        }
+
+        final int slot = slotOf(value);
+
+        if (slotRanges == null) {
+            final int index = slotRange[slot];
+            return (index >= fromIndex) ? index : -1;
+        }
+
+        final int[] indices = slotRanges[slot];
+        for (int i = 0; i < indices.length; i++) {
+            if (indices[i] >= fromIndex) {
+                return indices[i];
+            }
+        }
+
+        return -1;
+    }
+
+    private int indexOfRangeContainingLinear(final double value,
+                                             final int fromIndex) {
+        final int rangeCount = ranges.length;
         for (int i = fromIndex; i < rangeCount; i++) {
             if (ranges[i].contains(value, exclusiveRangeEnd)) {
                 return i;
@@ -182,14 +376,7 @@ public class RangeList implements Iterable<Range>,Serializable {
             return false;
         }
 
-        final int rangeCount = ranges.length;
-        for (int i = 0; i < rangeCount; i++) {
-            if (ranges[i].contains(value, exclusiveRangeEnd)) {
-                return true;
-            }
-        }
-
-        return false;
+        return indexOfRangeContaining(value, 0) != -1;
     }
 
     @Override
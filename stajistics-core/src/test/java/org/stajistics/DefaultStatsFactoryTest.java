@@ -14,6 +14,7 @@ import org.stajistics.bootstrap.StatsManagerFactory;
 import org.stajistics.configuration.StatsConfig;
 import org.stajistics.configuration.StatsConfigBuilder;
 import org.stajistics.configuration.StatsConfigBuilderFactory;
+import org.stajistics.tracker.NullTracker;
 import org.stajistics.tracker.incident.IncidentTracker;
 import org.stajistics.tracker.manual.ManualTracker;
 import org.stajistics.tracker.span.CompositeSpanTracker;
@@ -85,6 +86,27 @@ public class DefaultStatsFactoryTest extends AbstractStajisticsTestCase {
         assertSame(mockManager, factory.getManager());
     }
 
+    @Test
+    public void testDisabledKeyNameShortCircuits() {
+        mockManager.getEnablement().disable(mockKey.getName());
+
+        // No key or config expectations; creating either would fail
+        assertSame(NullTracker.getInstance(), factory.track(mockKey.getName()));
+        assertSame(NullTracker.getInstance(), factory.getSpanTracker(mockKey.getName() + ".child"));
+        assertSame(NullTracker.getInstance(), factory.getIncidentTracker(mockKey.getName()));
+        assertSame(NullTracker.getInstance(), factory.getManualTracker(mockKey.getName()));
+        factory.incident(mockKey.getName());
+        factory.failure(new Exception(), mockKey.getName());
+        factory.failure(new Exception(), mockKey);
+    }
+
+    @Test
+    public void testDisabledKeyShortCircuits() {
+        mockManager.getEnablement().disable(mockKey.getName());
+
+        assertSame(NullTracker.getInstance(), factory.track(mockKey));
+    }
+
     @Test
     public void testTrackWithKeyName() {
         final SpanTracker mockTracker = expectSpanTrackerConfiguration(mockKey, mockConfig);
@@ -16,6 +16,9 @@ package org.stajistics;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -72,4 +75,39 @@ public class DefaultStatsKeyFactoryTest extends AbstractStajisticsTestCase {
         assertEquals("<null>", key.getName());
     }
 
+    @Test
+    public void testKeysNotInternedByDefault() {
+        assertNull(((DefaultStatsKeyFactory)keyFactory).getKeyPool());
+        assertNotSame(keyFactory.createKey("test"), keyFactory.createKey("test"));
+    }
+
+    @Test
+    public void testCreateKeyInterned() {
+        keyFactory = new DefaultStatsKeyFactory(new StatsKeyPool());
+
+        assertSame(keyFactory.createKey("test"), keyFactory.createKey("test"));
+    }
+
+    @Test
+    public void testCreateKeyBuilderInterned() {
+        keyFactory = new DefaultStatsKeyFactory(new StatsKeyPool());
+
+        StatsKey key1 = keyFactory.createKeyBuilder("test")
+                                  .withAttribute("a", 1)
+                                  .withAttribute("b", "x")
+                                  .newKey();
+        StatsKey key2 = keyFactory.createKeyBuilder("test")
+                                  .withAttribute("a", 1)
+                                  .withAttribute("b", "x")
+                                  .newKey();
+        StatsKey key3 = keyFactory.createKeyBuilder("test")
+                                  .withAttribute("a", 2)
+                                  .withAttribute("b", "x")
+                                  .newKey();
+
+        assertSame(key1, key2);
+        assertNotSame(key1, key3);
+        assertSame(key1, key3.buildCopy().withAttribute("a", 1).newKey());
+    }
+
 }
@@ -0,0 +1,110 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author The Stajistics Project
+ */
+public class StatsEnablementTest extends AbstractStajisticsTestCase {
+
+    private StatsEnablement enablement;
+
+    @Before
+    public void setUp() {
+        enablement = new StatsEnablement();
+    }
+
+    @Test
+    public void testEnabledByDefault() {
+        assertTrue(enablement.isEnabled());
+        assertTrue(enablement.isEnabled("test"));
+        assertTrue(enablement.isEnabled(null));
+        assertEquals(Collections.emptyList(), enablement.getDisabledPrefixes());
+    }
+
+    @Test
+    public void testSetEnabled() {
+        enablement.setEnabled(false);
+
+        assertFalse(enablement.isEnabled());
+        assertFalse(enablement.isEnabled("test"));
+
+        enablement.setEnabled(true);
+
+        assertTrue(enablement.isEnabled());
+        assertTrue(enablement.isEnabled("test"));
+    }
+
+    @Test(expected=NullPointerException.class)
+    public void testDisableNullPrefix() {
+        enablement.disable(null);
+    }
+
+    @Test
+    public void testDisablePrefix() {
+        enablement.disable("db");
+
+        assertTrue(enablement.isEnabled());
+        assertFalse(enablement.isEnabled("db"));
+        assertFalse(enablement.isEnabled("db.query"));
+        assertTrue(enablement.isEnabled("dbx"));
+        assertTrue(enablement.isEnabled("d"));
+        assertTrue(enablement.isEnabled("web.db"));
+    }
+
+    @Test
+    public void testDisablePrefixTwice() {
+        enablement.disable("db");
+        enablement.disable("db");
+
+        assertEquals(Arrays.asList("db"), enablement.getDisabledPrefixes());
+    }
+
+    @Test
+    public void testEnablePrefix() {
+        enablement.disable("db");
+        enablement.disable("web");
+        enablement.enable("db");
+
+        assertTrue(enablement.isEnabled("db.query"));
+        assertFalse(enablement.isEnabled("web.request"));
+        assertEquals(Arrays.asList("web"), enablement.getDisabledPrefixes());
+    }
+
+    @Test
+    public void testPrefixesKeptWhileDisabled() {
+        enablement.disable("db");
+        enablement.setEnabled(false);
+        enablement.setEnabled(true);
+
+        assertFalse(enablement.isEnabled("db"));
+    }
+
+    @Test
+    public void testSerializable() {
+        enablement.disable("db");
+        StajisticsAssert.assertSerializable(enablement);
+    }
+}
@@ -0,0 +1,98 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author The Stajistics Project
+ */
+public class StatsKeyPoolTest extends AbstractStajisticsTestCase {
+
+    private StatsKeyFactory keyFactory;
+
+    @Before
+    public void setUp() {
+        keyFactory = new DefaultStatsKeyFactory(null);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testConstructWithNegativeMaxSize() {
+        new StatsKeyPool(-1);
+    }
+
+    @Test
+    public void testInternReturnsFirstInstance() {
+        StatsKeyPool pool = new StatsKeyPool();
+
+        StatsKey key1 = keyFactory.createKey("test");
+        StatsKey key2 = keyFactory.createKey("test");
+
+        assertSame(key1, pool.intern(key1));
+        assertSame(key1, pool.intern(key2));
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void testInternWhenFull() {
+        StatsKeyPool pool = new StatsKeyPool(1);
+
+        StatsKey key1 = keyFactory.createKey("test1");
+        StatsKey key2 = keyFactory.createKey("test2");
+
+        pool.intern(key1);
+
+        assertSame(key2, pool.intern(key2));
+        assertNotSame(key2, pool.intern(keyFactory.createKey("test2")));
+        assertSame(key1, pool.intern(keyFactory.createKey("test1")));
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void testUnreferencedKeysMakeRoom() throws Exception {
+        StatsKeyPool pool = new StatsKeyPool(1);
+
+        pool.intern(keyFactory.createKey("test1"));
+
+        StatsKey key2 = keyFactory.createKey("test2");
+        for (int i = 0; i < 50 && pool.intern(keyFactory.createKey("test2")) != key2; i++) {
+            System.gc();
+            Thread.sleep(10);
+            pool.intern(key2);
+        }
+
+        assertSame(key2, pool.intern(keyFactory.createKey("test2")));
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void testClear() {
+        StatsKeyPool pool = new StatsKeyPool();
+
+        StatsKey key1 = keyFactory.createKey("test");
+        pool.intern(key1);
+        pool.clear();
+
+        assertEquals(0, pool.size());
+
+        StatsKey key2 = keyFactory.createKey("test");
+        assertSame(key2, pool.intern(key2));
+    }
+}
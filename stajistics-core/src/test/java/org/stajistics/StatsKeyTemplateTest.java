@@ -0,0 +1,170 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.stajistics.bootstrap.DefaultStatsManagerFactory;
+import org.stajistics.session.StatsSession;
+import org.stajistics.tracker.TrackerHandle;
+import org.stajistics.tracker.span.SpanTracker;
+
+/**
+ * @author The Stajistics Project
+ */
+public class StatsKeyTemplateTest extends AbstractStajisticsTestCase {
+
+    private StatsManager statsManager;
+    private StatsFactory factory;
+    private StatsKey key;
+
+    @Before
+    public void setUp() {
+        statsManager = new DefaultStatsManagerFactory().createManager(StatsConstants.DEFAULT_NAMESPACE);
+        factory = new DefaultStatsFactory(statsManager);
+        key = factory.buildKey("test")
+                     .withAttribute("fixed", "f")
+                     .newKey();
+    }
+
+    @Test(expected=NullPointerException.class)
+    public void testConstructWithNullKey() {
+        new StatsKeyTemplate(factory, null, "attr");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testConstructWithNegativeMaxValues() {
+        new StatsKeyTemplate(factory, key, "attr", -1);
+    }
+
+    @Test
+    public void testWithValueEqualsBuiltKey() {
+        StatsKeyTemplate template = new StatsKeyTemplate(factory, key, "attr");
+
+        assertEquals(key.buildCopy().withAttribute("attr", "v").newKey(), template.withValue("v"));
+        assertEquals(key.buildCopy().withAttribute("attr", 1).newKey(), template.withValue(1));
+        assertEquals(key.buildCopy().withAttribute("attr", 1L).newKey(), template.withValue(1L));
+        assertEquals(key.buildCopy().withAttribute("attr", true).newKey(), template.withValue(true));
+    }
+
+    @Test
+    public void testWithValueCached() {
+        StatsKeyTemplate template = new StatsKeyTemplate(factory, key, "attr");
+
+        assertSame(template.withValue("v"), template.withValue("v"));
+        assertNotSame(template.withValue("v"), template.withValue("w"));
+    }
+
+    @Test
+    public void testWithValueEvictsFirstCachedValue() {
+        StatsKeyTemplate template = new StatsKeyTemplate(factory, key, "attr", 2);
+
+        StatsKey key1 = template.withValue("v");
+        StatsKey key2 = template.withValue("w");
+        StatsKey key3 = template.withValue("x");
+
+        assertSame(key2, template.withValue("w"));
+        assertSame(key3, template.withValue("x"));
+        assertNotSame(key1, template.withValue("v"));
+        assertEquals(key1, template.withValue("v"));
+    }
+
+    @Test
+    public void testWithValueNotCached() {
+        StatsKeyTemplate template = new StatsKeyTemplate(factory, key, "attr", 0);
+
+        assertNotSame(template.withValue("v"), template.withValue("v"));
+        assertEquals(template.withValue("v"), template.withValue("v"));
+    }
+
+    @Test
+    public void testWithNullValue() {
+        StatsKeyTemplate template = new StatsKeyTemplate(factory, key, "attr");
+
+        StatsKey nullKey = template.withValue((String)null);
+        assertNull(nullKey.getAttribute("attr"));
+        assertEquals(2, nullKey.getAttributeCount());
+    }
+
+    @Test
+    public void testTrack() {
+        StatsKeyTemplate template = new StatsKeyTemplate(factory, key, "attr");
+
+        template.track("v").commit();
+        template.track("v").commit();
+
+        StatsSession session = statsManager.getSessionManager().getSession(template.withValue("v"));
+        assertEquals(2, session.getCommits());
+    }
+
+    @Test
+    public void testSpanTrackerHandleCached() {
+        StatsKeyTemplate template = new StatsKeyTemplate(factory, key, "attr", 1);
+
+        TrackerHandle<SpanTracker> handle = template.getSpanTrackerHandle("v");
+        assertSame(handle, template.getSpanTrackerHandle("v"));
+        assertSame(template.withValue("v"), handle.getKey());
+    }
+
+    @Test
+    public void testSpanTrackerHandleNotCached() {
+        StatsKeyTemplate template = new StatsKeyTemplate(factory, key, "attr", 0);
+
+        assertNotSame(template.getSpanTrackerHandle("v"), template.getSpanTrackerHandle("v"));
+        template.getSpanTrackerHandle("v").getTracker().track().commit();
+
+        StatsSession session = statsManager.getSessionManager().getSession(template.withValue("v"));
+        assertEquals(1, session.getCommits());
+        assertFalse(statsManager.getEventManager()
+                                .getEventHandlers()
+                                .containsKey(template.withValue("v")));
+    }
+
+    @Test
+    public void testEvictedSpanTrackerHandleReleased() {
+        StatsKeyTemplate template = new StatsKeyTemplate(factory, key, "attr", 1);
+
+        TrackerHandle<SpanTracker> handle = template.getSpanTrackerHandle("v");
+        StatsKey valueKey = handle.getKey();
+        assertTrue(statsManager.getEventManager().getEventHandlers().containsKey(valueKey));
+
+        TrackerHandle<SpanTracker> handle2 = template.getSpanTrackerHandle("w");
+        assertSame(handle2, template.getSpanTrackerHandle("w"));
+        assertNotSame(handle, template.getSpanTrackerHandle("v"));
+        assertFalse(statsManager.getEventManager().getEventHandlers().containsKey(handle2.getKey()));
+
+        // An evicted handle still in use keeps working
+        handle2.getTracker().track().commit();
+        assertEquals(1, statsManager.getSessionManager().getSession(handle2.getKey()).getCommits());
+    }
+
+    @Test
+    public void testClearReleasesSpanTrackerHandles() {
+        StatsKeyTemplate template = new StatsKeyTemplate(factory, key, "attr");
+
+        TrackerHandle<SpanTracker> handle = template.getSpanTrackerHandle("v");
+        template.clear();
+
+        assertFalse(statsManager.getEventManager().getEventHandlers().containsKey(handle.getKey()));
+        assertNotSame(handle, template.getSpanTrackerHandle("v"));
+    }
+}
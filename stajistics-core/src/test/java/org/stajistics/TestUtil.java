@@ -124,6 +124,9 @@ public abstract class TestUtil {
             allowing(mockManager).isEnabled();
             will(returnValue(true));
 
+            allowing(mockManager).getEnablement();
+            will(returnValue(new StatsEnablement()));
+
             allowing(mockManager).getConfigBuilderFactory();
             will(returnValue(mockConfigBuilderFactory));
 
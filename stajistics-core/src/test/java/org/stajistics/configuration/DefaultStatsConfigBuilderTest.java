@@ -68,6 +68,7 @@ public class DefaultStatsConfigBuilderTest extends AbstractStajisticsTestCase {
             atLeast(1).of(template).getDataRecorderFactory(); will(returnValue(dataRecorderFactory));
             atLeast(1).of(template).getUnit(); will(returnValue("testUnit"));
             atLeast(1).of(template).getDescription(); will(returnValue("testDescription"));
+            atLeast(1).of(template).getMaxSubKeys(); will(returnValue(42));
         }});
 
         builder = new DefaultStatsConfigBuilder(configManager, template);
@@ -77,6 +78,19 @@ public class DefaultStatsConfigBuilderTest extends AbstractStajisticsTestCase {
         assertSame(sessionFactory, config.getSessionFactory());
         assertEquals("testUnit", config.getUnit());
         assertEquals("testDescription", config.getDescription());
+        assertEquals(42, config.getMaxSubKeys());
+    }
+
+    @Test
+    public void testWithMaxSubKeys() {
+        assertEquals(Integer.MAX_VALUE, builder.newConfig().getMaxSubKeys());
+        builder.withMaxSubKeys(10);
+        assertEquals(10, builder.newConfig().getMaxSubKeys());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWithZeroMaxSubKeys() {
+        builder.withMaxSubKeys(0);
     }
 
     @Test
@@ -14,6 +14,7 @@
  */
 package org.stajistics.configuration;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
@@ -21,6 +22,8 @@ import static org.junit.Assert.fail;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jmock.Expectations;
 import org.junit.Before;
@@ -30,8 +33,10 @@ import org.stajistics.DefaultStatsKeyFactory;
 import org.stajistics.SimpleStatsKey;
 import org.stajistics.StatsKey;
 import org.stajistics.StatsKeyFactory;
+import org.stajistics.event.EventHandler;
 import org.stajistics.event.EventManager;
 import org.stajistics.event.EventType;
+import org.stajistics.event.SynchronousEventManager;
 import org.stajistics.session.DefaultSessionFactory;
 import org.stajistics.session.recorder.DefaultDataRecorderFactory;
 import org.stajistics.tracker.span.TimeDurationTracker;
@@ -664,4 +669,146 @@ public class DefaultStatsConfigManagerTest extends AbstractStajisticsTestCase {
         assertNull(configManager.getConfig(keys[0]));
     }
 
+    @Test
+    public void testConcurrentGetOrCreateConfig() throws Exception {
+        // jMock is not thread safe
+        final EventManager eventManager = new SynchronousEventManager();
+        final AtomicInteger createdCount = new AtomicInteger();
+        eventManager.addGlobalEventHandler(new EventHandler() {
+            @Override
+            public void handleStatsEvent(final EventType eventType,
+                                         final StatsKey key,
+                                         final Object target) {
+                if (eventType == EventType.CONFIG_CREATED) {
+                    createdCount.incrementAndGet();
+                }
+            }
+        });
+
+        final DefaultStatsConfigManager configManager =
+            new DefaultStatsConfigManager(eventManager, mockKeyFactory);
+
+        final int threadCount = 8;
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final Thread[] threads = new Thread[threadCount];
+        final Throwable[] failure = new Throwable[1];
+
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (int j = 0; j < 10; j++) {
+                            for (int k = 0; k < 10; k++) {
+                                StatsKey key = mockKeyFactory.createKey("test.a" + j + ".b" + k);
+                                assertNotNull(configManager.getOrCreateConfig(key));
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure[0] = t;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure[0]);
+
+        // test + 10 * test.aN + 100 * test.aN.bM
+        assertEquals(111, configManager.getConfigCount());
+        assertEquals(111, createdCount.get());
+
+        StatsConfig config = createConfig();
+        configManager.setConfig(mockKeyFactory.createKey("test.a5"), config);
+
+        assertSame(config, configManager.getConfig(mockKeyFactory.createKey("test.a5.b3")));
+        assertSame(configManager.getRootConfig(),
+                   configManager.getConfig(mockKeyFactory.createKey("test.a4.b3")));
+    }
+
+    @Test
+    public void testConcurrentGetOrCreateConfigWhileSettingConfig() throws Exception {
+        final EventManager eventManager = new SynchronousEventManager();
+        final StatsKey ancestorKey = mockKeyFactory.createKey("test");
+
+        for (int round = 0; round < 50; round++) {
+            final DefaultStatsConfigManager configManager =
+                new DefaultStatsConfigManager(eventManager, mockKeyFactory);
+            configManager.setConfig(ancestorKey, createConfig("initial"));
+
+            final int threadCount = 4;
+            final CountDownLatch startLatch = new CountDownLatch(1);
+            final Thread[] threads = new Thread[threadCount + 1];
+            final Throwable[] failure = new Throwable[1];
+
+            for (int i = 0; i < threadCount; i++) {
+                final int offset = i;
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            startLatch.await();
+                            for (int j = 0; j < 10; j++) {
+                                for (int k = 0; k < 5; k++) {
+                                    StatsKey key = mockKeyFactory.createKey("test.a" + ((j + offset) % 10) +
+                                                                            ".b" + k + ".c");
+                                    assertNotNull(configManager.getOrCreateConfig(key));
+                                }
+                            }
+                        } catch (Throwable t) {
+                            failure[0] = t;
+                        }
+                    }
+                };
+            }
+
+            final StatsConfig lastConfig = createConfig("last");
+            threads[threadCount] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (int i = 0; i < 20; i++) {
+                            configManager.setConfig(ancestorKey, createConfig("unit" + i));
+                            Thread.yield();
+                        }
+                        configManager.setConfig(ancestorKey, lastConfig);
+                    } catch (Throwable t) {
+                        failure[0] = t;
+                    }
+                }
+            };
+
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            startLatch.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            assertNull(failure[0]);
+
+            // test + 10 * test.aN + 50 * test.aN.bM + 50 * test.aN.bM.c
+            assertEquals(111, configManager.getConfigCount());
+            for (Map.Entry<StatsKey,StatsConfig> entry : configManager.getConfigs().entrySet()) {
+                assertSame(entry.getKey().getName(), lastConfig, entry.getValue());
+            }
+        }
+    }
+
+    private StatsConfig createConfig(final String unit) {
+        return new DefaultStatsConfig(true,
+                                      TimeDurationTracker.FACTORY,
+                                      DefaultSessionFactory.getInstance(),
+                                      DefaultDataRecorderFactory.getInstance(),
+                                      unit,
+                                      null);
+    }
 }
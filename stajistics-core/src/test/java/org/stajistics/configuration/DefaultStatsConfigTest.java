@@ -169,6 +169,37 @@ public class DefaultStatsConfigTest extends AbstractStajisticsTestCase {
         assertEquals("description", config.getDescription());
     }
 
+    @Test
+    public void testGetMaxSubKeys() {
+        StatsConfig config = new DefaultStatsConfig(true,
+                                                    MilliTimeDurationTracker.FACTORY,
+                                                    DefaultSessionFactory.getInstance(),
+                                                    DefaultDataRecorderFactory.getInstance(),
+                                                    "unit",
+                                                    "description");
+        assertEquals(Integer.MAX_VALUE, config.getMaxSubKeys());
+
+        config = new DefaultStatsConfig(true,
+                                        MilliTimeDurationTracker.FACTORY,
+                                        DefaultSessionFactory.getInstance(),
+                                        DefaultDataRecorderFactory.getInstance(),
+                                        "unit",
+                                        "description",
+                                        10);
+        assertEquals(10, config.getMaxSubKeys());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructionWithZeroMaxSubKeys() {
+        new DefaultStatsConfig(true,
+                               MilliTimeDurationTracker.FACTORY,
+                               DefaultSessionFactory.getInstance(),
+                               DefaultDataRecorderFactory.getInstance(),
+                               "unit",
+                               "description",
+                               0);
+    }
+
     @Test
     public void testEqualsWithDifferentType() {
         StatsConfig config = new DefaultStatsConfig(true,
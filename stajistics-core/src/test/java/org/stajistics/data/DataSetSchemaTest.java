@@ -0,0 +1,132 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+import org.stajistics.AbstractStajisticsTestCase;
+
+/**
+ *
+ * @author The Stajistics Project
+ */
+public class DataSetSchemaTest extends AbstractStajisticsTestCase {
+
+    @Test
+    public void testStandardSchema() {
+        DataSetSchema schema = DataSetSchema.STANDARD;
+
+        assertEquals(9, schema.getFieldCount());
+        assertEquals(0, schema.indexOf(DataSet.Field.HITS));
+        assertEquals(DataSetSchema.FieldType.LONG, schema.getFieldType(schema.indexOf(DataSet.Field.COMMITS)));
+        assertEquals(DataSetSchema.FieldType.DOUBLE, schema.getFieldType(schema.indexOf(DataSet.Field.SUM)));
+        assertEquals(DataSet.Field.SUM, schema.getFieldName(8));
+        assertEquals(-1, schema.indexOf("unknown"));
+    }
+
+    @Test
+    public void testBuildIsCanonical() {
+        DataSetSchema schema1 = DataSetSchema.build()
+                                             .addLongField("a")
+                                             .addDoubleField("b")
+                                             .schema();
+        DataSetSchema schema2 = DataSetSchema.build()
+                                             .addLongField("a")
+                                             .addDoubleField("b")
+                                             .schema();
+        DataSetSchema schema3 = DataSetSchema.build()
+                                             .addDoubleField("b")
+                                             .addLongField("a")
+                                             .schema();
+
+        assertSame(schema1, schema2);
+        assertNotSame(schema1, schema3);
+    }
+
+    @Test
+    public void testBuildFromTemplate() {
+        DataSetSchema schema = DataSetSchema.build(DataSetSchema.STANDARD)
+                                            .addDoubleField("mean")
+                                            .schema();
+
+        assertEquals(10, schema.getFieldCount());
+        assertEquals(9, schema.indexOf("mean"));
+        assertEquals(0, schema.indexOf(DataSet.Field.HITS));
+    }
+
+    @Test
+    public void testStandardFieldIndices() {
+        DataSetSchema schema = DataSetSchema.STANDARD;
+
+        assertEquals(DataSet.Field.HITS, schema.getFieldName(DataSetSchema.HITS_INDEX));
+        assertEquals(DataSet.Field.FIRST_HIT_STAMP, schema.getFieldName(DataSetSchema.FIRST_HIT_STAMP_INDEX));
+        assertEquals(DataSet.Field.LAST_HIT_STAMP, schema.getFieldName(DataSetSchema.LAST_HIT_STAMP_INDEX));
+        assertEquals(DataSet.Field.COMMITS, schema.getFieldName(DataSetSchema.COMMITS_INDEX));
+        assertEquals(DataSet.Field.FIRST, schema.getFieldName(DataSetSchema.FIRST_INDEX));
+        assertEquals(DataSet.Field.LAST, schema.getFieldName(DataSetSchema.LAST_INDEX));
+        assertEquals(DataSet.Field.MIN, schema.getFieldName(DataSetSchema.MIN_INDEX));
+        assertEquals(DataSet.Field.MAX, schema.getFieldName(DataSetSchema.MAX_INDEX));
+        assertEquals(DataSet.Field.SUM, schema.getFieldName(DataSetSchema.SUM_INDEX));
+    }
+
+    @Test
+    public void testStartsWith() {
+        DataSetSchema schema = DataSetSchema.build(DataSetSchema.STANDARD)
+                                            .addDoubleField("mean")
+                                            .schema();
+
+        assertTrue(schema.startsWith(DataSetSchema.STANDARD));
+        assertTrue(schema.startsWith(schema));
+        assertFalse(DataSetSchema.STANDARD.startsWith(schema));
+        assertFalse(DataSetSchema.build().addDoubleField(DataSet.Field.HITS).schema()
+                                 .startsWith(DataSetSchema.build().addLongField(DataSet.Field.HITS).schema()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuildWithDuplicateName() {
+        DataSetSchema.build(DataSetSchema.STANDARD).addDoubleField(DataSet.Field.HITS);
+    }
+
+    @Test
+    public void testBuildWithNullName() {
+        try {
+            DataSetSchema.build().addLongField(null);
+        } catch (NullPointerException npe) {
+            assertEquals("name", npe.getMessage());
+        }
+    }
+
+    @Test
+    public void testDeserializeIsCanonical() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(DataSetSchema.STANDARD);
+        oos.close();
+
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray()));
+
+        assertSame(DataSetSchema.STANDARD, ois.readObject());
+    }
+}
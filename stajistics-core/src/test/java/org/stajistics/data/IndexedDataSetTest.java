@@ -0,0 +1,248 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.stajistics.StajisticsAssert.assertSerializable;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author The Stajistics Project
+ */
+public class IndexedDataSetTest extends AbstractDataContainerTestCase {
+
+    @Override
+    protected DataSet createDataContainer() {
+        return new IndexedDataSet(-1L, false);
+    }
+
+    @Override
+    protected IndexedDataSet dc() {
+        return (IndexedDataSet)super.dc();
+    }
+
+    @Test
+    public void testConstructWithNullSchema() {
+        try {
+            new IndexedDataSet(null, 0, false);
+        } catch (NullPointerException npe) {
+            assertEquals("schema", npe.getMessage());
+        }
+    }
+
+    @Test
+    public void testGetMetaData() {
+        assertNotNull(dc().getMetaData());
+        assertFalse(dc().hasMetaData());
+        dc().getMetaData().setField("test", "value");
+        assertTrue(dc().hasMetaData());
+    }
+
+    @Test
+    public void testGetCollectionTimeStamp() {
+        assertEquals(-1L, dc().getCollectionTimeStamp());
+    }
+
+    @Test
+    public void testIsSessionDrained() {
+        assertEquals(false, dc().isSessionDrained());
+    }
+
+    @Test
+    public void testGetSchema() {
+        assertSame(DataSetSchema.STANDARD, dc().getSchema());
+    }
+
+    @Test
+    public void testSetGetLongField() {
+        dc().setLongField(DataSet.Field.HITS, 5L);
+
+        assertEquals(5L, dc().getLongField(DataSet.Field.HITS, -1L));
+        assertEquals(Long.valueOf(5L), dc().getField(DataSet.Field.HITS));
+        assertTrue(dc().isFieldSet(DataSetSchema.STANDARD.indexOf(DataSet.Field.HITS)));
+        assertEquals(1, dc().size());
+    }
+
+    @Test
+    public void testSetGetDoubleField() {
+        dc().setDoubleField(DataSet.Field.SUM, 1.5);
+
+        assertEquals(1.5, dc().getDoubleField(DataSet.Field.SUM, -1), 0);
+        assertEquals(Double.valueOf(1.5), dc().getField(DataSet.Field.SUM));
+        assertEquals(1, dc().size());
+    }
+
+    @Test
+    public void testGetPrimitiveFieldWithMissingName() {
+        assertEquals(-1L, dc().getLongField(DataSet.Field.HITS, -1L));
+        assertEquals(-1L, dc().getLongField("unknown", -1L));
+        assertEquals(-1, dc().getDoubleField(DataSet.Field.SUM, -1), 0);
+        assertEquals(-1, dc().getDoubleField("unknown", -1), 0);
+    }
+
+    @Test
+    public void testGetPrimitiveFieldWithWrongType() {
+        dc().setLongField(DataSet.Field.HITS, 5L);
+        dc().setDoubleField(DataSet.Field.SUM, 1.5);
+
+        assertEquals(-1, dc().getDoubleField(DataSet.Field.HITS, -1), 0);
+        assertEquals(-1L, dc().getLongField(DataSet.Field.SUM, -1L));
+    }
+
+    @Test
+    public void testSetPrimitiveFieldOutsideOfSchema() {
+        dc().setLongField("count", 3L);
+        dc().setDoubleField("mean", 2.5);
+
+        assertEquals(3L, dc().getLongField("count", -1L));
+        assertEquals(2.5, dc().getDoubleField("mean", -1), 0);
+        assertEquals(Long.valueOf(3L), dc().getField("count"));
+        assertEquals(2, dc().size());
+    }
+
+    @Test
+    public void testSetFieldWithSchemaTypeMismatch() {
+        dc().setLongField(DataSet.Field.HITS, 5L);
+        dc().setField(DataSet.Field.HITS, "five");
+
+        assertEquals("five", dc().getField(DataSet.Field.HITS));
+        assertFalse(dc().isFieldSet(DataSetSchema.STANDARD.indexOf(DataSet.Field.HITS)));
+        assertEquals(1, dc().size());
+
+        dc().setLongField(DataSet.Field.HITS, 6L);
+
+        assertEquals(Long.valueOf(6L), dc().getField(DataSet.Field.HITS));
+        assertEquals(1, dc().size());
+    }
+
+    @Test
+    public void testSetGetByIndex() {
+        final int hitsIndex = DataSetSchema.STANDARD.indexOf(DataSet.Field.HITS);
+        final int maxIndex = DataSetSchema.STANDARD.indexOf(DataSet.Field.MAX);
+
+        assertEquals(-1L, dc().getLong(hitsIndex, -1L));
+        assertEquals(-1, dc().getDouble(maxIndex, -1), 0);
+
+        dc().setLong(hitsIndex, 7L);
+        dc().setDouble(maxIndex, 9.5);
+
+        assertEquals(7L, dc().getLong(hitsIndex, -1L));
+        assertEquals(9.5, dc().getDouble(maxIndex, -1), 0);
+        assertEquals(Long.valueOf(7L), dc().getField(DataSet.Field.HITS));
+        assertEquals(Double.valueOf(9.5), dc().getField(DataSet.Field.MAX));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetLongByIndexWithWrongType() {
+        dc().setLong(DataSetSchema.STANDARD.indexOf(DataSet.Field.SUM), 1L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetDoubleByIndexWithWrongType() {
+        dc().getDouble(DataSetSchema.STANDARD.indexOf(DataSet.Field.HITS), 0);
+    }
+
+    @Test
+    public void testRemoveIndexedField() {
+        dc().setLongField(DataSet.Field.HITS, 5L);
+
+        assertEquals(Long.valueOf(5L), dc().removeField(DataSet.Field.HITS));
+        assertNull(dc().getField(DataSet.Field.HITS));
+        assertNull(dc().removeField(DataSet.Field.HITS));
+        assertTrue(dc().isEmpty());
+    }
+
+    @Test
+    public void testGetFieldNamesInSchemaOrder() {
+        dc().setField("extra", "value");
+        dc().setDoubleField(DataSet.Field.SUM, 1);
+        dc().setLongField(DataSet.Field.HITS, 1);
+
+        Iterator<String> itr = dc().getFieldNames().iterator();
+        assertEquals(DataSet.Field.HITS, itr.next());
+        assertEquals(DataSet.Field.SUM, itr.next());
+        assertEquals("extra", itr.next());
+        assertFalse(itr.hasNext());
+    }
+
+    @Test
+    public void testDeriveSchema() {
+        assertSame(DataSetSchema.STANDARD, dc().deriveSchema());
+
+        dc().setField("name", "value");
+        assertSame(DataSetSchema.STANDARD, dc().deriveSchema());
+
+        dc().setLongField("count", 3L);
+        dc().setDoubleField("mean", 2.5);
+
+        DataSetSchema derived = dc().deriveSchema();
+        assertEquals(DataSetSchema.STANDARD.getFieldCount() + 2, derived.getFieldCount());
+        assertEquals(DataSetSchema.FieldType.LONG, derived.getFieldType(derived.indexOf("count")));
+        assertEquals(DataSetSchema.FieldType.DOUBLE, derived.getFieldType(derived.indexOf("mean")));
+        assertEquals(-1, derived.indexOf("name"));
+        assertSame(derived, dc().deriveSchema());
+
+        IndexedDataSet next = new IndexedDataSet(derived, 0, false);
+        next.setLongField("count", 4L);
+        assertTrue(next.isFieldSet(derived.indexOf("count")));
+        assertSame(derived, next.deriveSchema());
+    }
+
+    @Test
+    public void testEqualsAndHashCodeWithDefaultDataSet() {
+        DataSet defaultDataSet = new DefaultDataSet(-1L, false);
+        for (DataSet dataSet : Arrays.asList(dc(), defaultDataSet)) {
+            dataSet.setLongField(DataSet.Field.HITS, 5L);
+            dataSet.setDoubleField(DataSet.Field.SUM, 1.5);
+            dataSet.setField("name", "value");
+        }
+
+        assertEquals(defaultDataSet, dc());
+        assertEquals(dc(), defaultDataSet);
+        assertEquals(defaultDataSet.hashCode(), dc().hashCode());
+
+        dc().setDoubleField(DataSet.Field.SUM, 2.5);
+
+        assertFalse(defaultDataSet.equals(dc()));
+        assertFalse(dc().equals(defaultDataSet));
+    }
+
+    @Test
+    public void testHashCodeIgnoresEmptyMetaData() {
+        IndexedDataSet other = new IndexedDataSet(-1L, false);
+        dc().getMetaData();
+
+        assertEquals(other, dc());
+        assertEquals(other.hashCode(), dc().hashCode());
+    }
+
+    @Test
+    public void testSerialize() {
+        dc().setLongField(DataSet.Field.HITS, 5L);
+        dc().setField("name", "value");
+
+        assertSerializable(dc());
+    }
+}
@@ -30,6 +30,7 @@ import org.stajistics.StatsManager;
 import org.stajistics.StatsManagerRegistry;
 import org.stajistics.data.DataSet;
 import org.stajistics.management.AbstractJMXTestCase;
+import org.stajistics.session.FieldHandles;
 import org.stajistics.session.StatsSession;
 import org.stajistics.session.StatsSessionManager;
 
@@ -115,6 +116,7 @@ public class DefaultStatsSessionMXBeanTest extends AbstractJMXTestCase {
 
             // For this test
             allowing(mockSession).getField(with("test")); will(returnValue("value"));
+            one(mockSession).getFieldHandle(with("test")); will(returnValue(FieldHandles.named(mockSession, "test")));
         }});
 
         StatsSessionMXBean mBean = createSessionMBean(mockSession);
@@ -123,6 +125,8 @@ public class DefaultStatsSessionMXBeanTest extends AbstractJMXTestCase {
         mBean = registerMBean(mBean, name, StatsSessionMXBean.class);
 
         assertEquals("value", getMBeanServerConnection().getAttribute(name, "_test"));
+        // The handle is resolved only once
+        assertEquals("value", getMBeanServerConnection().getAttribute(name, "_test"));
     }
 
     @Test
@@ -74,4 +74,28 @@ public class DefaultStatsSessionManagerMXBeanTest extends AbstractJMXTestCase {
          mockery.assertIsSatisfied();
      }
 
+     @Test
+     public void testGetEvictionCount() throws Exception {
+
+         mockery.checking(new Expectations() {{
+             one(mockSessionManager).getEvictionCount(); will(returnValue(7L));
+         }});
+
+         StatsSessionManagerMXBean mBean = createSessionManagerMBean(mockSessionManager);
+
+         assertEquals(7L, mBean.getEvictionCount());
+     }
+
+     @Test
+     public void testGetOverflowCount() throws Exception {
+
+         mockery.checking(new Expectations() {{
+             one(mockSessionManager).getOverflowCount(); will(returnValue(3L));
+         }});
+
+         StatsSessionManagerMXBean mBean = createSessionManagerMBean(mockSessionManager);
+
+         assertEquals(3L, mBean.getOverflowCount());
+     }
+
 }
@@ -76,6 +76,7 @@ public abstract class AbstractStatsSessionManagerTestCase extends AbstractStajis
                                                   with(mockDataRecorders));
             will(returnValue(mockSession));
             allowing(mockSession).getKey(); will(returnValue(key));
+            allowing(key).getAttributeCount(); will(returnValue(0));
 
             ignoring(mockEventManager);
         }});
@@ -17,10 +17,13 @@ package org.stajistics.session;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 import org.jmock.Expectations;
 import org.junit.Before;
@@ -34,7 +37,9 @@ import org.stajistics.data.DefaultDataSet;
 import org.stajistics.event.EventManager;
 import org.stajistics.event.EventType;
 import org.stajistics.session.recorder.DataRecorder;
+import org.stajistics.session.recorder.DistributionDataRecorder;
 import org.stajistics.tracker.Tracker;
+import org.stajistics.tracker.manual.DefaultManualTracker;
 import org.stajistics.util.Decorator;
 
 /**
@@ -210,6 +215,38 @@ public abstract class AbstractStatsSessionTestCase extends AbstractStajisticsTes
         assertEquals(session.getSum(), session.getField(DataSet.Field.SUM));
     }
 
+    @Test
+    public void testGetFieldHandleEqualsGetField() {
+        session = createStatsSession(new DistributionDataRecorder());
+
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+            allowing(mockTracker).getValue(); will(returnValue(2.0));
+        }});
+
+        for (int i = 0; i < 3; i++) {
+            session.track(mockTracker, System.currentTimeMillis());
+            session.update(mockTracker, System.currentTimeMillis());
+        }
+
+        for (String name : session.collectData().getFieldNames()) {
+            FieldHandle handle = session.getFieldHandle(name);
+            assertNotNull(name, handle);
+            assertEquals(name, handle.getName());
+
+            Object value = session.getField(name);
+            assertEquals(name, value, handle.getValue());
+            if (value instanceof Number) {
+                assertEquals(name, ((Number) value).doubleValue(), handle.getDoubleValue(), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testGetFieldHandleForUnknownField() {
+        assertNull(session.getFieldHandle("notAField"));
+    }
+
     @Test
     public void testClear() {
         mockery.checking(new Expectations() {{
@@ -667,6 +704,13 @@ public abstract class AbstractStatsSessionTestCase extends AbstractStajisticsTes
         session.getField(DataSet.Field.HITS);
     }
 
+    @Test
+    public void testGetFieldHandleEatsDataManagerException() {
+        // Recreate the session with a nasty DataRecorder
+        session = createStatsSession(new NastyDataRecorder());
+        session.getFieldHandle("nasty");
+    }
+
     @Test
     public void testRestoreEatsDataManagerException() {
         // Recreate the session with a nasty DataRecorder
@@ -714,6 +758,44 @@ public abstract class AbstractStatsSessionTestCase extends AbstractStajisticsTes
         assertTrue(strVal.indexOf("commits=" + session.getCommits()) > -1);
     }
 
+    /**
+     * Start <tt>threadCount</tt> threads that each commit <tt>value</tt> to <tt>session</tt>
+     * <tt>updatesPerThread</tt> times.
+     *
+     * @return A latch that is released when all threads are done.
+     */
+    protected static CountDownLatch startCommitting(final StatsSession session,
+                                                    final int threadCount,
+                                                    final int updatesPerThread,
+                                                    final double value) {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch endLatch = new CountDownLatch(threadCount);
+
+        for (int i = 0; i < threadCount; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        DefaultManualTracker tracker = new DefaultManualTracker(session);
+                        tracker.setValue(value);
+                        startLatch.await();
+                        for (int j = 0; j < updatesPerThread; j++) {
+                            tracker.commit();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        endLatch.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        startLatch.countDown();
+
+        return endLatch;
+    }
+
     /* NESTED CLASSES */
 
     public static class NastyDataRecorder implements DataRecorder {
@@ -749,4 +831,40 @@ public abstract class AbstractStatsSessionTestCase extends AbstractStajisticsTes
         }
 
     };
+
+    /**
+     * Drains the session held by <tt>sessionHolder</tt> on each update.
+     */
+    public static final class DrainingDataRecorder implements DataRecorder {
+
+        private final StatsSession[] sessionHolder;
+
+        DrainingDataRecorder(final StatsSession[] sessionHolder) {
+            this.sessionHolder = sessionHolder;
+        }
+
+        @Override
+        public Set<String> getSupportedFieldNames() {
+            return Collections.singleton("drained");
+        }
+
+        @Override
+        public Object getField(final StatsSession session, final String name) {
+            return null;
+        }
+
+        @Override
+        public void update(final StatsSession session, final Tracker tracker, final long now) {
+            sessionHolder[0].drainData();
+        }
+
+        @Override
+        public void restore(final DataSet dataSet) {}
+
+        @Override
+        public void collectData(final StatsSession session, final DataSet dataSet) {}
+
+        @Override
+        public void clear() {}
+    }
 }
@@ -0,0 +1,118 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.jmock.Expectations;
+import org.junit.Test;
+import org.stajistics.StatsKey;
+import org.stajistics.StatsManager;
+import org.stajistics.StatsManagerRegistry;
+import org.stajistics.TestUtil;
+import org.stajistics.bootstrap.DefaultStatsManagerFactory;
+import org.stajistics.data.DataSet;
+import org.stajistics.data.DefaultDataSet;
+import org.stajistics.session.recorder.CompactDistributionDataRecorder;
+import org.stajistics.session.recorder.DataRecorder;
+import org.stajistics.session.recorder.DistributionDataRecorder;
+
+/**
+ * @author The Stajistics Project
+ */
+public class CompactConcurrentSessionTest extends AbstractStatsSessionTestCase {
+
+    @Override
+    protected StatsSession createStatsSession(final DataRecorder... dataRecorders) {
+        return new CompactConcurrentSession(mockKey, mockEventManager, dataRecorders);
+    }
+
+    @Override
+    @Test
+    public void testConstructWithNullKey() {
+        try {
+            new CompactConcurrentSession(null, mockEventManager, new DataRecorder[0]);
+            fail();
+        } catch (NullPointerException npe) {
+            assertEquals("key", npe.getMessage());
+        }
+    }
+
+    @Override
+    @Test
+    public void testConstructWithNullEventManager() {
+        try {
+            new CompactConcurrentSession(mockKey, null, new DataRecorder[0]);
+            fail();
+        } catch (NullPointerException npe) {
+            assertEquals("eventManager", npe.getMessage());
+        }
+    }
+
+    @Test
+    public void testNaNIsAValidFirstValue() {
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+            one(mockTracker).getValue(); will(returnValue(Double.NaN));
+            one(mockTracker).getValue(); will(returnValue(1.0));
+        }});
+
+        session.update(mockTracker, 1L);
+        session.update(mockTracker, 2L);
+
+        assertEquals(Double.NaN, session.getFirst(), TestUtil.DELTA);
+        assertEquals(1, session.getLast(), TestUtil.DELTA);
+    }
+
+    @Test
+    public void testRestoreNegativeFirst() {
+        DataSet dataSet = new DefaultDataSet(1L, false);
+        dataSet.setField(DataSet.Field.HITS, 1L);
+        dataSet.setField(DataSet.Field.FIRST_HIT_STAMP, 1L);
+        dataSet.setField(DataSet.Field.LAST_HIT_STAMP, 1L);
+        dataSet.setField(DataSet.Field.COMMITS, 1L);
+        dataSet.setField(DataSet.Field.FIRST, -3.0);
+        dataSet.setField(DataSet.Field.LAST, -3.0);
+
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+        }});
+
+        session.restore(dataSet);
+
+        assertEquals(-3, session.getFirst(), TestUtil.DELTA);
+        assertEquals(-3, session.getLast(), TestUtil.DELTA);
+    }
+
+    @Test
+    public void testFactoryReplacesDistributionDataRecorder() {
+        StatsManager statsManager = new DefaultStatsManagerFactory().createManager("CompactConcurrentSessionTest");
+        try {
+            StatsKey key = statsManager.getKeyFactory().createKey("test");
+            StatsSession session = CompactConcurrentSession.FACTORY.createSession(key, new DataRecorder[] {
+                new DistributionDataRecorder(),
+                new DistributionDataRecorder() {}
+            });
+
+            assertTrue(session.getDataRecorders().get(0) instanceof CompactDistributionDataRecorder);
+            assertFalse(session.getDataRecorders().get(1) instanceof CompactDistributionDataRecorder);
+        } finally {
+            StatsManagerRegistry.getInstance().removeStatsManager(statsManager);
+        }
+    }
+}
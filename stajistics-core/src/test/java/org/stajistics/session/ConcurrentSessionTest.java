@@ -15,10 +15,21 @@
 package org.stajistics.session;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.CountDownLatch;
 
 import org.jmock.Expectations;
 import org.junit.Test;
+import org.stajistics.SimpleStatsKey;
+import org.stajistics.TestUtil;
+import org.stajistics.data.DataSet;
+import org.stajistics.event.SynchronousEventManager;
 import org.stajistics.session.recorder.DataRecorder;
+import org.stajistics.session.recorder.DefaultDataRecorderFactory;
+import org.stajistics.session.recorder.DistributionDataRecorder;
+import org.stajistics.tracker.manual.DefaultManualTracker;
 
 /**
  *
@@ -53,4 +64,113 @@ public class ConcurrentSessionTest extends AbstractStatsSessionTestCase {
             assertEquals("eventManager", npe.getMessage());
         }
     }
+
+    @Test
+    public void testDrainDataDuringUpdatesLosesNothing() throws Exception {
+        final int threadCount = 4;
+        final int updatesPerThread = 20000;
+
+        final StatsSession session = new ConcurrentSession(new SimpleStatsKey(null, "test", null),
+                                                           new SynchronousEventManager());
+        final CountDownLatch endLatch = startCommitting(session, threadCount, updatesPerThread, 1);
+
+        long hits = 0;
+        long commits = 0;
+        double sum = 0;
+        do {
+            DataSet dataSet = session.drainData();
+            hits += dataSet.getField(DataSet.Field.HITS, Long.class);
+            commits += dataSet.getField(DataSet.Field.COMMITS, Long.class);
+            sum += dataSet.getField(DataSet.Field.SUM, Double.class);
+        } while (endLatch.getCount() > 0 || session.getHits() > 0 || session.getCommits() > 0);
+
+        assertEquals(threadCount * updatesPerThread, hits);
+        assertEquals(threadCount * updatesPerThread, commits);
+        assertEquals(threadCount * updatesPerThread, sum, TestUtil.DELTA);
+    }
+
+    @Test
+    public void testDrainDataDuringUpdatesLosesNoDataRecorderUpdates() throws Exception {
+        final int threadCount = 4;
+        final int updatesPerThread = 20000;
+
+        final StatsSession session = new ConcurrentSession(new SimpleStatsKey(null, "test", null),
+                                                           new SynchronousEventManager(),
+                                                           DefaultDataRecorderFactory.getInstance(),
+                                                           new DistributionDataRecorder());
+        final CountDownLatch endLatch = startCommitting(session, threadCount, updatesPerThread, 2);
+
+        long commits = 0;
+        double sumOfSquares = 0;
+        do {
+            DataSet dataSet = session.drainData();
+            commits += dataSet.getField(DataSet.Field.COMMITS, Long.class);
+            sumOfSquares += dataSet.getField(DistributionDataRecorder.Field.SUM_OF_SQUARES, Double.class);
+        } while (endLatch.getCount() > 0 || session.getCommits() > 0);
+
+        assertEquals(threadCount * updatesPerThread, commits);
+        assertEquals(threadCount * updatesPerThread * 4, sumOfSquares, TestUtil.DELTA);
+    }
+
+    @Test
+    public void testDrainDataReplacesDataRecordersFromFactory() {
+        final StatsSession session = new ConcurrentSession(new SimpleStatsKey(null, "test", null),
+                                                           new SynchronousEventManager(),
+                                                           DefaultDataRecorderFactory.getInstance(),
+                                                           new DistributionDataRecorder());
+        final DataRecorder drainedDataRecorder = session.getDataRecorders().get(0);
+
+        DefaultManualTracker tracker = new DefaultManualTracker(session);
+        tracker.setValue(3);
+        tracker.commit();
+
+        DataSet dataSet = session.drainData();
+
+        assertEquals(9, dataSet.getField(DistributionDataRecorder.Field.SUM_OF_SQUARES, Double.class),
+                     TestUtil.DELTA);
+        assertNotSame(drainedDataRecorder, session.getDataRecorders().get(0));
+        // The drained DataRecorder is left as it was collected
+        assertEquals(9.0, drainedDataRecorder.getField(session, DistributionDataRecorder.Field.SUM_OF_SQUARES));
+        assertEquals(0.0, session.getField(DistributionDataRecorder.Field.SUM_OF_SQUARES));
+        assertEquals(0, session.getFieldHandle(DistributionDataRecorder.Field.SUM_OF_SQUARES).getDoubleValue(),
+                     TestUtil.DELTA);
+    }
+
+    @Test
+    public void testDrainDataClearsDataRecordersWithoutFactory() {
+        final StatsSession session = new ConcurrentSession(new SimpleStatsKey(null, "test", null),
+                                                           new SynchronousEventManager(),
+                                                           new DistributionDataRecorder());
+        final DataRecorder dataRecorder = session.getDataRecorders().get(0);
+
+        DefaultManualTracker tracker = new DefaultManualTracker(session);
+        tracker.setValue(3);
+        tracker.commit();
+
+        DataSet dataSet = session.drainData();
+
+        assertEquals(9, dataSet.getField(DistributionDataRecorder.Field.SUM_OF_SQUARES, Double.class),
+                     TestUtil.DELTA);
+        assertSame(dataRecorder, session.getDataRecorders().get(0));
+        assertEquals(0.0, session.getField(DistributionDataRecorder.Field.SUM_OF_SQUARES));
+    }
+
+    @Test
+    public void testDrainDataFromDataRecorderUpdate() {
+        final StatsSession[] sessionHolder = new StatsSession[1];
+        final DataRecorder drainingDataRecorder = new DrainingDataRecorder(sessionHolder);
+
+        final StatsSession session = new ConcurrentSession(new SimpleStatsKey(null, "test", null),
+                                                           new SynchronousEventManager(),
+                                                           drainingDataRecorder);
+        sessionHolder[0] = session;
+
+        DefaultManualTracker tracker = new DefaultManualTracker(session);
+        tracker.setValue(3);
+        tracker.commit();
+
+        // The re-entrant drain reported the update, so nothing is left behind
+        assertEquals(0, session.getCommits());
+        assertEquals(0, session.getSum(), TestUtil.DELTA);
+    }
 }
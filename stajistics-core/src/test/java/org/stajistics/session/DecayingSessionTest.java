@@ -0,0 +1,227 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.jmock.Expectations;
+import org.junit.Test;
+import org.stajistics.StatsKey;
+import org.stajistics.TestUtil;
+import org.stajistics.data.DataSet;
+import org.stajistics.event.EventManager;
+import org.stajistics.session.recorder.DataRecorder;
+
+/**
+ * @author The Stajistics Project
+ */
+public class DecayingSessionTest extends AbstractStatsSessionTestCase {
+
+    @Override
+    protected StatsSession createStatsSession(final DataRecorder... dataRecorders) {
+        return new DecayingSession(mockKey, mockEventManager, dataRecorders);
+    }
+
+    private ClockedSession createClockedSession(final long halfLifeMillis) {
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+        }});
+
+        return new ClockedSession(mockKey, mockEventManager, halfLifeMillis);
+    }
+
+    private void commit(final ClockedSession session,
+                        final double value,
+                        final long now) {
+        mockery.checking(new Expectations() {{
+            one(mockTracker).getValue(); will(returnValue(value));
+        }});
+
+        session.time = now;
+        session.track(mockTracker, now);
+        session.update(mockTracker, now);
+    }
+
+    @Override
+    @Test
+    public void testConstructWithNullKey() {
+        try {
+            new DecayingSession(null, mockEventManager, new DataRecorder[0]);
+            fail();
+        } catch (NullPointerException npe) {
+            assertEquals("key", npe.getMessage());
+        }
+    }
+
+    @Override
+    @Test
+    public void testConstructWithNullEventManager() {
+        try {
+            new DecayingSession(mockKey, null, new DataRecorder[0]);
+            fail();
+        } catch (NullPointerException npe) {
+            assertEquals("eventManager", npe.getMessage());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructWithZeroHalfLife() {
+        new DecayingSession(mockKey, mockEventManager, 0, new DataRecorder[0]);
+    }
+
+    @Test
+    public void testCountHalvesAfterHalfLife() {
+        ClockedSession session = createClockedSession(1000);
+
+        commit(session, 1, 5000);
+        commit(session, 1, 5000);
+
+        assertEquals(2, session.getDecayedCount(), TestUtil.DELTA);
+
+        session.time = 6000;
+        assertEquals(1, session.getDecayedCount(), TestUtil.DELTA);
+
+        session.time = 7000;
+        assertEquals(0.5, session.getDecayedCount(), TestUtil.DELTA);
+
+        // The undecayed fields are unaffected
+        assertEquals(2, session.getCommits());
+    }
+
+    @Test
+    public void testMeanFollowsRecentValues() {
+        ClockedSession session = createClockedSession(1000);
+
+        commit(session, 10, 0);
+        commit(session, 20, 1000);
+
+        // The older value carries half the weight of the newer one
+        assertEquals((10 * 0.5 + 20) / 1.5, session.getDecayedMean(), TestUtil.DELTA);
+        assertEquals(15, session.getSum() / session.getCommits(), TestUtil.DELTA);
+
+        final double mean = (10 * 0.5 + 20) / 1.5;
+        final double variance = (0.5 * (10 - mean) * (10 - mean) + (20 - mean) * (20 - mean)) / 1.5;
+        assertEquals(Math.sqrt(variance), session.getDecayedStdDev(), TestUtil.DELTA);
+    }
+
+    @Test
+    public void testConstantValuesHaveNoDeviation() {
+        ClockedSession session = createClockedSession(1000);
+
+        for (int i = 0; i < 10; i++) {
+            commit(session, 3, i * 100);
+        }
+
+        assertEquals(3, session.getDecayedMean(), TestUtil.DELTA);
+        assertEquals(0, session.getDecayedStdDev(), TestUtil.DELTA);
+    }
+
+    @Test
+    public void testStdDevOfLargeValuesIsStable() {
+        ClockedSession session = createClockedSession(1000);
+
+        // Alternating values a unit apart, far from zero
+        for (int i = 0; i < 100; i++) {
+            commit(session, 1e9 + (i % 2), i * 100);
+        }
+
+        assertEquals(0.5, session.getDecayedStdDev(), 0.01);
+    }
+
+    @Test
+    public void testRateOfSteadyStream() {
+        ClockedSession session = createClockedSession(1000);
+
+        // Ten commits per second for a minute
+        for (int i = 0; i < 600; i++) {
+            commit(session, 1, i * 100);
+        }
+
+        assertEquals(10, session.getDecayedRate(), 0.5);
+    }
+
+    @Test
+    public void testRescaleKeepsWeightsFinite() {
+        ClockedSession session = createClockedSession(1);
+
+        commit(session, 2, 0);
+        commit(session, 4, 1000000);
+
+        assertEquals(4, session.getDecayedMean(), TestUtil.DELTA);
+        assertEquals(1, session.getDecayedCount(), TestUtil.DELTA);
+        assertFalse(Double.isNaN(session.getDecayedStdDev()));
+    }
+
+    @Test
+    public void testCollectDataContainsDecayedFields() {
+        ClockedSession session = createClockedSession(1000);
+
+        commit(session, 2, 0);
+
+        DataSet dataSet = session.collectData();
+        assertEquals(1.0, dataSet.getField(DecayingSession.Field.DECAYED_COUNT));
+        assertEquals(2.0, dataSet.getField(DecayingSession.Field.DECAYED_MEAN));
+        assertEquals(0.0, dataSet.getField(DecayingSession.Field.DECAYED_STD_DEV));
+        assertTrue(dataSet.getFieldNames().contains(DecayingSession.Field.DECAYED_RATE));
+        assertEquals(2.0, session.getField(DecayingSession.Field.DECAYED_MEAN));
+    }
+
+    @Test
+    public void testRestoreDecayedFields() {
+        ClockedSession session = createClockedSession(1000);
+
+        commit(session, 2, 0);
+        commit(session, 6, 1000);
+
+        DataSet dataSet = session.collectData();
+
+        ClockedSession restored = new ClockedSession(mockKey, mockEventManager, 1000);
+        restored.time = 1000;
+        restored.restore(dataSet);
+
+        assertEquals(session.getDecayedCount(), restored.getDecayedCount(), TestUtil.DELTA);
+        assertEquals(session.getDecayedMean(), restored.getDecayedMean(), TestUtil.DELTA);
+        assertEquals(session.getDecayedStdDev(), restored.getDecayedStdDev(), TestUtil.DELTA);
+    }
+
+    @Test
+    public void testFactoryEquals() {
+        assertEquals(new DecayingSession.Factory(1000), new DecayingSession.Factory(1000));
+        assertEquals(new DecayingSession.Factory(1000).hashCode(),
+                     new DecayingSession.Factory(1000).hashCode());
+        assertFalse(new DecayingSession.Factory(1000).equals(new DecayingSession.Factory(2000)));
+    }
+
+    /* NESTED CLASSES */
+
+    private static class ClockedSession extends DecayingSession {
+
+        long time;
+
+        ClockedSession(final StatsKey key,
+                       final EventManager eventManager,
+                       final long halfLifeMillis) {
+            super(key, eventManager, halfLifeMillis);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return time;
+        }
+    }
+}
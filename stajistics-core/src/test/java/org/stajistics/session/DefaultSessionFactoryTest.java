@@ -43,6 +43,20 @@ public class DefaultSessionFactoryTest extends AbstractStajisticsTestCase {
         assertTrue(session instanceof ConcurrentSession);
     }
 
+    @Test
+    public void testStripedSessionConfig() {
+        System.setProperty(DefaultSessionFactory.PROP_DEFAULT_SESSION_IMPL, "striped");
+        StatsSession session = prepareExpectationsAndCreateSession();
+        assertTrue(session instanceof StripedConcurrentSession);
+    }
+
+    @Test
+    public void testCompactSessionConfig() {
+        System.setProperty(DefaultSessionFactory.PROP_DEFAULT_SESSION_IMPL, "compact");
+        StatsSession session = prepareExpectationsAndCreateSession();
+        assertTrue(session instanceof CompactConcurrentSession);
+    }
+
     @Test
     public void testAsynchronousSessionConfig() {
         System.setProperty(DefaultSessionFactory.PROP_DEFAULT_SESSION_IMPL, "asynchronous");
@@ -50,6 +64,34 @@ public class DefaultSessionFactoryTest extends AbstractStajisticsTestCase {
         assertTrue(session instanceof AsynchronousSession);
     }
 
+    @Test
+    public void testRingBufferSessionConfig() {
+        System.setProperty(DefaultSessionFactory.PROP_DEFAULT_SESSION_IMPL, "ringBuffer");
+        StatsSession session = prepareExpectationsAndCreateSession();
+        assertTrue(session instanceof RingBufferSession);
+    }
+
+    @Test
+    public void testThreadLocalSessionConfig() {
+        System.setProperty(DefaultSessionFactory.PROP_DEFAULT_SESSION_IMPL, "threadLocal");
+        StatsSession session = prepareExpectationsAndCreateSession();
+        assertTrue(session instanceof ThreadLocalBufferedSession);
+    }
+
+    @Test
+    public void testRollingSessionConfig() {
+        System.setProperty(DefaultSessionFactory.PROP_DEFAULT_SESSION_IMPL, "rolling");
+        StatsSession session = prepareExpectationsAndCreateSession();
+        assertTrue(session instanceof RollingWindowSession);
+    }
+
+    @Test
+    public void testDecayingSessionConfig() {
+        System.setProperty(DefaultSessionFactory.PROP_DEFAULT_SESSION_IMPL, "decaying");
+        StatsSession session = prepareExpectationsAndCreateSession();
+        assertTrue(session instanceof DecayingSession);
+    }
+
     @Test
     public void testImmutableSessionConfig() {
         System.setProperty(DefaultSessionFactory.PROP_DEFAULT_SESSION_IMPL, "immutable");
@@ -15,9 +15,19 @@
 package org.stajistics.session;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
+import org.jmock.Expectations;
 import org.junit.Test;
+import org.stajistics.DefaultStatsKeyFactory;
+import org.stajistics.StatsKey;
+import org.stajistics.configuration.DefaultStatsConfigBuilder;
+import org.stajistics.configuration.StatsConfig;
+import org.stajistics.event.EventType;
+import org.stajistics.tracker.Tracker;
 
 /**
  *
@@ -25,6 +35,8 @@ import org.junit.Test;
  */
 public class DefaultSessionManagerTest extends AbstractStatsSessionManagerTestCase {
 
+    private long currentTimeMillis = 0;
+
     @Override
     protected StatsSessionManager createSessionManager() {
         return new DefaultSessionManager(mockConfigManager, mockEventManager);
@@ -49,4 +61,235 @@ public class DefaultSessionManagerTest extends AbstractStatsSessionManagerTestCa
             assertEquals("eventManager", npe.getMessage());
         }
     }
+
+    private DefaultSessionManager createBoundedSessionManager(final int maxSessions,
+                                                              final long maxIdleMillis) {
+        return new DefaultSessionManager(mockConfigManager, mockEventManager, maxSessions, maxIdleMillis) {
+            @Override
+            protected StatsSession createSession(final StatsKey key) {
+                return new ConcurrentSession(key, mockEventManager);
+            }
+
+            @Override
+            protected long currentTimeMillis() {
+                return currentTimeMillis;
+            }
+        };
+    }
+
+    private StatsKey key(final String name) {
+        return new DefaultStatsKeyFactory().createKey(name);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructWithZeroMaxSessions() {
+        new DefaultSessionManager(mockConfigManager, mockEventManager, 0, -1);
+    }
+
+    @Test
+    public void testEvictLeastRecentlyAccessed() {
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+        }});
+
+        DefaultSessionManager sessionManager = createBoundedSessionManager(2, -1);
+
+        currentTimeMillis = 100;
+        sessionManager.getOrCreateSession(key("a"));
+        currentTimeMillis = 200;
+        sessionManager.getOrCreateSession(key("b"));
+        currentTimeMillis = 300;
+        sessionManager.getOrCreateSession(key("a"));
+
+        currentTimeMillis = 400;
+        StatsSession session = sessionManager.getOrCreateSession(key("c"));
+
+        assertEquals(2, sessionManager.getSessionCount());
+        assertNull(sessionManager.getSession(key("b")));
+        assertNotNull(sessionManager.getSession(key("a")));
+        assertSame(session, sessionManager.getSession(key("c")));
+        assertEquals(1, sessionManager.getCapacityEvictionCount());
+        assertEquals(1, sessionManager.getEvictionCount());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyAccessedIgnoresDrainedData() {
+        final Tracker mockTracker = mockery.mock(Tracker.class);
+
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+        }});
+
+        DefaultSessionManager sessionManager = createBoundedSessionManager(2, -1);
+
+        currentTimeMillis = 100;
+        sessionManager.getOrCreateSession(key("cold")).track(mockTracker, 100);
+        currentTimeMillis = 200;
+        StatsSession hotSession = sessionManager.getOrCreateSession(key("hot"));
+        hotSession.track(mockTracker, 200);
+        hotSession.drainData();
+
+        currentTimeMillis = 300;
+        sessionManager.getOrCreateSession(key("new"));
+
+        assertNull(sessionManager.getSession(key("cold")));
+        assertSame(hotSession, sessionManager.getSession(key("hot")));
+    }
+
+    @Test
+    public void testSessionCountStaysBounded() {
+        final Tracker mockTracker = mockery.mock(Tracker.class);
+
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+        }});
+
+        DefaultSessionManager sessionManager = createBoundedSessionManager(10, -1);
+
+        for (int i = 0; i < 1000; i++) {
+            sessionManager.getOrCreateSession(key("k" + i)).track(mockTracker, i);
+        }
+
+        assertEquals(10, sessionManager.getSessionCount());
+        assertEquals(990, sessionManager.getEvictionCount());
+        assertNotNull(sessionManager.getSession(key("k999")));
+    }
+
+    @Test
+    public void testEvictionFiresSessionDestroyed() {
+        final StatsKey evictedKey = key("a");
+
+        mockery.checking(new Expectations() {{
+            allowing(mockEventManager).fireEvent(with(EventType.SESSION_CREATED),
+                                                 with(any(StatsKey.class)),
+                                                 with(any(Object.class)));
+            one(mockEventManager).fireEvent(with(EventType.SESSION_DESTROYED),
+                                            with(evictedKey),
+                                            with(any(Object.class)));
+        }});
+
+        DefaultSessionManager sessionManager = createBoundedSessionManager(1, -1);
+
+        sessionManager.getOrCreateSession(evictedKey);
+        sessionManager.getOrCreateSession(key("b"));
+
+        assertEquals(1, sessionManager.getSessionCount());
+    }
+
+    @Test
+    public void testEvictIdleSessions() {
+        final Tracker mockTracker = mockery.mock(Tracker.class);
+
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+        }});
+
+        DefaultSessionManager sessionManager = createBoundedSessionManager(Integer.MAX_VALUE, 60000);
+
+        currentTimeMillis = 1000;
+        sessionManager.getOrCreateSession(key("idle")).track(mockTracker, 1000);
+        sessionManager.getOrCreateSession(key("active"));
+        sessionManager.getOrCreateSession(key("new"));
+
+        currentTimeMillis = 121000;
+        sessionManager.getOrCreateSession(key("active")).track(mockTracker, 121000);
+        sessionManager.getOrCreateSession(key("new"));
+
+        assertEquals(1, sessionManager.evictIdleSessions());
+
+        assertNull(sessionManager.getSession(key("idle")));
+        assertNotNull(sessionManager.getSession(key("active")));
+        assertNotNull(sessionManager.getSession(key("new")));
+        assertEquals(1, sessionManager.getIdleEvictionCount());
+        assertEquals(2, sessionManager.getSessionCount());
+    }
+
+    @Test
+    public void testEvictDrainedIdleSession() {
+        final Tracker mockTracker = mockery.mock(Tracker.class);
+
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+        }});
+
+        DefaultSessionManager sessionManager = createBoundedSessionManager(Integer.MAX_VALUE, 60000);
+
+        currentTimeMillis = 1000;
+        StatsSession session = sessionManager.getOrCreateSession(key("idle"));
+        session.track(mockTracker, 1000);
+        session.drainData();
+
+        currentTimeMillis = 121000;
+
+        assertEquals(1, sessionManager.evictIdleSessions());
+        assertNull(sessionManager.getSession(key("idle")));
+    }
+
+    @Test
+    public void testEvictIdleSessionsWhenDisabled() {
+        DefaultSessionManager sessionManager = createBoundedSessionManager(Integer.MAX_VALUE, -1);
+        assertEquals(0, sessionManager.evictIdleSessions());
+    }
+
+    @Test
+    public void testSubKeysFoldIntoOverflowKey() {
+        final StatsConfig config = new DefaultStatsConfigBuilder(mockConfigManager).withMaxSubKeys(2)
+                                                                                    .newConfig();
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+            allowing(mockConfigManager).getOrCreateConfig(with(any(StatsKey.class)));
+            will(returnValue(config));
+        }});
+
+        DefaultSessionManager sessionManager = createBoundedSessionManager(Integer.MAX_VALUE, -1);
+
+        StatsKey key1 = key("test").buildCopy().withAttribute("a", 1).newKey();
+        StatsKey key2 = key("test").buildCopy().withAttribute("a", 2).newKey();
+        StatsKey key3 = key("test").buildCopy().withAttribute("a", 3).newKey();
+        StatsKey key4 = key("test").buildCopy().withAttribute("a", 4).newKey();
+
+        StatsSession session1 = sessionManager.getOrCreateSession(key1);
+        sessionManager.getOrCreateSession(key2);
+        StatsSession overflowSession = sessionManager.getOrCreateSession(key3);
+
+        assertEquals(key1, session1.getKey());
+        assertEquals(Boolean.TRUE, overflowSession.getKey().getAttribute(DefaultSessionManager.OVERFLOW_ATTRIBUTE));
+        assertEquals(1, overflowSession.getKey().getAttributeCount());
+        assertEquals("test", overflowSession.getKey().getName());
+
+        assertSame(overflowSession, sessionManager.getOrCreateSession(key4));
+        assertSame(session1, sessionManager.getOrCreateSession(key1));
+        assertEquals(3, sessionManager.getSessionCount());
+        assertEquals(2, sessionManager.getOverflowCount());
+
+        // Repeated lookups of a folded sub-key count once
+        sessionManager.getOrCreateSession(key3);
+        sessionManager.getOrCreateSession(key4);
+        sessionManager.getOrCreateSession(key3);
+        assertEquals(2, sessionManager.getOverflowCount());
+
+        // Removing a sub-key frees its slot
+        sessionManager.remove(key1);
+        assertEquals(key3, sessionManager.getOrCreateSession(key3).getKey());
+    }
+
+    @Test
+    public void testKeysWithoutAttributesAreNotLimited() {
+        final StatsConfig config = new DefaultStatsConfigBuilder(mockConfigManager).withMaxSubKeys(1)
+                                                                                    .newConfig();
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+            allowing(mockConfigManager).getOrCreateConfig(with(any(StatsKey.class)));
+            will(returnValue(config));
+        }});
+
+        DefaultSessionManager sessionManager = createBoundedSessionManager(Integer.MAX_VALUE, -1);
+
+        sessionManager.getOrCreateSession(key("a"));
+        sessionManager.getOrCreateSession(key("b"));
+        sessionManager.getOrCreateSession(key("a").buildCopy().withAttribute("x", 1).newKey());
+
+        assertEquals(3, sessionManager.getSessionCount());
+        assertEquals(0, sessionManager.getOverflowCount());
+    }
 }
@@ -0,0 +1,280 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.jmock.Expectations;
+import org.junit.Test;
+import org.stajistics.SimpleStatsKey;
+import org.stajistics.StatsKey;
+import org.stajistics.StatsManager;
+import org.stajistics.StatsManagerRegistry;
+import org.stajistics.TestUtil;
+import org.stajistics.bootstrap.DefaultStatsManagerFactory;
+import org.stajistics.data.DataSet;
+import org.stajistics.event.EventManager;
+import org.stajistics.event.SynchronousEventManager;
+import org.stajistics.session.recorder.DataRecorder;
+import org.stajistics.tracker.Tracker;
+import org.stajistics.tracker.manual.DefaultManualTracker;
+
+/**
+ * @author The Stajistics Project
+ */
+public class RingBufferSessionTest extends AbstractStatsSessionTestCase {
+
+    @Override
+    protected StatsSession createStatsSession(final DataRecorder... dataRecorders) {
+        return new FlushingRingBufferSession(mockKey, mockEventManager, 8, dataRecorders);
+    }
+
+    @Override
+    @Test
+    public void testConstructWithNullKey() {
+        try {
+            new RingBufferSession(null, mockEventManager, 8, null);
+            fail();
+        } catch (NullPointerException npe) {
+            assertEquals("key", npe.getMessage());
+        }
+    }
+
+    @Override
+    @Test
+    public void testConstructWithNullEventManager() {
+        try {
+            new RingBufferSession(mockKey, null, 8, null);
+            fail();
+        } catch (NullPointerException npe) {
+            assertEquals("eventManager", npe.getMessage());
+        }
+    }
+
+    @Test
+    public void testCapacityIsPowerOfTwo() {
+        assertEquals(1, new RingBufferSession(mockKey, mockEventManager, 1, null).getCapacity());
+        assertEquals(16, new RingBufferSession(mockKey, mockEventManager, 9, null).getCapacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructWithZeroCapacity() {
+        new RingBufferSession(mockKey, mockEventManager, 0, null);
+    }
+
+    @Test
+    public void testEntriesArePendingUntilFlushed() {
+        RingBufferSession session = new RingBufferSession(mockKey, mockEventManager, 8, null);
+
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+            one(mockTracker).getValue(); will(returnValue(3.0));
+        }});
+
+        session.track(mockTracker, 1L);
+        session.update(mockTracker, 1L);
+
+        assertEquals(2, session.getPendingCount());
+        assertEquals(0, session.getHits());
+
+        session.flush();
+
+        assertEquals(0, session.getPendingCount());
+        assertEquals(1, session.getHits());
+        assertEquals(1, session.getCommits());
+        assertEquals(3, session.getSum(), TestUtil.DELTA);
+    }
+
+    @Test
+    public void testCollectDataConsumesPendingEntries() {
+        RingBufferSession session = new RingBufferSession(mockKey, mockEventManager, 8, null);
+
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+            allowing(mockTracker).getValue(); will(returnValue(1.0));
+        }});
+
+        session.track(mockTracker, 1L);
+        session.update(mockTracker, 1L);
+
+        assertEquals(1L, (long) session.collectData().getField(DataSet.Field.COMMITS, Long.class));
+    }
+
+    @Test
+    public void testProducerConsumesWhenFull() {
+        RingBufferSession session = new RingBufferSession(mockKey, mockEventManager, 4, null);
+
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+        }});
+
+        for (int i = 0; i < 10; i++) {
+            session.track(mockTracker, i + 1);
+        }
+
+        assertEquals(10, session.getHits() + session.getPendingCount());
+        assertEquals(true, session.getPendingCount() <= session.getCapacity());
+
+        session.flush();
+
+        assertEquals(10, session.getHits());
+        assertEquals(1, session.getFirstHitStamp());
+        assertEquals(10, session.getLastHitStamp());
+    }
+
+    @Test
+    public void testRecordersReceiveValueReadAtUpdateTime() {
+        final double[] recorded = new double[1];
+        final DataRecorder recorder = new AbstractStatsSessionTestCase.NastyDataRecorder() {
+            @Override
+            public void update(final StatsSession session, final Tracker tracker, final long now) {
+                recorded[0] = tracker.getValue();
+            }
+        };
+
+        RingBufferSession session = new RingBufferSession(mockKey, mockEventManager, 8, null, recorder);
+
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+            one(mockTracker).getValue(); will(returnValue(5.0));
+        }});
+
+        session.update(mockTracker, 1L);
+        session.flush();
+
+        assertEquals(5, recorded[0], TestUtil.DELTA);
+    }
+
+    @Test(timeout = 5000)
+    public void testDrainerConsumesInBackground() throws InterruptedException {
+        RingBufferSession session = new RingBufferSession(new SimpleStatsKey(null, "test", null),
+                                                          new SynchronousEventManager(),
+                                                          8,
+                                                          new RingBufferSession.Drainer());
+        DefaultManualTracker tracker = new DefaultManualTracker(session);
+        for (int i = 0; i < 100; i++) {
+            tracker.setValue(1).commit();
+        }
+
+        while (session.getCommits() < 100) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(100, session.getHits());
+        assertEquals(100, session.getSum(), TestUtil.DELTA);
+    }
+
+    @Test(timeout = 5000)
+    public void testReentrantTrackWhenFullDoesNotSpin() {
+        final RingBufferSession[] sessionHolder = new RingBufferSession[1];
+        final DataRecorder recorder = new AbstractStatsSessionTestCase.NastyDataRecorder() {
+            @Override
+            public void update(final StatsSession session, final Tracker tracker, final long now) {
+                // Called while the session is consuming, and overfills the ring buffer
+                for (int i = 0; i < 10; i++) {
+                    sessionHolder[0].track(tracker, now);
+                }
+            }
+        };
+
+        RingBufferSession session = new RingBufferSession(mockKey, mockEventManager, 2, null, recorder);
+        sessionHolder[0] = session;
+
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+            allowing(mockTracker).getValue(); will(returnValue(1.0));
+        }});
+
+        session.update(mockTracker, 1L);
+        session.flush();
+
+        assertEquals(10, session.getHits());
+        assertEquals(1, session.getCommits());
+    }
+
+    @Test(timeout = 5000)
+    public void testDrainerShutdown() throws InterruptedException {
+        RingBufferSession.Drainer drainer = new RingBufferSession.Drainer();
+        RingBufferSession session = new RingBufferSession(new SimpleStatsKey(null, "test", null),
+                                                          new SynchronousEventManager(),
+                                                          8,
+                                                          drainer);
+        DefaultManualTracker tracker = new DefaultManualTracker(session);
+        tracker.setValue(1).commit();
+
+        while (session.getCommits() < 1) {
+            Thread.sleep(1);
+        }
+
+        drainer.shutdown();
+        assertTrue(drainer.isShutdown());
+
+        tracker.setValue(1).commit();
+        Thread.sleep(50);
+
+        // Only consumed upon demand once the drainer is shut down
+        assertEquals(1, session.getCommits());
+        assertEquals(2, session.collectData().getField(DataSet.Field.COMMITS, Long.class).longValue());
+    }
+
+    @Test
+    public void testManagerDrainerIsShutDownWithManager() {
+        StatsManager statsManager = new DefaultStatsManagerFactory().createManager("RingBufferSessionTest");
+        try {
+            RingBufferSession.Drainer drainer = RingBufferSession.Drainer.getInstance(statsManager);
+            assertSame(drainer, RingBufferSession.Drainer.getInstance(statsManager));
+            assertFalse(drainer.isShutdown());
+
+            statsManager.shutdown();
+
+            assertTrue(drainer.isShutdown());
+            assertNotSame(drainer, RingBufferSession.Drainer.getInstance(statsManager));
+        } finally {
+            StatsManagerRegistry.getInstance().removeStatsManager(statsManager);
+        }
+    }
+
+    /* NESTED CLASSES */
+
+    /**
+     * Consumes each entry as soon as it is published, to make assertions deterministic.
+     */
+    private static class FlushingRingBufferSession extends RingBufferSession {
+
+        FlushingRingBufferSession(final StatsKey key,
+                                  final EventManager eventManager,
+                                  final int capacity,
+                                  final DataRecorder... dataRecorders) {
+            super(key, eventManager, capacity, null, dataRecorders);
+        }
+
+        @Override
+        public void track(final Tracker tracker, final long now) {
+            super.track(tracker, now);
+            flush();
+        }
+
+        @Override
+        public void update(final Tracker tracker, final long now) {
+            super.update(tracker, now);
+            flush();
+        }
+    }
+}
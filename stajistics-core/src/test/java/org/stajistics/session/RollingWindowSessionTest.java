@@ -0,0 +1,286 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import org.jmock.Expectations;
+import org.junit.Test;
+import org.stajistics.StatsKey;
+import org.stajistics.TestUtil;
+import org.stajistics.data.DataSet;
+import org.stajistics.event.EventManager;
+import org.stajistics.session.recorder.DataRecorder;
+import org.stajistics.session.recorder.DataRecorderFactory;
+import org.stajistics.session.recorder.DistributionDataRecorder;
+import org.stajistics.tracker.Tracker;
+
+/**
+ * @author The Stajistics Project
+ */
+public class RollingWindowSessionTest extends AbstractStatsSessionTestCase {
+
+    private int trackers;
+
+    @Override
+    protected StatsSession createStatsSession(final DataRecorder... dataRecorders) {
+        // A window wide enough that every test timestamp falls into the same bucket
+        return new RollingWindowSession(mockKey,
+                                        mockEventManager,
+                                        Long.MAX_VALUE / 8 * 4,
+                                        4,
+                                        null,
+                                        dataRecorders);
+    }
+
+    private ClockedSession createClockedSession(final long windowMillis,
+                                                final int bucketCount) {
+        DataRecorderFactory dataRecorderFactory = new DataRecorderFactory() {
+            @Override
+            public DataRecorder[] createDataRecorders() {
+                return new DataRecorder[] { new DistributionDataRecorder() };
+            }
+        };
+
+        return new ClockedSession(mockKey,
+                                  mockEventManager,
+                                  windowMillis,
+                                  bucketCount,
+                                  dataRecorderFactory,
+                                  dataRecorderFactory.createDataRecorders());
+    }
+
+    private void commit(final ClockedSession session,
+                        final double value,
+                        final long now) {
+        // Both the session and its DataRecorder read the value
+        final Tracker tracker = mockery.mock(Tracker.class, "tracker" + (++trackers));
+        mockery.checking(new Expectations() {{
+            allowing(tracker).getValue(); will(returnValue(value));
+        }});
+
+        session.time = now;
+        session.track(tracker, now);
+        session.update(tracker, now);
+    }
+
+    @Override
+    @Test
+    public void testConstructWithNullKey() {
+        try {
+            new RollingWindowSession(null, mockEventManager, 1000, 10, null, new DataRecorder[0]);
+            fail();
+        } catch (NullPointerException npe) {
+            assertEquals("key", npe.getMessage());
+        }
+    }
+
+    @Override
+    @Test
+    public void testConstructWithNullEventManager() {
+        try {
+            new RollingWindowSession(mockKey, null, 1000, 10, null, new DataRecorder[0]);
+            fail();
+        } catch (NullPointerException npe) {
+            assertEquals("eventManager", npe.getMessage());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructWithZeroWindow() {
+        new RollingWindowSession(mockKey, mockEventManager, 0, 10, null, new DataRecorder[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructWithMoreBucketsThanMillis() {
+        new RollingWindowSession(mockKey, mockEventManager, 10, 11, null, new DataRecorder[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructWithIndivisibleWindow() {
+        new RollingWindowSession(mockKey, mockEventManager, 1000, 7, null, new DataRecorder[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFactoryWithIndivisibleWindow() {
+        new RollingWindowSession.Factory(1000, 7);
+    }
+
+    @Test
+    public void testOnlyWindowIsReported() {
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+        }});
+
+        ClockedSession session = createClockedSession(1000, 10);
+
+        commit(session, 5, 50);
+        commit(session, 1, 150);
+        commit(session, 3, 950);
+
+        assertEquals(3, session.getHits());
+        assertEquals(3, session.getCommits());
+        assertEquals(50, session.getFirstHitStamp());
+        assertEquals(5, session.getFirst(), TestUtil.DELTA);
+        assertEquals(1, session.getMin(), TestUtil.DELTA);
+        assertEquals(5, session.getMax(), TestUtil.DELTA);
+        assertEquals(9, session.getSum(), TestUtil.DELTA);
+
+        // The bucket holding the first value leaves the window
+        session.time = 1000;
+
+        assertEquals(2, session.getHits());
+        assertEquals(2, session.getCommits());
+        assertEquals(150, session.getFirstHitStamp());
+        assertEquals(950, session.getLastHitStamp());
+        assertEquals(1, session.getFirst(), TestUtil.DELTA);
+        assertEquals(3, session.getLast(), TestUtil.DELTA);
+        assertEquals(1, session.getMin(), TestUtil.DELTA);
+        assertEquals(3, session.getMax(), TestUtil.DELTA);
+        assertEquals(4, session.getSum(), TestUtil.DELTA);
+
+        // Everything leaves the window
+        session.time = 2000;
+
+        assertEquals(0, session.getHits());
+        assertEquals(0, session.getCommits());
+        assertEquals(DataSet.Field.Default.MIN, session.getMin(), TestUtil.DELTA);
+        assertEquals(DataSet.Field.Default.SUM, session.getSum(), TestUtil.DELTA);
+    }
+
+    @Test
+    public void testBucketIsRecycled() {
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+        }});
+
+        ClockedSession session = createClockedSession(1000, 10);
+
+        commit(session, 7, 50);
+        commit(session, 2, 1050);
+
+        assertEquals(1, session.getHits());
+        assertEquals(2, session.getMax(), TestUtil.DELTA);
+        assertEquals(2, session.getFirst(), TestUtil.DELTA);
+    }
+
+    @Test
+    public void testDataRecordersReportWindow() {
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+        }});
+
+        ClockedSession session = createClockedSession(1000, 10);
+
+        commit(session, 2, 50);
+        commit(session, 3, 550);
+        commit(session, 4, 650);
+
+        assertEquals(24.0, session.getField(DistributionDataRecorder.Field.PRODUCT));
+
+        session.time = 1100;
+
+        DataSet dataSet = session.collectData();
+        assertEquals(12.0, dataSet.getField(DistributionDataRecorder.Field.PRODUCT));
+        assertEquals(25.0, dataSet.getField(DistributionDataRecorder.Field.SUM_OF_SQUARES));
+        assertEquals(3.5, dataSet.getField(DistributionDataRecorder.Field.ARITHMETIC_MEAN));
+    }
+
+    @Test
+    public void testBucketDataRecordersCreatedOnFirstUse() {
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+        }});
+
+        final int[] created = new int[1];
+        DataRecorderFactory dataRecorderFactory = new DataRecorderFactory() {
+            @Override
+            public DataRecorder[] createDataRecorders() {
+                created[0]++;
+                return new DataRecorder[] { new DistributionDataRecorder() };
+            }
+        };
+
+        ClockedSession session = new ClockedSession(mockKey,
+                                                    mockEventManager,
+                                                    1000,
+                                                    10,
+                                                    dataRecorderFactory,
+                                                    new DistributionDataRecorder());
+        assertEquals(0, created[0]);
+
+        commit(session, 2, 50);
+        commit(session, 3, 60);
+        assertEquals(1, created[0]);
+
+        commit(session, 4, 550);
+        assertEquals(2, created[0]);
+
+        session.time = 1100;
+        assertEquals(4.0, session.getField(DistributionDataRecorder.Field.PRODUCT));
+    }
+
+    @Test
+    public void testDrainDataEmptiesWindow() {
+        mockery.checking(new Expectations() {{
+            ignoring(mockEventManager);
+        }});
+
+        ClockedSession session = createClockedSession(1000, 10);
+
+        commit(session, 2, 50);
+        commit(session, 3, 550);
+
+        DataSet dataSet = session.drainData();
+        assertEquals(2L, dataSet.getField(DataSet.Field.COMMITS));
+        assertEquals(6.0, dataSet.getField(DistributionDataRecorder.Field.PRODUCT));
+
+        assertEquals(0, session.getCommits());
+        assertEquals(1.0, session.getField(DistributionDataRecorder.Field.PRODUCT));
+    }
+
+    @Test
+    public void testFactoryEquals() {
+        assertEquals(new RollingWindowSession.Factory(1000, 10),
+                     new RollingWindowSession.Factory(1000, 10));
+        assertEquals(new RollingWindowSession.Factory(1000, 10).hashCode(),
+                     new RollingWindowSession.Factory(1000, 10).hashCode());
+        assertFalse(new RollingWindowSession.Factory(1000, 10)
+                        .equals(new RollingWindowSession.Factory(1000, 20)));
+    }
+
+    /* NESTED CLASSES */
+
+    private static class ClockedSession extends RollingWindowSession {
+
+        long time;
+
+        ClockedSession(final StatsKey key,
+                       final EventManager eventManager,
+                       final long windowMillis,
+                       final int bucketCount,
+                       final DataRecorderFactory dataRecorderFactory,
+                       final DataRecorder... dataRecorders) {
+            super(key, eventManager, windowMillis, bucketCount, dataRecorderFactory, dataRecorders);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return time;
+        }
+    }
+}
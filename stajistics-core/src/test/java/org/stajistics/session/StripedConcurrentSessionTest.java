@@ -0,0 +1,186 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.stajistics.SimpleStatsKey;
+import org.stajistics.TestUtil;
+import org.stajistics.data.DataSet;
+import org.stajistics.event.SynchronousEventManager;
+import org.stajistics.session.recorder.DataRecorder;
+import org.stajistics.session.recorder.DefaultDataRecorderFactory;
+import org.stajistics.session.recorder.DistributionDataRecorder;
+import org.stajistics.tracker.manual.DefaultManualTracker;
+
+/**
+ * @author The Stajistics Project
+ */
+public class StripedConcurrentSessionTest extends AbstractStatsSessionTestCase {
+
+    @Override
+    protected StatsSession createStatsSession(final DataRecorder... dataRecorders) {
+        return new StripedConcurrentSession(mockKey, mockEventManager, 4, dataRecorders);
+    }
+
+    @Override
+    @Test
+    public void testConstructWithNullKey() {
+        try {
+            new StripedConcurrentSession(null, mockEventManager, new DataRecorder[0]);
+            fail();
+        } catch (NullPointerException npe) {
+            assertEquals("key", npe.getMessage());
+        }
+    }
+
+    @Override
+    @Test
+    public void testConstructWithNullEventManager() {
+        try {
+            new StripedConcurrentSession(mockKey, null, new DataRecorder[0]);
+            fail();
+        } catch (NullPointerException npe) {
+            assertEquals("eventManager", npe.getMessage());
+        }
+    }
+
+    @Test
+    public void testStripeCountIsPowerOfTwo() {
+        assertEquals(1, new StripedConcurrentSession(mockKey, mockEventManager, 1).getStripeCount());
+        assertEquals(4, new StripedConcurrentSession(mockKey, mockEventManager, 3).getStripeCount());
+        assertEquals(8, new StripedConcurrentSession(mockKey, mockEventManager, 8).getStripeCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructWithZeroStripes() {
+        new StripedConcurrentSession(mockKey, mockEventManager, 0);
+    }
+
+    @Test
+    public void testConcurrentUpdatesAreFolded() throws Exception {
+        final int threadCount = 8;
+        final int updatesPerThread = 10000;
+
+        final StatsSession session = new StripedConcurrentSession(new SimpleStatsKey(null, "test", null),
+                                                                  new SynchronousEventManager(),
+                                                                  4);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch endLatch = new CountDownLatch(threadCount);
+
+        for (int i = 0; i < threadCount; i++) {
+            final double value = i + 1;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        DefaultManualTracker tracker = new DefaultManualTracker(session);
+                        tracker.setValue(value);
+                        startLatch.await();
+                        for (int j = 0; j < updatesPerThread; j++) {
+                            tracker.commit();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        endLatch.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        startLatch.countDown();
+        endLatch.await();
+
+        assertEquals(threadCount * updatesPerThread, session.getHits());
+        assertEquals(threadCount * updatesPerThread, session.getCommits());
+        assertEquals(1, session.getMin(), TestUtil.DELTA);
+        assertEquals(threadCount, session.getMax(), TestUtil.DELTA);
+        assertEquals(updatesPerThread * (threadCount * (threadCount + 1) / 2), session.getSum(), TestUtil.DELTA);
+    }
+
+    @Test
+    public void testDrainDataDuringUpdatesLosesNothing() throws Exception {
+        final int threadCount = 4;
+        final int updatesPerThread = 20000;
+
+        final StatsSession session = new StripedConcurrentSession(new SimpleStatsKey(null, "test", null),
+                                                                  new SynchronousEventManager(),
+                                                                  4);
+        final CountDownLatch endLatch = startCommitting(session, threadCount, updatesPerThread, 1);
+
+        long hits = 0;
+        long commits = 0;
+        double sum = 0;
+        do {
+            DataSet dataSet = session.drainData();
+            hits += dataSet.getField(DataSet.Field.HITS, Long.class);
+            commits += dataSet.getField(DataSet.Field.COMMITS, Long.class);
+            sum += dataSet.getField(DataSet.Field.SUM, Double.class);
+        } while (endLatch.getCount() > 0 || session.getHits() > 0 || session.getCommits() > 0);
+
+        assertEquals(threadCount * updatesPerThread, hits);
+        assertEquals(threadCount * updatesPerThread, commits);
+        assertEquals(threadCount * updatesPerThread, sum, TestUtil.DELTA);
+    }
+
+    @Test
+    public void testDrainDataDuringUpdatesLosesNoDataRecorderUpdates() throws Exception {
+        final int threadCount = 4;
+        final int updatesPerThread = 20000;
+
+        final StatsSession session = new StripedConcurrentSession(new SimpleStatsKey(null, "test", null),
+                                                                  new SynchronousEventManager(),
+                                                                  4,
+                                                                  DefaultDataRecorderFactory.getInstance(),
+                                                                  new DistributionDataRecorder());
+        final CountDownLatch endLatch = startCommitting(session, threadCount, updatesPerThread, 2);
+
+        long commits = 0;
+        double sumOfSquares = 0;
+        do {
+            DataSet dataSet = session.drainData();
+            commits += dataSet.getField(DataSet.Field.COMMITS, Long.class);
+            sumOfSquares += dataSet.getField(DistributionDataRecorder.Field.SUM_OF_SQUARES, Double.class);
+        } while (endLatch.getCount() > 0 || session.getCommits() > 0);
+
+        assertEquals(threadCount * updatesPerThread, commits);
+        assertEquals(threadCount * updatesPerThread * 4, sumOfSquares, TestUtil.DELTA);
+    }
+
+    @Test
+    public void testDrainDataFromDataRecorderUpdate() {
+        final StatsSession[] sessionHolder = new StatsSession[1];
+        final DataRecorder drainingDataRecorder = new DrainingDataRecorder(sessionHolder);
+
+        final StatsSession session = new StripedConcurrentSession(new SimpleStatsKey(null, "test", null),
+                                                                  new SynchronousEventManager(),
+                                                                  4,
+                                                                  drainingDataRecorder);
+        sessionHolder[0] = session;
+
+        DefaultManualTracker tracker = new DefaultManualTracker(session);
+        tracker.setValue(3);
+        tracker.commit();
+
+        // The re-entrant drain reported the update, so nothing is left behind
+        assertEquals(0, session.getCommits());
+        assertEquals(0, session.getSum(), TestUtil.DELTA);
+    }
+}
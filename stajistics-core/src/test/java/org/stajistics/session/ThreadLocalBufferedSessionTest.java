@@ -0,0 +1,137 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.stajistics.SimpleStatsKey;
+import org.stajistics.TestUtil;
+import org.stajistics.data.DataSet;
+import org.stajistics.event.SynchronousEventManager;
+import org.stajistics.session.recorder.DataRecorder;
+import org.stajistics.tracker.manual.DefaultManualTracker;
+
+/**
+ * @author The Stajistics Project
+ */
+public class ThreadLocalBufferedSessionTest extends AbstractStatsSessionTestCase {
+
+    @Override
+    protected StatsSession createStatsSession(final DataRecorder... dataRecorders) {
+        return new ThreadLocalBufferedSession(mockKey, mockEventManager, 60000L, dataRecorders);
+    }
+
+    @Override
+    @Test
+    public void testConstructWithNullKey() {
+        try {
+            new ThreadLocalBufferedSession(null, mockEventManager, new DataRecorder[0]);
+            fail();
+        } catch (NullPointerException npe) {
+            assertEquals("key", npe.getMessage());
+        }
+    }
+
+    @Override
+    @Test
+    public void testConstructWithNullEventManager() {
+        try {
+            new ThreadLocalBufferedSession(mockKey, null, new DataRecorder[0]);
+            fail();
+        } catch (NullPointerException npe) {
+            assertEquals("eventManager", npe.getMessage());
+        }
+    }
+
+    @Test
+    public void testBuffersOfAllThreadsAreMergedOnDrain() throws Exception {
+        final int threadCount = 4;
+        final int updatesPerThread = 5000;
+
+        final StatsSession session = new ThreadLocalBufferedSession(new SimpleStatsKey(null, "test", null),
+                                                                    new SynchronousEventManager(),
+                                                                    60000L);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch endLatch = new CountDownLatch(threadCount);
+
+        for (int i = 0; i < threadCount; i++) {
+            final double value = i + 1;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        DefaultManualTracker tracker = new DefaultManualTracker(session);
+                        tracker.setValue(value);
+                        startLatch.await();
+                        for (int j = 0; j < updatesPerThread; j++) {
+                            tracker.commit();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        endLatch.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        startLatch.countDown();
+
+        long drainedCommits = 0;
+        double drainedSum = 0;
+        while (endLatch.getCount() > 0) {
+            DataSet dataSet = session.drainData();
+            drainedCommits += dataSet.getField(DataSet.Field.COMMITS, Long.class);
+            drainedSum += dataSet.getField(DataSet.Field.SUM, Double.class);
+        }
+        endLatch.await();
+
+        DataSet dataSet = session.drainData();
+        drainedCommits += dataSet.getField(DataSet.Field.COMMITS, Long.class);
+        drainedSum += dataSet.getField(DataSet.Field.SUM, Double.class);
+
+        assertEquals(threadCount * updatesPerThread, drainedCommits);
+        assertEquals(updatesPerThread * (threadCount * (threadCount + 1) / 2), drainedSum, TestUtil.DELTA);
+    }
+
+    @Test
+    public void testSerializedSessionRetainsBufferedData() throws Exception {
+        ThreadLocalBufferedSession session = new ThreadLocalBufferedSession(new SimpleStatsKey(null, "test", null),
+                                                                            new SynchronousEventManager(),
+                                                                            60000L);
+        new DefaultManualTracker(session).setValue(2).commit();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(session);
+        out.close();
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        ThreadLocalBufferedSession copy = (ThreadLocalBufferedSession) in.readObject();
+
+        new DefaultManualTracker(copy).setValue(3).commit();
+
+        assertEquals(2, copy.getHits());
+        assertEquals(5, copy.getSum(), TestUtil.DELTA);
+    }
+}
@@ -17,6 +17,7 @@ package org.stajistics.session.recorder;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import org.jmock.Expectations;
 import org.junit.Before;
@@ -79,6 +80,34 @@ public abstract class AbstractDataRecorderTestCase extends AbstractStajisticsTes
         }
     }
 
+    @Test
+    public void testIndexedFieldsEqualNamedFields() {
+        if (!(dataRecorder instanceof IndexedFieldDataRecorder)) {
+            return;
+        }
+
+        buildStatsSessionExpectations();
+
+        IndexedFieldDataRecorder indexed = (IndexedFieldDataRecorder) dataRecorder;
+        for (String fieldName : dataRecorder.getSupportedFieldNames()) {
+            int index = indexed.getFieldIndex(fieldName);
+            assertTrue(fieldName, index >= 0);
+
+            Object value = dataRecorder.getField(mockSession, fieldName);
+            assertEquals(fieldName, value, indexed.getField(mockSession, index));
+            if (value instanceof Number) {
+                assertEquals(fieldName,
+                             ((Number) value).doubleValue(),
+                             indexed.getDoubleField(mockSession, index),
+                             0);
+            } else {
+                assertTrue(fieldName, Double.isNaN(indexed.getDoubleField(mockSession, index)));
+            }
+        }
+
+        assertEquals(-1, indexed.getFieldIndex("notAField"));
+    }
+
     @Test
     public void testClear() {
 
@@ -0,0 +1,103 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+import static org.junit.Assert.assertEquals;
+
+import org.jmock.Expectations;
+import org.junit.Test;
+import org.stajistics.TestUtil;
+import org.stajistics.data.DataSet;
+import org.stajistics.data.DefaultDataSet;
+
+/**
+ * @author The Stajistics Project
+ */
+public class CompactDistributionDataRecorderTest extends AbstractDataRecorderTestCase {
+
+    @Override
+    protected DataRecorder createDataRecorder() {
+        return new CompactDistributionDataRecorder();
+    }
+
+    @Test
+    public void testCollectsSameDataAsDistributionDataRecorder() {
+        mockery.checking(new Expectations() {{
+            allowing(mockTracker).getValue(); will(onConsecutiveCalls(returnValue(2.0),
+                                                                      returnValue(4.0),
+                                                                      returnValue(2.0),
+                                                                      returnValue(4.0)));
+        }});
+        buildStatsSessionExpectations();
+
+        DataRecorder distribution = new DistributionDataRecorder();
+
+        dataRecorder.update(mockSession, mockTracker, 1L);
+        dataRecorder.update(mockSession, mockTracker, 2L);
+        distribution.update(mockSession, mockTracker, 1L);
+        distribution.update(mockSession, mockTracker, 2L);
+
+        DataSet compactData = new DefaultDataSet(-1L, false);
+        DataSet distributionData = new DefaultDataSet(-1L, false);
+        dataRecorder.collectData(mockSession, compactData);
+        distribution.collectData(mockSession, distributionData);
+
+        assertEquals(distributionData, compactData);
+    }
+
+    @Test
+    public void testMergeDistributionDataRecorder() {
+        mockery.checking(new Expectations() {{
+            allowing(mockTracker).getValue(); will(onConsecutiveCalls(returnValue(2.0),
+                                                                      returnValue(4.0)));
+        }});
+
+        DistributionDataRecorder other = new DistributionDataRecorder();
+
+        dataRecorder.update(mockSession, mockTracker, 1L);
+        other.update(mockSession, mockTracker, 2L);
+
+        ((MergeableDataRecorder) dataRecorder).merge(other);
+
+        assertEquals(8.0, (Double) dataRecorder.getField(mockSession, DistributionDataRecorder.Field.PRODUCT),
+                     TestUtil.DELTA);
+        assertEquals(0.75, (Double) dataRecorder.getField(mockSession, DistributionDataRecorder.Field.SUM_OF_INVERSES),
+                     TestUtil.DELTA);
+        assertEquals(20.0, (Double) dataRecorder.getField(mockSession, DistributionDataRecorder.Field.SUM_OF_SQUARES),
+                     TestUtil.DELTA);
+
+        // And the other way around
+        other.merge(new CompactDistributionDataRecorder());
+        assertEquals(4.0, (Double) other.getField(mockSession, DistributionDataRecorder.Field.PRODUCT),
+                     TestUtil.DELTA);
+    }
+
+    @Test
+    public void testRestore() {
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        dataSet.setField(DistributionDataRecorder.Field.PRODUCT, 6.0);
+        dataSet.setField(DistributionDataRecorder.Field.SUM_OF_SQUARES, 13.0);
+        dataSet.setField(DistributionDataRecorder.Field.SUM_OF_INVERSES, 0.5);
+
+        dataRecorder.restore(dataSet);
+
+        assertEquals(6.0, (Double) dataRecorder.getField(mockSession, DistributionDataRecorder.Field.PRODUCT),
+                     TestUtil.DELTA);
+        assertEquals(13.0, (Double) dataRecorder.getField(mockSession, DistributionDataRecorder.Field.SUM_OF_SQUARES),
+                     TestUtil.DELTA);
+        assertEquals(0.5, (Double) dataRecorder.getField(mockSession, DistributionDataRecorder.Field.SUM_OF_INVERSES),
+                     TestUtil.DELTA);
+    }
+}
@@ -0,0 +1,137 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.concurrent.locks.Lock;
+
+import org.jmock.Expectations;
+import org.jmock.Sequence;
+import org.junit.Before;
+import org.junit.Test;
+import org.stajistics.AbstractStajisticsTestCase;
+import org.stajistics.StatsProperties;
+import org.stajistics.session.StatsSession;
+import org.stajistics.tracker.Tracker;
+
+/**
+ * @author The Stajistics Project
+ */
+public class DataRecorderPipelineTest extends AbstractStajisticsTestCase {
+
+    private StatsSession mockSession;
+    private Tracker mockTracker;
+    private Lock mockLock;
+
+    private DataRecorder unsafe1;
+    private DataRecorder unsafe2;
+    private DataRecorder safe;
+
+    @Before
+    public void setUp() {
+        mockSession = mockery.mock(StatsSession.class);
+        mockTracker = mockery.mock(Tracker.class);
+        mockLock = mockery.mock(Lock.class);
+
+        // Mocks are not annotated with @ThreadSafe
+        unsafe1 = mockery.mock(DataRecorder.class, "unsafe1");
+        unsafe2 = mockery.mock(DataRecorder.class, "unsafe2");
+        safe = new DistributionDataRecorder();
+    }
+
+    @Test
+    public void testSharedLockTakenOnce() {
+        final Sequence sequence = mockery.sequence("update");
+
+        mockery.checking(new Expectations() {{
+            allowing(mockSession).getCommits(); will(returnValue(1L));
+            allowing(mockTracker).getValue(); will(returnValue(1.0));
+
+            one(mockLock).lock(); inSequence(sequence);
+            one(unsafe1).update(mockSession, mockTracker, 1L); inSequence(sequence);
+            one(unsafe2).update(mockSession, mockTracker, 1L); inSequence(sequence);
+            one(mockLock).unlock(); inSequence(sequence);
+        }});
+
+        DataRecorder[] dataRecorders =
+            DataRecorders.lockingIfNeeded(new DataRecorder[] { unsafe1, safe, unsafe2 }, mockLock);
+
+        DataRecorderPipeline.compile(dataRecorders).update(mockSession, mockTracker, 1L);
+    }
+
+    @Test
+    public void testSeparateLocksNotShared() {
+        mockery.checking(new Expectations() {{
+            one(unsafe1).update(mockSession, mockTracker, 1L);
+            one(unsafe2).update(mockSession, mockTracker, 1L);
+        }});
+
+        DataRecorder[] dataRecorders =
+            DataRecorders.lockingIfNeeded(new DataRecorder[] { unsafe1, unsafe2 });
+
+        DataRecorderPipeline.compile(dataRecorders).update(mockSession, mockTracker, 1L);
+    }
+
+    @Test
+    public void testFailureDoesNotStopOthers() {
+        mockery.checking(new Expectations() {{
+            allowing(mockSession).getKey(); will(returnValue(null));
+            allowing(mockLock).lock();
+            allowing(mockLock).unlock();
+
+            one(unsafe1).update(mockSession, mockTracker, 1L); will(throwException(new RuntimeException()));
+            one(unsafe2).update(mockSession, mockTracker, 1L);
+        }});
+
+        DataRecorder[] dataRecorders =
+            DataRecorders.lockingIfNeeded(new DataRecorder[] { unsafe1, unsafe2 }, mockLock);
+
+        DataRecorderPipeline.compile(dataRecorders).update(mockSession, mockTracker, 1L);
+    }
+
+    @Test
+    public void testCompileEmpty() {
+        DataRecorderPipeline.compile(null).update(mockSession, mockTracker, 1L);
+        DataRecorderPipeline.compile(new DataRecorder[0]).update(mockSession, mockTracker, 1L);
+    }
+
+    @Test
+    public void testLockingIfNeededSharesLockWhenEnabled() {
+        StatsProperties.load(new StatsProperties.MapStatsProperties(
+            Collections.<String,Object>singletonMap(DataRecorderPipeline.PROP_ENABLED, "true")));
+        try {
+            DataRecorder[] dataRecorders =
+                DataRecorderPipeline.lockingIfNeeded(new DataRecorder[] { unsafe1, safe, unsafe2 });
+
+            assertSame(safe, dataRecorders[1]);
+            assertNotNull(DataRecorders.getLock(dataRecorders[0]));
+            assertSame(DataRecorders.getLock(dataRecorders[0]), DataRecorders.getLock(dataRecorders[2]));
+        } finally {
+            StatsProperties.load(new StatsProperties.SystemStatsProperties());
+        }
+    }
+
+    @Test
+    public void testLockingIfNeededSeparateLocksWhenDisabled() {
+        DataRecorder[] dataRecorders =
+            DataRecorderPipeline.lockingIfNeeded(new DataRecorder[] { unsafe1, unsafe2 });
+
+        assertNotSame(DataRecorders.getLock(dataRecorders[0]), DataRecorders.getLock(dataRecorders[1]));
+    }
+}
@@ -1,5 +1,12 @@
 package org.stajistics.session.recorder;
 
+import static org.junit.Assert.assertEquals;
+
+import org.jmock.Expectations;
+import org.junit.Test;
+import org.stajistics.TestUtil;
+import org.stajistics.util.RangeList;
+
 /**
  * @author The Stajistics Project
  */
@@ -9,4 +16,37 @@ public class DistributionDataRecorderTest extends AbstractDataRecorderTestCase {
     protected DataRecorder createDataRecorder() {
         return new DistributionDataRecorder();
     }
+
+    @Test
+    public void testMerge() {
+        mockery.checking(new Expectations() {{
+            allowing(mockTracker).getValue(); will(onConsecutiveCalls(returnValue(2.0),
+                                                                      returnValue(4.0)));
+        }});
+
+        DistributionDataRecorder other = new DistributionDataRecorder();
+
+        dataRecorder.update(mockSession, mockTracker, 1L);
+        other.update(mockSession, mockTracker, 2L);
+
+        ((MergeableDataRecorder) dataRecorder).merge(other);
+
+        assertEquals(8.0, (Double) dataRecorder.getField(mockSession, DistributionDataRecorder.Field.PRODUCT),
+                     TestUtil.DELTA);
+        assertEquals(0.75, (Double) dataRecorder.getField(mockSession, DistributionDataRecorder.Field.SUM_OF_INVERSES),
+                     TestUtil.DELTA);
+        assertEquals(20.0, (Double) dataRecorder.getField(mockSession, DistributionDataRecorder.Field.SUM_OF_SQUARES),
+                     TestUtil.DELTA);
+
+        // The other recorder is untouched
+        assertEquals(4.0, (Double) other.getField(mockSession, DistributionDataRecorder.Field.PRODUCT),
+                     TestUtil.DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeIncompatible() {
+        ((MergeableDataRecorder) dataRecorder).merge(new RangeDataRecorder(RangeList.build()
+                                                                                  .addRange(1, 2)
+                                                                                  .rangeList()));
+    }
 }
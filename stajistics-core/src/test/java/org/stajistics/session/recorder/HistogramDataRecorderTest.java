@@ -0,0 +1,235 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.stajistics.StajisticsAssert.assertSerializable;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jmock.Expectations;
+import org.junit.Test;
+import org.stajistics.data.DataSet;
+import org.stajistics.data.DefaultDataSet;
+import org.stajistics.session.recorder.HistogramDataRecorder.Histogram;
+import org.stajistics.tracker.Tracker;
+
+/**
+ * @author The Stajistics Project
+ */
+public class HistogramDataRecorderTest extends AbstractDataRecorderTestCase {
+
+    @Override
+    protected DataRecorder createDataRecorder() {
+        return new HistogramDataRecorder();
+    }
+
+    private HistogramDataRecorder recorder() {
+        return (HistogramDataRecorder) dataRecorder;
+    }
+
+    private void record(final HistogramDataRecorder recorder,
+                        final double... values) {
+        for (final double value : values) {
+            final Tracker tracker = mockery.mock(Tracker.class, "tracker" + recorder.hashCode() + "_" + value);
+            mockery.checking(new Expectations() {{
+                allowing(tracker).getValue(); will(returnValue(value));
+            }});
+            recorder.update(mockSession, tracker, 0L);
+        }
+    }
+
+    private void recordRange(final HistogramDataRecorder recorder,
+                             final int from,
+                             final int to) {
+        final Tracker tracker = mockery.mock(Tracker.class, "tracker" + recorder.hashCode() + "_" + from);
+        mockery.checking(new Expectations() {{
+            for (int i = from; i <= to; i++) {
+                one(tracker).getValue(); will(returnValue((double) i));
+            }
+        }});
+        for (int i = from; i <= to; i++) {
+            recorder.update(mockSession, tracker, 0L);
+        }
+    }
+
+    private static void assertWithinPrecision(final double expected, final double actual) {
+        assertTrue("expected " + expected + " but was " + actual,
+                   Math.abs(expected - actual) <= expected * 0.01 + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructWithNonPositiveLowestDiscernibleValue() {
+        new HistogramDataRecorder(0, 100, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructWithTooSmallRange() {
+        new HistogramDataRecorder(10, 15, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructWithTooManySignificantDigits() {
+        new HistogramDataRecorder(1, 100, 6);
+    }
+
+    @Test
+    public void testEmptyPercentiles() {
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        dataRecorder.collectData(mockSession, dataSet);
+
+        assertEquals(0.0, dataSet.getDoubleField(HistogramDataRecorder.Field.P50, -1), 0);
+        assertEquals(0L, dataSet.getField(HistogramDataRecorder.Field.HISTOGRAM, Histogram.class)
+                                .getTotalCount());
+    }
+
+    @Test
+    public void testPercentiles() {
+        recordRange(recorder(), 1, 10000);
+
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        dataRecorder.collectData(mockSession, dataSet);
+
+        assertWithinPrecision(5000, dataSet.getDoubleField(HistogramDataRecorder.Field.P50, -1));
+        assertWithinPrecision(9000, dataSet.getDoubleField(HistogramDataRecorder.Field.P90, -1));
+        assertWithinPrecision(9900, dataSet.getDoubleField(HistogramDataRecorder.Field.P99, -1));
+        assertWithinPrecision(9990, dataSet.getDoubleField(HistogramDataRecorder.Field.P99_9, -1));
+        assertEquals(10000L, recorder().getHistogram().getTotalCount());
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        record(recorder(), 3, 7, 42);
+
+        Histogram histogram = recorder().getHistogram();
+        assertEquals(3, histogram.getValueAtPercentile(0), 0);
+        assertEquals(7, histogram.getValueAtPercentile(50), 0);
+        assertEquals(42, histogram.getValueAtPercentile(100), 0);
+    }
+
+    @Test
+    public void testValueAtPercentileMatchesSnapshot() {
+        assertEquals(0, recorder().getValueAtPercentile(50), 0);
+
+        recordRange(recorder(), 1, 10000);
+
+        Histogram histogram = recorder().getHistogram();
+        for (double percentile : new double[] { 0, 10, 50, 90, 99, 99.9, 100 }) {
+            assertEquals(histogram.getValueAtPercentile(percentile),
+                         recorder().getValueAtPercentile(percentile), 0);
+        }
+        assertEquals(histogram.getValueAtPercentile(99),
+                     recorder().getField(mockSession, HistogramDataRecorder.Field.P99));
+    }
+
+    @Test
+    public void testFieldNamesDoNotCollideWithQuantileSketch() {
+        Set<String> fieldNames = new HashSet<String>(recorder().getSupportedFieldNames());
+        fieldNames.retainAll(new QuantileSketchDataRecorder().getSupportedFieldNames());
+
+        assertTrue(fieldNames.isEmpty());
+    }
+
+    @Test
+    public void testFractionalLowestDiscernibleValue() {
+        HistogramDataRecorder recorder = new HistogramDataRecorder(0.001, 10, 3);
+        record(recorder, 0.0015, 0.0125, 1.25);
+
+        Histogram histogram = recorder.getHistogram();
+        assertEquals(0.001, histogram.getValueAtPercentile(0), 0.0000001);
+        assertEquals(0.012, histogram.getValueAtPercentile(50), 0.0000001);
+        assertWithinPrecision(1.25, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testOutOfRangeValuesAreClamped() {
+        HistogramDataRecorder recorder = new HistogramDataRecorder(1, 1000, 2);
+        record(recorder, -5, Double.NaN, 5000);
+
+        Histogram histogram = recorder.getHistogram();
+        assertEquals(3L, histogram.getTotalCount());
+        assertEquals(0, histogram.getValueAtPercentile(50), 0);
+        assertEquals(1000, histogram.getValueAtPercentile(100), 0);
+    }
+
+    @Test
+    public void testMerge() {
+        HistogramDataRecorder other = new HistogramDataRecorder();
+
+        recordRange(recorder(), 1, 5000);
+        recordRange(other, 5001, 10000);
+
+        recorder().merge(other);
+
+        assertEquals(10000L, recorder().getHistogram().getTotalCount());
+        assertEquals(5000L, other.getHistogram().getTotalCount());
+        assertWithinPrecision(5000, recorder().getHistogram().getValueAtPercentile(50));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentConfiguration() {
+        recorder().merge((DataRecorder) new HistogramDataRecorder(1, 1000, 2));
+    }
+
+    @Test
+    public void testMergeHistograms() {
+        HistogramDataRecorder other = new HistogramDataRecorder();
+
+        recordRange(recorder(), 1, 5000);
+        recordRange(other, 2500, 10000);
+
+        Histogram merged = recorder().getHistogram().merge(other.getHistogram());
+        recorder().merge(other.getHistogram());
+
+        assertEquals(recorder().getHistogram(), merged);
+        assertEquals(12501L, merged.getTotalCount());
+    }
+
+    @Test
+    public void testRestore() {
+        recordRange(recorder(), 1, 1000);
+
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        dataRecorder.collectData(mockSession, dataSet);
+
+        HistogramDataRecorder restored = new HistogramDataRecorder();
+        restored.restore(dataSet);
+
+        assertEquals(recorder().getHistogram(), restored.getHistogram());
+    }
+
+    @Test
+    public void testRestoreIncompatibleHistogram() {
+        HistogramDataRecorder other = new HistogramDataRecorder(1, 1000, 2);
+        record(other, 5);
+
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        other.collectData(mockSession, dataSet);
+
+        recorder().restore(dataSet);
+
+        assertEquals(0L, recorder().getHistogram().getTotalCount());
+    }
+
+    @Test
+    public void testSerializeHistogram() {
+        recordRange(recorder(), 1, 100);
+
+        assertSerializable(recorder().getHistogram());
+        assertSerializable(recorder());
+    }
+}
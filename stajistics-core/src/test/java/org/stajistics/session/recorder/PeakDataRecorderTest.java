@@ -0,0 +1,223 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.stajistics.StajisticsAssert.assertSerializable;
+
+import org.jmock.Expectations;
+import org.junit.Test;
+import org.stajistics.data.DataSet;
+import org.stajistics.data.DefaultDataSet;
+import org.stajistics.session.recorder.PeakDataRecorder.Series;
+import org.stajistics.tracker.Tracker;
+
+/**
+ * @author The Stajistics Project
+ */
+public class PeakDataRecorderTest extends AbstractDataRecorderTestCase {
+
+    private static final double DELTA = 0.0000001;
+
+    private ClockedPeakDataRecorder recorder;
+
+    private int trackerCount = 0;
+
+    @Override
+    protected DataRecorder createDataRecorder() {
+        recorder = new ClockedPeakDataRecorder(1000, 10, 3);
+        return recorder;
+    }
+
+    private void record(final PeakDataRecorder recorder,
+                        final long now,
+                        final double... values) {
+        for (final double value : values) {
+            final Tracker tracker = mockery.mock(Tracker.class, "tracker" + trackerCount++);
+            mockery.checking(new Expectations() {{
+                allowing(tracker).getValue(); will(returnValue(value));
+            }});
+            recorder.update(mockSession, tracker, now);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructWithInvalidBucketMillis() {
+        new PeakDataRecorder(0, 10, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructWithInvalidBucketCount() {
+        new PeakDataRecorder(1000, 0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructWithPeakBucketCountTooLarge() {
+        new PeakDataRecorder(1000, 10, 11);
+    }
+
+    @Test
+    public void testInitialPeaks() {
+        assertTrue(Double.isNaN(recorder.getPeakMin()));
+        assertTrue(Double.isNaN(recorder.getPeakMax()));
+
+        Series series = recorder.getSeries();
+        assertEquals(10, series.size());
+        for (int i = 0; i < series.size(); i++) {
+            assertEquals(0, series.getCount(i));
+        }
+    }
+
+    @Test
+    public void testPeaksWithinBucket() {
+        record(recorder, 100, 5, 2, 9, 4);
+
+        assertEquals(2, recorder.getPeakMin(), DELTA);
+        assertEquals(9, recorder.getPeakMax(), DELTA);
+    }
+
+    @Test
+    public void testPeaksCoverLastBucketsOnly() {
+        record(recorder, 0, 1000);
+        record(recorder, 1000, 5);
+        record(recorder, 2500, 3, 7);
+        record(recorder, 3999, 6);
+
+        recorder.now = 3999;
+
+        // Buckets 1, 2 and 3
+        assertEquals(3, recorder.getPeakMin(), DELTA);
+        assertEquals(7, recorder.getPeakMax(), DELTA);
+
+        Series series = recorder.getSeries();
+        assertEquals(1000, series.getPeakMax(10), DELTA);
+    }
+
+    @Test
+    public void testSeries() {
+        record(recorder, 5000, 1, 3);
+        record(recorder, 7000, 2);
+
+        recorder.now = 7500;
+
+        Series series = recorder.getSeries();
+        assertEquals(1000, series.getBucketMillis());
+        assertEquals(-2000, series.getStartTime());
+        assertEquals(10, series.size());
+
+        assertEquals(2, series.getCount(7));
+        assertEquals(1, series.getMin(7), DELTA);
+        assertEquals(3, series.getMax(7), DELTA);
+
+        assertEquals(0, series.getCount(8));
+        assertTrue(Double.isNaN(series.getMin(8)));
+        assertTrue(Double.isNaN(series.getMax(8)));
+
+        assertEquals(1, series.getCount(9));
+        assertEquals(2, series.getMax(9), DELTA);
+    }
+
+    @Test
+    public void testBucketsAreReused() {
+        record(recorder, 0, 100);
+        record(recorder, 10000, 1);
+
+        recorder.now = 10000;
+
+        Series series = recorder.getSeries();
+        assertEquals(1, series.getPeakMax(10), DELTA);
+        assertEquals(1, series.getCount(9));
+        assertEquals(0, series.getCount(0));
+    }
+
+    @Test
+    public void testStaleUpdateIgnored() {
+        record(recorder, 10000, 1);
+        record(recorder, 0, 100);
+
+        recorder.now = 10000;
+
+        assertEquals(1, recorder.getPeakMax(), DELTA);
+    }
+
+    @Test
+    public void testCollectData() {
+        record(recorder, 0, 4, 8);
+
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        recorder.collectData(mockSession, dataSet);
+
+        assertEquals(4, dataSet.getDoubleField(PeakDataRecorder.Field.PEAK_MIN, -1), DELTA);
+        assertEquals(8, dataSet.getDoubleField(PeakDataRecorder.Field.PEAK_MAX, -1), DELTA);
+        assertEquals(recorder.getSeries(), dataSet.getField(PeakDataRecorder.Field.SERIES));
+    }
+
+    @Test
+    public void testRestore() {
+        record(recorder, 1000, 4, 8);
+        record(recorder, 2000, 6);
+        recorder.now = 2000;
+
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        recorder.collectData(mockSession, dataSet);
+
+        ClockedPeakDataRecorder restored = new ClockedPeakDataRecorder(1000, 10, 3);
+        restored.now = 2000;
+        restored.restore(dataSet);
+
+        assertEquals(recorder.getSeries(), restored.getSeries());
+        assertEquals(4, restored.getPeakMin(), DELTA);
+        assertEquals(8, restored.getPeakMax(), DELTA);
+    }
+
+    @Test
+    public void testRestoreWithIncompatibleSeries() {
+        ClockedPeakDataRecorder other = new ClockedPeakDataRecorder(60000, 10, 3);
+        record(other, 0, 1);
+
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        other.collectData(mockSession, dataSet);
+
+        record(recorder, 0, 5);
+        recorder.restore(dataSet);
+
+        assertEquals(5, recorder.getPeakMax(), DELTA);
+    }
+
+    @Test
+    public void testSeriesIsSerializable() {
+        record(recorder, 0, 1, 2);
+
+        assertSerializable(recorder.getSeries());
+    }
+
+    /* NESTED CLASSES */
+
+    private static class ClockedPeakDataRecorder extends PeakDataRecorder {
+        long now = 0;
+
+        ClockedPeakDataRecorder(final long bucketMillis,
+                                final int bucketCount,
+                                final int peakBucketCount) {
+            super(bucketMillis, bucketCount, peakBucketCount);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+}
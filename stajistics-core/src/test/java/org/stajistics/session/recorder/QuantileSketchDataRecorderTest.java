@@ -0,0 +1,212 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.stajistics.StajisticsAssert.assertSerializable;
+
+import org.jmock.Expectations;
+import org.junit.Test;
+import org.stajistics.data.DataSet;
+import org.stajistics.data.DefaultDataSet;
+import org.stajistics.session.recorder.QuantileSketchDataRecorder.QuantileSketch;
+import org.stajistics.tracker.Tracker;
+
+/**
+ * @author The Stajistics Project
+ */
+public class QuantileSketchDataRecorderTest extends AbstractDataRecorderTestCase {
+
+    @Override
+    protected DataRecorder createDataRecorder() {
+        return new QuantileSketchDataRecorder();
+    }
+
+    private QuantileSketchDataRecorder recorder() {
+        return (QuantileSketchDataRecorder) dataRecorder;
+    }
+
+    private void record(final QuantileSketchDataRecorder recorder,
+                        final double... values) {
+        final Tracker tracker = mockery.mock(Tracker.class, "tracker" + System.identityHashCode(values));
+        mockery.checking(new Expectations() {{
+            for (double value : values) {
+                one(tracker).getValue(); will(returnValue(value));
+            }
+        }});
+        for (int i = 0; i < values.length; i++) {
+            recorder.update(mockSession, tracker, 0L);
+        }
+    }
+
+    private static double[] range(final int from, final int to) {
+        double[] values = new double[to - from + 1];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = from + i;
+        }
+        return values;
+    }
+
+    private static void assertWithinAccuracy(final double expected, final double actual) {
+        assertTrue("expected " + expected + " but was " + actual,
+                   Math.abs(expected - actual) <= Math.abs(expected) * 0.01 + 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructWithInvalidRelativeAccuracy() {
+        new QuantileSketchDataRecorder(1, 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructWithTooFewBins() {
+        new QuantileSketchDataRecorder(0.01, 8);
+    }
+
+    @Test
+    public void testEmptyPercentiles() {
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        dataRecorder.collectData(mockSession, dataSet);
+
+        assertEquals(0.0, dataSet.getDoubleField(QuantileSketchDataRecorder.Field.P99, -1), 0);
+        assertEquals(0L, dataSet.getField(QuantileSketchDataRecorder.Field.SKETCH, QuantileSketch.class)
+                                .getTotalCount());
+    }
+
+    @Test
+    public void testPercentiles() {
+        record(recorder(), range(1, 10000));
+
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        dataRecorder.collectData(mockSession, dataSet);
+
+        assertWithinAccuracy(5000, dataSet.getDoubleField(QuantileSketchDataRecorder.Field.P50, -1));
+        assertWithinAccuracy(9000, dataSet.getDoubleField(QuantileSketchDataRecorder.Field.P90, -1));
+        assertWithinAccuracy(9900, dataSet.getDoubleField(QuantileSketchDataRecorder.Field.P99, -1));
+        assertWithinAccuracy(9990, dataSet.getDoubleField(QuantileSketchDataRecorder.Field.P99_9, -1));
+    }
+
+    @Test
+    public void testWideRangeOfValues() {
+        record(recorder(), 0.000001, 0.5, 3, 1e9);
+
+        QuantileSketch sketch = recorder().getSketch();
+        assertWithinAccuracy(0.000001, sketch.getValueAtPercentile(0));
+        assertWithinAccuracy(0.5, sketch.getValueAtPercentile(34));
+        assertWithinAccuracy(3, sketch.getValueAtPercentile(67));
+        assertWithinAccuracy(1e9, sketch.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testNegativeAndZeroValues() {
+        record(recorder(), -100, -1, 0, 0, 10);
+
+        QuantileSketch sketch = recorder().getSketch();
+        assertEquals(5L, sketch.getTotalCount());
+        assertWithinAccuracy(-100, sketch.getValueAtPercentile(0));
+        assertWithinAccuracy(-1, sketch.getValueAtPercentile(25));
+        assertEquals(0, sketch.getValueAtPercentile(50), 0);
+        assertWithinAccuracy(10, sketch.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testNaNAndInfinityIgnored() {
+        record(recorder(), Double.NaN, Double.POSITIVE_INFINITY, 1);
+
+        assertEquals(1L, recorder().getSketch().getTotalCount());
+    }
+
+    @Test
+    public void testCollapseLowestBins() {
+        QuantileSketchDataRecorder recorder = new QuantileSketchDataRecorder(0.01, 16);
+        record(recorder, range(1, 1000));
+
+        QuantileSketch sketch = recorder.getSketch();
+        assertEquals(1000L, sketch.getTotalCount());
+        assertWithinAccuracy(1000, sketch.getValueAtPercentile(100));
+        assertTrue(sketch.getValueAtPercentile(0) > 1);
+    }
+
+    @Test
+    public void testMerge() {
+        QuantileSketchDataRecorder other = new QuantileSketchDataRecorder();
+
+        record(recorder(), range(1, 5000));
+        record(other, range(5001, 10000));
+
+        recorder().merge(other);
+
+        assertEquals(10000L, recorder().getSketch().getTotalCount());
+        assertEquals(5000L, other.getSketch().getTotalCount());
+        assertWithinAccuracy(5000, recorder().getSketch().getValueAtPercentile(50));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentConfiguration() {
+        recorder().merge((DataRecorder) new QuantileSketchDataRecorder(0.02, 2048));
+    }
+
+    @Test
+    public void testMergeSketches() {
+        QuantileSketchDataRecorder other = new QuantileSketchDataRecorder();
+
+        record(recorder(), range(1, 5000));
+        record(other, range(2500, 10000));
+
+        QuantileSketch merged = recorder().getSketch().merge(other.getSketch());
+        recorder().merge(other.getSketch());
+
+        assertEquals(recorder().getSketch(), merged);
+        assertEquals(12501L, merged.getTotalCount());
+    }
+
+    @Test
+    public void testRestore() {
+        record(recorder(), range(1, 1000));
+
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        dataRecorder.collectData(mockSession, dataSet);
+
+        QuantileSketchDataRecorder restored = new QuantileSketchDataRecorder();
+        restored.restore(dataSet);
+
+        assertEquals(recorder().getSketch(), restored.getSketch());
+    }
+
+    @Test
+    public void testSerializeSketch() {
+        record(recorder(), range(1, 100));
+
+        assertSerializable(recorder().getSketch());
+        assertSerializable(recorder());
+    }
+
+    @Test
+    public void testFactory() {
+        DataRecorder[] dataRecorders = new QuantileSketchDataRecorder.Factory(0.02, 512).createDataRecorders();
+
+        assertEquals(2, dataRecorders.length);
+        assertTrue(dataRecorders[0] instanceof DistributionDataRecorder);
+        QuantileSketchDataRecorder recorder = (QuantileSketchDataRecorder) dataRecorders[1];
+        assertEquals(0.02, recorder.getRelativeAccuracy(), 0);
+        assertEquals(512, recorder.getMaxBins());
+
+        assertEquals(new QuantileSketchDataRecorder.Factory(0.02, 512),
+                     new QuantileSketchDataRecorder.Factory(0.02, 512));
+        assertFalse(new QuantileSketchDataRecorder.Factory().equals(
+                        new QuantileSketchDataRecorder.Factory(0.02, 512)));
+    }
+}
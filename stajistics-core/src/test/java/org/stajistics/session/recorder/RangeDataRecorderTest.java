@@ -14,6 +14,10 @@
  */
 package org.stajistics.session.recorder;
 
+import static org.junit.Assert.assertEquals;
+
+import org.jmock.Expectations;
+import org.junit.Test;
 import org.stajistics.util.RangeList;
 
 /**
@@ -31,4 +35,35 @@ public class RangeDataRecorderTest extends AbstractDataRecorderTestCase {
                              .rangeList();
         return new RangeDataRecorder(rangeList);
     }
+
+    @Test
+    public void testMerge() {
+        mockery.checking(new Expectations() {{
+            allowing(mockTracker).getValue(); will(onConsecutiveCalls(returnValue(1.5),
+                                                                      returnValue(1.5),
+                                                                      returnValue(3.5)));
+        }});
+
+        RangeDataRecorder other = new RangeDataRecorder(rangeList);
+
+        dataRecorder.update(mockSession, mockTracker, 1L);
+        other.update(mockSession, mockTracker, 2L);
+        other.update(mockSession, mockTracker, 3L);
+
+        ((MergeableDataRecorder) dataRecorder).merge(other);
+
+        final String first = rangeList.getRanges().get(0).getName();
+        final String second = rangeList.getRanges().get(1).getName();
+
+        assertEquals(2L, dataRecorder.getField(mockSession, first));
+        assertEquals(1L, dataRecorder.getField(mockSession, second));
+        assertEquals(1L, other.getField(mockSession, first));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentRangeList() {
+        ((MergeableDataRecorder) dataRecorder).merge(new RangeDataRecorder(RangeList.build()
+                                                                                  .addRange(5, 6)
+                                                                                  .rangeList()));
+    }
 }
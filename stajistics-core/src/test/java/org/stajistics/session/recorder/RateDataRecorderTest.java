@@ -0,0 +1,184 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.stajistics.data.DataSet;
+import org.stajistics.data.DefaultDataSet;
+
+/**
+ * @author The Stajistics Project
+ */
+public class RateDataRecorderTest extends AbstractDataRecorderTestCase {
+
+    private static final double DELTA = 0.0000001;
+
+    private ClockedRateDataRecorder recorder;
+
+    @Override
+    protected DataRecorder createDataRecorder() {
+        recorder = new ClockedRateDataRecorder();
+        return recorder;
+    }
+
+    private void update(final int count, final long now) {
+        recorder.now = now;
+        for (int i = 0; i < count; i++) {
+            recorder.update(mockSession, mockTracker, now);
+        }
+    }
+
+    @Override
+    @Test
+    public void testClear() {
+        buildStatsSessionExpectations();
+
+        update(10, 0);
+        recorder.now = 10000;
+        recorder.clear();
+
+        DataSet clearedDataSet = new DefaultDataSet(-1L, false);
+        recorder.collectData(mockSession, clearedDataSet);
+
+        createDataRecorder();
+        DataSet newDataSet = new DefaultDataSet(-1L, false);
+        recorder.collectData(mockSession, newDataSet);
+
+        assertEquals(newDataSet, clearedDataSet);
+    }
+
+    @Test
+    public void testInitialRates() {
+        assertEquals(0, recorder.getM1Rate(), DELTA);
+        assertEquals(0, recorder.getM5Rate(), DELTA);
+        assertEquals(0, recorder.getM15Rate(), DELTA);
+        assertEquals(0, recorder.getMeanRate(), DELTA);
+    }
+
+    @Test
+    public void testNoTickWithinInterval() {
+        update(60, 1000);
+        recorder.now = 1000 + RateDataRecorder.TICK_INTERVAL_MILLIS - 1;
+
+        assertEquals(0, recorder.getM1Rate(), DELTA);
+    }
+
+    @Test
+    public void testFirstTickSetsRates() {
+        update(60, 1000);
+        recorder.now = 1000 + RateDataRecorder.TICK_INTERVAL_MILLIS;
+
+        assertEquals(12, recorder.getM1Rate(), DELTA);
+        assertEquals(12, recorder.getM5Rate(), DELTA);
+        assertEquals(12, recorder.getM15Rate(), DELTA);
+    }
+
+    @Test
+    public void testRatesDecayWhileIdle() {
+        update(60, 0);
+        recorder.now = RateDataRecorder.TICK_INTERVAL_MILLIS;
+        recorder.getM1Rate();
+
+        // Twelve idle ticks make one minute
+        recorder.now += 60000;
+
+        assertEquals(12 * Math.exp(-1), recorder.getM1Rate(), DELTA);
+        assertEquals(12 * Math.exp(-1d / 5), recorder.getM5Rate(), DELTA);
+        assertEquals(12 * Math.exp(-1d / 15), recorder.getM15Rate(), DELTA);
+    }
+
+    @Test
+    public void testIdleCatchUpEqualsStepwiseTicks() {
+        ClockedRateDataRecorder stepwise = new ClockedRateDataRecorder();
+
+        update(60, 0);
+        for (int i = 0; i < 60; i++) {
+            stepwise.update(mockSession, mockTracker, 0);
+        }
+
+        for (int i = 1; i <= 20; i++) {
+            stepwise.now = i * RateDataRecorder.TICK_INTERVAL_MILLIS;
+            stepwise.getM1Rate();
+        }
+        recorder.now = 20 * RateDataRecorder.TICK_INTERVAL_MILLIS;
+
+        assertEquals(stepwise.getM1Rate(), recorder.getM1Rate(), DELTA);
+        assertEquals(stepwise.getM15Rate(), recorder.getM15Rate(), DELTA);
+    }
+
+    @Test
+    public void testMeanRate() {
+        update(30, 0);
+        update(30, 4000);
+        recorder.now = 10000;
+
+        assertEquals(6, recorder.getMeanRate(), DELTA);
+    }
+
+    @Test
+    public void testCollectData() {
+        update(60, 0);
+        recorder.now = RateDataRecorder.TICK_INTERVAL_MILLIS;
+
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        recorder.collectData(mockSession, dataSet);
+
+        assertEquals(12, dataSet.getDoubleField(RateDataRecorder.Field.M1_RATE, -1), DELTA);
+        assertEquals(12, dataSet.getDoubleField(RateDataRecorder.Field.M5_RATE, -1), DELTA);
+        assertEquals(12, dataSet.getDoubleField(RateDataRecorder.Field.M15_RATE, -1), DELTA);
+        assertEquals(12, dataSet.getDoubleField(RateDataRecorder.Field.MEAN_RATE, -1), DELTA);
+    }
+
+    @Test
+    public void testRestore() {
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        dataSet.setDoubleField(RateDataRecorder.Field.M1_RATE, 1);
+        dataSet.setDoubleField(RateDataRecorder.Field.M5_RATE, 5);
+        dataSet.setDoubleField(RateDataRecorder.Field.M15_RATE, 15);
+
+        recorder.now = 1000;
+        recorder.restore(dataSet);
+
+        assertEquals(1, recorder.getM1Rate(), DELTA);
+        assertEquals(5, recorder.getM5Rate(), DELTA);
+        assertEquals(15, recorder.getM15Rate(), DELTA);
+        assertEquals(0, recorder.getMeanRate(), DELTA);
+    }
+
+    @Test
+    public void testRestoreWithMissingFields() {
+        update(60, 0);
+
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        dataSet.setDoubleField(RateDataRecorder.Field.M1_RATE, 1);
+        recorder.restore(dataSet);
+
+        recorder.now = RateDataRecorder.TICK_INTERVAL_MILLIS;
+        assertEquals(12, recorder.getM1Rate(), DELTA);
+    }
+
+    /* NESTED CLASSES */
+
+    private static class ClockedRateDataRecorder extends RateDataRecorder {
+        long now = 0;
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.stajistics.StajisticsAssert.assertSerializable;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.jmock.Expectations;
+import org.junit.Test;
+import org.stajistics.StatsKey;
+import org.stajistics.data.DataSet;
+import org.stajistics.data.DefaultDataSet;
+import org.stajistics.session.StatsSession;
+import org.stajistics.session.recorder.ReservoirDataRecorder.Samples;
+import org.stajistics.tracker.Tracker;
+
+/**
+ * @author The Stajistics Project
+ */
+public class ReservoirDataRecorderTest extends AbstractDataRecorderTestCase {
+
+    private static final double DELTA = 0.0000001;
+
+    private ReservoirDataRecorder recorder;
+
+    private int trackerCount = 0;
+
+    @Override
+    protected DataRecorder createDataRecorder() {
+        recorder = new ReservoirDataRecorder(4, null);
+        return recorder;
+    }
+
+    private void record(final ReservoirDataRecorder recorder,
+                        final long now,
+                        final double value) {
+        final Tracker tracker = mockery.mock(Tracker.class, "tracker" + trackerCount++);
+        mockery.checking(new Expectations() {{
+            allowing(tracker).getValue(); will(returnValue(value));
+        }});
+        recorder.update(mockSession, tracker, now);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructWithInvalidCapacity() {
+        new ReservoirDataRecorder(0, null);
+    }
+
+    @Test
+    public void testInitialSamples() {
+        Samples samples = recorder.getSamples();
+        assertEquals(0, samples.getCount());
+        assertEquals(0, samples.size());
+    }
+
+    @Test
+    public void testRetainsAllUntilFull() {
+        record(recorder, 30, 3);
+        record(recorder, 10, 1);
+        record(recorder, 20, 2);
+
+        Samples samples = recorder.getSamples();
+        assertEquals(3, samples.getCount());
+        assertEquals(3, samples.size());
+
+        // Ordered by time
+        for (int i = 0; i < 3; i++) {
+            assertEquals((i + 1) * 10, samples.getTimeStamp(i));
+            assertEquals(i + 1, samples.getValue(i), DELTA);
+            assertNull(samples.getTag(i));
+        }
+    }
+
+    @Test
+    public void testReplacesWhenFull() {
+        for (int i = 0; i < 1000; i++) {
+            record(recorder, i, i);
+        }
+
+        Samples samples = recorder.getSamples();
+        assertEquals(1000, samples.getCount());
+        assertEquals(4, samples.size());
+
+        // Biased towards recent values
+        for (int i = 0; i < samples.size(); i++) {
+            assertTrue(samples.getValue(i) > 900);
+            assertEquals(samples.getTimeStamp(i), samples.getValue(i), DELTA);
+        }
+    }
+
+    @Test
+    public void testTags() {
+        recorder = new ReservoirDataRecorder(4, "user");
+
+        final StatsKey key = mockery.mock(StatsKey.class);
+        final Tracker tracker = mockery.mock(Tracker.class, "taggedTracker");
+        mockery.checking(new Expectations() {{
+            allowing(tracker).getValue(); will(returnValue(5.0));
+            allowing(tracker).getKey(); will(returnValue(key));
+            allowing(key).getAttribute("user"); will(returnValue("alice"));
+        }});
+
+        recorder.update(mockSession, tracker, 1L);
+
+        Samples samples = recorder.getSamples();
+        assertEquals(1, samples.size());
+        assertEquals("alice", samples.getTag(0));
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        final ReservoirDataRecorder recorder = new ReservoirDataRecorder(16, null);
+        // Mocks are not thread safe
+        final Tracker tracker = new ConstantTracker(7.0);
+
+        final int threads = 4;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        recorder.update(null, tracker, j);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+
+        Samples samples = recorder.getSamples();
+        assertEquals(40000, samples.getCount());
+        assertEquals(16, samples.size());
+        for (int i = 0; i < samples.size(); i++) {
+            assertEquals(7, samples.getValue(i), DELTA);
+        }
+    }
+
+    @Test
+    public void testClearDuringUpdatesNeverTearsSamples() throws Exception {
+        final ReservoirDataRecorder recorder = new ReservoirDataRecorder(4, null);
+
+        final int threads = 4;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 1; i <= threads; i++) {
+            // Each thread records its own number as both value and time
+            final int id = i;
+            final Tracker tracker = new ConstantTracker(id);
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 20000; j++) {
+                        recorder.update(null, tracker, id);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        while (done.getCount() > 0) {
+            recorder.clear();
+            Samples samples = recorder.getSamples();
+            for (int i = 0; i < samples.size(); i++) {
+                assertEquals(samples.getTimeStamp(i), samples.getValue(i), DELTA);
+            }
+        }
+        done.await();
+
+        recorder.clear();
+        assertEquals(0, recorder.getSamples().size());
+    }
+
+    @Test
+    public void testCollectData() {
+        record(recorder, 1, 1);
+
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        recorder.collectData(mockSession, dataSet);
+
+        assertEquals(recorder.getSamples(), dataSet.getField(ReservoirDataRecorder.Field.SAMPLES));
+    }
+
+    @Test
+    public void testRestore() {
+        record(recorder, 1, 1);
+        record(recorder, 2, 2);
+
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        recorder.collectData(mockSession, dataSet);
+
+        ReservoirDataRecorder restored = new ReservoirDataRecorder(4, null);
+        restored.restore(dataSet);
+
+        assertEquals(recorder.getSamples(), restored.getSamples());
+    }
+
+    @Test
+    public void testRestoreIntoSmallerReservoirKeepsLatest() {
+        for (int i = 1; i <= 4; i++) {
+            record(recorder, i, i);
+        }
+
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        recorder.collectData(mockSession, dataSet);
+
+        ReservoirDataRecorder restored = new ReservoirDataRecorder(2, null);
+        restored.restore(dataSet);
+
+        Samples samples = restored.getSamples();
+        Set<Double> values = new HashSet<Double>();
+        for (int i = 0; i < samples.size(); i++) {
+            values.add(samples.getValue(i));
+        }
+        assertEquals(2, values.size());
+        assertTrue(values.contains(3.0));
+        assertTrue(values.contains(4.0));
+    }
+
+    @Test
+    public void testRestoreWithMissingFields() {
+        record(recorder, 1, 1);
+
+        recorder.restore(new DefaultDataSet(-1L, false));
+
+        assertEquals(1, recorder.getSamples().size());
+    }
+
+    @Test
+    public void testSamplesIsSerializable() {
+        record(recorder, 1, 1);
+
+        assertSerializable(recorder.getSamples());
+    }
+
+    /* NESTED CLASSES */
+
+    private static class ConstantTracker implements Tracker {
+
+        private final double value;
+
+        ConstantTracker(final double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double getValue() {
+            return value;
+        }
+
+        @Override
+        public Tracker reset() {
+            return this;
+        }
+
+        @Override
+        public StatsKey getKey() {
+            return null;
+        }
+
+        @Override
+        public StatsSession getSession() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.stajistics.StajisticsAssert.assertSerializable;
+
+import java.util.Arrays;
+
+import org.jmock.Expectations;
+import org.junit.Test;
+import org.stajistics.TestUtil;
+import org.stajistics.data.DataSet;
+import org.stajistics.data.DefaultDataSet;
+import org.stajistics.tracker.Tracker;
+import org.stajistics.tracker.manual.DefaultManualTracker;
+import org.stajistics.util.RangeList;
+
+/**
+ * @author The Stajistics Project
+ */
+public class StableDistributionDataRecorderTest extends AbstractDataRecorderTestCase {
+
+    @Override
+    protected DataRecorder createDataRecorder() {
+        return new StableDistributionDataRecorder();
+    }
+
+    private void record(final DataRecorder recorder,
+                        final double... values) {
+        final Tracker tracker = mockery.mock(Tracker.class, "tracker" + System.identityHashCode(values));
+        mockery.checking(new Expectations() {{
+            for (double value : values) {
+                one(tracker).getValue(); will(returnValue(value));
+            }
+        }});
+        for (int i = 0; i < values.length; i++) {
+            recorder.update(mockSession, tracker, 0L);
+        }
+    }
+
+    private double field(final DataRecorder recorder, final String name) {
+        return (Double) recorder.getField(mockSession, name);
+    }
+
+    @Test
+    public void testMoments() {
+        record(dataRecorder, 2, 4, 4, 4, 5, 5, 7, 9);
+
+        assertEquals(5.0, field(dataRecorder, StableDistributionDataRecorder.Field.ARITHMETIC_MEAN), TestUtil.DELTA);
+        assertEquals(32.0 / 7, field(dataRecorder, StableDistributionDataRecorder.Field.VARIANCE), TestUtil.DELTA);
+        assertEquals(Math.sqrt(32.0 / 7),
+                     field(dataRecorder, StableDistributionDataRecorder.Field.STANDARD_DEVIATION), TestUtil.DELTA);
+        assertEquals(Math.sqrt(232.0 / 8),
+                     field(dataRecorder, StableDistributionDataRecorder.Field.QUADRATIC_MEAN), TestUtil.DELTA);
+        assertEquals(Math.pow(2 * 4 * 4 * 4 * 5 * 5 * 7 * 9, 1.0 / 8),
+                     field(dataRecorder, StableDistributionDataRecorder.Field.GEOMETRIC_MEAN), 0.000000001);
+        assertEquals(8 / (1 / 2.0 + 3 / 4.0 + 2 / 5.0 + 1 / 7.0 + 1 / 9.0),
+                     field(dataRecorder, StableDistributionDataRecorder.Field.HARMONIC_MEAN), TestUtil.DELTA);
+    }
+
+    @Test
+    public void testVarianceOfLargeValues() {
+        final double offset = 1e9;
+        for (int i = 0; i < 1000; i++) {
+            record(dataRecorder, offset + 4, offset + 7, offset + 13, offset + 16);
+        }
+
+        // Equivalent to the variance of 4, 7, 13 and 16 repeated 1000 times
+        assertEquals(30.0 * 3 / 4 * 4000 / 3999,
+                     field(dataRecorder, StableDistributionDataRecorder.Field.VARIANCE), 0.0000001);
+    }
+
+    @Test
+    public void testGeometricMeanDoesNotOverflow() {
+        final double[] values = new double[1000];
+        Arrays.fill(values, 1e6);
+        record(dataRecorder, values);
+
+        assertEquals(1e6, field(dataRecorder, StableDistributionDataRecorder.Field.GEOMETRIC_MEAN), 0.0001);
+    }
+
+    @Test
+    public void testGeometricMeanIgnoresNonPositiveValues() {
+        record(dataRecorder, 0, 2, 8);
+
+        assertEquals(4.0, field(dataRecorder, StableDistributionDataRecorder.Field.GEOMETRIC_MEAN), TestUtil.DELTA);
+    }
+
+    @Test
+    public void testPartialsFromManyThreads() throws Exception {
+        final Tracker tracker = mockery.mock(Tracker.class, "threadTracker");
+        mockery.checking(new Expectations() {{
+            allowing(tracker).getValue(); will(onConsecutiveCalls(returnValue(1.0),
+                                                                  returnValue(2.0),
+                                                                  returnValue(3.0),
+                                                                  returnValue(4.0)));
+        }});
+
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    dataRecorder.update(mockSession, tracker, 0L);
+                }
+            };
+            thread.start();
+            thread.join();
+        }
+
+        assertEquals(4L, dataRecorder.getField(mockSession, StableDistributionDataRecorder.Field.COUNT));
+        assertEquals(2.5, field(dataRecorder, StableDistributionDataRecorder.Field.ARITHMETIC_MEAN), TestUtil.DELTA);
+        assertEquals(5.0 / 3, field(dataRecorder, StableDistributionDataRecorder.Field.VARIANCE), TestUtil.DELTA);
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        // A real tracker, since mocks are not safe for use from many threads
+        final Tracker tracker = new DefaultManualTracker(mockSession).setValue(2.0);
+
+        final int threadCount = 8;
+        final int updates = 10000;
+
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < updates; j++) {
+                        dataRecorder.update(mockSession, tracker, 0L);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals((long) threadCount * updates,
+                     dataRecorder.getField(mockSession, StableDistributionDataRecorder.Field.COUNT));
+        assertEquals(2.0, field(dataRecorder, StableDistributionDataRecorder.Field.ARITHMETIC_MEAN), TestUtil.DELTA);
+        assertEquals(0.0, field(dataRecorder, StableDistributionDataRecorder.Field.VARIANCE), TestUtil.DELTA);
+    }
+
+    @Test
+    public void testMerge() {
+        StableDistributionDataRecorder other = new StableDistributionDataRecorder();
+
+        record(dataRecorder, 2, 4, 4, 4);
+        record(other, 5, 5, 7, 9);
+
+        ((MergeableDataRecorder) dataRecorder).merge(other);
+
+        assertEquals(8L, dataRecorder.getField(mockSession, StableDistributionDataRecorder.Field.COUNT));
+        assertEquals(5.0, field(dataRecorder, StableDistributionDataRecorder.Field.ARITHMETIC_MEAN), TestUtil.DELTA);
+        assertEquals(32.0 / 7, field(dataRecorder, StableDistributionDataRecorder.Field.VARIANCE), TestUtil.DELTA);
+
+        // The other recorder is untouched
+        assertEquals(4L, other.getField(mockSession, StableDistributionDataRecorder.Field.COUNT));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeIncompatible() {
+        ((MergeableDataRecorder) dataRecorder).merge(new RangeDataRecorder(RangeList.build()
+                                                                                  .addRange(1, 2)
+                                                                                  .rangeList()));
+    }
+
+    @Test
+    public void testRestore() {
+        record(dataRecorder, 2, 4, 4, 4, 5, 5, 7, 9);
+
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        dataRecorder.collectData(mockSession, dataSet);
+
+        DataRecorder restored = createDataRecorder();
+        restored.restore(dataSet);
+
+        DataSet restoredDataSet = new DefaultDataSet(-1L, false);
+        restored.collectData(mockSession, restoredDataSet);
+
+        assertEquals(dataSet, restoredDataSet);
+    }
+
+    @Test
+    public void testRestoreWithPartialData() {
+        record(dataRecorder, 1, 3);
+
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        dataSet.setLongField(StableDistributionDataRecorder.Field.COUNT, 5);
+        dataRecorder.restore(dataSet);
+
+        assertEquals(2L, dataRecorder.getField(mockSession, StableDistributionDataRecorder.Field.COUNT));
+    }
+
+    @Test
+    public void testSerialize() {
+        record(dataRecorder, 1, 3);
+
+        assertSerializable(dataRecorder);
+    }
+}
@@ -0,0 +1,294 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.session.recorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.stajistics.StajisticsAssert.assertSerializable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.jmock.Expectations;
+import org.junit.Test;
+import org.stajistics.data.DataSet;
+import org.stajistics.data.DefaultDataSet;
+import org.stajistics.session.recorder.TopKDataRecorder.Entry;
+import org.stajistics.session.recorder.TopKDataRecorder.TopK;
+
+/**
+ * @author The Stajistics Project
+ */
+public class TopKDataRecorderTest extends AbstractDataRecorderTestCase {
+
+    private TopKDataRecorder recorder;
+
+    @Override
+    protected DataRecorder createDataRecorder() {
+        recorder = new TopKDataRecorder(3);
+        return recorder;
+    }
+
+    private void offer(final String item, final int times) {
+        for (int i = 0; i < times; i++) {
+            recorder.offer(item);
+        }
+    }
+
+    @Override
+    @Test
+    public void testClear() {
+        offer("a", 2);
+        recorder.clear();
+
+        DataSet clearedDataSet = new DefaultDataSet(-1L, false);
+        recorder.collectData(mockSession, clearedDataSet);
+
+        DataSet newDataSet = new DefaultDataSet(-1L, false);
+        createDataRecorder().collectData(mockSession, newDataSet);
+
+        assertEquals(newDataSet, clearedDataSet);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructWithInvalidCapacity() {
+        new TopKDataRecorder(0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testOfferNull() {
+        recorder.offer(null);
+    }
+
+    @Test
+    public void testInitialTopK() {
+        TopK topK = recorder.getTopK();
+        assertEquals(0, topK.getTotal());
+        assertTrue(topK.getEntries().isEmpty());
+    }
+
+    @Test
+    public void testUpdateDoesNothing() {
+        recorder.update(mockSession, mockTracker, 0L);
+
+        assertEquals(0, recorder.getTotal());
+    }
+
+    @Test
+    public void testExactCountsWithinCapacity() {
+        offer("a", 2);
+        offer("b", 5);
+        offer("c", 1);
+
+        List<Entry> entries = recorder.getTopK().getEntries();
+        assertEquals(3, entries.size());
+        assertEquals(new Entry("b", 5, 0), entries.get(0));
+        assertEquals(new Entry("a", 2, 0), entries.get(1));
+        assertEquals(new Entry("c", 1, 0), entries.get(2));
+        assertEquals(8, recorder.getTotal());
+    }
+
+    @Test
+    public void testReplacesLowestCount() {
+        offer("a", 5);
+        offer("b", 3);
+        offer("c", 1);
+        offer("d", 1);
+
+        TopK topK = recorder.getTopK();
+        assertEquals(3, topK.getEntries().size());
+        assertEquals(new Entry("d", 2, 1), topK.getEntries().get(2));
+        assertEquals(10, topK.getTotal());
+    }
+
+    @Test
+    public void testReplacesLowestCountAfterIncrements() {
+        offer("c", 1);
+        offer("a", 1);
+        offer("b", 1);
+        offer("c", 4);
+        offer("a", 2);
+        offer("d", 1);
+
+        TopK topK = recorder.getTopK();
+        assertEquals(new Entry("c", 5, 0), topK.getEntries().get(0));
+        assertEquals(new Entry("a", 3, 0), topK.getEntries().get(1));
+        assertEquals(new Entry("d", 2, 1), topK.getEntries().get(2));
+    }
+
+    @Test
+    public void testCountsSumToTotal() {
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            recorder.offer("item" + random.nextInt(50));
+        }
+
+        long sum = 0;
+        for (Entry entry : recorder.getTopK().getEntries()) {
+            sum += entry.getCount();
+        }
+        assertEquals(recorder.getTotal(), sum);
+    }
+
+    @Test
+    public void testConcurrentOffersAreNotLost() throws Exception {
+        final int threadCount = 4;
+        final int offers = 20000;
+
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final Random random = new Random(i);
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < offers; j++) {
+                        recorder.offer("item" + random.nextInt(10));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // A lost increment would leave the counts short of the total
+        long sum = 0;
+        for (Entry entry : recorder.getTopK().getEntries()) {
+            sum += entry.getCount();
+        }
+        assertEquals(threadCount * offers, recorder.getTotal());
+        assertTrue(sum >= recorder.getTotal());
+    }
+
+    @Test
+    public void testGetTop() {
+        offer("a", 5);
+        offer("b", 3);
+
+        List<Entry> top = recorder.getTopK().getTop(1);
+        assertEquals(1, top.size());
+        assertEquals("a", top.get(0).getItem());
+        assertEquals(2, recorder.getTopK().getTop(10).size());
+    }
+
+    @Test
+    public void testHeavyHittersFoundInSkewedStream() {
+        recorder = new TopKDataRecorder(20);
+
+        Random random = new Random(42);
+        Map<String,Integer> trueCounts = new HashMap<String,Integer>();
+        List<String> stream = new ArrayList<String>();
+
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j < 1000; j++) {
+                stream.add("heavy" + i);
+            }
+        }
+        for (int i = 0; i < 5000; i++) {
+            stream.add("light" + random.nextInt(2000));
+        }
+        Collections.shuffle(stream, random);
+
+        for (String item : stream) {
+            recorder.offer(item);
+            Integer count = trueCounts.get(item);
+            trueCounts.put(item, count == null ? 1 : count + 1);
+        }
+
+        List<Entry> top = recorder.getTopK().getTop(5);
+        for (Entry entry : top) {
+            assertTrue(entry.getItem(), entry.getItem().startsWith("heavy"));
+            long trueCount = trueCounts.get(entry.getItem());
+            assertTrue(entry.getCount() >= trueCount);
+            assertTrue(entry.getCount() - entry.getError() <= trueCount);
+        }
+    }
+
+    @Test
+    public void testStaticOffer() {
+        mockery.checking(new Expectations() {{
+            allowing(mockSession).getDataRecorders();
+            will(returnValue(Collections.<DataRecorder>singletonList(recorder)));
+        }});
+
+        assertTrue(TopKDataRecorder.offer(mockSession, "a"));
+        assertEquals(1, recorder.getTotal());
+    }
+
+    @Test
+    public void testStaticOfferWithoutRecorder() {
+        mockery.checking(new Expectations() {{
+            allowing(mockSession).getDataRecorders();
+            will(returnValue(Collections.<DataRecorder>emptyList()));
+        }});
+
+        assertFalse(TopKDataRecorder.offer(mockSession, "a"));
+    }
+
+    @Test
+    public void testCollectData() {
+        offer("a", 2);
+
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        recorder.collectData(mockSession, dataSet);
+
+        assertEquals(recorder.getTopK(), dataSet.getField(TopKDataRecorder.Field.TOP_K));
+        assertEquals(2, dataSet.getLongField(TopKDataRecorder.Field.TOP_K_TOTAL, -1));
+    }
+
+    @Test
+    public void testRestore() {
+        offer("a", 2);
+        offer("b", 1);
+
+        DataSet dataSet = new DefaultDataSet(-1L, false);
+        recorder.collectData(mockSession, dataSet);
+
+        TopKDataRecorder restored = new TopKDataRecorder(3);
+        restored.restore(dataSet);
+
+        assertEquals(recorder.getTopK(), restored.getTopK());
+    }
+
+    @Test
+    public void testRestoreWithMissingFields() {
+        offer("a", 2);
+
+        recorder.restore(new DefaultDataSet(-1L, false));
+
+        assertEquals(2, recorder.getTotal());
+    }
+
+    @Test
+    public void testFactory() {
+        DataRecorder[] dataRecorders = new TopKDataRecorder.Factory(7).createDataRecorders();
+        TopKDataRecorder last = (TopKDataRecorder) dataRecorders[dataRecorders.length - 1];
+
+        assertEquals(7, last.getCapacity());
+    }
+
+    @Test
+    public void testTopKIsSerializable() {
+        offer("a", 2);
+
+        assertSerializable(recorder.getTopK());
+    }
+}
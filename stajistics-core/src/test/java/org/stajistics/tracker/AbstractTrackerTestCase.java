@@ -29,6 +29,7 @@ import org.stajistics.StatsConstants;
 import org.stajistics.StatsKey;
 import org.stajistics.TestUtil;
 import org.stajistics.data.DataSet;
+import org.stajistics.session.FieldHandle;
 import org.stajistics.session.StatsSession;
 import org.stajistics.session.StatsSessionManager;
 import org.stajistics.session.recorder.DataRecorder;
@@ -168,6 +169,11 @@ public abstract class AbstractTrackerTestCase<T extends Tracker> extends Abstrac
             throw new RuntimeException();
         }
 
+        @Override
+        public FieldHandle getFieldHandle(String name) {
+            throw new RuntimeException();
+        }
+
         @Override
         public double getFirst() {
             throw new RuntimeException();
@@ -0,0 +1,157 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.tracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.stajistics.AbstractStajisticsTestCase;
+import org.stajistics.StatsConstants;
+import org.stajistics.StatsKey;
+import org.stajistics.StatsManager;
+import org.stajistics.bootstrap.DefaultStatsManagerFactory;
+import org.stajistics.session.StatsSession;
+import org.stajistics.tracker.span.SpanTracker;
+
+/**
+ * @author The Stajistics Project
+ */
+public class DefaultTrackerHandleTest extends AbstractStajisticsTestCase {
+
+    private StatsManager statsManager;
+    private StatsKey key;
+
+    @Before
+    public void setUp() {
+        statsManager = new DefaultStatsManagerFactory().createManager(StatsConstants.DEFAULT_NAMESPACE);
+        key = statsManager.getKeyFactory().createKey("test");
+    }
+
+    @Test
+    public void testConstructWithNullStatsManager() {
+        try {
+            new DefaultTrackerHandle<SpanTracker>(null, SpanTracker.class, key);
+            fail();
+        } catch (NullPointerException npe) {
+            assertEquals("statsManager", npe.getMessage());
+        }
+    }
+
+    @Test
+    public void testConstructWithNullKey() {
+        try {
+            new DefaultTrackerHandle<SpanTracker>(statsManager, SpanTracker.class, null);
+            fail();
+        } catch (NullPointerException npe) {
+            assertEquals("key", npe.getMessage());
+        }
+    }
+
+    @Test
+    public void testGetTrackerUsesSessionOfKey() {
+        TrackerHandle<SpanTracker> handle =
+            new DefaultTrackerHandle<SpanTracker>(statsManager, SpanTracker.class, key);
+
+        assertSame(key, handle.getKey());
+
+        handle.getTracker().track().commit();
+        handle.getTracker().track().commit();
+
+        StatsSession session = statsManager.getSessionManager().getSession(key);
+        assertSame(session, handle.getTracker().getSession());
+        assertEquals(2, session.getHits());
+        assertEquals(2, session.getCommits());
+    }
+
+    @Test
+    public void testSessionDestroyedInvalidates() {
+        TrackerHandle<SpanTracker> handle =
+            new DefaultTrackerHandle<SpanTracker>(statsManager, SpanTracker.class, key);
+
+        StatsSession oldSession = handle.getTracker().getSession();
+        statsManager.getSessionManager().remove(key);
+
+        handle.getTracker().track().commit();
+
+        StatsSession newSession = statsManager.getSessionManager().getSession(key);
+        assertNotSame(oldSession, newSession);
+        assertSame(newSession, handle.getTracker().getSession());
+        assertEquals(1, newSession.getHits());
+    }
+
+    @Test
+    public void testConfigChangedInvalidates() {
+        TrackerHandle<SpanTracker> handle =
+            new DefaultTrackerHandle<SpanTracker>(statsManager, SpanTracker.class, key);
+
+        assertFalse(handle.getTracker() instanceof NullTracker);
+
+        statsManager.getConfigBuilderFactory()
+                    .createConfigBuilder()
+                    .withEnabledState(false)
+                    .setConfigFor(key);
+
+        assertSame(NullTracker.getInstance(), handle.getTracker());
+    }
+
+    @Test
+    public void testStatsManagerDisabled() {
+        TrackerHandle<SpanTracker> handle =
+            new DefaultTrackerHandle<SpanTracker>(statsManager, SpanTracker.class, key);
+
+        handle.getTracker();
+        statsManager.setEnabled(false);
+
+        assertSame(NullTracker.getInstance(), handle.getTracker());
+    }
+
+    @Test
+    public void testInvalidate() {
+        TrackerHandle<SpanTracker> handle =
+            new DefaultTrackerHandle<SpanTracker>(statsManager, SpanTracker.class, key);
+
+        StatsSession session = handle.getTracker().getSession();
+        handle.invalidate();
+
+        assertSame(session, handle.getTracker().getSession());
+    }
+
+    @Test
+    public void testRelease() {
+        TrackerHandle<SpanTracker> handle =
+            new DefaultTrackerHandle<SpanTracker>(statsManager, SpanTracker.class, key);
+
+        assertTrue(statsManager.getEventManager().getEventHandlers().containsKey(key));
+
+        StatsSession oldSession = handle.getTracker().getSession();
+        handle.release();
+
+        assertFalse(statsManager.getEventManager().getEventHandlers().containsKey(key));
+
+        // Without events, a released handle must not keep a stale session
+        statsManager.getSessionManager().remove(key);
+        handle.getTracker().track().commit();
+
+        StatsSession newSession = statsManager.getSessionManager().getSession(key);
+        assertNotSame(oldSession, newSession);
+        assertEquals(1, newSession.getCommits());
+    }
+}
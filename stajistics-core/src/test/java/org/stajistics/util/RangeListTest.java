@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -183,4 +184,99 @@ public class RangeListTest {
 
         }
     }
+
+    private static int linearIndexOfRangeContaining(final List<Range> ranges,
+                                                    final boolean exclusiveRangeEnd,
+                                                    final double value,
+                                                    final int fromIndex) {
+        for (int i = Math.max(fromIndex, 0); i < ranges.size(); i++) {
+            if (ranges.get(i).contains(value, exclusiveRangeEnd)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void assertMatchesLinearScan(final List<Range> ranges,
+                                                final boolean exclusiveRangeEnd,
+                                                final double[] values) {
+        final RangeList rl = new RangeList(ranges, exclusiveRangeEnd);
+
+        for (double value : values) {
+            for (int fromIndex = 0; fromIndex <= ranges.size(); fromIndex++) {
+                assertEquals("ranges: " + ranges + ", exclusive: " + exclusiveRangeEnd +
+                             ", value: " + value + ", fromIndex: " + fromIndex,
+                             linearIndexOfRangeContaining(ranges, exclusiveRangeEnd, value, fromIndex),
+                             rl.indexOfRangeContaining(value, fromIndex));
+            }
+            assertEquals(linearIndexOfRangeContaining(ranges, exclusiveRangeEnd, value, 0) != -1,
+                         rl.contains(value));
+        }
+    }
+
+    private static double[] probeValues(final List<Range> ranges) {
+        List<Double> values = new ArrayList<Double>();
+        for (Range range : ranges) {
+            for (double bound : new double[] { range.getBegin(), range.getEnd() }) {
+                values.add(bound);
+                values.add(bound - 0.5);
+                values.add(bound + 0.5);
+                values.add(Math.nextUp(bound));
+                values.add(-Math.nextUp(-bound));
+            }
+        }
+        values.add(-0.0);
+        values.add(Double.NEGATIVE_INFINITY);
+        values.add(Double.POSITIVE_INFINITY);
+
+        double[] result = new double[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+
+    @Test
+    public void testIndexOfRangeContainingMatchesLinearScan() {
+        final Random random = new Random(42);
+
+        for (int n = 0; n < 200; n++) {
+            final int rangeCount = 1 + random.nextInt(8);
+            final List<Range> ranges = new ArrayList<Range>(rangeCount);
+            for (int i = 0; i < rangeCount; i++) {
+                double begin = random.nextInt(20) - 5;
+                double end = begin + random.nextInt(6);
+                ranges.add(new Range(begin, end));
+            }
+
+            final double[] values = probeValues(ranges);
+            assertMatchesLinearScan(ranges, true, values);
+            assertMatchesLinearScan(ranges, false, values);
+        }
+    }
+
+    @Test
+    public void testIndexOfRangeContainingUniform() {
+        final RangeList.Builder builder = RangeList.build().addBeginningRange(0);
+        for (int i = 0; i < 40; i++) {
+            builder.addRange(i * 0.1, (i + 1) * 0.1);
+        }
+        builder.addEndingRange(40 * 0.1);
+
+        final List<Range> ranges = builder.rangeList().getRanges();
+        final double[] values = probeValues(ranges);
+
+        assertMatchesLinearScan(ranges, true, values);
+        assertMatchesLinearScan(ranges, false, values);
+    }
+
+    @Test
+    public void testIndexOfRangeContainingNestedRanges() {
+        final List<Range> ranges = Arrays.asList(new Range(5, 10),
+                                                 new Range(1, 20),
+                                                 new Range(7, 8));
+
+        assertMatchesLinearScan(ranges, true, probeValues(ranges));
+        assertMatchesLinearScan(ranges, false, probeValues(ranges));
+    }
 }
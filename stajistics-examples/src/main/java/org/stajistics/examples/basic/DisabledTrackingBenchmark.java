@@ -0,0 +1,81 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.examples.basic;
+
+import org.stajistics.Stats;
+import org.stajistics.StatsFactory;
+import org.stajistics.StatsManager;
+import org.stajistics.tracker.span.SpanTracker;
+
+
+/**
+ * Measures the cost of an instrumented call site when statistics collection is
+ * enabled, disabled for the namespace, and disabled for the key name prefix.
+ * Run with <tt>-server</tt>; the figures are averages over all iterations of the
+ * last round, after earlier rounds have warmed up the JIT.
+ *
+ * @author The Stajistics Project
+ */
+public class DisabledTrackingBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 5000000;
+
+    private static final String KEY_NAME = "benchmark.method";
+
+    private final StatsFactory statsFactory = Stats.getFactory(DisabledTrackingBenchmark.class);
+    private final StatsManager statsManager = statsFactory.getManager();
+
+    private long sink;
+
+    private double measure() {
+        double nanosPerCall = 0;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            final long start = System.nanoTime();
+
+            for (int i = 0; i < ITERATIONS; i++) {
+                SpanTracker tracker = statsFactory.track(KEY_NAME);
+                sink += tracker.getStartTime();
+                tracker.commit();
+            }
+
+            nanosPerCall = (System.nanoTime() - start) / (double)ITERATIONS;
+        }
+
+        return nanosPerCall;
+    }
+
+    public void run() {
+        System.out.printf("enabled:                  %6.1f ns/call%n", measure());
+
+        statsManager.getEnablement().disable("benchmark");
+        System.out.printf("key name prefix disabled: %6.1f ns/call%n", measure());
+        statsManager.getEnablement().enable("benchmark");
+
+        statsManager.setEnabled(false);
+        System.out.printf("namespace disabled:       %6.1f ns/call%n", measure());
+
+        // Keep the loop from being optimized away
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    public static void main(final String[] args) {
+        new DisabledTrackingBenchmark().run();
+    }
+
+}
@@ -0,0 +1,114 @@
+/* Copyright 2009 - 2010 The Stajistics Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.stajistics.examples.basic;
+
+import org.stajistics.SimpleStatsKey;
+import org.stajistics.StatsKey;
+import org.stajistics.event.EventManager;
+import org.stajistics.event.SynchronousEventManager;
+import org.stajistics.session.CompactConcurrentSession;
+import org.stajistics.session.ConcurrentSession;
+import org.stajistics.session.StatsSession;
+import org.stajistics.session.recorder.CompactDistributionDataRecorder;
+import org.stajistics.session.recorder.DataRecorder;
+import org.stajistics.session.recorder.DistributionDataRecorder;
+
+
+/**
+ * Measures the heap retained per session by {@link ConcurrentSession} and
+ * {@link CompactConcurrentSession}, with and without a {@link DistributionDataRecorder}, or
+ * the {@link CompactDistributionDataRecorder} that compact sessions use in its place.
+ * A large number of sessions sharing one key and one event manager is created, and the
+ * growth of the used heap, after forcing garbage collection, is divided by their count.
+ * The figures depend on the JVM, so note its vendor, version, and whether compressed
+ * oops are in use when quoting them.
+ *
+ * @author The Stajistics Project
+ */
+public class SessionFootprint {
+
+    private static final int SESSIONS = 200000;
+
+    private final StatsKey key = new SimpleStatsKey("footprint", "footprint", null);
+    private final EventManager eventManager = new SynchronousEventManager();
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+
+        // Repeat until the figure settles, as a single System.gc() may be incomplete
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+
+        return used;
+    }
+
+    private StatsSession createSession(final boolean compact,
+                                       final boolean distribution) {
+        if (compact) {
+            final DataRecorder[] dataRecorders = distribution ?
+                new DataRecorder[] { new CompactDistributionDataRecorder() } : new DataRecorder[0];
+            return new CompactConcurrentSession(key, eventManager, dataRecorders);
+        }
+
+        final DataRecorder[] dataRecorders = distribution ?
+            new DataRecorder[] { new DistributionDataRecorder() } : new DataRecorder[0];
+        return new ConcurrentSession(key, eventManager, dataRecorders);
+    }
+
+    private long measure(final boolean compact,
+                         final boolean distribution) {
+        final StatsSession[] sessions = new StatsSession[SESSIONS];
+
+        final long before = usedHeap();
+
+        for (int i = 0; i < SESSIONS; i++) {
+            sessions[i] = createSession(compact, distribution);
+        }
+
+        final long after = usedHeap();
+
+        // Keep the sessions reachable until measured
+        if (sessions[SESSIONS - 1] == null) {
+            throw new IllegalStateException();
+        }
+
+        return (after - before) / SESSIONS;
+    }
+
+    public void run() {
+        // Load and initialize the classes involved before measuring
+        measure(false, true);
+        measure(true, true);
+
+        System.out.printf("%-42s %6s%n", "session", "bytes");
+        System.out.printf("%-42s %6d%n", "ConcurrentSession", measure(false, false));
+        System.out.printf("%-42s %6d%n", "CompactConcurrentSession", measure(true, false));
+        System.out.printf("%-42s %6d%n", "ConcurrentSession + Distribution", measure(false, true));
+        System.out.printf("%-42s %6d%n", "CompactConcurrentSession + Distribution", measure(true, true));
+    }
+
+    public static void main(final String[] args) {
+        new SessionFootprint().run();
+    }
+
+}
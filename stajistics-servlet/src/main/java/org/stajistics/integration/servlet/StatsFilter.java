@@ -33,8 +33,11 @@ import org.slf4j.LoggerFactory;
 import org.stajistics.Stats;
 import org.stajistics.StatsFactory;
 import org.stajistics.StatsKey;
+import org.stajistics.StatsKeyTemplate;
 import org.stajistics.configuration.StatsConfig;
 import org.stajistics.configuration.StatsConfigBuilder;
+import org.stajistics.session.StatsSession;
+import org.stajistics.session.recorder.TopKDataRecorder;
 import org.stajistics.tracker.incident.DefaultIncidentTracker;
 import org.stajistics.tracker.incident.IncidentTracker;
 import org.stajistics.tracker.span.SpanTracker;
@@ -58,6 +61,7 @@ public class StatsFilter implements Filter {
     static final String INIT_PARAM_TRACK_REQUEST_STREAM = "trackRequestStream";
     static final String INIT_PARAM_TRACK_RESPONSE_STREAM = "trackResponseStream";
     static final String INIT_PARAM_TRACK_EXCEPTION = "trackException";
+    static final String INIT_PARAM_TOP_K = "topK";
 
     static final String KEY_NAME_SUFFIX_REQUEST_URI = "requestURI";
     static final String KEY_NAME_SUFFIX_REQUEST_STREAM = "requestStream";
@@ -76,9 +80,20 @@ public class StatsFilter implements Filter {
     private String[] bindParams;
     private String[] bindHeaders;
 
+    // Top-K mode: one session per binding rather than per bound value
+    private int topK;
+    private StatsKey[] bindParamTopKKeys;
+    private StatsKey[] bindHeaderTopKKeys;
+
+    // Otherwise one session per bound value
+    private StatsKeyTemplate[] bindParamKeyTemplates;
+    private StatsKeyTemplate[] bindHeaderKeyTemplates;
+
     private StatsKey exceptionKey;
     private StatsKey requestURIKey;
     private StatsKey responseCodeKey;
+    private StatsKeyTemplate requestURIKeyTemplate;
+    private StatsKeyTemplate responseCodeKeyTemplate;
     private StatsKey requestStreamKey;
     private StatsKey responseStreamKey;
 
@@ -103,12 +118,34 @@ public class StatsFilter implements Filter {
         bindParams = parseBindings(config, INIT_PARAM_BIND_PARAMS);
         bindHeaders = parseBindings(config, INIT_PARAM_BIND_HEADERS);
 
+        // Top-K bindings
+        String topKString = config.getInitParameter(INIT_PARAM_TOP_K);
+        if (topKString != null) {
+            try {
+                topK = Integer.parseInt(topKString.trim());
+            } catch (NumberFormatException e) {
+                throw new ServletException("Invalid " + INIT_PARAM_TOP_K + " init-param: " + topKString, e);
+            }
+        }
+        if (topK > 0) {
+            bindParamTopKKeys = createTopKKeys(bindParams, KEY_ATTR_BINDING_PARAM);
+            bindHeaderTopKKeys = createTopKKeys(bindHeaders, KEY_ATTR_BINDING_HEADER);
+        } else {
+            bindParamKeyTemplates = createKeyTemplates(bindParams, KEY_ATTR_BINDING_PARAM);
+            bindHeaderKeyTemplates = createKeyTemplates(bindHeaders, KEY_ATTR_BINDING_HEADER);
+        }
+
         // Request URI
         boolean requestURI = Boolean.parseBoolean(config.getInitParameter(INIT_PARAM_TRACK_REQUEST_URI));
         if (requestURI) {
         	requestURIKey = key.buildCopy()
         					   .withNameSuffix(KEY_NAME_SUFFIX_REQUEST_URI)
         					   .newKey();
+        	if (topK > 0) {
+        		configureTopK(requestURIKey);
+        	} else {
+        		requestURIKeyTemplate = new StatsKeyTemplate(statsFactory, requestURIKey, KEY_ATTR_REQUEST_URI);
+        	}
         }
 
         // Request stream
@@ -134,6 +171,7 @@ public class StatsFilter implements Filter {
                                  .withNameSuffix(KEY_NAME_SUFFIX_RESPONSE_CODE)
                                  .newKey();
             configureIncidentTracker(responseCodeKey);
+            responseCodeKeyTemplate = new StatsKeyTemplate(statsFactory, responseCodeKey, "code");
         }
 
         // Exceptions
@@ -165,6 +203,67 @@ public class StatsFilter implements Filter {
         newConfigBuilder.setConfigFor(key);
     }
 
+    private StatsKey[] createTopKKeys(final String[] bindings,
+                                      final String binding) {
+        if (bindings == null) {
+            return null;
+        }
+
+        StatsKey[] result = new StatsKey[bindings.length];
+        for (int i = 0; i < bindings.length; i++) {
+            result[i] = key.buildCopy()
+                           .withAttribute(KEY_ATTR_BINDING, binding)
+                           .withAttribute(TopKDataRecorder.KEY_ATTR_TOP_K, bindings[i])
+                           .newKey();
+            configureTopK(result[i]);
+        }
+
+        return result;
+    }
+
+    private StatsKeyTemplate[] createKeyTemplates(final String[] bindings,
+                                                  final String binding) {
+        if (bindings == null) {
+            return null;
+        }
+
+        StatsKey bindingKey = key.buildCopy()
+                                 .withAttribute(KEY_ATTR_BINDING, binding)
+                                 .newKey();
+
+        StatsKeyTemplate[] result = new StatsKeyTemplate[bindings.length];
+        for (int i = 0; i < bindings.length; i++) {
+            result[i] = new StatsKeyTemplate(statsFactory, bindingKey, bindings[i]);
+        }
+
+        return result;
+    }
+
+    private void configureTopK(final StatsKey key) {
+        StatsConfig originalConfig = statsFactory.getManager().getConfigManager().getConfig(key);
+        // Do we have a top-K recorder configured already?
+        if (originalConfig != null
+                && originalConfig.getDataRecorderFactory() instanceof TopKDataRecorder.Factory) {
+            return;
+        }
+
+        StatsConfigBuilder newConfigBuilder = statsFactory.getManager()
+                                                          .getConfigBuilderFactory()
+                                                          .createConfigBuilder(originalConfig);
+        newConfigBuilder.withDataRecorderFactory(new TopKDataRecorder.Factory(topK));
+        newConfigBuilder.setConfigFor(key);
+    }
+
+    private void offerTopK(final StatsKey topKKey,
+                           final String value) {
+        StatsSession session = statsFactory.getManager()
+                                           .getSessionManager()
+                                           .getOrCreateSession(topKKey);
+        if (!TopKDataRecorder.offer(session, value)) {
+            logger.warn("No {} configured for {}", TopKDataRecorder.class.getSimpleName(), topKKey);
+        }
+    }
+
     private String[] parseBindings(final FilterConfig config,
                                    final String initParamName) {
         String[] result = null;
@@ -202,10 +301,13 @@ public class StatsFilter implements Filter {
         keyList.add(key);
 
         if (requestURIKey != null && request instanceof HttpServletRequest) {
-        	keyList.add(requestURIKey.buildCopy()
-        							 .withAttribute(KEY_ATTR_REQUEST_URI, 
-        									        ((HttpServletRequest)request).getRequestURI())
-        							 .newKey());
+            String requestURI = ((HttpServletRequest)request).getRequestURI();
+            if (topK > 0) {
+                keyList.add(requestURIKey);
+                offerTopK(requestURIKey, requestURI);
+            } else {
+                keyList.add(requestURIKeyTemplate.withValue(requestURI));
+            }
         }
         if (bindParams != null) {
             addParamBoundStatsKeys(request, keyList);
@@ -221,14 +323,15 @@ public class StatsFilter implements Filter {
                                         final List<StatsKey> keyList) {
         String paramValue;
 
-        for (String bindParam : bindParams) {
+        for (int i = 0; i < bindParams.length; i++) {
+            String bindParam = bindParams[i];
             paramValue = request.getParameter(bindParam);
-            if (paramValue != null) {
-                StatsKey paramKey = key.buildCopy()
-                                       .withAttribute(KEY_ATTR_BINDING, KEY_ATTR_BINDING_PARAM)
-                                       .withAttribute(bindParam, paramValue)
-                                       .newKey();
-                keyList.add(paramKey);
+            if (paramValue != null && bindParamTopKKeys != null) {
+                keyList.add(bindParamTopKKeys[i]);
+                offerTopK(bindParamTopKKeys[i], paramValue);
+
+            } else if (paramValue != null) {
+                keyList.add(bindParamKeyTemplates[i].withValue(paramValue));
             }
         }
     }
@@ -246,14 +349,15 @@ public class StatsFilter implements Filter {
 
         String headerValue;
 
-        for (String bindHeader : bindHeaders) {
+        for (int i = 0; i < bindHeaders.length; i++) {
+            String bindHeader = bindHeaders[i];
             headerValue = httpRequest.getHeader(bindHeader);
-            if (headerValue != null) {
-                StatsKey headerKey = key.buildCopy()
-                                        .withAttribute(KEY_ATTR_BINDING, KEY_ATTR_BINDING_HEADER)
-                                        .withAttribute(bindHeader, headerValue)
-                                        .newKey();
-                keyList.add(headerKey);
+            if (headerValue != null && bindHeaderTopKKeys != null) {
+                keyList.add(bindHeaderTopKKeys[i]);
+                offerTopK(bindHeaderTopKKeys[i], headerValue);
+
+            } else if (headerValue != null) {
+                keyList.add(bindHeaderKeyTemplates[i].withValue(headerValue));
             }
         }
     }
@@ -301,9 +405,7 @@ public class StatsFilter implements Filter {
 
             if (response != null && response.getClass() == StatsHttpServletResponse.class) {
                 StatsHttpServletResponse statsResponse = (StatsHttpServletResponse) response;
-                statsFactory.incident(responseCodeKey.buildCopy()
-                                                     .withAttribute("code", statsResponse.getStatus())
-                                                     .newKey());
+                statsFactory.incident(responseCodeKeyTemplate.withValue(statsResponse.getStatus()));
             }
 
         } catch (Throwable t) {
@@ -15,6 +15,7 @@
 package org.stajistics.integration.servlet;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -28,6 +29,8 @@ import org.stajistics.StatsFactory;
 import org.stajistics.StatsKey;
 import org.stajistics.bootstrap.DefaultStatsManagerFactory;
 import org.stajistics.session.StatsSession;
+import org.stajistics.session.recorder.DataRecorder;
+import org.stajistics.session.recorder.TopKDataRecorder;
 
 /**
  *
@@ -124,6 +127,50 @@ public class StatsFilterTest {
         assertEquals(1, headerSession.getCommits());
     }
 
+    @Test
+    public void testBindParametersTopK() throws Exception {
+        StatsKey key = statsFactory.newKey("test");
+        StatsKey topKKey = key.buildCopy()
+                              .withAttribute(StatsFilter.KEY_ATTR_BINDING, StatsFilter.KEY_ATTR_BINDING_PARAM)
+                              .withAttribute(TopKDataRecorder.KEY_ATTR_TOP_K, "user")
+                              .newKey();
+
+        config.addInitParameter(StatsFilter.INIT_PARAM_KEY_NAME, key.getName());
+        config.addInitParameter(StatsFilter.INIT_PARAM_BIND_PARAMS, "user");
+        config.addInitParameter(StatsFilter.INIT_PARAM_TOP_K, "10");
+        statsFilter.init(config);
+
+        String[] users = { "alice", "bob", "alice" };
+        for (String user : users) {
+            req = new MockHttpServletRequest("GET", "/");
+            req.addParameter("user", user);
+            chain = new MockFilterChain();
+            statsFilter.doFilter(req, res, chain);
+        }
+
+        StatsSession topKSession = statsFactory.getManager().getSessionManager().getSession(topKKey);
+
+        assertEquals(3, topKSession.getHits());
+        assertEquals(3, topKSession.getCommits());
+
+        TopKDataRecorder.TopK topK = null;
+        for (DataRecorder dataRecorder : topKSession.getDataRecorders()) {
+            if (dataRecorder instanceof TopKDataRecorder) {
+                topK = ((TopKDataRecorder) dataRecorder).getTopK();
+            }
+        }
+
+        assertEquals(3, topK.getTotal());
+        assertEquals("alice", topK.getEntries().get(0).getItem());
+        assertEquals(2, topK.getEntries().get(0).getCount());
+
+        StatsKey valueKey = key.buildCopy()
+                               .withAttribute(StatsFilter.KEY_ATTR_BINDING, StatsFilter.KEY_ATTR_BINDING_PARAM)
+                               .withAttribute("user", "alice")
+                               .newKey();
+        assertNull(statsFactory.getManager().getSessionManager().getSession(valueKey));
+    }
+
     // TODO: testExceptionIncidents
 
     // TODO: testResponseCodes